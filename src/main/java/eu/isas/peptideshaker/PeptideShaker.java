@@ -47,6 +47,7 @@ import eu.isas.peptideshaker.ptm.PtmScorer;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import eu.isas.peptideshaker.scoring.psm_scoring.BestMatchSelection;
 import eu.isas.peptideshaker.scoring.psm_scoring.PsmScorer;
+import eu.isas.peptideshaker.utils.BoundedExecutor;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import eu.isas.peptideshaker.utils.Metrics;
 import eu.isas.peptideshaker.validation.MatchesValidator;
@@ -58,6 +59,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class will be responsible for the identification import and the
@@ -269,6 +271,41 @@ public class PeptideShaker {
             ProcessingPreferences processingPreferences, SpectrumCountingPreferences spectrumCountingPreferences, ProjectDetails projectDetails)
             throws Exception {
 
+        BoundedExecutor executor = new BoundedExecutor(processingPreferences.getnThreads());
+        try {
+            processIdentifications(inputMap, proteinCount, waitingHandler, exceptionHandler, identificationParameters, processingPreferences,
+                    spectrumCountingPreferences, projectDetails, executor);
+        } finally {
+            // let the tasks submitted before a cancelation or an error stop
+            executor.shutdown();
+            executor.awaitTermination(7, TimeUnit.DAYS);
+        }
+    }
+
+    /**
+     * This method processes the identifications and fills the PeptideShaker
+     * maps. The PSM scoring, PTM scoring and validation tasks of all spectrum
+     * files are run on the given executor.
+     *
+     * @param inputMap the input map
+     * @param proteinCount map of proteins found several times with the number
+     * of times they appeared as first hit
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     * @param identificationParameters the identification parameters
+     * @param processingPreferences the processing preferences
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param projectDetails the project details
+     * @param executor the executor shared by the processing steps
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * loading the identification files
+     */
+    private void processIdentifications(InputMap inputMap, HashMap<String, Integer> proteinCount, WaitingHandler waitingHandler,
+            ExceptionHandler exceptionHandler, IdentificationParameters identificationParameters,
+            ProcessingPreferences processingPreferences, SpectrumCountingPreferences spectrumCountingPreferences, ProjectDetails projectDetails,
+            BoundedExecutor executor) throws Exception {
+
         Identification identification = experiment.getAnalysisSet(sample).getProteomicAnalysis(replicateNumber).getIdentification(IdentificationMethod.MS2_IDENTIFICATION);
         identificationFeaturesGenerator = new IdentificationFeaturesGenerator(identification, identificationParameters, metrics, spectrumCountingPreferences);
 
@@ -290,7 +327,7 @@ public class PeptideShaker {
             PsmScorer psmScorer = new PsmScorer();
 
             waitingHandler.appendReport("Estimating PSM scores.", true, true);
-            psmScorer.estimateIntermediateScores(identification, inputMap, processingPreferences, identificationParameters, waitingHandler, exceptionHandler);
+            psmScorer.estimateIntermediateScores(identification, inputMap, executor, identificationParameters, waitingHandler, exceptionHandler);
 
             if (psmScoringPreferences.isTargetDecoyNeededForPsmScoring(usedAlgorithms)) {
                 if (sequenceFactory.concatenatedTargetDecoy()) {
@@ -359,7 +396,7 @@ public class PeptideShaker {
         }
         report += ")";
         waitingHandler.appendReport(report, true, true);
-        ptmScorer.scorePsmPtms(identification, waitingHandler, exceptionHandler, identificationParameters, metrics, processingPreferences);
+        ptmScorer.scorePsmPtms(identification, waitingHandler, exceptionHandler, identificationParameters, metrics, executor);
         waitingHandler.increasePrimaryProgressCounter();
         if (waitingHandler.isRunCanceled()) {
             return;
@@ -384,7 +421,7 @@ public class PeptideShaker {
 
         if (ptmScoringPreferences.getAlignNonConfidentPTMs()) {
             waitingHandler.appendReport("Resolving peptide inference issues.", true, true);
-            ptmScorer.peptideInference(identification, identificationParameters, waitingHandler);
+            ptmScorer.peptideInference(identification, identificationParameters, waitingHandler, exceptionHandler, executor);
             waitingHandler.increasePrimaryProgressCounter();
             if (waitingHandler.isRunCanceled()) {
                 return;
@@ -479,7 +516,7 @@ public class PeptideShaker {
         } else {
             waitingHandler.appendReport("No decoy sequences found. Impossible to estimate FDRs.", true, true);
         }
-        matchesValidator.validateIdentifications(identification, metrics, geneMaps, waitingHandler, exceptionHandler, identificationParameters, identificationFeaturesGenerator, inputMap, spectrumCountingPreferences, processingPreferences);
+        matchesValidator.validateIdentifications(identification, metrics, geneMaps, waitingHandler, exceptionHandler, identificationParameters, identificationFeaturesGenerator, inputMap, spectrumCountingPreferences, executor);
         waitingHandler.increasePrimaryProgressCounter();
         metrics.clearSpectrumKeys();
         if (waitingHandler.isRunCanceled()) {
@@ -500,6 +537,18 @@ public class PeptideShaker {
             return;
         }
 
+        waitingHandler.appendReport("Computing protein features.", true, true);
+        identificationFeaturesGenerator.computeProteinFeatures(waitingHandler, exceptionHandler, executor);
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        waitingHandler.appendReport("Computing QC distributions.", true, true);
+        identificationFeaturesGenerator.computeQCDistributions(waitingHandler, exceptionHandler, executor);
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
         projectCreationDuration.end();
         report = "Identification processing completed (" + projectCreationDuration.toString() + ").";
 
@@ -34,6 +34,7 @@ import eu.isas.peptideshaker.export.ProjectExport;
 import eu.isas.peptideshaker.utils.CpsParent;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
+import eu.isas.peptideshaker.utils.ProjectArchive;
 import eu.isas.peptideshaker.utils.Properties;
 import eu.isas.peptideshaker.utils.PsZipUtils;
 import eu.isas.peptideshaker.utils.Tips;
@@ -703,6 +704,11 @@ public class PeptideShakerCLI extends CpsParent implements Callable {
             processingPreferences.setnThreads(nThreads);
         }
 
+        // set the output format
+        ProjectArchive.setCompression(cliInputBean.isOutputCompression());
+        ProjectArchive.setTarMode(cliInputBean.isOutputTar());
+        ProjectArchive.setnThreads(processingPreferences.getnThreads());
+
         // set up the shotgun protocol
         shotgunProtocol = ShotgunProtocol.inferProtocolFromSearchSettings(searchParameters);
 
@@ -81,6 +81,16 @@ public class PeptideShakerCLIInputBean {
      * The number of threads to use.
      */
     private Integer nThreads = null;
+    /**
+     * Boolean indicating whether the files saved in the output file should be
+     * compressed.
+     */
+    private boolean outputCompression = false;
+    /**
+     * Boolean indicating whether the output file should be saved in the tar
+     * format.
+     */
+    private boolean outputTar = true;
 
     /**
      * Construct a PeptideShakerCLIInputBean from an Apache CLI instance.
@@ -126,6 +136,20 @@ public class PeptideShakerCLIInputBean {
             nThreads = new Integer(aLine.getOptionValue(PeptideShakerCLIParams.THREADS.id));
         }
 
+        // output format
+        if (aLine.hasOption(PeptideShakerCLIParams.OUTPUT_COMPRESSION.id)) {
+            String option = aLine.getOptionValue(PeptideShakerCLIParams.OUTPUT_COMPRESSION.id);
+            if (option.trim().equals("1")) {
+                outputCompression = true;
+            }
+        }
+        if (aLine.hasOption(PeptideShakerCLIParams.OUTPUT_TAR.id)) {
+            String option = aLine.getOptionValue(PeptideShakerCLIParams.OUTPUT_TAR.id);
+            if (option.trim().equals("0")) {
+                outputTar = false;
+            }
+        }
+
         followUpCLIInputBean = new FollowUpCLIInputBean(aLine);
         reportCLIInputBean = new ReportCLIInputBean(aLine);
         mzidCLIInputBean = new MzidCLIInputBean(aLine);
@@ -385,6 +409,27 @@ public class PeptideShakerCLIInputBean {
         return nThreads;
     }
 
+    /**
+     * Indicates whether the files saved in the output file should be
+     * compressed.
+     *
+     * @return a boolean indicating whether the files saved in the output file
+     * should be compressed
+     */
+    public boolean isOutputCompression() {
+        return outputCompression;
+    }
+
+    /**
+     * Indicates whether the output file should be saved in the tar format.
+     *
+     * @return a boolean indicating whether the output file should be saved in
+     * the tar format
+     */
+    public boolean isOutputTar() {
+        return outputTar;
+    }
+
     /**
      * Verifies the command line start parameters.
      *
@@ -24,7 +24,9 @@ public enum PeptideShakerCLIParams {
     PEPTIDESHAKER_OUTPUT("out", "PeptideShaker output file. Note: if file exists it will be overwritten.", true),
     GUI("gui", "Use a dialog to display the progress (1: true, 0: false, default is '0').", false),
     ZIP("zip", "Exports the entire project as a zip file in the file specified.", false),
-    THREADS("threads", "The number of threads to use. Defaults to the number of available CPUs.", false);
+    THREADS("threads", "The number of threads to use. Defaults to the number of available CPUs.", false),
+    OUTPUT_COMPRESSION("output_compression", "Compresses the files saved in the PeptideShaker output file (1: true, 0: false, default is '0').", false),
+    OUTPUT_TAR("output_tar", "Saves the PeptideShaker output file in the tar format readable by older versions of PeptideShaker (1: true, 0: false, default is '1'). When set to 0 the project is saved in a container written and opened in parallel.", false);
 
     /**
      * Short Id for the CLI parameter.
@@ -108,6 +110,8 @@ public enum PeptideShakerCLIParams {
 
         output += "\n\nOptional Export Parameters:\n\n";
         output += "-" + String.format(formatter, ZIP.id) + " " + ZIP.description + "\n";
+        output += "-" + String.format(formatter, OUTPUT_COMPRESSION.id) + " " + OUTPUT_COMPRESSION.description + "\n";
+        output += "-" + String.format(formatter, OUTPUT_TAR.id) + " " + OUTPUT_TAR.description + "\n";
 
         output += "\n\nOptional Log Folder:\n\n";
         output += "-" + String.format(formatter, LOG.id) + " " + LOG.description + "\n";
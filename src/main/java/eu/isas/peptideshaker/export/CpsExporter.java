@@ -19,6 +19,7 @@ import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
 import eu.isas.peptideshaker.utils.CpsParent;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesCache;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.ProjectArchive;
 import java.io.*;
 import java.sql.SQLException;
 import java.util.HashSet;
@@ -106,7 +107,7 @@ public class CpsExporter {
                 ExperimentIO.save(experimentFile, experiment);
             }
 
-            // tar everything in the current cps file
+            // save everything in the current cps file
             if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
                 File logFolder = new File(objectsDB.getPath(), "log");
                 HashSet<String> exceptions = new HashSet<String>(1);
@@ -116,7 +117,11 @@ public class CpsExporter {
                         exceptions.add(file.getAbsolutePath());
                     }
                 }
-                TarUtils.tarFolderContent(dbFolder, destinationFile, exceptions, waitingHandler);
+                if (ProjectArchive.isTarMode()) {
+                    TarUtils.tarFolderContent(dbFolder, destinationFile, exceptions, waitingHandler);
+                } else {
+                    ProjectArchive.archiveFolderContent(dbFolder, destinationFile, exceptions, waitingHandler);
+                }
             }
 
         } finally {
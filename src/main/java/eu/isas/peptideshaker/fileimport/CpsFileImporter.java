@@ -9,6 +9,7 @@ import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.io.compression.TarUtils;
 import eu.isas.peptideshaker.parameters.PeptideShakerSettings;
 import eu.isas.peptideshaker.utils.CpsParent;
+import eu.isas.peptideshaker.utils.ProjectArchive;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -43,15 +44,21 @@ public class CpsFileImporter {
      * experiment data
      * @throws org.apache.commons.compress.archivers.ArchiveException exception
      * thrown whenever an error occurred while untaring the file
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred while extracting the file
      */
-    public CpsFileImporter(File cpsFile, File dbFolder, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, ClassNotFoundException, ArchiveException {
+    public CpsFileImporter(File cpsFile, File dbFolder, WaitingHandler waitingHandler) throws FileNotFoundException, IOException, ClassNotFoundException, ArchiveException, InterruptedException {
 
         if (waitingHandler != null) {
             waitingHandler.resetSecondaryProgressCounter();
             waitingHandler.setMaxSecondaryProgressCounter(100);
         }
 
-        TarUtils.extractFile(cpsFile, dbFolder, waitingHandler);
+        if (ProjectArchive.isProjectArchive(cpsFile)) {
+            ProjectArchive.extract(cpsFile, dbFolder, waitingHandler);
+        } else {
+            TarUtils.extractFile(cpsFile, dbFolder, waitingHandler);
+        }
 
         File experimentFile = new File(dbFolder, MsExperiment.experimentObjectName);
         experiment = ExperimentIO.loadExperiment(experimentFile);
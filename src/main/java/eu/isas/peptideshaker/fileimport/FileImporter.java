@@ -27,6 +27,7 @@ import com.compomics.util.gui.JOptionEditorPane;
 import eu.isas.peptideshaker.PeptideShaker;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingDialog;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.memory.MemoryConsumptionStatus;
 import com.compomics.util.preferences.GenePreferences;
 import com.compomics.util.preferences.IdentificationParameters;
@@ -37,9 +38,12 @@ import com.compomics.util.preferences.UtilitiesUserPreferences;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences;
 import eu.isas.peptideshaker.protein_inference.PeptideMapper;
+import eu.isas.peptideshaker.protein_inference.ProteinMappingStore;
 import eu.isas.peptideshaker.protein_inference.TagMapper;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
+import eu.isas.peptideshaker.utils.BoundedExecutor;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.PackedSequenceStore;
 import org.xml.sax.SAXException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
@@ -49,6 +53,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This class is responsible for the import of identifications.
@@ -163,12 +168,14 @@ public class FileImporter {
      * allowing canceling the import
      * @param exceptionHandler handler for exceptions
      * @param fastaFile FASTA file to process
+     * @param nThreads the number of threads to use
      */
     public void importSequences(SequenceMatchingPreferences sequenceMatchingPreferences, SearchParameters searchParameters, PeptideVariantsPreferences peptideVariantsPreferences, WaitingHandler waitingHandler,
-            ExceptionHandler exceptionHandler, File fastaFile) {
+            ExceptionHandler exceptionHandler, File fastaFile, int nThreads) {
 
         try {
             waitingHandler.appendReport("Importing sequences from " + fastaFile.getName() + ".", true, true);
+            PackedSequenceStore.clear();
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
             sequenceFactory.loadFastaFile(fastaFile, waitingHandler);
 
@@ -192,14 +199,25 @@ public class FileImporter {
             }
             long availableCachSize = 1048576l * memoryPreference / 112; // 112 is the size taken by one protein
             availableCachSize *= 0.75;
-            if (availableCachSize > nSequences) {
+            boolean fitsInCache = availableCachSize > nSequences;
+            if (fitsInCache) {
                 availableCachSize = nSequences;
             } else {
                 waitingHandler.appendReport("Warning: PeptideShaker cannot load your FASTA file into memory. This will slow down the processing. "
                         + "Note that using large large databases also reduces the search engine efficiency. "
                         + "Try to either (i) use a smaller database, (ii) increase the memory provided to PeptideShaker, or (iii) improve the reading speed by using an SSD disc. "
                         + "(See also http://compomics.github.io/projects/compomics-utilities/wiki/proteininference.html.)", true, true);
+            }
 
+            // pack the sequences in memory-mapped files for the lookups of PeptideShaker, the packed sequences saved by previous runs are reused
+            if (!fitsInCache || PackedSequenceStore.isStoreFolderSet()) {
+                waitingHandler.appendReport("Packing the protein sequences.", true, true);
+                PackedSequenceStore packedSequenceStore = PackedSequenceStore.getStore(nThreads, waitingHandler, exceptionHandler);
+                if (waitingHandler.isRunCanceled()) {
+                    return;
+                }
+                PackedSequenceStore.setSequenceStore(packedSequenceStore);
+                waitingHandler.setSecondaryProgressCounterIndeterminate(true);
             }
             int cacheSize = (int) availableCachSize;
             sequenceFactory.setnCache(cacheSize);
@@ -241,6 +259,11 @@ public class FileImporter {
             e.printStackTrace();
             waitingHandler.setRunCanceled();
             waitingHandler.appendReport("An error occurred while loading " + fastaFile + ": " + e.getMessage(), true, true);
+        } catch (TimeoutException e) {
+            System.err.println("An error occurred while loading " + fastaFile + ".");
+            e.printStackTrace();
+            waitingHandler.setRunCanceled();
+            waitingHandler.appendReport("An error occurred while loading " + fastaFile + ": " + e.getMessage(), true, true);
         } catch (IllegalArgumentException e) {
             System.err.println("An error occurred while loading " + fastaFile + ".");
             e.printStackTrace();
@@ -344,6 +367,25 @@ public class FileImporter {
          * A tag to protein mapper.
          */
         private TagMapper tagMapper = null;
+        /**
+         * The store of peptide to protein mappings reused across projects,
+         * null if not used.
+         */
+        private ProteinMappingStore proteinMappingStore = null;
+        /**
+         * The executor used to map and import the matches.
+         */
+        private BoundedExecutor importExecutor = null;
+        /**
+         * The thread importing the sequences while the identification files
+         * are parsed, null if not running.
+         */
+        private Thread sequencesImportThread = null;
+        /**
+         * The waiting handler of the import of the sequences, null if not
+         * running.
+         */
+        private SequencesImportWaitingHandler sequencesWaitingHandler = null;
         /**
          * List of one hit wonders.
          */
@@ -439,20 +481,11 @@ public class FileImporter {
         public int importFiles() {
 
             try {
-                importSequences(identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getSearchParameters(), identificationParameters.getPeptideVariantsPreferences(), waitingHandler, exceptionHandler,
-                        identificationParameters.getProteinInferencePreferences().getProteinSequenceDatabase());
+                // the sequences are imported while the identification files are parsed
+                startSequencesImport();
 
-                if (waitingHandler.isRunCanceled()) {
-                    return 1;
-                }
-
-                GenePreferences genePreferences = identificationParameters.getGenePreferences();
-                if (genePreferences.getUseGeneMapping()) {
-                    waitingHandler.setSecondaryProgressCounterIndeterminate(true);
-                    waitingHandler.appendReport("Importing gene mappings.", true, true);
-                    importGenes();
-                } else {
-                    peptideShaker.setGeneMaps(new GeneMaps());
+                if (peptideMapper != null && ProteinMappingStore.isEnabled()) {
+                    openProteinMappingStore();
                 }
 
                 if (waitingHandler.isRunCanceled()) {
@@ -472,6 +505,8 @@ public class FileImporter {
 
                     waitingHandler.appendReport("Reading identification files.", true, true);
 
+                    importExecutor = new BoundedExecutor(processingPreferences.getnThreads());
+
                     for (File idFile : idFiles) {
                         importPsms(idFile);
 
@@ -485,11 +520,33 @@ public class FileImporter {
                         }
                     }
 
+                    waitForSequencesImport();
+
+                    if (waitingHandler.isRunCanceled()) {
+                        identification.close();
+                        return 1;
+                    }
+
+                    GenePreferences genePreferences = identificationParameters.getGenePreferences();
+                    if (genePreferences.getUseGeneMapping()) {
+                        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+                        waitingHandler.appendReport("Importing gene mappings.", true, true);
+                        importGenes();
+                    } else {
+                        peptideShaker.setGeneMaps(new GeneMaps());
+                    }
+
+                    if (waitingHandler.isRunCanceled()) {
+                        identification.close();
+                        return 1;
+                    }
+
                     while (!missingMgfFiles.isEmpty()) {
                         if (hasGUI) {
                             new MgfFilesNotFoundDialog((WaitingDialog) waitingHandler, missingMgfFiles);
                             if (waitingHandler.isRunCanceled()) {
                                 identification.close();
+                                cancelSequencesImport();
                                 sequenceFactory.clearFactory();
                                 return 1;
                             }
@@ -506,6 +563,7 @@ public class FileImporter {
                             }
                             waitingHandler.appendReport("MGF files missing: " + missingFiles, true, true);
                             identification.close();
+                            cancelSequencesImport();
                             sequenceFactory.clearFactory();
                             return 1;
                         }
@@ -523,11 +581,15 @@ public class FileImporter {
                         }
                         if (waitingHandler.isRunCanceled()) {
                             identification.close();
+                            cancelSequencesImport();
                             sequenceFactory.clearFactory();
                             return 1;
                         }
                     }
 
+                    shutdownImportExecutor();
+                    closeProteinMappingStore();
+
                     // clear the objects not needed anymore
                     singleProteinList.clear();
                     sequenceFactory.emptyCache();
@@ -536,6 +598,7 @@ public class FileImporter {
                         waitingHandler.appendReport("No identifications retained.", true, true);
                         waitingHandler.setRunCanceled();
                         identification.close();
+                        cancelSequencesImport();
                         sequenceFactory.clearFactory();
                         return 1;
                     }
@@ -572,6 +635,7 @@ public class FileImporter {
                 if (identification != null) {
                     try {
                         identification.close();
+                        cancelSequencesImport();
                         sequenceFactory.clearFactory();
                     } catch (Exception e) {
                         e.printStackTrace();
@@ -602,6 +666,7 @@ public class FileImporter {
                 if (identification != null) {
                     try {
                         identification.close();
+                        cancelSequencesImport();
                         sequenceFactory.clearFactory();
                     } catch (Exception ex) {
                         ex.printStackTrace();
@@ -609,11 +674,132 @@ public class FileImporter {
                 }
 
                 return 1;
+            } finally {
+                shutdownImportExecutor();
+                try {
+                    cancelSequencesImport();
+                } catch (InterruptedException e) {
+                    // keep the interruption for the caller of the worker
+                    Thread.currentThread().interrupt();
+                }
             }
 
             return 0;
         }
 
+        /**
+         * Starts the import of the sequences in a separate thread. The
+         * identification files can be parsed in the meantime, the sequences
+         * must be imported before the peptides are mapped to the proteins.
+         * The import has its own waiting handler so that its progress does
+         * not interfere with the progress of the parsing.
+         */
+        private void startSequencesImport() {
+            final SequencesImportWaitingHandler importWaitingHandler = new SequencesImportWaitingHandler(waitingHandler);
+            sequencesWaitingHandler = importWaitingHandler;
+            sequencesImportThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        importSequences(identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getSearchParameters(), identificationParameters.getPeptideVariantsPreferences(), importWaitingHandler, exceptionHandler,
+                                identificationParameters.getProteinInferencePreferences().getProteinSequenceDatabase(), processingPreferences.getnThreads());
+                    } catch (Exception e) {
+                        if (!importWaitingHandler.isRunCanceled()) {
+                            exceptionHandler.catchException(e);
+                            importWaitingHandler.setRunCanceled();
+                        }
+                    }
+                }
+            }, "SequencesImportThread");
+            sequencesImportThread.start();
+        }
+
+        /**
+         * Waits for the import of the sequences to complete, if running. The
+         * progress of the import is displayed on the secondary progress bar
+         * while waiting.
+         *
+         * @throws InterruptedException exception thrown if the thread is
+         * interrupted while waiting
+         */
+        private void waitForSequencesImport() throws InterruptedException {
+            if (sequencesImportThread != null) {
+                if (sequencesImportThread.isAlive()) {
+                    waitingHandler.appendReport("Waiting for the import of the sequences.", true, true);
+                    while (sequencesImportThread.isAlive()) {
+                        sequencesWaitingHandler.displayProgress(waitingHandler);
+                        sequencesImportThread.join(SequencesImportWaitingHandler.REFRESH_INTERVAL);
+                    }
+                    waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+                }
+                sequencesImportThread.join();
+                sequencesImportThread = null;
+                sequencesWaitingHandler = null;
+            }
+        }
+
+        /**
+         * Cancels the import of the sequences, if running, and waits for it to
+         * stop. To be called before clearing the sequence factory.
+         *
+         * @throws InterruptedException exception thrown if the thread is
+         * interrupted while waiting
+         */
+        private void cancelSequencesImport() throws InterruptedException {
+            if (sequencesImportThread != null) {
+                sequencesWaitingHandler.cancelImport();
+                sequencesImportThread.join();
+                sequencesImportThread = null;
+                sequencesWaitingHandler = null;
+            }
+        }
+
+        /**
+         * Shuts down the executor used to import the matches if not done
+         * already.
+         */
+        private void shutdownImportExecutor() {
+            if (importExecutor != null) {
+                importExecutor.shutdownNow();
+                importExecutor = null;
+            }
+        }
+
+        /**
+         * Opens the store of peptide to protein mappings corresponding to the
+         * FASTA file and settings of this project and loads its content in the
+         * peptide mapper. The store is not used if an error occurs.
+         */
+        private void openProteinMappingStore() {
+            try {
+                waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+                waitingHandler.appendReport("Loading the peptide to protein mapping cache.", true, true);
+                ProteinMappingStore store = new ProteinMappingStore(identificationParameters.getProteinInferencePreferences().getProteinSequenceDatabase(), identificationParameters);
+                peptideMapper.setProteinMappingStore(store);
+                proteinMappingStore = store;
+            } catch (IOException e) {
+                waitingHandler.appendReport("Warning: The peptide to protein mapping cache could not be loaded: " + e.getLocalizedMessage(), true, true);
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Closes the store of peptide to protein mappings, if used, and
+         * reports its usage.
+         */
+        private void closeProteinMappingStore() {
+            if (proteinMappingStore != null) {
+                try {
+                    proteinMappingStore.close();
+                    waitingHandler.appendReport(proteinMappingStore.getReport(), true, true);
+                } catch (IOException e) {
+                    waitingHandler.appendReport("Warning: The peptide to protein mapping cache could not be saved: " + e.getLocalizedMessage(), true, true);
+                    e.printStackTrace();
+                }
+                proteinMappingStore = null;
+            }
+        }
+
         /**
          * Establishes a connection to the identification database.
          *
@@ -725,12 +911,18 @@ public class FileImporter {
 
                     if (allLoaded) {
 
+                        // the sequences are needed from here on
+                        waitForSequencesImport();
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+
                         // if any map spectrum sequencing matches on protein sequences
                         if (fileReader.hasDeNovoTags()) {
                             if (tagMapper == null) {
                                 tagMapper = new TagMapper(identificationParameters, exceptionHandler);
                             }
-                            tagMapper.mapTags(fileReader, identification, waitingHandler, processingPreferences.getnThreads());
+                            tagMapper.mapTags(fileReader, identification, waitingHandler, importExecutor);
                         }
 
                         // Batch map the peptides on protein sequences
@@ -742,7 +934,7 @@ public class FileImporter {
                                 waitingHandler.appendReport("Collecting peptides to map.", true, true);
                                 HashMap<String, LinkedList<Peptide>> peptideMap = PeptideMapper.getPeptideMap(fileReader, idFileSpectrumMatches, identification, identificationParameters, waitingHandler);
                                 if (!peptideMapper.isCanceled()) {
-                                    peptideMapper.mapPeptides(peptideMap, processingPreferences.getnThreads(), waitingHandler);
+                                    peptideMapper.mapPeptides(peptideMap, importExecutor, waitingHandler);
                                 }
                                 if (peptideMapper.isCanceled()) {
                                     peptideMap.clear();
@@ -754,6 +946,8 @@ public class FileImporter {
                                     ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(1, null);
                                     sequenceFactory.getDefaultPeptideMapper().emptyCache();
                                 }
+                                // the mappings already stored are not appended again when computed anew
+                                peptideMapper.getProteinMappingCache().clear();
                                 peptideMapper.setCanceled(true);
                             }
                         }
@@ -771,7 +965,7 @@ public class FileImporter {
 
                         PsmImporter psmImporter = new PsmImporter(peptideShaker.getCache(), identificationParameters, processingPreferences, fileReader, idFile, identification,
                                 inputMap, proteinCount, singleProteinList, exceptionHandler);
-                        psmImporter.importPsms(idFileSpectrumMatches, processingPreferences.getnThreads(), waitingHandler);
+                        psmImporter.importPsms(idFileSpectrumMatches, importExecutor, waitingHandler);
 
                         if (waitingHandler.isRunCanceled()) {
                             return;
@@ -1052,4 +1246,135 @@ public class FileImporter {
     public String getJarFilePath() {
         return CompomicsWrapper.getJarFilePath(this.getClass().getResource("FileImporter.class").getPath(), "PeptideShaker");
     }
+
+    /**
+     * Waiting handler of the import of the sequences running next to the
+     * parsing of the identification files. The reports are forwarded to the
+     * waiting handler of the import while the progress is kept apart and
+     * displayed only when the import needs to be waited for. Canceling the
+     * run cancels the import, errors during the import cancel the run.
+     */
+    private static class SequencesImportWaitingHandler extends WaitingHandlerCLIImpl {
+
+        /**
+         * The interval in milliseconds at which the progress is refreshed
+         * while waiting for the import.
+         */
+        public static final long REFRESH_INTERVAL = 500;
+        /**
+         * The waiting handler of the run.
+         */
+        private final WaitingHandler runWaitingHandler;
+        /**
+         * Boolean indicating whether the import of the sequences was canceled.
+         */
+        private volatile boolean importCanceled = false;
+        /**
+         * The progress of the import.
+         */
+        private volatile int progress = 0;
+        /**
+         * The maximal progress of the import.
+         */
+        private volatile int maxProgress = 0;
+        /**
+         * Boolean indicating whether the progress of the import is
+         * indeterminate.
+         */
+        private volatile boolean indeterminate = true;
+
+        /**
+         * Constructor.
+         *
+         * @param runWaitingHandler the waiting handler of the run
+         */
+        public SequencesImportWaitingHandler(WaitingHandler runWaitingHandler) {
+            this.runWaitingHandler = runWaitingHandler;
+        }
+
+        /**
+         * Cancels the import of the sequences without canceling the run.
+         */
+        public void cancelImport() {
+            importCanceled = true;
+        }
+
+        /**
+         * Displays the progress of the import on the secondary progress bar of
+         * the given waiting handler.
+         *
+         * @param waitingHandler the waiting handler
+         */
+        public void displayProgress(WaitingHandler waitingHandler) {
+            int max = maxProgress;
+            if (indeterminate || max <= 0) {
+                waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+            } else {
+                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                waitingHandler.setMaxSecondaryProgressCounter(max);
+                waitingHandler.setSecondaryProgressCounter(Math.min(progress, max));
+            }
+        }
+
+        @Override
+        public boolean isRunCanceled() {
+            return importCanceled || runWaitingHandler.isRunCanceled();
+        }
+
+        @Override
+        public void setRunCanceled() {
+            importCanceled = true;
+            runWaitingHandler.setRunCanceled();
+        }
+
+        @Override
+        public void appendReport(String report, boolean includeDate, boolean addNewLine) {
+            runWaitingHandler.appendReport(report, includeDate, addNewLine);
+        }
+
+        @Override
+        public void appendReportEndLine() {
+            runWaitingHandler.appendReportEndLine();
+        }
+
+        @Override
+        public void setWaitingText(String text) {
+            // the waiting text of the run is kept
+        }
+
+        @Override
+        public void increasePrimaryProgressCounter() {
+            runWaitingHandler.increasePrimaryProgressCounter();
+        }
+
+        @Override
+        public void setSecondaryProgressCounterIndeterminate(boolean indeterminate) {
+            this.indeterminate = indeterminate;
+        }
+
+        @Override
+        public void setMaxSecondaryProgressCounter(int maxProgressValue) {
+            maxProgress = maxProgressValue;
+        }
+
+        @Override
+        public void resetSecondaryProgressCounter() {
+            progress = 0;
+        }
+
+        @Override
+        public synchronized void increaseSecondaryProgressCounter() {
+            progress++;
+        }
+
+        @Override
+        public synchronized void increaseSecondaryProgressCounter(int value) {
+            progress += value;
+        }
+
+        @Override
+        public void setSecondaryProgressCounter(int value) {
+            progress = value;
+        }
+    }
 }
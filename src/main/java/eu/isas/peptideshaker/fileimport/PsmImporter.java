@@ -44,8 +44,10 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import de.proteinms.omxparser.util.OMSSAIdfileReader;
 import de.proteinms.xtandemparser.parser.XTandemIdfileReader;
+import eu.isas.peptideshaker.ptm.PtmTable;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import eu.isas.peptideshaker.scoring.psm_scoring.BestMatchSelection;
+import eu.isas.peptideshaker.utils.BoundedExecutor;
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
@@ -54,8 +56,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 import static eu.isas.peptideshaker.fileimport.FileImporter.PTM_MASS_TOLERANCE;
@@ -194,6 +194,16 @@ public class PsmImporter {
      * The identification parameters.
      */
     private IdentificationParameters identificationParameters;
+    /**
+     * The peptide spectrum annotators used to annotate spectra, one per
+     * thread.
+     */
+    private static final ThreadLocal<PeptideSpectrumAnnotator> peptideSpectrumAnnotators = new ThreadLocal<PeptideSpectrumAnnotator>() {
+        @Override
+        protected PeptideSpectrumAnnotator initialValue() {
+            return new PeptideSpectrumAnnotator();
+        }
+    };
 
     /**
      * Constructor.
@@ -228,10 +238,12 @@ public class PsmImporter {
     }
 
     /**
-     * Imports PSMs.
+     * Imports PSMs. The matches are removed from the list as they are
+     * submitted to the executor, which blocks when too many matches are
+     * waiting for import.
      *
      * @param idFileSpectrumMatches the PSMs to import
-     * @param nThreads the number of threads to use
+     * @param executor the executor to use
      * @param waitingHandler waiting handler to display progress and allow
      * canceling the import
      *
@@ -246,21 +258,15 @@ public class PsmImporter {
      * @throws MzMLUnmarshallerException exception thrown whenever an exception
      * occurred while reading an mzML file
      */
-    public void importPsms(LinkedList<SpectrumMatch> idFileSpectrumMatches, int nThreads, WaitingHandler waitingHandler)
+    public void importPsms(LinkedList<SpectrumMatch> idFileSpectrumMatches, BoundedExecutor executor, WaitingHandler waitingHandler)
             throws IOException, SQLException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
-        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-        while (!idFileSpectrumMatches.isEmpty()) {
+        while (!idFileSpectrumMatches.isEmpty() && !waitingHandler.isRunCanceled()) {
             SpectrumMatch match = idFileSpectrumMatches.pollLast();
             PsmImporterRunnable psmImporterRunnable = new PsmImporterRunnable(match, waitingHandler);
-            pool.submit(psmImporterRunnable);
-            if (waitingHandler.isRunCanceled()) {
-                pool.shutdownNow();
-                return;
-            }
+            executor.submit(psmImporterRunnable);
         }
-        pool.shutdown();
-        if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
+        if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
             throw new InterruptedException("PSM import timed out. Please contact the developers.");
         }
     }
@@ -778,7 +784,7 @@ public class PsmImporter {
      * @param searchParameters the search parameters
      */
     private void initialPtmMapping(Peptide peptide, HashMap<Integer, ArrayList<String>> expectedNames, HashMap<ModificationMatch, ArrayList<String>> modNames, SearchParameters searchParameters) {
-        PtmSettings modificationProfile = searchParameters.getPtmSettings();
+        PtmTable ptmTable = PtmTable.getPtmTable(searchParameters.getPtmSettings());
         int peptideLength = peptide.getSequence().length();
 
         // If a terminal modification cannot be elsewhere lock the terminus
@@ -793,29 +799,17 @@ public class PsmImporter {
                         if (expectedNamesAtSite != null) {
                             ArrayList<String> filteredNamesAtSite = new ArrayList<String>(expectedNamesAtSite.size());
                             for (String ptmName : expectedNamesAtSite) {
-                                PTM ptm = ptmFactory.getPTM(ptmName);
+                                PTM ptm = ptmTable.getPtm(ptmName);
                                 if (Math.abs(ptm.getMass() - refMass) < searchParameters.getFragmentIonAccuracyInDaltons(amountPerAminoAcidResidue * peptideLength)) {
                                     filteredNamesAtSite.add(ptmName);
                                 }
                             }
                             for (String modName : filteredNamesAtSite) {
-                                PTM ptm = ptmFactory.getPTM(modName);
-                                if (ptm.isNTerm()) {
-                                    boolean otherPossibleMod = false;
-                                    for (String tempName : modificationProfile.getAllNotFixedModifications()) {
-                                        if (!tempName.equals(modName)) {
-                                            PTM tempPTM = ptmFactory.getPTM(tempName);
-                                            if (tempPTM.getMass() == ptm.getMass() && !tempPTM.isNTerm()) {
-                                                otherPossibleMod = true;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                    if (!otherPossibleMod) {
-                                        nTermModification = modMatch;
-                                        modMatch.setTheoreticPtm(modName);
-                                        break;
-                                    }
+                                PTM ptm = ptmTable.getPtm(modName);
+                                if (ptm.isNTerm() && !ptmTable.hasSameMassNotNTerm(modName)) {
+                                    nTermModification = modMatch;
+                                    modMatch.setTheoreticPtm(modName);
+                                    break;
                                 }
                             }
                             if (nTermModification != null) {
@@ -835,29 +829,17 @@ public class PsmImporter {
                         if (expectedNamesAtSite != null) {
                             ArrayList<String> filteredNamesAtSite = new ArrayList<String>(expectedNamesAtSite.size());
                             for (String ptmName : expectedNamesAtSite) {
-                                PTM ptm = ptmFactory.getPTM(ptmName);
+                                PTM ptm = ptmTable.getPtm(ptmName);
                                 if (Math.abs(ptm.getMass() - refMass) < searchParameters.getFragmentIonAccuracyInDaltons(amountPerAminoAcidResidue * peptideLength)) {
                                     filteredNamesAtSite.add(ptmName);
                                 }
                             }
                             for (String modName : filteredNamesAtSite) {
-                                PTM ptm = ptmFactory.getPTM(modName);
-                                if (ptm.isCTerm()) {
-                                    boolean otherPossibleMod = false;
-                                    for (String tempName : modificationProfile.getAllNotFixedModifications()) {
-                                        if (!tempName.equals(modName)) {
-                                            PTM tempPTM = ptmFactory.getPTM(tempName);
-                                            if (tempPTM.getMass() == ptm.getMass() && !tempPTM.isCTerm()) {
-                                                otherPossibleMod = true;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                    if (!otherPossibleMod) {
-                                        cTermModification = modMatch;
-                                        modMatch.setTheoreticPtm(modName);
-                                        break;
-                                    }
+                                PTM ptm = ptmTable.getPtm(modName);
+                                if (ptm.isCTerm() && !ptmTable.hasSameMassNotCTerm(modName)) {
+                                    cTermModification = modMatch;
+                                    modMatch.setTheoreticPtm(modName);
+                                    break;
                                 }
                             }
                             if (cTermModification != null) {
@@ -885,7 +867,7 @@ public class PsmImporter {
                         ArrayList<String> filteredNamesAtSite = new ArrayList<String>(expectedNamesAtSite.size());
                         ArrayList<String> modificationAtSite = siteToPtmMap.get(modSite);
                         for (String ptmName : expectedNamesAtSite) {
-                            PTM ptm = ptmFactory.getPTM(ptmName);
+                            PTM ptm = ptmTable.getPtm(ptmName);
                             if (Math.abs(ptm.getMass() - refMass) < searchParameters.getFragmentIonAccuracyInDaltons(amountPerAminoAcidResidue * peptideLength)
                                     && (modificationAtSite == null || !modificationAtSite.contains(ptmName))) {
                                 filteredNamesAtSite.add(ptmName);
@@ -893,7 +875,7 @@ public class PsmImporter {
                         }
                         if (filteredNamesAtSite.size() == 1) {
                             String ptmName = filteredNamesAtSite.get(0);
-                            PTM ptm = ptmFactory.getPTM(ptmName);
+                            PTM ptm = ptmTable.getPtm(ptmName);
                             if (ptm.isNTerm() && nTermModification == null) {
                                 nTermModification = modMatch;
                                 mapped = true;
@@ -922,7 +904,7 @@ public class PsmImporter {
                                 Double minDiff = null;
                                 String bestPtmName = null;
                                 for (String modName : filteredNamesAtSite) {
-                                    PTM ptm = ptmFactory.getPTM(modName);
+                                    PTM ptm = ptmTable.getPtm(modName);
                                     if (ptm.isNTerm() && nTermModification == null) {
                                         double massError = Math.abs(refMass - ptm.getMass());
                                         if (massError <= searchParameters.getFragmentIonAccuracyInDaltons(amountPerAminoAcidResidue * peptideLength)
@@ -947,7 +929,7 @@ public class PsmImporter {
                                 Double minDiff = null;
                                 String bestPtmName = null;
                                 for (String modName : filteredNamesAtSite) {
-                                    PTM ptm = ptmFactory.getPTM(modName);
+                                    PTM ptm = ptmTable.getPtm(modName);
                                     if (ptm.isCTerm() && cTermModification == null) {
                                         double massError = Math.abs(refMass - ptm.getMass());
                                         if (massError <= searchParameters.getFragmentIonAccuracyInDaltons(amountPerAminoAcidResidue * peptideLength)
@@ -973,7 +955,7 @@ public class PsmImporter {
                                 Double minDiff = null;
                                 String bestPtmName = null;
                                 for (String modName : filteredNamesAtSite) {
-                                    PTM ptm = ptmFactory.getPTM(modName);
+                                    PTM ptm = ptmTable.getPtm(modName);
                                     if (!ptm.isCTerm() && !ptm.isNTerm() && modNames.get(modMatch).contains(modName) && !siteToMatchMap.containsKey(modSite)) {
                                         double massError = Math.abs(refMass - ptm.getMass());
                                         if (massError <= searchParameters.getFragmentIonAccuracyInDaltons(amountPerAminoAcidResidue * peptideLength)
@@ -1015,7 +997,7 @@ public class PsmImporter {
                             if (!siteToMatchMap.containsKey(candidateSite)) {
                                 for (String modName : expectedNames.get(candidateSite)) {
                                     if (modNames.get(modMatch).contains(modName)) {
-                                        PTM ptm = ptmFactory.getPTM(modName);
+                                        PTM ptm = ptmTable.getPtm(modName);
                                         if ((!ptm.isCTerm() || cTermModification == null)
                                                 && (!ptm.isNTerm() || nTermModification == null)) {
                                             ArrayList<Integer> ptmSites = remap.get(modSite);
@@ -1180,6 +1162,7 @@ public class PsmImporter {
                     PTM ptm = PTMFactory.getInstance().getPTM("Acetylation of protein N-term");
                     if (!modificationProfile.getRefinementVariableModifications().contains(ptm.getName())) {
                         modificationProfile.addRefinementVariableModification(ptm);
+                        PtmTable.clear();
                     }
                 }
                 String[] pyroMods = {"Pyrolidone from E", "Pyrolidone from Q", "Pyrolidone from carbamidomethylated C"};
@@ -1188,6 +1171,7 @@ public class PsmImporter {
                         if (!modificationProfile.getRefinementVariableModifications().contains(ptmName)) {
                             PTM ptm = PTMFactory.getInstance().getPTM(ptmName);
                             modificationProfile.addRefinementVariableModification(ptm);
+                            PtmTable.clear();
                         }
                     }
                 }
@@ -1389,12 +1373,6 @@ public class PsmImporter {
          */
         private WaitingHandler waitingHandler;
 
-        /**
-         * The peptide spectrum annotator used to annotate spectra for this
-         * thread.
-         */
-        private PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
-
         /**
          * Constructor.
          *
@@ -1412,7 +1390,7 @@ public class PsmImporter {
 
             try {
                 if (!waitingHandler.isRunCanceled()) {
-                    importPsm(spectrumMatch, peptideSpectrumAnnotator, waitingHandler);
+                    importPsm(spectrumMatch, peptideSpectrumAnnotators.get(), waitingHandler);
                 }
             } catch (Exception e) {
                 if (!waitingHandler.isRunCanceled()) {
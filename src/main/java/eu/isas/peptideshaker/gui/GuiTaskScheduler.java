@@ -0,0 +1,252 @@
+package eu.isas.peptideshaker.gui;
+
+import com.compomics.util.waiting.WaitingHandler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.JTabbedPane;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Scheduler running the background tasks of the GUI on a limited number of
+ * threads. Every task has an owner, typically a component of a tab: a new task
+ * replaces the task of the same owner waiting for execution, cancels the task
+ * of the same owner running, and the tasks of an owner are run one at a time.
+ * When a thread is available, the tasks of the tab currently displayed are run
+ * first.
+ *
+ * @author Marc Vaudel
+ */
+public class GuiTaskScheduler {
+
+    /**
+     * The default maximal number of tasks running at the same time.
+     */
+    public static final int DEFAULT_MAX_RUNNING_TASKS = 2;
+    /**
+     * The main GUI, used to report exceptions.
+     */
+    private final PeptideShakerGUI peptideShakerGUI;
+    /**
+     * The index of the tab displayed, updated on the event dispatch thread.
+     */
+    private volatile int selectedTab = -1;
+    /**
+     * The maximal number of tasks running at the same time.
+     */
+    private final int maxRunningTasks;
+    /**
+     * The executor service running the tasks.
+     */
+    private final ExecutorService pool;
+    /**
+     * The tasks waiting for execution in order of submission.
+     */
+    private final ArrayList<GuiTask> pendingTasks = new ArrayList<GuiTask>();
+    /**
+     * The tasks currently running indexed by owner.
+     */
+    private final HashMap<String, GuiTask> runningTasks = new HashMap<String, GuiTask>();
+    /**
+     * The number of tasks currently running.
+     */
+    private int nRunning = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param peptideShakerGUI the main GUI
+     * @param maxRunningTasks the maximal number of tasks running at the same
+     * time
+     */
+    public GuiTaskScheduler(PeptideShakerGUI peptideShakerGUI, int maxRunningTasks) {
+        this.peptideShakerGUI = peptideShakerGUI;
+        this.maxRunningTasks = maxRunningTasks;
+        pool = Executors.newFixedThreadPool(maxRunningTasks, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "GuiTaskThread");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Follows the tab displayed in the given tabbed pane in order to run the
+     * tasks of this tab first. The tab is read on the event dispatch thread
+     * when the selection changes so that the scheduler never accesses Swing
+     * components from other threads.
+     *
+     * @param tabbedPane the tabbed pane containing the tabs
+     */
+    public void setTabbedPane(final JTabbedPane tabbedPane) {
+        selectedTab = tabbedPane.getSelectedIndex();
+        tabbedPane.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                selectedTab = tabbedPane.getSelectedIndex();
+            }
+        });
+    }
+
+    /**
+     * Submits a task for execution. The task of the same owner waiting for
+     * execution, if any, is discarded and its waiting handler notified that
+     * the run is finished. The task of the same owner running, if any, is
+     * notified that its run is canceled through its waiting handler, and the
+     * new task is started once it returns.
+     *
+     * @param owner the owner of the task
+     * @param tabIndex the index of the tab of the task
+     * @param name the name of the task, used as thread name while running
+     * @param waitingHandler the waiting handler displaying the progress of
+     * the task, can be null
+     * @param task the task
+     */
+    public synchronized void submit(String owner, int tabIndex, String name, WaitingHandler waitingHandler, Runnable task) {
+
+        Iterator<GuiTask> iterator = pendingTasks.iterator();
+        while (iterator.hasNext()) {
+            GuiTask pendingTask = iterator.next();
+            if (pendingTask.owner.equals(owner)) {
+                iterator.remove();
+                if (pendingTask.waitingHandler != null) {
+                    pendingTask.waitingHandler.setRunFinished();
+                }
+            }
+        }
+
+        GuiTask runningTask = runningTasks.get(owner);
+        if (runningTask != null && runningTask.waitingHandler != null && runningTask.waitingHandler != waitingHandler) {
+            runningTask.waitingHandler.setRunCanceled();
+        }
+
+        pendingTasks.add(new GuiTask(owner, tabIndex, name, waitingHandler, task));
+        dispatch();
+    }
+
+    /**
+     * Starts pending tasks while threads are available.
+     */
+    private synchronized void dispatch() {
+        while (nRunning < maxRunningTasks) {
+            GuiTask task = getNextTask();
+            if (task == null) {
+                return;
+            }
+            pendingTasks.remove(task);
+            runningTasks.put(task.owner, task);
+            nRunning++;
+            pool.execute(task);
+        }
+    }
+
+    /**
+     * Returns the next task to run, null if none can be run. The first task
+     * of the tab displayed is returned if any, the first task otherwise.
+     * Tasks of owners already running a task are skipped.
+     *
+     * @return the next task to run
+     */
+    private GuiTask getNextTask() {
+        GuiTask result = null;
+        for (GuiTask task : pendingTasks) {
+            if (!runningTasks.containsKey(task.owner)) {
+                if (task.tabIndex == selectedTab) {
+                    return task;
+                }
+                if (result == null) {
+                    result = task;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Releases the thread of a completed task and starts the next tasks.
+     *
+     * @param task the completed task
+     */
+    private synchronized void taskCompleted(GuiTask task) {
+        nRunning--;
+        runningTasks.remove(task.owner);
+        dispatch();
+    }
+
+    /**
+     * Discards the pending tasks and attempts to stop the running tasks.
+     */
+    public synchronized void shutdown() {
+        pendingTasks.clear();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Task submitted to the scheduler.
+     *
+     * @author Marc Vaudel
+     */
+    private class GuiTask implements Runnable {
+
+        /**
+         * The owner of the task.
+         */
+        private final String owner;
+        /**
+         * The index of the tab of the task.
+         */
+        private final int tabIndex;
+        /**
+         * The name of the task.
+         */
+        private final String name;
+        /**
+         * The waiting handler displaying the progress of the task, can be
+         * null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The task to run.
+         */
+        private final Runnable task;
+
+        /**
+         * Constructor.
+         *
+         * @param owner the owner of the task
+         * @param tabIndex the index of the tab of the task
+         * @param name the name of the task
+         * @param waitingHandler the waiting handler displaying the progress of
+         * the task, can be null
+         * @param task the task to run
+         */
+        public GuiTask(String owner, int tabIndex, String name, WaitingHandler waitingHandler, Runnable task) {
+            this.owner = owner;
+            this.tabIndex = tabIndex;
+            this.name = name;
+            this.waitingHandler = waitingHandler;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            Thread thread = Thread.currentThread();
+            String threadName = thread.getName();
+            thread.setName(name);
+            try {
+                task.run();
+            } catch (Exception e) {
+                peptideShakerGUI.catchException(e);
+            } finally {
+                thread.setName(threadName);
+                taskCompleted(this);
+            }
+        }
+    }
+}
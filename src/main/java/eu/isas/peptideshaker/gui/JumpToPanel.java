@@ -3,6 +3,7 @@ package eu.isas.peptideshaker.gui;
 import com.compomics.util.experiment.biology.AminoAcid;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.protein.Header;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
@@ -10,12 +11,15 @@ import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import eu.isas.peptideshaker.parameters.PSParameter;
+import eu.isas.peptideshaker.utils.IdentificationFeaturesCache;
+import eu.isas.peptideshaker.utils.SubstringIndex;
 import java.awt.Color;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * A Jump To panel for use in the menu bar in the main frame.
@@ -81,6 +85,20 @@ public class JumpToPanel extends javax.swing.JPanel {
      * The time to wait between keys typed before updating the search.
      */
     private int waitingTime = 1000;
+    /**
+     * The search indexes of the spectrum keys indexed by spectrum file name.
+     * The indexes are not saved in the project.
+     */
+    private final HashMap<String, SubstringIndex> spectrumIndexes = new HashMap<String, SubstringIndex>();
+    /**
+     * The spectrum files for which a search index is being built.
+     */
+    private final HashSet<String> spectrumFilesIndexing = new HashSet<String>();
+    /**
+     * Indicates whether the protein and peptide search indexes are being
+     * built.
+     */
+    private boolean indexing = false;
 
     /**
      * Type of item selected.
@@ -430,22 +448,45 @@ public class JumpToPanel extends javax.swing.JPanel {
 
                                 if (jumpType == JumpType.proteinAndPeptides) {
 
-                                    for (String proteinKey : peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(null, peptideShakerGUI.getFilterPreferences())) {
-                                        if (!ProteinMatch.isDecoy(proteinKey)) {
-                                            if (proteinKey.toLowerCase().contains(input)) {
+                                    IdentificationFeaturesCache identificationFeaturesCache = peptideShakerGUI.getIdentificationFeaturesGenerator().getIdentificationFeaturesCache();
+                                    SubstringIndex proteinIndex = identificationFeaturesCache.getProteinSearchIndex();
+                                    SubstringIndex peptideIndex = identificationFeaturesCache.getPeptideSearchIndex();
+
+                                    if (proteinIndex == null || peptideIndex == null) {
+                                        buildSearchIndexes();
+                                    }
+
+                                    if (proteinIndex != null) {
+
+                                        // the index contains all target proteins, retain the ones currently displayed
+                                        HashSet<String> displayedProteins = new HashSet<String>(peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(null, peptideShakerGUI.getFilterPreferences()));
+
+                                        for (String proteinKey : proteinIndex.search(input)) {
+                                            if (displayedProteins.contains(proteinKey)) {
                                                 possibilities.get(jumpType).add(proteinKey);
                                                 types.get(jumpType).add(Type.PROTEIN);
-                                            } else {
-                                                try {
-                                                    for (String accession : ProteinMatch.getAccessions(proteinKey)) {
-                                                        if (sequenceFactory.getHeader(accession).getSimpleProteinDescription().toLowerCase().contains(input)) {
-                                                            possibilities.get(jumpType).add(proteinKey);
-                                                            types.get(jumpType).add(Type.PROTEIN);
-                                                            break;
+                                            }
+                                        }
+                                    } else {
+
+                                        // index not available yet, inspect all proteins
+                                        for (String proteinKey : peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(null, peptideShakerGUI.getFilterPreferences())) {
+                                            if (!ProteinMatch.isDecoy(proteinKey)) {
+                                                if (proteinKey.toLowerCase().contains(input)) {
+                                                    possibilities.get(jumpType).add(proteinKey);
+                                                    types.get(jumpType).add(Type.PROTEIN);
+                                                } else {
+                                                    try {
+                                                        for (String accession : ProteinMatch.getAccessions(proteinKey)) {
+                                                            if (sequenceFactory.getHeader(accession).getSimpleProteinDescription().toLowerCase().contains(input)) {
+                                                                possibilities.get(jumpType).add(proteinKey);
+                                                                types.get(jumpType).add(Type.PROTEIN);
+                                                                break;
+                                                            }
                                                         }
+                                                    } catch (Exception e) {
+                                                        // cannot get description, ignore
                                                     }
-                                                } catch (Exception e) {
-                                                    // cannot get description, ignore
                                                 }
                                             }
                                         }
@@ -465,12 +506,20 @@ public class JumpToPanel extends javax.swing.JPanel {
 
                                         ArrayList<String> secondaryCandidates = new ArrayList<String>();
 
-                                        // pre-caching
                                         PSParameter psParameter = new PSParameter();
-                                        identification.loadPeptideMatchParameters(psParameter, null, false);
                                         String matchingInput = AminoAcid.getMatchingSequence(input, peptideShakerGUI.getIdentificationParameters().getSequenceMatchingPreferences());
 
-                                        for (String peptideKey : identification.getPeptideIdentification()) {
+                                        // only the peptides containing the input need to be inspected
+                                        ArrayList<String> peptideCandidates;
+                                        if (peptideIndex != null) {
+                                            peptideCandidates = peptideIndex.search(matchingInput);
+                                            identification.loadPeptideMatchParameters(peptideCandidates, psParameter, null, false);
+                                        } else {
+                                            peptideCandidates = new ArrayList<String>(identification.getPeptideIdentification());
+                                            identification.loadPeptideMatchParameters(psParameter, null, false);
+                                        }
+
+                                        for (String peptideKey : peptideCandidates) {
                                             try {
                                                 psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
                                             } catch (Exception e) {
@@ -511,14 +560,24 @@ public class JumpToPanel extends javax.swing.JPanel {
                                         }
                                     }
                                 } else {
+
+                                    SubstringIndex spectrumIndex = getSpectrumIndex(spectrumfile);
+                                    HashSet<String> titleMatches = null;
+                                    if (spectrumIndex != null) {
+                                        titleMatches = new HashSet<String>(spectrumIndex.search(input));
+                                    }
+
+                                    // the precursor m/z and retention time can only start with digits, dots and minus signs
+                                    boolean numericInput = input.matches("[0-9.\\-]+");
+
                                     for (String spectrumTitle : spectrumFactory.getSpectrumTitles(spectrumfile)) {
                                         String spectrumKey = Spectrum.getSpectrumKey(spectrumfile, spectrumTitle);
-                                        if (spectrumKey.toLowerCase().contains(input)) {
+                                        if (titleMatches != null ? titleMatches.contains(spectrumKey) : spectrumKey.toLowerCase().contains(input)) {
                                             possibilities.get(jumpType).add(spectrumKey);
                                             types.get(jumpType).add(Type.SPECTRUM);
-                                        } else {
+                                        } else if (numericInput) {
                                             try {
-                                                Precursor precursor = spectrumFactory.getPrecursor(spectrumKey);
+                                                Precursor precursor = peptideShakerGUI.getPrecursor(spectrumKey);
                                                 doubleString = precursor.getMz() + "";
                                                 if (doubleString.startsWith(input)) {
                                                     possibilities.get(jumpType).add(spectrumKey);
@@ -705,6 +764,160 @@ public class JumpToPanel extends javax.swing.JPanel {
         }
     }
 
+    /**
+     * Discards the spectrum search indexes of the previous project and builds
+     * the protein and peptide search indexes of the current project.
+     */
+    public void resetSearchIndexes() {
+        synchronized (spectrumIndexes) {
+            spectrumIndexes.clear();
+        }
+        buildSearchIndexes();
+    }
+
+    /**
+     * Builds the protein and peptide search indexes in a background thread if
+     * not already available in the identification features cache. The indexes
+     * are saved in the project together with the cache.
+     */
+    public synchronized void buildSearchIndexes() {
+
+        if (indexing) {
+            return;
+        }
+
+        final IdentificationFeaturesCache identificationFeaturesCache = peptideShakerGUI.getIdentificationFeaturesGenerator().getIdentificationFeaturesCache();
+
+        if (identificationFeaturesCache.getProteinSearchIndex() != null && identificationFeaturesCache.getPeptideSearchIndex() != null) {
+            return;
+        }
+
+        indexing = true;
+
+        Thread indexingThread = new Thread("JumpToIndexThread") {
+            @Override
+            public void run() {
+                try {
+                    if (identificationFeaturesCache.getProteinSearchIndex() == null) {
+                        identificationFeaturesCache.setProteinSearchIndex(getProteinIndex());
+                    }
+                    if (identificationFeaturesCache.getPeptideSearchIndex() == null) {
+                        identificationFeaturesCache.setPeptideSearchIndex(getPeptideIndex());
+                    }
+                } catch (Exception e) {
+                    peptideShakerGUI.catchException(e);
+                } finally {
+                    synchronized (JumpToPanel.this) {
+                        indexing = false;
+                    }
+                }
+            }
+        };
+        indexingThread.setPriority(Thread.MIN_PRIORITY);
+        indexingThread.start();
+    }
+
+    /**
+     * Returns the search index of the target proteins, covering the protein
+     * keys, descriptions and gene names.
+     *
+     * @return the search index of the target proteins
+     *
+     * @throws SQLException if an SQLException occurs
+     * @throws IOException if an IOException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    private SubstringIndex getProteinIndex() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        SubstringIndex proteinIndex = new SubstringIndex();
+
+        for (String proteinKey : peptideShakerGUI.getIdentificationFeaturesGenerator().getProteinKeys(null, peptideShakerGUI.getFilterPreferences())) {
+            if (!ProteinMatch.isDecoy(proteinKey)) {
+                String[] accessions = ProteinMatch.getAccessions(proteinKey);
+                String[] fields = new String[2 * accessions.length + 1];
+                fields[0] = proteinKey;
+                for (int i = 0; i < accessions.length; i++) {
+                    try {
+                        Header header = sequenceFactory.getHeader(accessions[i]);
+                        fields[2 * i + 1] = header.getSimpleProteinDescription();
+                        fields[2 * i + 2] = header.getGeneName();
+                    } catch (Exception e) {
+                        // cannot get description, ignore
+                    }
+                }
+                proteinIndex.add(proteinKey, fields);
+            }
+        }
+
+        proteinIndex.finish();
+        return proteinIndex;
+    }
+
+    /**
+     * Returns the search index of the peptide keys.
+     *
+     * @return the search index of the peptide keys
+     */
+    private SubstringIndex getPeptideIndex() {
+
+        SubstringIndex peptideIndex = new SubstringIndex();
+
+        for (String peptideKey : peptideShakerGUI.getIdentification().getPeptideIdentification()) {
+            peptideIndex.add(peptideKey, peptideKey);
+        }
+
+        peptideIndex.finish();
+        return peptideIndex;
+    }
+
+    /**
+     * Returns the search index of the spectrum keys of the given file. If not
+     * available, the index is built in a background thread and null is
+     * returned.
+     *
+     * @param spectrumFile the name of the spectrum file
+     *
+     * @return the search index of the spectrum keys of the given file
+     */
+    private SubstringIndex getSpectrumIndex(final String spectrumFile) {
+
+        synchronized (spectrumIndexes) {
+
+            SubstringIndex spectrumIndex = spectrumIndexes.get(spectrumFile);
+
+            if (spectrumIndex == null && !spectrumFilesIndexing.contains(spectrumFile)) {
+
+                spectrumFilesIndexing.add(spectrumFile);
+
+                new Thread("JumpToIndexThread") {
+                    @Override
+                    public void run() {
+                        try {
+                            SubstringIndex newIndex = new SubstringIndex();
+                            for (String spectrumTitle : spectrumFactory.getSpectrumTitles(spectrumFile)) {
+                                String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
+                                newIndex.add(spectrumKey, spectrumKey);
+                            }
+                            newIndex.finish();
+                            synchronized (spectrumIndexes) {
+                                spectrumIndexes.put(spectrumFile, newIndex);
+                            }
+                        } catch (Exception e) {
+                            peptideShakerGUI.catchException(e);
+                        } finally {
+                            synchronized (spectrumIndexes) {
+                                spectrumFilesIndexing.remove(spectrumFile);
+                            }
+                        }
+                    }
+                }.start();
+            }
+
+            return spectrumIndex;
+        }
+    }
+
     /**
      * Sets the spectrum file inspected.
      *
@@ -110,7 +110,9 @@ import eu.isas.peptideshaker.scoring.maps.PsmPTMMap;
 import eu.isas.peptideshaker.utils.CpsParent;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.ProjectArchive;
 import eu.isas.peptideshaker.utils.PsZipUtils;
+import eu.isas.peptideshaker.utils.SpectrumFilesLoader;
 import eu.isas.peptideshaker.utils.StarHider;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 import java.awt.*;
@@ -315,6 +317,10 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
      * The Jump To panel.
      */
     private JumpToPanel jumpToPanel;
+    /**
+     * The scheduler running the background tasks of the tabs.
+     */
+    private final GuiTaskScheduler guiTaskScheduler = new GuiTaskScheduler(this, GuiTaskScheduler.DEFAULT_MAX_RUNNING_TASKS);
     /**
      * The class used to star/hide items.
      */
@@ -377,6 +383,10 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
      * The list of spectrum files.
      */
     private ArrayList<File> spectrumFiles = new ArrayList<File>();
+    /**
+     * The loader of the spectrum files of the project opened, null if none.
+     */
+    private SpectrumFilesLoader spectrumFilesLoader = null;
 
     /**
      * The main method used to start PeptideShaker.
@@ -591,7 +601,10 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
 
             initComponents();
 
+            guiTaskScheduler.setTabbedPane(allTabsJTabbedPane);
+
             psmSortRtRadioButtonMenuItem.setSelected(utilitiesUserPreferences.getSortPsmsOnRt());
+            projectArchiveCheckBoxMenuItem.setSelected(getUserPreferences().isProjectArchive());
 
             reshakeMenuItem.setVisible(false); // @TODO: re-enable later?
             quantifyMenuItem.setVisible(false); // @TODO: re-enable later?
@@ -672,6 +685,9 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
             lastSelectedFolder = new LastSelectedFolder();
         }
         cpsParent.loadUserPreferences();
+
+        // save as archive unless tar files were requested
+        ProjectArchive.setTarMode(!getUserPreferences().isProjectArchive());
     }
 
     /**
@@ -849,6 +865,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         jSeparator1 = new javax.swing.JPopupMenu.Separator();
         saveMenuItem = new javax.swing.JMenuItem();
         saveAsMenuItem = new javax.swing.JMenuItem();
+        projectArchiveCheckBoxMenuItem = new javax.swing.JCheckBoxMenuItem();
         jSeparator9 = new javax.swing.JPopupMenu.Separator();
         exitJMenuItem = new javax.swing.JMenuItem();
         editMenu = new javax.swing.JMenu();
@@ -1532,6 +1549,16 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
             }
         });
         fileJMenu.add(saveAsMenuItem);
+
+        projectArchiveCheckBoxMenuItem.setSelected(true);
+        projectArchiveCheckBoxMenuItem.setText("Save as Archive");
+        projectArchiveCheckBoxMenuItem.setToolTipText("<html>Save the projects as archives where only the modified files are written.<br>Unselect to save tar files readable by older versions of PeptideShaker.</html>");
+        projectArchiveCheckBoxMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                projectArchiveCheckBoxMenuItemActionPerformed(evt);
+            }
+        });
+        fileJMenu.add(projectArchiveCheckBoxMenuItem);
         fileJMenu.add(jSeparator9);
 
         exitJMenuItem.setMnemonic('x');
@@ -2733,6 +2760,16 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         }
     }//GEN-LAST:event_saveMenuItemActionPerformed
 
+    /**
+     * Save the projects as archives or as tar files.
+     *
+     * @param evt
+     */
+    private void projectArchiveCheckBoxMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_projectArchiveCheckBoxMenuItemActionPerformed
+        getUserPreferences().setProjectArchive(projectArchiveCheckBoxMenuItem.isSelected());
+        ProjectArchive.setTarMode(!projectArchiveCheckBoxMenuItem.isSelected());
+    }//GEN-LAST:event_projectArchiveCheckBoxMenuItemActionPerformed
+
     /**
      * Hide/display the spectrum accuracy and intensity level sliders.
      *
@@ -3394,6 +3431,18 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         allTabsJTabbedPaneStateChanged(null);
     }
 
+    /**
+     * Enables or disables the export menu items needing all spectra.
+     *
+     * @param enabled a boolean indicating whether the menu items should be
+     * enabled
+     */
+    private void setExportEnabled(boolean enabled) {
+        identificationFeaturesMenuItem.setEnabled(enabled);
+        followUpAnalysisMenuItem.setEnabled(enabled);
+        projectExportMenu.setEnabled(enabled);
+    }
+
     /**
      * This method will display results in all panels.
      */
@@ -3421,6 +3470,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
 
             // enable the menu items depending on a project being open
             jumpToPanel.setEnabled(true);
+            jumpToPanel.resetSearchIndexes();
             saveMenuItem.setEnabled(true);
             saveAsMenuItem.setEnabled(true);
             identificationFeaturesMenuItem.setEnabled(true);
@@ -3580,6 +3630,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
     private javax.swing.JMenuItem preferencesMenuItem;
     private javax.swing.JMenuItem privacyMenuItem;
     private javax.swing.JMenuItem processingMenuItem;
+    private javax.swing.JCheckBoxMenuItem projectArchiveCheckBoxMenuItem;
     private javax.swing.JMenu projectExportMenu;
     private javax.swing.JMenuItem projectPropertiesMenuItem;
     private javax.swing.JMenuItem projectSettingsMenuItem;
@@ -3847,6 +3898,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         String spectrumFile = Spectrum.getSpectrumFile(spectrumKey);
         String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
         try {
+            loadSpectrumFile(spectrumFile);
             return (MSnSpectrum) spectrumFactory.getSpectrum(spectrumFile, spectrumTitle);
         } catch (Exception e) {
             catchException(e);
@@ -3854,6 +3906,101 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         }
     }
 
+    /**
+     * Returns the precursor of the desired spectrum.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @return the precursor of the desired spectrum
+     */
+    public Precursor getPrecursor(String spectrumKey) {
+        try {
+            loadSpectrumFile(Spectrum.getSpectrumFile(spectrumKey));
+            return spectrumFactory.getPrecursor(spectrumKey);
+        } catch (Exception e) {
+            catchException(e);
+            return null;
+        }
+    }
+
+    /**
+     * Makes sure that the given spectrum file is loaded when the project was
+     * displayed before its spectrum files were loaded. If the file is not
+     * loaded yet it is loaded before the other files. When called from the
+     * event dispatch thread, the file is loaded in a background thread while
+     * a progress dialog is displayed, the method returning once the file is
+     * loaded.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * loading the file
+     */
+    public void loadSpectrumFile(final String spectrumFileName) throws IOException {
+
+        final SpectrumFilesLoader loader = spectrumFilesLoader;
+        if (loader == null || !loader.isPending(spectrumFileName)) {
+            return;
+        }
+        if (!SwingUtilities.isEventDispatchThread()) {
+            loader.loadSpectrumFile(spectrumFileName);
+            return;
+        }
+
+        final ProgressDialogX loadingDialog = new ProgressDialogX(this,
+                Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/peptide-shaker.gif")),
+                Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/peptide-shaker-orange.gif")),
+                true);
+        loadingDialog.setPrimaryProgressCounterIndeterminate(true);
+        loadingDialog.setTitle("Loading " + spectrumFileName + ". Please Wait...");
+
+        final IOException[] loadingError = new IOException[1];
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    loader.loadSpectrumFile(spectrumFileName);
+                } catch (IOException e) {
+                    loadingError[0] = e;
+                } finally {
+                    // closed from the event queue so that the dialog is visible before being closed
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            loadingDialog.setRunFinished();
+                        }
+                    });
+                }
+            }
+        }, "SpectrumFileLoadingThread").start();
+
+        // the modal dialog keeps processing the events until the file is loaded
+        loadingDialog.setVisible(true);
+
+        if (loadingError[0] != null) {
+            throw loadingError[0];
+        }
+    }
+
+    /**
+     * Returns the loader of the spectrum files when the project was displayed
+     * before its spectrum files were loaded, null if none.
+     *
+     * @return the loader of the spectrum files
+     */
+    public SpectrumFilesLoader getSpectrumFilesLoader() {
+        return spectrumFilesLoader;
+    }
+
+    /**
+     * Indicates whether spectrum files of the project are still being loaded
+     * in the background.
+     *
+     * @return a boolean indicating whether spectrum files of the project are
+     * still being loaded in the background
+     */
+    public boolean isLoadingSpectrumFiles() {
+        SpectrumFilesLoader loader = spectrumFilesLoader;
+        return loader != null && loader.isLoading();
+    }
+
     /**
      * Return the filter preferences to use.
      *
@@ -4158,6 +4305,11 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         cpsParent.setProjectDetails(null);
         spectrumAnnotator = new PeptideSpectrumAnnotator();
 
+        if (spectrumFilesLoader != null) {
+            spectrumFilesLoader.cancel();
+            spectrumFilesLoader = null;
+        }
+
         try {
             spectrumFactory.closeFiles();
         } catch (Exception e) {
@@ -4544,6 +4696,15 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         return allTabsJTabbedPane.getSelectedIndex();
     }
 
+    /**
+     * Returns the scheduler running the background tasks of the tabs.
+     *
+     * @return the scheduler running the background tasks of the tabs
+     */
+    public GuiTaskScheduler getGuiTaskScheduler() {
+        return guiTaskScheduler;
+    }
+
     /**
      * Returns a list of keys of the currently displayed proteins.
      *
@@ -5501,12 +5662,27 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
                     progressDialog.setMaxPrimaryProgressCounter(getIdentification().getSpectrumFiles().size() + 1);
                     progressDialog.increasePrimaryProgressCounter();
 
+                    SpectrumFilesLoader loader = null;
+                    if (SpectrumFilesLoader.isLazyOpening()) {
+                        loader = new SpectrumFilesLoader(exceptionHandler);
+                    }
+
                     int cpt = 0, total = getIdentification().getSpectrumFiles().size();
                     for (String spectrumFileName : getIdentification().getSpectrumFiles()) {
 
                         progressDialog.setTitle("Loading Spectrum Files (" + ++cpt + " of " + total + "). Please Wait...");
                         progressDialog.increasePrimaryProgressCounter();
 
+                        // in lazy mode the files found are loaded once the results are displayed
+                        if (loader != null) {
+                            File spectrumFile = cpsParent.locateSpectrumFile(spectrumFileName);
+                            if (spectrumFile != null) {
+                                loader.addFile(spectrumFileName, spectrumFile);
+                                spectrumFiles.add(spectrumFile);
+                                continue;
+                            }
+                        }
+
                         boolean found;
                         try {
                             found = cpsParent.loadSpectrumFile(spectrumFileName, spectrumFiles, progressDialog);
@@ -5586,7 +5762,21 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
 
                     progressDialog.setPrimaryProgressCounterIndeterminate(true);
                     progressDialog.setRunFinished();
+                    if (loader != null && loader.isLoading()) {
+                        spectrumFilesLoader = loader;
+                        getIdentificationFeaturesGenerator().setSpectrumFilesLoader(loader);
+                    }
                     peptideShakerGUI.displayResults();
+                    if (loader != null && loader.isLoading()) {
+
+                        // the exports need all spectra, enable them when the spectrum files are loaded
+                        setExportEnabled(false);
+                        loader.start(new Runnable() {
+                            public void run() {
+                                setExportEnabled(true);
+                            }
+                        });
+                    }
                     allTabsJTabbedPaneStateChanged(null); // display the overview tab data
                     peptideShakerGUI.updateFrameTitle();
                     dataSaved = true;
@@ -6185,6 +6375,10 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
      */
     public void setUpdated(int tabIndex, boolean updated) {
         updateNeeded.put(tabIndex, !updated);
+        if (tabIndex == QC_PLOTS_TAB_INDEX && !updated && getIdentificationFeaturesGenerator() != null) {
+            // the matches changed, the QC distributions need to be computed anew
+            getIdentificationFeaturesGenerator().clearQCDistributions();
+        }
     }
 
     /**
@@ -6,7 +6,6 @@ import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.ptm.PtmtableContent;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
-import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.gui.spectrum.SpectrumPanel;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
@@ -283,11 +282,10 @@ public class PtmTable extends JTable {
 
         AnnotationSettings annotationPreferences = peptideShakerGUI.getIdentificationParameters().getAnnotationPreferences();
         PtmtableContent tempContent, tableContent = new PtmtableContent();
-        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
 
         for (String spectrumKey : spectrumKeys) {
             try {
-                MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+                MSnSpectrum spectrum = peptideShakerGUI.getSpectrum(spectrumKey);
                 SpectrumMatch spectrumMatch = peptideShakerGUI.getIdentification().getSpectrumMatch(spectrumKey);
                 peptideShakerGUI.setSpecificAnnotationPreferences(new SpecificAnnotationSettings(spectrumKey, spectrumMatch.getBestPeptideAssumption()));
                 peptideShakerGUI.updateAnnotationPreferences();
@@ -457,12 +455,11 @@ public class PtmTable extends JTable {
         PtmtableContent tempContent, tableContent = new PtmtableContent();
         MSnSpectrum spectrum;
         SpectrumMatch spectrumMatch;
-        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
         String shortName = ptm.getShortName();
 
         for (String spectrumKey : spectrumKeys) {
             try {
-                spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey);
+                spectrum = peptideShakerGUI.getSpectrum(spectrumKey);
                 spectrumMatch = peptideShakerGUI.getIdentification().getSpectrumMatch(spectrumKey);
                 peptideShakerGUI.setSpecificAnnotationPreferences(new SpecificAnnotationSettings(spectrumKey, spectrumMatch.getBestPeptideAssumption()));
                 peptideShakerGUI.updateAnnotationPreferences();
@@ -789,6 +789,7 @@ public class ProteinInferenceDialog extends javax.swing.JDialog {
             try {
                 psParameter.setProteinInferenceClass(groupClassJComboBox.getSelectedIndex());
                 identification.updateProteinMatchParameter(inspectedMatch.getKey(), psParameter);
+                peptideShakerGUI.getIdentificationFeaturesGenerator().updateProteinInferenceClass(inspectedMatch.getKey(), psParameter.getProteinInferenceClass());
                 peptideShakerGUI.updateMainMatch(inspectedMatch.getMainMatch(), groupClassJComboBox.getSelectedIndex());
             } catch (Exception e) {
                 peptideShakerGUI.catchException(e);
@@ -817,6 +818,7 @@ public class ProteinInferenceDialog extends javax.swing.JDialog {
                     peptideShakerGUI.getIdentificationFeaturesGenerator().updateCoverableAA(inspectedMatch.getKey());
                     peptideShakerGUI.getIdentificationFeaturesGenerator().updateSequenceCoverage(inspectedMatch.getKey());
                     peptideShakerGUI.getIdentificationFeaturesGenerator().updateObservableCoverage(inspectedMatch.getKey());
+                    peptideShakerGUI.getIdentificationFeaturesGenerator().updateMolecularWeight(inspectedMatch);
                 } catch (Exception e) {
                     peptideShakerGUI.catchException(e);
                 }
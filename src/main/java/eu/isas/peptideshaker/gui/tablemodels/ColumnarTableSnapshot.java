@@ -0,0 +1,100 @@
+package eu.isas.peptideshaker.gui.tablemodels;
+
+/**
+ * Snapshot of the values of the columns of a table model. The values of a
+ * column are computed once for all rows and stored in arrays indexed by model
+ * row so that sorting and scrolling do not need to load the matches anew.
+ * Numeric columns can have several components, e.g. the number of confident,
+ * doubtful and not validated peptides of a protein.
+ *
+ * @author Marc Vaudel
+ */
+public class ColumnarTableSnapshot {
+
+    /**
+     * The values of the numeric columns indexed by column, component and
+     * row. Null if the column is not in the snapshot.
+     */
+    private final double[][][] numericColumns;
+    /**
+     * The values of the text columns indexed by column and row. Null if the
+     * column is not in the snapshot.
+     */
+    private final String[][] textColumns;
+
+    /**
+     * Constructor.
+     *
+     * @param nColumns the number of columns of the table
+     */
+    public ColumnarTableSnapshot(int nColumns) {
+        numericColumns = new double[nColumns][][];
+        textColumns = new String[nColumns][];
+    }
+
+    /**
+     * Returns the values of a numeric column indexed by component and row,
+     * null if not in the snapshot.
+     *
+     * @param column the column
+     *
+     * @return the values of the column
+     */
+    public synchronized double[][] getNumericColumn(int column) {
+        return numericColumns[column];
+    }
+
+    /**
+     * Sets the values of a numeric column indexed by component and row.
+     *
+     * @param column the column
+     * @param values the values of the column
+     */
+    public synchronized void setNumericColumn(int column, double[][] values) {
+        numericColumns[column] = values;
+    }
+
+    /**
+     * Returns the values of a text column indexed by row, null if not in the
+     * snapshot.
+     *
+     * @param column the column
+     *
+     * @return the values of the column
+     */
+    public synchronized String[] getTextColumn(int column) {
+        return textColumns[column];
+    }
+
+    /**
+     * Sets the values of a text column indexed by row.
+     *
+     * @param column the column
+     * @param values the values of the column
+     */
+    public synchronized void setTextColumn(int column, String[] values) {
+        textColumns[column] = values;
+    }
+
+    /**
+     * Indicates whether the values of a column are in the snapshot.
+     *
+     * @param column the column
+     *
+     * @return a boolean indicating whether the values of a column are in the
+     * snapshot
+     */
+    public synchronized boolean contains(int column) {
+        return numericColumns[column] != null || textColumns[column] != null;
+    }
+
+    /**
+     * Clears the snapshot.
+     */
+    public synchronized void clear() {
+        for (int column = 0; column < numericColumns.length; column++) {
+            numericColumns[column] = null;
+            textColumns[column] = null;
+        }
+    }
+}
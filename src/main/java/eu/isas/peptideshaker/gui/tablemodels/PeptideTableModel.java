@@ -20,6 +20,7 @@ import java.sql.SQLException;
 import java.sql.SQLNonTransientConnectionException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import no.uib.jsparklines.data.ArrrayListDataPoints;
 import no.uib.jsparklines.data.StartIndexes;
 import no.uib.jsparklines.renderers.JSparklinesArrayListBarChartTableCellRenderer;
@@ -74,6 +75,10 @@ public class PeptideTableModel extends SelfUpdatingTableModel {
      * The exception handler catches exceptions.
      */
     private ExceptionHandler exceptionHandler;
+    /**
+     * Snapshot of the values of the columns computed for sorting.
+     */
+    private final ColumnarTableSnapshot snapshot = new ColumnarTableSnapshot(8);
 
     /**
      * Constructor which sets a new table.
@@ -134,6 +139,16 @@ public class PeptideTableModel extends SelfUpdatingTableModel {
         this.peptideKeys = peptideKeys;
         this.proteinAccession = proteinAccession;
         this.showScores = showScores;
+        snapshot.clear();
+    }
+
+    /**
+     * Clears the values of the columns computed for sorting. To be called
+     * when the matches displayed are modified without updating the data
+     * model.
+     */
+    public void clearSnapshot() {
+        snapshot.clear();
     }
 
     /**
@@ -141,6 +156,7 @@ public class PeptideTableModel extends SelfUpdatingTableModel {
      */
     public void reset() {
         peptideKeys = null;
+        snapshot.clear();
     }
 
     /**
@@ -205,6 +221,10 @@ public class PeptideTableModel extends SelfUpdatingTableModel {
 
             String peptideKey = peptideKeys.get(viewIndex);
 
+            if (snapshot.contains(column)) {
+                return getSnapshotValue(viewIndex, column);
+            }
+
             switch (column) {
                 case 0:
                     return viewIndex + 1;
@@ -409,12 +429,109 @@ public class PeptideTableModel extends SelfUpdatingTableModel {
                     || column == 7) {
                 identification.loadPeptideMatchParameters(peptideKeys, new PSParameter(), waitingHandler, false);
             } else if (column == 3
-                    || column == 4
                     || column == 5) {
+                if (!snapshot.contains(column)) {
+                    loadSnapshotColumn(column, waitingHandler);
+                }
+            } else if (column == 4) {
                 identification.loadPeptideMatches(peptideKeys, waitingHandler, false);
             }
         } catch (Exception e) {
             catchException(e);
         }
     }
+
+    /**
+     * Computes the values of a column for all peptides and stores them in the
+     * snapshot. The peptide matches are iterated in batches and not kept in
+     * cache.
+     *
+     * @param column the column
+     * @param waitingHandler the waiting handler
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while interacting with the database
+     */
+    private void loadSnapshotColumn(int column, WaitingHandler waitingHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        ArrayList<String> keys = peptideKeys;
+        int nRows = keys.size();
+        HashMap<String, Integer> indexes = new HashMap<String, Integer>(nRows);
+        for (int i = 0; i < nRows; i++) {
+            indexes.put(keys.get(i), i);
+        }
+
+        String[] textValues = null;
+        double[][] numericValues = null;
+        if (column == 3) {
+            textValues = new String[nRows];
+        } else {
+            numericValues = new double[3][nRows];
+        }
+
+        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(keys, null, false, null, waitingHandler);
+        peptideMatchesIterator.setBatchSize(batchSize);
+
+        PeptideMatch peptideMatch;
+        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            String peptideKey = peptideMatch.getKey();
+            int index = indexes.get(peptideKey);
+
+            if (column == 3) {
+                textValues[index] = displayFeaturesGenerator.getTaggedPeptideSequence(peptideMatch, true, true, true);
+            } else {
+                double nConfidentSpectra = identificationFeaturesGenerator.getNConfidentSpectraForPeptide(peptideKey);
+                double nDoubtfulSpectra = identificationFeaturesGenerator.getNValidatedSpectraForPeptide(peptideKey) - nConfidentSpectra;
+                int nSpectra = peptideMatch.getSpectrumMatchesKeys().size();
+                numericValues[0][index] = nConfidentSpectra;
+                numericValues[1][index] = nDoubtfulSpectra;
+                numericValues[2][index] = nSpectra - nConfidentSpectra - nDoubtfulSpectra;
+            }
+        }
+
+        // make sure that the keys were not changed in the meantime
+        if (keys == peptideKeys) {
+            if (textValues != null) {
+                snapshot.setTextColumn(column, textValues);
+            } else {
+                snapshot.setNumericColumn(column, numericValues);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of a cell from the snapshot.
+     *
+     * @param index the index of the peptide in the list of keys
+     * @param column the column
+     *
+     * @return the value of the cell
+     */
+    private Object getSnapshotValue(int index, int column) {
+        switch (column) {
+            case 3:
+                return snapshot.getTextColumn(column)[index];
+            case 5:
+                double[][] values = snapshot.getNumericColumn(column);
+                ArrayList<Double> doubleValues = new ArrayList<Double>(values.length);
+                for (double[] componentValues : values) {
+                    doubleValues.add(componentValues[index]);
+                }
+                return new ArrrayListDataPoints(doubleValues, JSparklinesArrayListBarChartTableCellRenderer.ValueDisplayType.sumOfNumbers);
+            default:
+                return null;
+        }
+    }
 }
@@ -14,10 +14,14 @@ import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.preferences.DisplayPreferences;
 import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import eu.isas.peptideshaker.utils.BoundedExecutor;
 import eu.isas.peptideshaker.utils.DisplayFeaturesGenerator;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.ProteinFeaturesTable;
 import java.awt.Color;
 import java.awt.Component;
+import java.io.IOException;
+import java.sql.SQLException;
 import java.sql.SQLNonTransientConnectionException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -36,6 +40,7 @@ import no.uib.jsparklines.renderers.JSparklinesArrayListBarChartTableCellRendere
 import no.uib.jsparklines.renderers.JSparklinesBarChartTableCellRenderer;
 import no.uib.jsparklines.renderers.JSparklinesIntegerColorTableCellRenderer;
 import no.uib.jsparklines.renderers.JSparklinesIntegerIconTableCellRenderer;
+import org.apache.commons.math.MathException;
 import org.jfree.chart.plot.PlotOrientation;
 
 /**
@@ -83,6 +88,10 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
      * The gene maps.
      */
     private GeneMaps geneMaps;
+    /**
+     * Snapshot of the values of the columns computed for sorting.
+     */
+    private final ColumnarTableSnapshot snapshot = new ColumnarTableSnapshot(13);
 
     /**
      * Constructor which sets a new empty table.
@@ -111,6 +120,7 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
         this.displayFeaturesGenerator = displayFeaturesGenerator;
         this.exceptionHandler = exceptionHandler;
         this.proteinKeys = proteinKeys;
+        snapshot.clear();
     }
 
     /**
@@ -135,6 +145,7 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
         this.displayFeaturesGenerator = displayFeaturesGenerator;
         this.exceptionHandler = exceptionHandler;
         this.proteinKeys = proteinKeys;
+        snapshot.clear();
     }
 
     /**
@@ -147,11 +158,21 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
         this.showScores = showScores;
     }
 
+    /**
+     * Clears the values of the columns computed for sorting. To be called
+     * when the matches displayed are modified without updating the data
+     * model.
+     */
+    public void clearSnapshot() {
+        snapshot.clear();
+    }
+
     /**
      * Reset the protein keys.
      */
     public void reset() {
         proteinKeys = null;
+        snapshot.clear();
     }
 
     @Override
@@ -217,6 +238,10 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
                 boolean useDB = !isSelfUpdating();
                 String proteinKey = proteinKeys.get(viewIndex);
 
+                if (snapshot.contains(column)) {
+                    return getSnapshotValue(viewIndex, column);
+                }
+
                 switch (column) {
                     case 0:
                         return viewIndex + 1;
@@ -558,13 +583,242 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
                     || column == 8
                     || column == 9
                     || column == 10) {
-                identification.loadProteinMatches(proteinKeys, waitingHandler, false);
+                if (!snapshot.contains(column)) {
+                    loadSnapshotColumn(column, waitingHandler);
+                }
             }
         } catch (Exception e) {
             catchException(e);
         }
     }
 
+    /**
+     * Computes the values of a column for all proteins and stores them in the
+     * snapshot. The values are taken from the protein features table when
+     * available, the protein matches are loaded from the database otherwise.
+     *
+     * @param column the column
+     * @param waitingHandler the waiting handler
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while interacting with the database
+     * @throws MathException exception thrown whenever an error occurred while
+     * estimating the observable coverage
+     */
+    private void loadSnapshotColumn(int column, WaitingHandler waitingHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MathException {
+
+        ArrayList<String> keys = proteinKeys;
+        int nRows = keys.size();
+        ProteinFeaturesTable proteinFeaturesTable = identificationFeaturesGenerator.getIdentificationFeaturesCache().getProteinFeaturesTable();
+
+        // the protein matches are only loaded if the main matches are not in the protein features table
+        int[] tableRows = new int[nRows];
+        boolean matchesNeeded = false;
+        for (int i = 0; i < nRows; i++) {
+            int tableRow = -1;
+            if (proteinFeaturesTable != null) {
+                tableRow = proteinFeaturesTable.getRow(keys.get(i));
+                if (tableRow != -1 && proteinFeaturesTable.getMainMatch(tableRow) == null) {
+                    tableRow = -1;
+                }
+            }
+            tableRows[i] = tableRow;
+            if (tableRow == -1) {
+                matchesNeeded = true;
+            }
+        }
+        if (matchesNeeded && column != 6 && column != 8 && column != 9) {
+            identification.loadProteinMatches(keys, waitingHandler, false);
+        }
+        if (column == 6) {
+            // compute the coverage of all proteins in parallel, the values are then read from the cache
+            BoundedExecutor executor = new BoundedExecutor(Runtime.getRuntime().availableProcessors());
+            try {
+                identificationFeaturesGenerator.computeSequenceCoverage(keys, waitingHandler, exceptionHandler, executor);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        String[] textValues = null;
+        double[][] numericValues;
+        switch (column) {
+            case 3:
+            case 4:
+            case 5:
+                textValues = new String[nRows];
+                numericValues = null;
+                break;
+            case 6:
+                numericValues = new double[4][nRows];
+                break;
+            case 7:
+            case 8:
+                numericValues = new double[3][nRows];
+                break;
+            default:
+                numericValues = new double[1][nRows];
+        }
+
+        for (int i = 0; i < nRows; i++) {
+
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            String proteinKey = keys.get(i);
+            int tableRow = tableRows[i];
+            ProteinMatch proteinMatch = null;
+            String mainMatch = null;
+            if (column != 6 && column != 8 && column != 9) {
+                if (tableRow != -1) {
+                    mainMatch = proteinFeaturesTable.getMainMatch(tableRow);
+                } else {
+                    proteinMatch = identification.getProteinMatch(proteinKey);
+                    mainMatch = proteinMatch.getMainMatch();
+                }
+            }
+
+            switch (column) {
+                case 3:
+                    textValues[i] = mainMatch;
+                    break;
+                case 4:
+                    String description = null;
+                    try {
+                        description = sequenceFactory.getHeader(mainMatch).getSimpleProteinDescription();
+
+                        // if description is not set, return the accession instead - fix for home made fasta headers
+                        if (description == null || description.trim().isEmpty()) {
+                            description = mainMatch;
+                        }
+                    } catch (Exception e) {
+                        exceptionHandler.catchException(e);
+                    }
+                    textValues[i] = description;
+                    break;
+                case 5:
+                    String geneName = sequenceFactory.getHeader(mainMatch).getGeneName();
+                    String chromosomeName = geneMaps.getChromosome(geneName);
+                    if (chromosomeName != null && chromosomeName.length() > 0) {
+                        textValues[i] = chromosomeName;
+                    }
+                    break;
+                case 6:
+                    HashMap<Integer, Double> sequenceCoverage = identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
+                    double sequenceCoverageConfident = 100 * sequenceCoverage.get(MatchValidationLevel.confident.getIndex());
+                    double sequenceCoverageDoubtful = 100 * sequenceCoverage.get(MatchValidationLevel.doubtful.getIndex());
+                    double sequenceCoverageNotValidated = 100 * sequenceCoverage.get(MatchValidationLevel.not_validated.getIndex());
+                    double possibleCoverage = 100 * identificationFeaturesGenerator.getObservableCoverage(proteinKey);
+                    numericValues[0][i] = sequenceCoverageConfident;
+                    numericValues[1][i] = sequenceCoverageDoubtful;
+                    numericValues[2][i] = sequenceCoverageNotValidated;
+                    numericValues[3][i] = possibleCoverage - sequenceCoverageConfident - sequenceCoverageDoubtful - sequenceCoverageNotValidated;
+                    break;
+                case 7:
+                    double nConfidentPeptides = identificationFeaturesGenerator.getNConfidentPeptides(proteinKey);
+                    double nDoubtfulPeptides = identificationFeaturesGenerator.getNValidatedPeptides(proteinKey) - nConfidentPeptides;
+                    int nPeptides;
+                    if (tableRow != -1) {
+                        nPeptides = proteinFeaturesTable.getNPeptides(tableRow);
+                    } else {
+                        nPeptides = proteinMatch.getPeptideCount();
+                    }
+                    numericValues[0][i] = nConfidentPeptides;
+                    numericValues[1][i] = nDoubtfulPeptides;
+                    numericValues[2][i] = nPeptides - nConfidentPeptides - nDoubtfulPeptides;
+                    break;
+                case 8:
+                    double nConfidentSpectra = identificationFeaturesGenerator.getNConfidentSpectra(proteinKey);
+                    double nDoubtfulSpectra = identificationFeaturesGenerator.getNValidatedSpectra(proteinKey) - nConfidentSpectra;
+                    int nSpectra = identificationFeaturesGenerator.getNSpectra(proteinKey);
+                    numericValues[0][i] = nConfidentSpectra;
+                    numericValues[1][i] = nDoubtfulSpectra;
+                    numericValues[2][i] = nSpectra - nConfidentSpectra - nDoubtfulSpectra;
+                    break;
+                case 9:
+                    Double spectrumCounting = identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
+                    numericValues[0][i] = spectrumCounting != null ? spectrumCounting : Double.NaN;
+                    break;
+                case 10:
+                    double molecularWeight = Double.NaN;
+                    if (sequenceFactory.getProtein(mainMatch) != null) {
+                        if (tableRow != -1) {
+                            molecularWeight = proteinFeaturesTable.getMolecularWeight(tableRow);
+                        } else {
+                            molecularWeight = sequenceFactory.computeMolecularWeight(mainMatch);
+                        }
+                    }
+                    numericValues[0][i] = molecularWeight;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // make sure that the keys were not changed in the meantime
+        if (keys == proteinKeys) {
+            if (textValues != null) {
+                snapshot.setTextColumn(column, textValues);
+            } else {
+                snapshot.setNumericColumn(column, numericValues);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of a cell from the snapshot.
+     *
+     * @param index the index of the protein in the list of keys
+     * @param column the column
+     *
+     * @return the value of the cell
+     */
+    private Object getSnapshotValue(int index, int column) {
+        switch (column) {
+            case 3:
+                String mainMatch = snapshot.getTextColumn(column)[index];
+                if (!isScrolling) {
+                    return displayFeaturesGenerator.addDatabaseLink(mainMatch);
+                } else {
+                    return mainMatch;
+                }
+            case 4:
+                return snapshot.getTextColumn(column)[index];
+            case 5:
+                return new Chromosome(snapshot.getTextColumn(column)[index]);
+            case 6:
+            case 7:
+            case 8:
+                double[][] values = snapshot.getNumericColumn(column);
+                ArrayList<Double> doubleValues = new ArrayList<Double>(values.length);
+                for (double[] componentValues : values) {
+                    doubleValues.add(componentValues[index]);
+                }
+                if (column == 6) {
+                    return new ArrrayListDataPoints(doubleValues, JSparklinesArrayListBarChartTableCellRenderer.ValueDisplayType.sumExceptLastNumber);
+                } else {
+                    return new ArrrayListDataPoints(doubleValues, JSparklinesArrayListBarChartTableCellRenderer.ValueDisplayType.sumOfNumbers);
+                }
+            case 9:
+            case 10:
+                double value = snapshot.getNumericColumn(column)[0][index];
+                if (Double.isNaN(value)) {
+                    return null;
+                }
+                return value;
+            default:
+                return null;
+        }
+    }
+
     /**
      * Set up the properties of the protein table.
      *
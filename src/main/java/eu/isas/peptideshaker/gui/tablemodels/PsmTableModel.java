@@ -7,6 +7,7 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
 import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.gui.tablemodels.SelfUpdatingTableModel;
@@ -18,6 +19,9 @@ import eu.isas.peptideshaker.preferences.DisplayPreferences;
 import eu.isas.peptideshaker.scoring.PSMaps;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import eu.isas.peptideshaker.utils.DisplayFeaturesGenerator;
+import eu.isas.peptideshaker.utils.SpectrumFilesLoader;
+import java.io.IOException;
+import java.sql.SQLException;
 import java.sql.SQLNonTransientConnectionException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -63,6 +67,15 @@ public class PsmTableModel extends SelfUpdatingTableModel {
      * The exception handler catches exceptions.
      */
     private ExceptionHandler exceptionHandler;
+    /**
+     * The loader of the spectrum files when the project was displayed before
+     * its spectrum files were loaded, null if none.
+     */
+    private SpectrumFilesLoader spectrumFilesLoader;
+    /**
+     * Snapshot of the values of the columns computed for sorting.
+     */
+    private final ColumnarTableSnapshot snapshot = new ColumnarTableSnapshot(8);
 
     /**
      * Constructor which sets a new table.
@@ -73,15 +86,18 @@ public class PsmTableModel extends SelfUpdatingTableModel {
      * @param psmKeys the PSM keys
      * @param displayScores boolean indicating whether the scores should be
      * displayed instead of the confidence
+     * @param spectrumFilesLoader the loader of the spectrum files, null if all
+     * spectrum files are loaded
      * @param exceptionHandler handler for the exceptions
      */
     public PsmTableModel(Identification identification, DisplayFeaturesGenerator displayFeaturesGenerator, IdentificationParameters identificationParameters, 
-            ArrayList<String> psmKeys, boolean displayScores, ExceptionHandler exceptionHandler) {
+            ArrayList<String> psmKeys, boolean displayScores, SpectrumFilesLoader spectrumFilesLoader, ExceptionHandler exceptionHandler) {
         this.identification = identification;
         this.displayFeaturesGenerator = displayFeaturesGenerator;
         this.identificationParameters = identificationParameters;
         this.psmKeys = psmKeys;
         this.showScores = displayScores;
+        this.spectrumFilesLoader = spectrumFilesLoader;
         this.exceptionHandler = exceptionHandler;
 
         PSMaps pSMaps = new PSMaps();
@@ -99,25 +115,39 @@ public class PsmTableModel extends SelfUpdatingTableModel {
      * @param psmKeys the PSM keys
      * @param displayScores boolean indicating whether the scores should be
      * displayed instead of the confidence
+     * @param spectrumFilesLoader the loader of the spectrum files, null if all
+     * spectrum files are loaded
      */
     public void updateDataModel(Identification identification, DisplayFeaturesGenerator displayFeaturesGenerator, IdentificationParameters identificationParameters, 
-            ArrayList<String> psmKeys, boolean displayScores) {
+            ArrayList<String> psmKeys, boolean displayScores, SpectrumFilesLoader spectrumFilesLoader) {
         this.identification = identification;
         this.displayFeaturesGenerator = displayFeaturesGenerator;
         this.identificationParameters = identificationParameters;
         this.psmKeys = psmKeys;
         this.showScores = displayScores;
+        this.spectrumFilesLoader = spectrumFilesLoader;
+        snapshot.clear();
         
         PSMaps pSMaps = new PSMaps();
         pSMaps = (PSMaps) identification.getUrParam(pSMaps);
         inputMap = pSMaps.getInputMap();
     }
 
+    /**
+     * Clears the values of the columns computed for sorting. To be called
+     * when the matches displayed are modified without updating the data
+     * model.
+     */
+    public void clearSnapshot() {
+        snapshot.clear();
+    }
+
     /**
      * Resets the peptide keys.
      */
     public void reset() {
         psmKeys = null;
+        snapshot.clear();
     }
 
     /**
@@ -179,6 +209,10 @@ public class PsmTableModel extends SelfUpdatingTableModel {
                 String psmKey = psmKeys.get(viewIndex);
                 boolean useDB = !isSelfUpdating();
 
+                if (snapshot.contains(column)) {
+                    return getSnapshotValue(viewIndex, column);
+                }
+
                 switch (column) {
                     case 0:
                         return viewIndex + 1;
@@ -244,6 +278,15 @@ public class PsmTableModel extends SelfUpdatingTableModel {
                                 return DisplayPreferences.LOADING_MESSAGE;
                             }
                         }
+                        String spectrumFile = Spectrum.getSpectrumFile(psmKey);
+                        if (spectrumFilesLoader != null && spectrumFilesLoader.isPending(spectrumFile)) {
+                            if (useDB) {
+                                spectrumFilesLoader.loadSpectrumFile(spectrumFile);
+                            } else {
+                                dataMissingAtRow(row);
+                                return DisplayPreferences.LOADING_MESSAGE;
+                            }
+                        }
                         Precursor precursor = SpectrumFactory.getInstance().getPrecursor(psmKey);
                         SearchParameters searchParameters = identificationParameters.getSearchParameters();
                         if (spectrumMatch.getBestPeptideAssumption() != null) {
@@ -354,6 +397,16 @@ public class PsmTableModel extends SelfUpdatingTableModel {
                 }
                 i++;
             }
+
+            // make sure that the spectrum files of the rows are loaded
+            if (spectrumFilesLoader != null) {
+                for (String psmKey : tempPsmKeys) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return rows.get(0);
+                    }
+                    spectrumFilesLoader.loadSpectrumFile(Spectrum.getSpectrumFile(psmKey));
+                }
+            }
             return rows.get(rows.size() - 1);
         } catch (SQLNonTransientConnectionException e) {
             // connection has been closed
@@ -375,10 +428,126 @@ public class PsmTableModel extends SelfUpdatingTableModel {
                     || column == 3
                     || column == 4
                     || column == 5) {
-                identification.loadSpectrumMatches(psmKeys, waitingHandler, false);
+                if (!snapshot.contains(column)) {
+                    loadSnapshotColumn(column, waitingHandler);
+                }
             }
         } catch (Exception e) {
             catchException(e);
         }
     }
+
+    /**
+     * Computes the values of a column for all PSMs and stores them in the
+     * snapshot. The spectrum matches are iterated in batches and not kept in
+     * cache.
+     *
+     * @param column the column
+     * @param waitingHandler the waiting handler
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while interacting with the database
+     */
+    private void loadSnapshotColumn(int column, WaitingHandler waitingHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        ArrayList<String> keys = psmKeys;
+        int nRows = keys.size();
+        HashMap<String, Integer> indexes = new HashMap<String, Integer>(nRows);
+        for (int i = 0; i < nRows; i++) {
+            indexes.put(keys.get(i), i);
+        }
+
+        String[] textValues = null;
+        double[][] numericValues = null;
+        if (column == 3) {
+            textValues = new String[nRows];
+        } else {
+            numericValues = new double[1][nRows];
+        }
+
+        SearchParameters searchParameters = identificationParameters.getSearchParameters();
+        PsmIterator psmIterator = identification.getPsmIterator(keys, null, column == 2, waitingHandler);
+        psmIterator.setBatchSize(batchSize);
+
+        SpectrumMatch spectrumMatch;
+        while ((spectrumMatch = psmIterator.next()) != null) {
+
+            if (waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            String psmKey = spectrumMatch.getKey();
+            int index = indexes.get(psmKey);
+            SpectrumIdentificationAssumption bestAssumption = spectrumMatch.getBestPeptideAssumption();
+            if (bestAssumption == null) {
+                bestAssumption = spectrumMatch.getBestTagAssumption();
+            }
+
+            switch (column) {
+                case 2:
+                    HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = identification.getAssumptions(psmKey);
+                    numericValues[0][index] = SpectrumIdentificationPanel.isBestPsmEqualForAllIdSoftware(spectrumMatch, assumptions, identificationParameters.getSequenceMatchingPreferences(), inputMap.getInputAlgorithmsSorted().size());
+                    break;
+                case 3:
+                    textValues[index] = displayFeaturesGenerator.getTaggedPeptideSequence(spectrumMatch, true, true, true);
+                    break;
+                case 4:
+                    if (bestAssumption == null) {
+                        throw new IllegalArgumentException("No best assumption found for spectrum " + psmKey + ".");
+                    }
+                    numericValues[0][index] = bestAssumption.getIdentificationCharge().value;
+                    break;
+                case 5:
+                    if (bestAssumption == null) {
+                        throw new IllegalArgumentException("No best assumption found for spectrum " + psmKey + ".");
+                    }
+                    if (spectrumFilesLoader != null) {
+                        spectrumFilesLoader.loadSpectrumFile(Spectrum.getSpectrumFile(psmKey));
+                    }
+                    Precursor precursor = SpectrumFactory.getInstance().getPrecursor(psmKey);
+                    numericValues[0][index] = Math.abs(bestAssumption.getDeltaMass(precursor.getMz(), searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection()));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // make sure that the keys were not changed in the meantime
+        if (keys == psmKeys) {
+            if (textValues != null) {
+                snapshot.setTextColumn(column, textValues);
+            } else {
+                snapshot.setNumericColumn(column, numericValues);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of a cell from the snapshot.
+     *
+     * @param index the index of the PSM in the list of keys
+     * @param column the column
+     *
+     * @return the value of the cell
+     */
+    private Object getSnapshotValue(int index, int column) {
+        switch (column) {
+            case 2:
+            case 4:
+                return (int) snapshot.getNumericColumn(column)[0][index];
+            case 3:
+                return snapshot.getTextColumn(column)[index];
+            case 5:
+                return snapshot.getNumericColumn(column)[0][index];
+            default:
+                return null;
+        }
+    }
 }
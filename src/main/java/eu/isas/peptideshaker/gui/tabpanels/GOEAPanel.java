@@ -5,7 +5,6 @@ import com.compomics.util.examples.BareBonesBrowserLaunch;
 import com.compomics.util.experiment.biology.genes.GeneFactory;
 import com.compomics.util.experiment.biology.genes.GeneMaps;
 import com.compomics.util.experiment.biology.genes.go.GoDomains;
-import com.compomics.util.experiment.biology.genes.go.GoMapping;
 import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
@@ -29,6 +28,9 @@ import eu.isas.peptideshaker.gui.tablemodels.ProteinTableModel;
 import eu.isas.peptideshaker.gui.tabpanels.GOEAPanel.QuickGoTerm.DummyResults;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import eu.isas.peptideshaker.utils.BoundedExecutor;
+import eu.isas.peptideshaker.utils.GoMappingTable;
+import eu.isas.peptideshaker.utils.GoTermTable;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.ComponentOrientation;
@@ -58,7 +60,6 @@ import no.uib.jsparklines.renderers.JSparklinesBarChartTableCellRenderer;
 import no.uib.jsparklines.renderers.JSparklinesIntegerIconTableCellRenderer;
 import no.uib.jsparklines.renderers.JSparklinesTableCellRenderer;
 import no.uib.jsparklines.renderers.util.BarChartColorRenderer;
-import org.apache.commons.math.distribution.HypergeometricDistributionImpl;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartMouseEvent;
 import org.jfree.chart.ChartMouseListener;
@@ -348,11 +349,8 @@ public class GOEAPanel extends javax.swing.JPanel {
                         dm.getDataVector().removeAllElements();
                         dm.fireTableDataChanged();
 
-                        TreeMap<String, Integer> datasetGoTermUsage = new TreeMap<String, Integer>();
-
                         try {
                             progressDialog.setTitle("Importing GO (1/3). Please Wait...");
-                            GoMapping backgroundGoMapping = new GoMapping();
                             Integer taxon = null;
                             IdentificationParameters identificationParameters = peptideShakerGUI.getIdentificationParameters();
                             GenePreferences genePreferences = identificationParameters.getGenePreferences();
@@ -371,11 +369,12 @@ public class GOEAPanel extends javax.swing.JPanel {
                                 SpeciesFactory speciesFactory = SpeciesFactory.getInstance();
                                 String ensemblDatasetName = speciesFactory.getEnsemblDataset(taxon);
                                 File goMappingFile = GeneFactory.getGoMappingFile(ensemblDatasetName);
-                                backgroundGoMapping.loadMappingsFromFile(goMappingFile, progressDialog);
+                                GoMappingTable goMappingTable = GoMappingTable.getGoMappingTable(goMappingFile, progressDialog);
 
                                 GoDomains goDomains = new GoDomains();
                                 File goDomainsFile = GeneFactory.getGoDomainsFile();
                                 goDomains.laodMappingFromFile(goDomainsFile, progressDialog);
+                                GoTermTable goTermTable = GoTermTable.getGoTermTable();
 
                                 Identification identification = peptideShakerGUI.getIdentification();
 
@@ -384,7 +383,7 @@ public class GOEAPanel extends javax.swing.JPanel {
                                 progressDialog.setMaxPrimaryProgressCounter(identification.getProteinIdentification().size());
                                 progressDialog.setValue(0);
 
-                                int totalNumberOfGoMappedProteinsInProject = 0;
+                                ArrayList<String> mainMatches = new ArrayList<String>();
                                 PSParameter psParameter = new PSParameter();
                                 ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
                                 parameters.add(psParameter);
@@ -397,18 +396,7 @@ public class GOEAPanel extends javax.swing.JPanel {
 
                                     if (psParameter.getMatchValidationLevel().isValidated() && !ProteinMatch.isDecoy(proteinKey) && !psParameter.isHidden()) {
 
-                                        String mainMatch = proteinMatch.getMainMatch();
-                                        HashSet<String> goTerms = backgroundGoMapping.getGoAccessions(mainMatch);
-                                        if (goTerms != null && !goTerms.isEmpty()) {
-                                            totalNumberOfGoMappedProteinsInProject++;
-                                            for (String goTerm : goTerms) {
-                                                Integer usage = datasetGoTermUsage.get(goTerm);
-                                                if (usage == null) {
-                                                    usage = 0;
-                                                }
-                                                datasetGoTermUsage.put(goTerm, usage + 1);
-                                            }
-                                        }
+                                        mainMatches.add(proteinMatch.getMainMatch());
                                     }
                                     if (progressDialog.isRunCanceled()) {
                                         return;
@@ -416,47 +404,57 @@ public class GOEAPanel extends javax.swing.JPanel {
                                     progressDialog.increasePrimaryProgressCounter();
                                 }
 
-                                ArrayList<String> termNamesMapped = backgroundGoMapping.getSortedTermNames();
-                                int nBackgroundProteins = backgroundGoMapping.getProteinToGoMap().size();
+                                // count the GO terms of the proteins in parallel
+                                int[] datasetGoTermUsage = new int[goMappingTable.getNTerms()];
+                                int totalNumberOfGoMappedProteinsInProject;
+                                BoundedExecutor executor = new BoundedExecutor(peptideShakerGUI.getProcessingPreferences().getnThreads());
+                                try {
+                                    totalNumberOfGoMappedProteinsInProject = goMappingTable.countTerms(mainMatches, datasetGoTermUsage, executor, progressDialog);
+                                } finally {
+                                    executor.shutdownNow();
+                                }
+                                if (progressDialog.isRunCanceled()) {
+                                    return;
+                                }
+
+                                int nTerms = goMappingTable.getNTerms();
+                                int nBackgroundProteins = goMappingTable.getNBackgroundProteins();
                                 progressDialog.setTitle("Creating GO Plots (3/3). Please Wait...");
                                 progressDialog.setValue(0);
-                                progressDialog.setMaxPrimaryProgressCounter(termNamesMapped.size());
+                                progressDialog.setMaxPrimaryProgressCounter(nTerms);
+
+                                // compute the p-values of all terms at once
+                                double[] pValues = goMappingTable.getHypergeometricProbabilities(datasetGoTermUsage, totalNumberOfGoMappedProteinsInProject);
 
                                 // update the table
                                 Double maxLog2Diff = 0.0;
-                                ArrayList<Integer> indexes = new ArrayList<Integer>();
-                                ArrayList<Double> pValues = new ArrayList<Double>();
 
                                 // display the number of go mapped proteins
                                 goProteinCountLabel.setText("[GO Proteins: Ensembl: " + nBackgroundProteins
                                         + ", Project: " + totalNumberOfGoMappedProteinsInProject + "]");
 
                                 boolean goDomainChanged = false;
+                                ArrayList<Integer> missingDomainRows = new ArrayList<Integer>();
 
-                                for (String goTermName : termNamesMapped) {
+                                for (int termIndex = 0; termIndex < nTerms; termIndex++) {
 
                                     if (progressDialog.isRunCanceled()) {
                                         break;
                                     }
 
-                                    String goAccession = backgroundGoMapping.getTermAccession(goTermName);
-
-                                    Integer frequencyBackground = backgroundGoMapping.getProteinAccessions(goAccession).size();
+                                    String goTermName = goMappingTable.getTermName(termIndex);
+                                    String goAccession = goMappingTable.getTermAccession(termIndex);
 
-                                    Integer frequencyDataset = 0;
+                                    int frequencyBackground = goMappingTable.getBackgroundFrequency(termIndex);
+                                    int frequencyDataset = datasetGoTermUsage[termIndex];
                                     Double percentDataset = 0.0;
 
-                                    if (datasetGoTermUsage.get(goAccession) != null) {
-                                        frequencyDataset = datasetGoTermUsage.get(goAccession);
+                                    if (frequencyDataset > 0) {
                                         percentDataset = ((double) frequencyDataset) * 100 / totalNumberOfGoMappedProteinsInProject;
                                     }
 
                                     Double percentAll = ((double) frequencyBackground) * 100 / nBackgroundProteins;
-                                    Double pValue = new HypergeometricDistributionImpl(
-                                            nBackgroundProteins, // population size
-                                            frequencyBackground, // number of successes
-                                            totalNumberOfGoMappedProteinsInProject // sample size
-                                    ).probability(frequencyDataset);
+                                    Double pValue = pValues[termIndex];
                                     Double log2Diff = Math.log(percentDataset / percentAll) / Math.log(2);
 
                                     if (!log2Diff.isInfinite() && Math.abs(log2Diff) > maxLog2Diff) {
@@ -465,22 +463,16 @@ public class GOEAPanel extends javax.swing.JPanel {
 
                                     String goDomain = goDomains.getTermDomain(goAccession);
 
-                                    if (goDomain == null) {
-
-                                        // URL to the JSON file for the given GO term
-                                        URL u = new URL("https://www.ebi.ac.uk/QuickGO/services/ontology/go/terms/" + goAccession);
-                                        
-                                        JsonMarshaller jsonMarshaller = new JsonMarshaller();
-                                        QuickGoTerm result = (QuickGoTerm) jsonMarshaller.fromJson(QuickGoTerm.class, u);
-
-                                        // get the domain 
-                                        for (DummyResults tempResult : result.results) {
-                                           goDomain = tempResult.aspect;
+                                    if (goDomain == null && goTermTable != null) {
+                                        goDomain = goTermTable.getDomain(goAccession);
+                                        if (goDomain != null) {
+                                            goDomains.addDomain(goAccession, goDomain);
+                                            goDomainChanged = true;
                                         }
+                                    }
 
-                                        // add the domain to the list
-                                        goDomains.addDomain(goAccession, goDomain);
-                                        goDomainChanged = true;
+                                    if (goDomain == null) {
+                                        missingDomainRows.add(goMappingsTable.getRowCount());
                                     }
 
                                     // add the data points for the first data series 
@@ -500,9 +492,6 @@ public class GOEAPanel extends javax.swing.JPanel {
 
                                     JSparklinesDataset dataset = new JSparklinesDataset(sparkLineDataSeries);
 
-                                    pValues.add(pValue);
-                                    indexes.add(goMappingsTable.getRowCount());
-
                                     ((DefaultTableModel) goMappingsTable.getModel()).addRow(new Object[]{
                                         goMappingsTable.getRowCount() + 1,
                                         peptideShakerGUI.getDisplayFeaturesGenerator().addGoLink(goAccession),
@@ -519,10 +508,15 @@ public class GOEAPanel extends javax.swing.JPanel {
                                     progressDialog.increasePrimaryProgressCounter();
                                 }
 
-                                if (indexes.isEmpty()) {
+                                if (goMappingsTable.getRowCount() == 0) {
                                     progressDialog.setRunCanceled();
                                 }
 
+                                // without local ontology, try to get the missing domains from QuickGO
+                                if (!missingDomainRows.isEmpty() && goTermTable == null && !progressDialog.isRunCanceled()) {
+                                    goDomainChanged = setQuickGoDomains(missingDomainRows, goMappingTable, goDomains) || goDomainChanged;
+                                }
+
                                 int significantCounter = 0;
                                 double significanceLevel = 0.05;
 
@@ -535,37 +529,19 @@ public class GOEAPanel extends javax.swing.JPanel {
                                     ((DefaultTableModel) goMappingsTable.getModel()).fireTableDataChanged();
 
                                     // correct the p-values for multiple testing using benjamini-hochberg
-                                    sortPValues(pValues, indexes);
-
-                                    ((ValueAndBooleanDataPoint) ((DefaultTableModel) goMappingsTable.getModel()).getValueAt(
-                                            indexes.get(0), goMappingsTable.getColumn("Log2 Diff").getModelIndex())).setSignificant(
-                                            pValues.get(0) < significanceLevel);
-                                    ((DefaultTableModel) goMappingsTable.getModel()).setValueAt(new XYDataPoint(pValues.get(0), pValues.get(0)), indexes.get(0),
-                                            goMappingsTable.getColumn("p-value").getModelIndex());
-
-                                    if (pValues.get(0) < significanceLevel) {
-                                        significantCounter++;
-                                    }
-
-                                    for (int i = 1; i < pValues.size(); i++) {
+                                    double[] correctedPValues = getBenjaminiHochbergPValues(pValues);
 
-                                        if (progressDialog.isRunCanceled()) {
-                                            break;
-                                        }
-
-                                        double tempPvalue = pValues.get(i) * pValues.size() / (pValues.size() - i);
+                                    int pValueColumn = goMappingsTable.getColumn("p-value").getModelIndex();
+                                    int log2DiffColumn = goMappingsTable.getColumn("Log2 Diff").getModelIndex();
+                                    DefaultTableModel tableModel = (DefaultTableModel) goMappingsTable.getModel();
 
-                                        // have to check if the correction results in a p-value bigger than 1
-                                        if (tempPvalue > 1) {
-                                            tempPvalue = 1;
-                                        }
+                                    for (int row = 0; row < correctedPValues.length; row++) {
 
-                                        ((ValueAndBooleanDataPoint) ((DefaultTableModel) goMappingsTable.getModel()).getValueAt(
-                                                indexes.get(i), goMappingsTable.getColumn("Log2 Diff").getModelIndex())).setSignificant(tempPvalue < significanceLevel);
-                                        ((DefaultTableModel) goMappingsTable.getModel()).setValueAt(new XYDataPoint(tempPvalue, tempPvalue), indexes.get(i),
-                                                goMappingsTable.getColumn("p-value").getModelIndex());
+                                        double correctedPValue = correctedPValues[row];
+                                        ((ValueAndBooleanDataPoint) tableModel.getValueAt(row, log2DiffColumn)).setSignificant(correctedPValue < significanceLevel);
+                                        tableModel.setValueAt(new XYDataPoint(correctedPValue, correctedPValue), row, pValueColumn);
 
-                                        if (tempPvalue < significanceLevel) {
+                                        if (correctedPValue < significanceLevel) {
                                             significantCounter++;
                                         }
                                     }
@@ -1931,36 +1907,104 @@ public class GOEAPanel extends javax.swing.JPanel {
     }
 
     /**
-     * Sort the p-values and make the same changes to the table indexes.
+     * Retrieves the domains of the GO terms of the given rows of the GO
+     * mappings table from QuickGO in batches, and sets them in the table and
+     * in the GO domains. If QuickGO cannot be reached, e.g. when working
+     * offline, the domains are left empty.
      *
-     * @param pValues
-     * @param tableIndexes
+     * @param rows the rows of the GO terms without domain
+     * @param goMappingTable the GO mapping table used to fill the GO mappings
+     * table
+     * @param goDomains the GO domains where to add the domains found
+     *
+     * @return a boolean indicating whether domains were added
      */
-    private void sortPValues(ArrayList<Double> pValues, ArrayList<Integer> tableIndexes) {
+    private boolean setQuickGoDomains(ArrayList<Integer> rows, GoMappingTable goMappingTable, GoDomains goDomains) {
+
+        DefaultTableModel tableModel = (DefaultTableModel) goMappingsTable.getModel();
+        int domainColumn = goMappingsTable.getColumn("GO Domain").getModelIndex();
 
-        // iterate p-value list
-        for (int i = 0; i < pValues.size(); i++) {
+        HashMap<String, Integer> accessionToRow = new HashMap<String, Integer>(rows.size());
+        for (int row : rows) {
+            accessionToRow.put(goMappingTable.getTermAccession(row), row);
+        }
 
-            double maxValue = -1;
-            int maxIndex = -1;
+        boolean domainAdded = false;
+        ArrayList<String> accessions = new ArrayList<String>(accessionToRow.keySet());
+        int batchSize = 100;
+        JsonMarshaller jsonMarshaller = new JsonMarshaller();
 
-            // find max p-value in sublist
-            for (int j = i; j < pValues.size(); j++) {
-                if (pValues.get(j) > maxValue) {
-                    maxValue = pValues.get(j);
-                    maxIndex = j;
+        for (int start = 0; start < accessions.size() && !progressDialog.isRunCanceled(); start += batchSize) {
+
+            StringBuilder ids = new StringBuilder();
+            for (int i = start; i < Math.min(start + batchSize, accessions.size()); i++) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(accessions.get(i));
+            }
+
+            try {
+                // URL to the JSON file for the given GO terms
+                URL u = new URL("https://www.ebi.ac.uk/QuickGO/services/ontology/go/terms/" + ids);
+                QuickGoTerm result = (QuickGoTerm) jsonMarshaller.fromJson(QuickGoTerm.class, u);
+
+                if (result != null && result.results != null) {
+                    for (DummyResults tempResult : result.results) {
+                        Integer row = accessionToRow.get(tempResult.id);
+                        if (row != null && tempResult.aspect != null) {
+                            tableModel.setValueAt(tempResult.aspect, row, domainColumn);
+                            goDomains.addDomain(tempResult.id, tempResult.aspect);
+                            domainAdded = true;
+                        }
+                    }
                 }
+            } catch (IOException e) {
+                // QuickGO not reachable, the domains are left empty
+                return domainAdded;
+            }
+        }
+
+        return domainAdded;
+    }
+
+    /**
+     * Returns the p-values corrected for multiple testing using the
+     * Benjamini-Hochberg procedure. The p-values are sorted once and the
+     * corrected values returned in the original order.
+     *
+     * @param pValues the p-values
+     *
+     * @return the corrected p-values
+     */
+    private double[] getBenjaminiHochbergPValues(final double[] pValues) {
+
+        int nValues = pValues.length;
+        Integer[] order = new Integer[nValues];
+        for (int i = 0; i < nValues; i++) {
+            order[i] = i;
+        }
+
+        // sort by decreasing p-value
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(pValues[o2], pValues[o1]);
             }
+        });
 
-            // move in both lists
-            double oldValue = pValues.get(i);
-            pValues.set(i, pValues.get(maxIndex));
-            pValues.set(maxIndex, oldValue);
+        double[] result = new double[nValues];
+        for (int i = 0; i < nValues; i++) {
+            double correctedPValue = pValues[order[i]] * nValues / (nValues - i);
 
-            int oldIntValue = tableIndexes.get(i);
-            tableIndexes.set(i, tableIndexes.get(maxIndex));
-            tableIndexes.set(maxIndex, oldIntValue);
+            // have to check if the correction results in a p-value bigger than 1
+            if (correctedPValue > 1) {
+                correctedPValue = 1;
+            }
+            result[order[i]] = correctedPValue;
         }
+
+        return result;
     }
 
     /**
@@ -2225,6 +2269,14 @@ public class GOEAPanel extends javax.swing.JPanel {
          * The aspect object from the results.
          */
         public class DummyResults {
+
+            /**
+             * The accession of the GO term.
+             */
+            String id;
+            /**
+             * The domain of the GO term.
+             */
             String aspect;
         }
     }
@@ -18,6 +18,7 @@ import com.compomics.util.experiment.identification.spectrum_annotation.spectrum
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
 import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.gui.genes.GeneDetailsDialog;
 import com.compomics.util.gui.GuiUtilities;
 import com.compomics.util.gui.TableProperties;
@@ -2065,6 +2066,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                             identification, peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getGeneMaps(), pSMaps.getPsmSpecificMap(), psmKey,
                             peptideShakerGUI.getIdentificationParameters());
                     if (matchValidationDialog.isValidationChanged()) {
+                        clearTableSnapshots();
                         updatePsmPanelTitle();
                         peptidesPanel.repaint();
                         proteinsLayeredPanel.repaint();
@@ -2174,7 +2176,9 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                                 identification, peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getGeneMaps(), pSMaps.getProteinMap(), proteinKey,
                                 peptideShakerGUI.getIdentificationParameters());
                         if (matchValidationDialog.isValidationChanged()) {
+                            clearTableSnapshots();
                             updateProteinPanelTitle();
+                            proteinTable.repaint();
                         }
                     } catch (Exception e) {
                         peptideShakerGUI.catchException(e);
@@ -2256,6 +2260,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                             identification, peptideShakerGUI.getIdentificationFeaturesGenerator(), peptideShakerGUI.getGeneMaps(), pSMaps.getPeptideSpecificMap(), peptideKey,
                             peptideShakerGUI.getIdentificationParameters());
                     if (matchValidationDialog.isValidationChanged()) {
+                        clearTableSnapshots();
                         updateProteinPanelTitle();
                         updatePeptidePanelTitle();
                     }
@@ -4916,6 +4921,14 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                 SelfUpdatingTableModel tableModel = (SelfUpdatingTableModel) peptideTable.getModel();
                 int peptideIndex = tableModel.getViewIndex(row);
                 String peptideKey = peptideKeys.get(peptideIndex);
+
+                // make sure that the spectra of the peptide are loaded before the other spectra
+                if (peptideShakerGUI.isLoadingSpectrumFiles()) {
+                    for (String spectrumKey : identification.getPeptideMatch(peptideKey).getSpectrumMatchesKeys()) {
+                        peptideShakerGUI.loadSpectrumFile(Spectrum.getSpectrumFile(spectrumKey));
+                    }
+                }
+
                 try {
                     psmKeys = identificationFeaturesGenerator.getSortedPsmKeys(peptideKey, peptideShakerGUI.getUtilitiesUserPreferences().getSortPsmsOnRt(), forcePsmOrderUpdate);
                 } catch (Exception e) {
@@ -4937,7 +4950,8 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                 // update the table model
                 if (psmTable.getModel() instanceof PsmTableModel && ((PsmTableModel) psmTable.getModel()).isInstantiated()) {
                     ((PsmTableModel) psmTable.getModel()).updateDataModel(identification, peptideShakerGUI.getDisplayFeaturesGenerator(),
-                            peptideShakerGUI.getIdentificationParameters(), psmKeys, peptideShakerGUI.getDisplayPreferences().showScores());
+                            peptideShakerGUI.getIdentificationParameters(), psmKeys, peptideShakerGUI.getDisplayPreferences().showScores(),
+                            peptideShakerGUI.getSpectrumFilesLoader());
                     ((PsmTableModel) psmTable.getModel()).setSelfUpdating(true);
                     ((PsmTableModel) psmTable.getModel()).resetSorting(new ProgressDialogX(peptideShakerGUI,
                             Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/peptide-shaker.gif")),
@@ -4946,7 +4960,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                 } else {
                     PsmTableModel psmTableModel = new PsmTableModel(identification, peptideShakerGUI.getDisplayFeaturesGenerator(),
                             peptideShakerGUI.getIdentificationParameters(), psmKeys, peptideShakerGUI.getDisplayPreferences().showScores(),
-                            peptideShakerGUI.getExceptionHandler());
+                            peptideShakerGUI.getSpectrumFilesLoader(), peptideShakerGUI.getExceptionHandler());
                     psmTable.setModel(psmTableModel);
                 }
 
@@ -5106,7 +5120,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
             }
         }, "ProgressDialog").start();
 
-        new Thread("DisplayThread") {
+        peptideShakerGUI.getGuiTaskScheduler().submit("Overview display", PeptideShakerGUI.OVER_VIEW_TAB_INDEX, "DisplayThread", progressDialog, new Runnable() {
             @Override
             public void run() {
 
@@ -5200,7 +5214,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                     progressDialog.setRunFinished();
                 }
             }
-        }.start();
+        });
     }
 
     /**
@@ -5217,11 +5231,30 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
      * occurred while retrieving a match from the database
      */
     public void updateProteinTable() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        if (proteinTable.getModel() instanceof ProteinTableModel) {
+            ((ProteinTableModel) proteinTable.getModel()).clearSnapshot();
+        }
         DefaultTableModel dm = (DefaultTableModel) proteinTable.getModel();
         dm.fireTableDataChanged();
         updateSelection(true);
     }
 
+    /**
+     * Clears the values computed for sorting the protein, peptide and PSM
+     * tables, to be called after a change of validation level.
+     */
+    private void clearTableSnapshots() {
+        if (proteinTable.getModel() instanceof ProteinTableModel) {
+            ((ProteinTableModel) proteinTable.getModel()).clearSnapshot();
+        }
+        if (peptideTable.getModel() instanceof PeptideTableModel) {
+            ((PeptideTableModel) peptideTable.getModel()).clearSnapshot();
+        }
+        if (psmTable.getModel() instanceof PsmTableModel) {
+            ((PsmTableModel) psmTable.getModel()).clearSnapshot();
+        }
+    }
+
     /**
      * Returns the protein table.
      *
@@ -3210,6 +3210,9 @@ public class ProteinStructurePanel extends javax.swing.JPanel {
      */
     public void updateMainMatch(String mainMatch, int proteinInferenceType) {
         if (proteinTable.getRowCount() > 0) {
+            if (proteinTable.getModel() instanceof ProteinTableModel) {
+                ((ProteinTableModel) proteinTable.getModel()).clearSnapshot();
+            }
             DefaultTableModel dm = (DefaultTableModel) proteinTable.getModel();
             dm.fireTableDataChanged();
             reselect();
@@ -1962,7 +1962,7 @@ public class PtmPanel extends javax.swing.JPanel {
             }
         }, "ProgressDialog").start();
 
-        new Thread("DisplayThread") {
+        peptideShakerGUI.getGuiTaskScheduler().submit("PTM related peptides", PeptideShakerGUI.MODIFICATIONS_TAB_INDEX, "DisplayThread", progressDialog, new Runnable() {
             public void run() {
 
                 relatedSelected = false;
@@ -2029,7 +2029,7 @@ public class PtmPanel extends javax.swing.JPanel {
 
                 progressDialog.setRunFinished();
             }
-        }.start();
+        });
     }//GEN-LAST:event_peptidesTableMouseReleased
 
     /**
@@ -2359,7 +2359,7 @@ public class PtmPanel extends javax.swing.JPanel {
                 }
             }).start();
 
-            new Thread("DisplayThread") {
+            peptideShakerGUI.getGuiTaskScheduler().submit("PTM peptides", PeptideShakerGUI.MODIFICATIONS_TAB_INDEX, "DisplayThread", progressDialog, new Runnable() {
                 @Override
                 public void run() {
 
@@ -2367,7 +2367,7 @@ public class PtmPanel extends javax.swing.JPanel {
                     progressDialog.setRunFinished();
                     newItemSelection();
                 }
-            }.start();
+            });
         }
     }//GEN-LAST:event_ptmJTableKeyReleased
 
@@ -3870,7 +3870,7 @@ public class PtmPanel extends javax.swing.JPanel {
                 progressDialog.increasePrimaryProgressCounter();
 
                 String spectrumKey = identification.getPeptideMatch(getSelectedPeptide(true)).getSpectrumMatchesKeys().get(i);
-                Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
+                Precursor precursor = peptideShakerGUI.getPrecursor(spectrumKey);
 
                 if (precursor != null) {
 
@@ -4506,7 +4506,7 @@ public class PtmPanel extends javax.swing.JPanel {
                     case 5:
                         spectrumKey = identification.getPeptideMatch(getSelectedPeptide(relatedTable)).getSpectrumMatchesKeys().get(row);
                         try {
-                            Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey); // @TODO: there is sometimes an IOException when closing the tool...
+                            Precursor precursor = peptideShakerGUI.getPrecursor(spectrumKey); // @TODO: there is sometimes an IOException when closing the tool...
 
                             if (precursor != null) {
                                 return precursor.getRt();
@@ -1,38 +1,28 @@
 package eu.isas.peptideshaker.gui.tabpanels;
 
 import com.compomics.util.Util;
-import com.compomics.util.experiment.biology.Enzyme;
 import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.PTMFactory;
 import com.compomics.util.experiment.biology.Peptide;
-import com.compomics.util.experiment.biology.Protein;
 import com.compomics.util.experiment.identification.Identification;
-import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
-import com.compomics.util.experiment.identification.matches.ProteinMatch;
-import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
-import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
-import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
-import com.compomics.util.experiment.massspectrometry.Precursor;
-import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.gui.error_handlers.HelpDialog;
 import com.compomics.util.gui.waiting.waitinghandlers.ProgressDialogX;
 import com.compomics.util.gui.export.graphics.ExportGraphicsDialog;
 import com.compomics.util.experiment.identification.filtering.PeptideAssumptionFilter;
 import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
-import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
-import com.compomics.util.preferences.DigestionPreferences;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import eu.isas.peptideshaker.gui.PeptideShakerGUI;
 import eu.isas.peptideshaker.scoring.PSMaps;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.preferences.SpectrumCountingPreferences.SpectralCountingMethod;
-import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import eu.isas.peptideshaker.utils.BoundedExecutor;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
+import eu.isas.peptideshaker.utils.QCDistributions;
 import java.awt.Color;
 import java.awt.ComponentOrientation;
 import java.awt.Toolkit;
@@ -67,34 +57,30 @@ public class QCPanel extends javax.swing.JPanel {
      * target, non validated decoy).
      */
     private Color[] histogramColors;
-    /**
-     * The sequence factory.
-     */
-    private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
     /**
      * A simple progress dialog.
      */
     private static ProgressDialogX progressDialog;
     /**
-     * Values of the validated target hits.
+     * Histogram of the values of the validated target hits.
      */
-    public ArrayList<Double> validatedValues;
+    public QCDistributions.Histogram validatedValues;
     /**
-     * Values of the doubtful validated target hits.
+     * Histogram of the values of the doubtful validated target hits.
      */
-    public ArrayList<Double> validatedDoubtfulValues;
+    public QCDistributions.Histogram validatedDoubtfulValues;
     /**
-     * Values of the non validated target hits.
+     * Histogram of the values of the non validated target hits.
      */
-    public ArrayList<Double> nonValidatedValues;
+    public QCDistributions.Histogram nonValidatedValues;
     /**
-     * Values of the validated decoy hits.
+     * Histogram of the values of the validated decoy hits.
      */
-    public ArrayList<Double> validatedDecoyValues;
+    public QCDistributions.Histogram validatedDecoyValues;
     /**
-     * Values of the non validated decoy hits.
+     * Histogram of the values of the non validated decoy hits.
      */
-    public ArrayList<Double> nonValidatedDecoyValues;
+    public QCDistributions.Histogram nonValidatedDecoyValues;
     /**
      * The current maximum value to be plotted.
      */
@@ -1243,7 +1229,7 @@ public class QCPanel extends javax.swing.JPanel {
                 }
             }, "ProgressDialog").start();
 
-            new Thread("UpdatePlotThread") {
+            peptideShakerGUI.getGuiTaskScheduler().submit("QC protein plot", PeptideShakerGUI.QC_PLOTS_TAB_INDEX, "UpdatePlotThread", progressDialog, new Runnable() {
                 @Override
                 public void run() {
 
@@ -1432,7 +1418,7 @@ public class QCPanel extends javax.swing.JPanel {
 
                     progressDialog.setRunFinished();
                 }
-            }.start();
+            });
         }
     }
 
@@ -1466,7 +1452,7 @@ public class QCPanel extends javax.swing.JPanel {
                 }
             }, "ProgressDialog").start();
 
-            new Thread("UpdatePlotThread") {
+            peptideShakerGUI.getGuiTaskScheduler().submit("QC peptide plot", PeptideShakerGUI.QC_PLOTS_TAB_INDEX, "UpdatePlotThread", progressDialog, new Runnable() {
                 @Override
                 public void run() {
 
@@ -1609,7 +1595,7 @@ public class QCPanel extends javax.swing.JPanel {
                         peptideShakerGUI.catchException(e);
                     }
                 }
-            }.start();
+            });
         }
     }
 
@@ -1639,7 +1625,7 @@ public class QCPanel extends javax.swing.JPanel {
                 }
             }, "ProgressDialog").start();
 
-            new Thread("UpdatePlotThread") {
+            peptideShakerGUI.getGuiTaskScheduler().submit("QC PSM plot", PeptideShakerGUI.QC_PLOTS_TAB_INDEX, "UpdatePlotThread", progressDialog, new Runnable() {
                 @Override
                 public void run() {
 
@@ -1729,88 +1715,81 @@ public class QCPanel extends javax.swing.JPanel {
 
                     progressDialog.setRunFinished();
                 }
-            }.start();
+            });
         }
     }
 
     /**
-     * Returns the dataset to use for the protein QC plot.
+     * Returns the QC distributions of the project, computing them if needed.
+     * The distributions of all metrics are computed in a single pass, they
+     * are then reused for all plots until the matches change.
+     *
+     * @return the QC distributions of the project, null if the computation
+     * was canceled
      */
-    private void getProteinDataset() {
+    private synchronized QCDistributions getQCDistributions() {
 
-        progressDialog.setPrimaryProgressCounterIndeterminate(false);
-        progressDialog.setMaxPrimaryProgressCounter(peptideShakerGUI.getIdentification().getProteinIdentification().size());
-        progressDialog.setValue(0);
-
-        try {
-            Identification identification = peptideShakerGUI.getIdentification();
-            IdentificationFeaturesGenerator identificationFeaturesGenerator = peptideShakerGUI.getIdentificationFeaturesGenerator();
+        IdentificationFeaturesGenerator identificationFeaturesGenerator = peptideShakerGUI.getIdentificationFeaturesGenerator();
+        QCDistributions qcDistributions = identificationFeaturesGenerator.getIdentificationFeaturesCache().getQCDistributions();
 
-            PSParameter proteinParameter = new PSParameter();
-            maxValue = Double.MIN_VALUE;
+        if (qcDistributions == null) {
 
-            validatedValues = new ArrayList<Double>();
-            validatedDoubtfulValues = new ArrayList<Double>();
-            nonValidatedValues = new ArrayList<Double>();
-            validatedDecoyValues = new ArrayList<Double>();
-            nonValidatedDecoyValues = new ArrayList<Double>();
+            String title = progressDialog.getTitle();
+            progressDialog.setTitle("Computing QC Distributions. Please Wait...");
+            progressDialog.setPrimaryProgressCounterIndeterminate(true);
 
-            ProteinMatchesIterator proteinMatchesIterator = peptideShakerGUI.getIdentification().getProteinMatchesIterator(null, false, null, false, null, progressDialog);
-            ProteinMatch proteinMatch;
-            while ((proteinMatch = proteinMatchesIterator.next()) != null) {
+            BoundedExecutor executor = new BoundedExecutor(peptideShakerGUI.getProcessingPreferences().getnThreads());
+            try {
+                identificationFeaturesGenerator.computeQCDistributions(progressDialog, peptideShakerGUI.getExceptionHandler(), executor);
+            } catch (Exception e) {
+                peptideShakerGUI.catchException(e);
+            } finally {
+                executor.shutdownNow();
+            }
 
-                String proteinKey = proteinMatch.getKey();
+            progressDialog.setTitle(title);
+            qcDistributions = identificationFeaturesGenerator.getIdentificationFeaturesCache().getQCDistributions();
+        }
 
-                if (progressDialog.isRunCanceled()) {
-                    break;
-                }
+        return qcDistributions;
+    }
 
-                double value = 0;
+    /**
+     * Sets the values to plot and the maximal value from the QC distributions
+     * of the given metric.
+     *
+     * @param metric the metric to plot
+     */
+    private void setValues(QCDistributions.Metric metric) {
 
-                if (proteinNumberValidatedPeptidesJRadioButton.isSelected()) {
-                    value = identificationFeaturesGenerator.getNValidatedPeptides(proteinKey);
-                } else if (proteinSpectrumCountingScoreJRadioButton.isSelected()) {
-                    value = identificationFeaturesGenerator.getSpectrumCounting(proteinKey);
-                } else if (proteinSequenceCoverageJRadioButton.isSelected()) {
-                    HashMap<Integer, Double> sequenceCoverage;
-                    try {
-                        sequenceCoverage = peptideShakerGUI.getIdentificationFeaturesGenerator().getSequenceCoverage(proteinKey);
-                    } catch (Exception e) {
-                        peptideShakerGUI.catchException(e);
-                        sequenceCoverage = new HashMap<Integer, Double>();
-                    }
-                    Double sequenceCoverageConfident = 100 * sequenceCoverage.get(MatchValidationLevel.confident.getIndex());
-                    Double sequenceCoverageDoubtful = 100 * sequenceCoverage.get(MatchValidationLevel.doubtful.getIndex());
-                    value = sequenceCoverageConfident + sequenceCoverageDoubtful;
-                } else if (proteinSequenceLengthJRadioButton.isSelected()) {
-                    Protein currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
-                    value = currentProtein.getSequence().length();
-                }
+        QCDistributions qcDistributions = getQCDistributions();
 
-                proteinParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, proteinParameter);
+        if (qcDistributions == null) {
+            progressDialog.setRunCanceled();
+            return;
+        }
 
-                if (!proteinParameter.isHidden()) {
+        validatedValues = qcDistributions.getHistogram(metric, QCDistributions.Category.confident);
+        validatedDoubtfulValues = qcDistributions.getHistogram(metric, QCDistributions.Category.doubtful);
+        nonValidatedValues = qcDistributions.getHistogram(metric, QCDistributions.Category.not_validated);
+        validatedDecoyValues = qcDistributions.getHistogram(metric, QCDistributions.Category.validated_decoy);
+        nonValidatedDecoyValues = qcDistributions.getHistogram(metric, QCDistributions.Category.not_validated_decoy);
+        maxValue = qcDistributions.getMaxValue(metric);
+    }
 
-                    if (value > maxValue) {
-                        maxValue = value;
-                    }
-                    if (!ProteinMatch.isDecoy(proteinKey)) {
-                        if (proteinParameter.getMatchValidationLevel().isValidated()) {
-                            if (proteinParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                validatedValues.add(value);
-                            } else {
-                                validatedDoubtfulValues.add(value);
-                            }
-                        } else {
-                            nonValidatedValues.add(value);
-                        }
-                    }
-                }
+    /**
+     * Returns the dataset to use for the protein QC plot.
+     */
+    private void getProteinDataset() {
 
-                progressDialog.increasePrimaryProgressCounter();
-            }
-        } catch (Exception e) {
-            peptideShakerGUI.catchException(e);
+        if (proteinNumberValidatedPeptidesJRadioButton.isSelected()) {
+            setValues(QCDistributions.Metric.protein_validated_peptides);
+        } else if (proteinSpectrumCountingScoreJRadioButton.isSelected()) {
+            setValues(QCDistributions.Metric.protein_spectrum_counting);
+        } else if (proteinSequenceCoverageJRadioButton.isSelected()) {
+            setValues(QCDistributions.Metric.protein_sequence_coverage);
+        } else if (proteinSequenceLengthJRadioButton.isSelected()) {
+            setValues(QCDistributions.Metric.protein_sequence_length);
         }
     }
 
@@ -1819,204 +1798,12 @@ public class QCPanel extends javax.swing.JPanel {
      */
     private void getPeptideDataset() {
 
-        try {
-            PSParameter peptideParameter = new PSParameter();
-            PSParameter spectrumParameter = new PSParameter();
-            maxValue = Double.MIN_VALUE;
-
-            if (peptideValidatedPsmsJRadioButton.isSelected()) {
-
-                progressDialog.setPrimaryProgressCounterIndeterminate(false);
-                progressDialog.setMaxPrimaryProgressCounter(peptideShakerGUI.getIdentification().getPeptideIdentification().size());
-                progressDialog.setValue(0);
-
-                // Values for the number of validated PSMs
-                validatedValues = new ArrayList<Double>();
-                validatedDoubtfulValues = new ArrayList<Double>();
-                nonValidatedValues = new ArrayList<Double>();
-                validatedDecoyValues = new ArrayList<Double>();
-                nonValidatedDecoyValues = new ArrayList<Double>();
-
-                PSParameter psmParameter = new PSParameter();
-                ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-                parameters.add(psmParameter);
-                PeptideMatchesIterator peptideMatchesIterator = peptideShakerGUI.getIdentification().getPeptideMatchesIterator(parameters, false, parameters, progressDialog);
-                PeptideMatch peptideMatch;
-                while ((peptideMatch = peptideMatchesIterator.next()) != null) {
-
-                    String peptideKey = peptideMatch.getKey();
-
-                    if (progressDialog.isRunCanceled()) {
-                        break;
-                    }
-
-                    double value = 0;
-
-                    peptideShakerGUI.getIdentification().loadSpectrumMatchParameters(peptideMatch.getSpectrumMatchesKeys(), spectrumParameter, progressDialog, false);
-                    for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
-
-                        if (progressDialog.isRunCanceled()) {
-                            break;
-                        }
-
-                        spectrumParameter = (PSParameter) peptideShakerGUI.getIdentification().getSpectrumMatchParameter(spectrumKey, spectrumParameter);
-                        if (spectrumParameter.getMatchValidationLevel().isValidated() && !spectrumParameter.isHidden()) {
-                            value = value + 1;
-                        }
-                    }
-                    if (value > maxValue) {
-                        maxValue = value;
-                    }
-                    peptideParameter = (PSParameter) peptideShakerGUI.getIdentification().getPeptideMatchParameter(peptideKey, peptideParameter);
-
-                    if (!peptideParameter.isHidden()) {
-
-                        if (!peptideMatch.getTheoreticPeptide().isDecoy(peptideShakerGUI.getIdentificationParameters().getSequenceMatchingPreferences())) {
-                            if (peptideParameter.getMatchValidationLevel().isValidated()) {
-                                if (peptideParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                    validatedValues.add(value);
-                                } else {
-                                    validatedDoubtfulValues.add(value);
-                                }
-                            } else {
-                                nonValidatedValues.add(value);
-                            }
-                        } else if (peptideParameter.getMatchValidationLevel().isValidated()) {
-                            validatedDecoyValues.add(value);
-                        } else {
-                            nonValidatedDecoyValues.add(value);
-                        }
-                    }
-
-                    progressDialog.increasePrimaryProgressCounter();
-                }
-            } else if (peptideMissedCleavagesJRadioButton.isSelected()) {
-
-                progressDialog.setPrimaryProgressCounterIndeterminate(false);
-                progressDialog.setMaxPrimaryProgressCounter(peptideShakerGUI.getIdentification().getPeptideIdentification().size());
-                progressDialog.setValue(0);
-
-                // Values for the missed cleavages
-                validatedValues = new ArrayList<Double>();
-                validatedDoubtfulValues = new ArrayList<Double>();
-                nonValidatedValues = new ArrayList<Double>();
-                validatedDecoyValues = new ArrayList<Double>();
-                nonValidatedDecoyValues = new ArrayList<Double>();
-
-                PSParameter psmParameter = new PSParameter();
-                ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-                parameters.add(psmParameter);
-                PeptideMatchesIterator peptideMatchesIterator = peptideShakerGUI.getIdentification().getPeptideMatchesIterator(parameters, false, parameters, progressDialog);
-                PeptideMatch peptideMatch;
-                while ((peptideMatch = peptideMatchesIterator.next()) != null) {
-
-                    String peptideKey = peptideMatch.getKey();
-
-                    if (progressDialog.isRunCanceled()) {
-                        break;
-                    }
-
-                    peptideParameter = (PSParameter) peptideShakerGUI.getIdentification().getPeptideMatchParameter(peptideKey, peptideParameter);
-
-                    if (!peptideParameter.isHidden()) {
-
-                        Double value = null;
-                        DigestionPreferences digestionPreferences = peptideShakerGUI.getIdentificationParameters().getSearchParameters().getDigestionPreferences();
-                        if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
-                            for (Enzyme enzyme : digestionPreferences.getEnzymes()) {
-                                int enzymeMissedCelavages = enzyme.getNmissedCleavages(Peptide.getSequence(peptideKey));
-                                if (value == null || enzymeMissedCelavages < value) {
-                                    value = new Double(enzymeMissedCelavages);
-                                }
-                            }
-                        }
-                        if (value == null) {
-                            value = 0.0;
-                        }
-                        if (value > 0) {
-                            if (value > maxValue) {
-                                maxValue = value;
-                            }
-                        }
-
-                        if (!peptideMatch.getTheoreticPeptide().isDecoy(peptideShakerGUI.getIdentificationParameters().getSequenceMatchingPreferences())) {
-                            if (peptideParameter.getMatchValidationLevel().isValidated()) {
-                                if (peptideParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                    validatedValues.add(value);
-                                } else {
-                                    validatedDoubtfulValues.add(value);
-                                }
-                            } else {
-                                nonValidatedValues.add(value);
-                            }
-                        } else if (peptideParameter.getMatchValidationLevel().isValidated()) {
-                            validatedDecoyValues.add(value);
-                        } else {
-                            nonValidatedDecoyValues.add(value);
-                        }
-                    }
-
-                    progressDialog.increasePrimaryProgressCounter();
-                }
-            } else if (peptideLengthJRadioButton.isSelected()) {
-
-                progressDialog.setPrimaryProgressCounterIndeterminate(false);
-                progressDialog.setMaxPrimaryProgressCounter(peptideShakerGUI.getIdentification().getPeptideIdentification().size());
-                progressDialog.setValue(0);
-
-                // Values for the peptide length
-                validatedValues = new ArrayList<Double>();
-                validatedDoubtfulValues = new ArrayList<Double>();
-                nonValidatedValues = new ArrayList<Double>();
-                validatedDecoyValues = new ArrayList<Double>();
-                nonValidatedDecoyValues = new ArrayList<Double>();
-
-                PSParameter psmParameter = new PSParameter();
-                ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-                parameters.add(psmParameter);
-                PeptideMatchesIterator peptideMatchesIterator = peptideShakerGUI.getIdentification().getPeptideMatchesIterator(parameters, false, parameters, progressDialog);
-                PeptideMatch peptideMatch;
-                while ((peptideMatch = peptideMatchesIterator.next()) != null) {
-
-                    String peptideKey = peptideMatch.getKey();
-
-                    if (progressDialog.isRunCanceled()) {
-                        break;
-                    }
-
-                    peptideParameter = (PSParameter) peptideShakerGUI.getIdentification().getPeptideMatchParameter(peptideKey, peptideParameter);
-
-                    if (!peptideParameter.isHidden()) {
-
-                        double length = Peptide.getSequence(peptideKey).length();
-                        if (length > 0) {
-                            if (length > maxValue) {
-                                maxValue = length;
-                            }
-                        }
-
-                        if (!peptideMatch.getTheoreticPeptide().isDecoy(peptideShakerGUI.getIdentificationParameters().getSequenceMatchingPreferences())) {
-                            if (peptideParameter.getMatchValidationLevel().isValidated()) {
-                                if (peptideParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                    validatedValues.add(length);
-                                } else {
-                                    validatedDoubtfulValues.add(length);
-                                }
-                            } else {
-                                nonValidatedValues.add(length);
-                            }
-                        } else if (peptideParameter.getMatchValidationLevel().isValidated()) {
-                            validatedDecoyValues.add(length);
-                        } else {
-                            nonValidatedDecoyValues.add(length);
-                        }
-                    }
-
-                    progressDialog.increasePrimaryProgressCounter();
-                }
-            }
-        } catch (Exception e) {
-            peptideShakerGUI.catchException(e);
+        if (peptideValidatedPsmsJRadioButton.isSelected()) {
+            setValues(QCDistributions.Metric.peptide_validated_psms);
+        } else if (peptideMissedCleavagesJRadioButton.isSelected()) {
+            setValues(QCDistributions.Metric.peptide_missed_cleavages);
+        } else if (peptideLengthJRadioButton.isSelected()) {
+            setValues(QCDistributions.Metric.peptide_length);
         }
     }
 
@@ -2025,126 +1812,10 @@ public class QCPanel extends javax.swing.JPanel {
      */
     private void getPsmDataset() {
 
-        progressDialog.setPrimaryProgressCounterIndeterminate(false);
-        progressDialog.setMaxPrimaryProgressCounter(peptideShakerGUI.getIdentification().getSpectrumIdentificationSize());
-        progressDialog.setValue(0);
-
-        try {
-            PSParameter psmParameter = new PSParameter();
-            ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-            parameters.add(psmParameter);
-
-            maxValue = Double.MIN_VALUE;
-            Identification identification = peptideShakerGUI.getIdentification();
-
-            if (psmPrecursorMassErrorJRadioButton.isSelected()) {
-
-                // Values for the precursor mass deviation
-                validatedValues = new ArrayList<Double>();
-                validatedDoubtfulValues = new ArrayList<Double>();
-                nonValidatedValues = new ArrayList<Double>();
-                validatedDecoyValues = new ArrayList<Double>();
-                nonValidatedDecoyValues = new ArrayList<Double>();
-
-                for (String spectrumFileName : identification.getSpectrumFiles()) {
-
-                    PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, parameters, false, progressDialog);
-                    SpectrumMatch spectrumMatch;
-
-                    while ((spectrumMatch = psmIterator.next()) != null) {
-
-                        String spectrumKey = spectrumMatch.getKey();
-
-                        if (progressDialog.isRunCanceled()) {
-                            break;
-                        }
-
-                        psmParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psmParameter);
-
-                        if (!psmParameter.isHidden() && spectrumMatch.getBestPeptideAssumption() != null) {
-
-                            Precursor precursor = SpectrumFactory.getInstance().getPrecursor(spectrumKey);
-                            SearchParameters searchParameters = peptideShakerGUI.getIdentificationParameters().getSearchParameters();
-                            double value = spectrumMatch.getBestPeptideAssumption().getDeltaMass(
-                                    precursor.getMz(),
-                                    searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
-                            if (value > maxValue) {
-                                maxValue = value;
-                            }
-
-                            if (!spectrumMatch.getBestPeptideAssumption().getPeptide().isDecoy(peptideShakerGUI.getIdentificationParameters().getSequenceMatchingPreferences())) {
-                                if (psmParameter.getMatchValidationLevel().isValidated()) {
-                                    if (psmParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                        validatedValues.add(value);
-                                    } else {
-                                        validatedDoubtfulValues.add(value);
-                                    }
-                                } else {
-                                    nonValidatedValues.add(value);
-                                }
-                            } else if (psmParameter.getMatchValidationLevel().isValidated()) {
-                                validatedDecoyValues.add(value);
-                            } else {
-                                nonValidatedDecoyValues.add(value);
-                            }
-                        }
-
-                        progressDialog.increasePrimaryProgressCounter();
-                    }
-                }
-            } else if (psmPrecursorChargeJRadioButton.isSelected()) {
-
-                // Values for the precursor charge
-                validatedValues = new ArrayList<Double>();
-                validatedDoubtfulValues = new ArrayList<Double>();
-                nonValidatedValues = new ArrayList<Double>();
-                validatedDecoyValues = new ArrayList<Double>();
-                nonValidatedDecoyValues = new ArrayList<Double>();
-
-                for (String spectrumFileName : identification.getSpectrumFiles()) {
-                    PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, parameters, false, progressDialog);
-                    SpectrumMatch spectrumMatch;
-
-                    while ((spectrumMatch = psmIterator.next()) != null) {
-
-                        String spectrumKey = spectrumMatch.getKey();
-
-                        if (progressDialog.isRunCanceled()) {
-                            break;
-                        }
-
-                        psmParameter = (PSParameter) peptideShakerGUI.getIdentification().getSpectrumMatchParameter(spectrumKey, psmParameter);
-
-                        if (!psmParameter.isHidden() && spectrumMatch.getBestPeptideAssumption() != null) {
-
-                            double value = spectrumMatch.getBestPeptideAssumption().getIdentificationCharge().value;
-                            if (value > maxValue) {
-                                maxValue = value;
-                            }
-
-                            if (!spectrumMatch.getBestPeptideAssumption().getPeptide().isDecoy(peptideShakerGUI.getIdentificationParameters().getSequenceMatchingPreferences())) {
-                                if (psmParameter.getMatchValidationLevel().isValidated()) {
-                                    if (psmParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                        validatedValues.add(value);
-                                    } else {
-                                        validatedDoubtfulValues.add(value);
-                                    }
-                                } else {
-                                    nonValidatedValues.add(value);
-                                }
-                            } else if (psmParameter.getMatchValidationLevel().isValidated()) {
-                                validatedDecoyValues.add(value);
-                            } else {
-                                nonValidatedDecoyValues.add(value);
-                            }
-                        }
-
-                        progressDialog.increasePrimaryProgressCounter();
-                    }
-                }
-            }
-        } catch (Exception e) {
-            peptideShakerGUI.catchException(e);
+        if (psmPrecursorMassErrorJRadioButton.isSelected()) {
+            setValues(QCDistributions.Metric.psm_precursor_mass_error);
+        } else if (psmPrecursorChargeJRadioButton.isSelected()) {
+            setValues(QCDistributions.Metric.psm_precursor_charge);
         }
     }
 
@@ -2153,12 +1824,12 @@ public class QCPanel extends javax.swing.JPanel {
      * sizes.
      *
      * @param bins the bins to use
-     * @param values the values to put into the bins
+     * @param values the histogram of the values to put into the bins
      * @param dataset the dataset to add the values to
      * @param categoryLabel the category label
      * @param integerBins if true the values will be shown as integers
      */
-    private void getBinData(ArrayList<Double> bins, ArrayList<Double> values, DefaultCategoryDataset dataset, String categoryLabel, boolean integerBins) {
+    private void getBinData(ArrayList<Double> bins, QCDistributions.Histogram values, DefaultCategoryDataset dataset, String categoryLabel, boolean integerBins) {
         getBinData(bins, values, dataset, categoryLabel, "", integerBins);
     }
 
@@ -2167,30 +1838,25 @@ public class QCPanel extends javax.swing.JPanel {
      * sizes.
      *
      * @param bins the bins to use
-     * @param values the values to put into the bins
+     * @param values the histogram of the values to put into the bins
      * @param dataset the dataset to add the values to
      * @param categoryLabel the category label
      * @param dataType added to the bin labels after the values, e.g. %
      * @param integerBins if true the values will be shown as integers
      */
-    private void getBinData(ArrayList<Double> bins, ArrayList<Double> values, DefaultCategoryDataset dataset, String categoryLabel, String dataType, boolean integerBins) {
+    private void getBinData(ArrayList<Double> bins, QCDistributions.Histogram values, DefaultCategoryDataset dataset, String categoryLabel, String dataType, boolean integerBins) {
 
         int[] binData = new int[bins.size() + 1];
 
-        for (int i = 0; i < values.size() && !progressDialog.isRunCanceled(); i++) {
-
-            boolean binFound = false;
+        // the values are sorted, the bins are therefore filled in one pass
+        int j = 0;
+        for (int i = 0; values != null && i < values.size() && !progressDialog.isRunCanceled(); i++) {
 
-            for (int j = 0; j < bins.size() && !binFound && !progressDialog.isRunCanceled(); j++) {
-                if (values.get(i) <= bins.get(j)) {
-                    binData[j]++;
-                    binFound = true;
-                }
+            while (j < bins.size() && values.getValue(i) > bins.get(j)) {
+                j++;
             }
 
-            if (!binFound) {
-                binData[binData.length - 1]++;
-            }
+            binData[j] += values.getCount(i);
         }
 
         for (int i = 0; i < bins.size() + 1 && !progressDialog.isRunCanceled(); i++) {
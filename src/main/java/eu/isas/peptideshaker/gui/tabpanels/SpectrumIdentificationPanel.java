@@ -2591,6 +2591,11 @@ public class SpectrumIdentificationPanel extends javax.swing.JPanel {
                 dm.fireTableDataChanged();
 
                 fileSelected = (String) fileNamesCmb.getSelectedItem();
+                try {
+                    peptideShakerGUI.loadSpectrumFile(fileSelected);
+                } catch (Exception e) {
+                    peptideShakerGUI.catchException(e);
+                }
                 double maxMz = spectrumFactory.getMaxMz(fileSelected);
                 try {
                     progressDialog.setTitle("Loading Spectrum Information for " + fileSelected + ". Please Wait..."); // @TODO: problem with progress bar??
@@ -2715,6 +2720,12 @@ public class SpectrumIdentificationPanel extends javax.swing.JPanel {
             fileSelected = (String) fileNamesCmb.getSelectedItem();
         }
 
+        try {
+            peptideShakerGUI.loadSpectrumFile(fileSelected);
+        } catch (Exception e) {
+            peptideShakerGUI.catchException(e);
+        }
+
         int line = spectrumFactory.getSpectrumTitles(fileSelected).indexOf(spectrumTitle);
 
         if (line >= 0) {
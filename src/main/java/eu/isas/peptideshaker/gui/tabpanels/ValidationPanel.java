@@ -1305,7 +1305,7 @@ public class ValidationPanel extends javax.swing.JPanel {
                     }
                 }, "ProgressDialog").start();
 
-                new Thread("RecalculateThread") {
+                peptideShakerGUI.getGuiTaskScheduler().submit("Validation PEP window", PeptideShakerGUI.VALIDATION_TAB_INDEX, "RecalculateThread", progressDialog, new Runnable() {
                     @Override
                     public void run() {
 
@@ -1324,7 +1324,7 @@ public class ValidationPanel extends javax.swing.JPanel {
 
                         progressDialog.setRunFinished();
                     }
-                }.start();
+                });
             }
         } catch (Exception e) {
             if (currentTargetDecoyMap != null) {
@@ -1491,7 +1491,7 @@ public class ValidationPanel extends javax.swing.JPanel {
                 }
             }, "ProgressDialog").start();
 
-            new Thread("RecalculateThread") {
+            peptideShakerGUI.getGuiTaskScheduler().submit("Validation threshold", PeptideShakerGUI.VALIDATION_TAB_INDEX, "RecalculateThread", progressDialog, new Runnable() {
                 @Override
                 public void run() {
 
@@ -1534,7 +1534,7 @@ public class ValidationPanel extends javax.swing.JPanel {
 
                     progressDialog.setRunFinished();
                 }
-            }.start();
+            });
         }
     }//GEN-LAST:event_validateButtonActionPerformed
 
@@ -2302,7 +2302,7 @@ public class ValidationPanel extends javax.swing.JPanel {
             }
         }, "ProgressDialog").start();
 
-        new Thread("DisplayThread") {
+        peptideShakerGUI.getGuiTaskScheduler().submit("Validation display", PeptideShakerGUI.VALIDATION_TAB_INDEX, "DisplayThread", progressDialog, new Runnable() {
             @Override
             public void run() {
 
@@ -2456,7 +2456,7 @@ public class ValidationPanel extends javax.swing.JPanel {
 
                 progressDialog.setRunFinished();
             }
-        }.start();
+        });
     }
 
     /**
@@ -3013,7 +3013,7 @@ public class ValidationPanel extends javax.swing.JPanel {
             }
         }, "ProgressDialog").start();
 
-        new Thread("RecalculateThread") {
+        peptideShakerGUI.getGuiTaskScheduler().submit("Validation peptides and proteins", PeptideShakerGUI.VALIDATION_TAB_INDEX, "RecalculateThread", progressDialog, new Runnable() {
             @Override
             public void run() {
 
@@ -3038,7 +3038,7 @@ public class ValidationPanel extends javax.swing.JPanel {
 
                 progressDialog.setRunFinished();
             }
-        }.start();
+        });
     }
 
     /**
@@ -3063,7 +3063,7 @@ public class ValidationPanel extends javax.swing.JPanel {
             }
         }, "ProgressDialog").start();
 
-        new Thread("RecalculateThread") {
+        peptideShakerGUI.getGuiTaskScheduler().submit("Validation proteins", PeptideShakerGUI.VALIDATION_TAB_INDEX, "RecalculateThread", progressDialog, new Runnable() {
             @Override
             public void run() {
 
@@ -3088,7 +3088,7 @@ public class ValidationPanel extends javax.swing.JPanel {
 
                 progressDialog.setRunFinished();
             }
-        }.start();
+        });
     }
 
     /**
@@ -3113,7 +3113,7 @@ public class ValidationPanel extends javax.swing.JPanel {
             }
         }, "ProgressDialog").start();
 
-        new Thread("RecalculateThread") {
+        peptideShakerGUI.getGuiTaskScheduler().submit("Validation apply proteins", PeptideShakerGUI.VALIDATION_TAB_INDEX, "RecalculateThread", progressDialog, new Runnable() {
             @Override
             public void run() {
 
@@ -3130,7 +3130,7 @@ public class ValidationPanel extends javax.swing.JPanel {
 
                 progressDialog.setRunFinished();
             }
-        }.start();
+        });
     }
 
     /**
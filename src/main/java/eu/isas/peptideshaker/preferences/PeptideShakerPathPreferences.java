@@ -4,6 +4,9 @@ import com.compomics.software.settings.PathKey;
 import com.compomics.software.settings.UtilitiesPathPreferences;
 import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.export.PSExportFactory;
+import eu.isas.peptideshaker.protein_inference.ProteinMappingStore;
+import eu.isas.peptideshaker.utils.GoTermTable;
+import eu.isas.peptideshaker.utils.PackedSequenceStore;
 import eu.isas.peptideshaker.utils.PsZipUtils;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -42,7 +45,21 @@ public class PeptideShakerPathPreferences {
         /**
          * The folder to use when unzipping files.
          */
-        unzipFolder("unzip", "Folder to use when unzipping files", "", true);
+        unzipFolder("unzip", "Folder to use when unzipping files", "", true),
+        /**
+         * Folder where the peptide to protein mappings are stored for reuse
+         * across projects.
+         */
+        proteinMappingCache("peptideshaker_protein_mapping_cache", "Folder where the peptide to protein mappings are stored for reuse across projects.", "protein_mapping_cache", true),
+        /**
+         * Folder where the packed protein sequences are stored for reuse
+         * across runs.
+         */
+        sequenceIndexCache("peptideshaker_sequence_index_cache", "Folder where the packed protein sequences and their index are stored for reuse across runs.", "sequence_index_cache", true),
+        /**
+         * Folder containing the Gene Ontology in the OBO format.
+         */
+        goOntology("peptideshaker_go_ontology", "Folder containing the Gene Ontology in the OBO format (go-basic.obo or go.obo) used to annotate GO terms without network access.", "go_ontology", true);
         /**
          * The key used to refer to this path.
          */
@@ -175,6 +192,12 @@ public class PeptideShakerPathPreferences {
                 return PeptideShaker.getUserPreferencesFolder();
             case unzipFolder:
                 return PsZipUtils.getUnzipParentFolder();
+            case proteinMappingCache:
+                return ProteinMappingStore.getStoreFolder();
+            case sequenceIndexCache:
+                return PackedSequenceStore.getStoreFolder();
+            case goOntology:
+                return GoTermTable.getGoOntologyFolder();
             default:
                 throw new UnsupportedOperationException("Path " + peptideShakerPathKey.id + " not implemented.");
         }
@@ -202,6 +225,15 @@ public class PeptideShakerPathPreferences {
             case unzipFolder:
                 PsZipUtils.setUnzipParentFolder(path);
                 return;
+            case proteinMappingCache:
+                ProteinMappingStore.setStoreFolder(path);
+                return;
+            case sequenceIndexCache:
+                PackedSequenceStore.setStoreFolder(path);
+                return;
+            case goOntology:
+                GoTermTable.setGoOntologyFolder(path);
+                return;
             default:
                 throw new UnsupportedOperationException("Path " + peptideShakerPathKey.id + " not implemented.");
         }
@@ -320,6 +352,27 @@ public class PeptideShakerPathPreferences {
                 }
                 bw.write(toWrite);
                 break;
+            case proteinMappingCache:
+                toWrite = ProteinMappingStore.getStoreFolder();
+                if (toWrite == null) {
+                    toWrite = UtilitiesPathPreferences.defaultPath;
+                }
+                bw.write(toWrite);
+                break;
+            case sequenceIndexCache:
+                toWrite = PackedSequenceStore.getStoreFolder();
+                if (toWrite == null) {
+                    toWrite = UtilitiesPathPreferences.defaultPath;
+                }
+                bw.write(toWrite);
+                break;
+            case goOntology:
+                toWrite = GoTermTable.getGoOntologyFolder();
+                if (toWrite == null) {
+                    toWrite = UtilitiesPathPreferences.defaultPath;
+                }
+                bw.write(toWrite);
+                break;
             default:
                 throw new UnsupportedOperationException("Path " + pathKey.id + " not implemented.");
         }
@@ -25,6 +25,12 @@ public class UserPreferences implements Serializable {
      * Show/hide sliders.
      */
     private boolean showSliders = false;
+    /**
+     * Boolean indicating whether the projects should be saved as archives
+     * instead of tar files. Null for preferences saved before the option was
+     * introduced, in which case archives are used.
+     */
+    private Boolean projectArchive = true;
 
     /**
      * Constructor.
@@ -50,6 +56,28 @@ public class UserPreferences implements Serializable {
         this.showSliders = showSliders;
     }
 
+    /**
+     * Indicates whether the projects should be saved as archives instead of
+     * tar files.
+     *
+     * @return a boolean indicating whether the projects should be saved as
+     * archives
+     */
+    public boolean isProjectArchive() {
+        return projectArchive == null || projectArchive;
+    }
+
+    /**
+     * Sets whether the projects should be saved as archives instead of tar
+     * files.
+     *
+     * @param projectArchive a boolean indicating whether the projects should
+     * be saved as archives
+     */
+    public void setProjectArchive(boolean projectArchive) {
+        this.projectArchive = projectArchive;
+    }
+
     /**
      * Returns the paths of the recent projects.
      *
@@ -22,26 +22,30 @@ import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.fileimport.PsmImporter;
+import eu.isas.peptideshaker.utils.BoundedExecutor;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
- * This class can be used to map peptides to proteins.
+ * This class can be used to map peptides to proteins. Peptides are grouped by
+ * sequence and every sequence is mapped only once per project, the results
+ * being kept in a ProteinMappingCache.
  *
  * @author Marc Vaudel
  */
 public class PeptideMapper {
 
+    /**
+     * The number of sequences mapped per task.
+     */
+    public static final int BATCH_SIZE = 100;
     /**
      * The identification parameters.
      */
@@ -62,6 +66,19 @@ public class PeptideMapper {
      * Exception handler used to catch exceptions.
      */
     private ExceptionHandler exceptionHandler;
+    /**
+     * Cache for the protein mapping of the sequences already mapped.
+     */
+    private final ProteinMappingCache proteinMappingCache = new ProteinMappingCache();
+    /**
+     * The store where to save the mappings for reuse by other projects, null
+     * if not used.
+     */
+    private ProteinMappingStore proteinMappingStore = null;
+    /**
+     * The number of peptides for which the mapping was found in cache.
+     */
+    private int nPeptidesInCache = 0;
 
     /**
      * Constructor.
@@ -77,11 +94,15 @@ public class PeptideMapper {
     }
 
     /**
-     * Maps the peptides found to the proteins.
+     * Maps the peptides found to the proteins. Peptides of identical sequence
+     * are mapped once and sequences mapped previously by this mapper are
+     * retrieved from the cache. The remaining sequences are split in batches
+     * processed by the threads of the executor as they become available so
+     * that large keys do not leave threads idle.
      *
      * @param peptideMap a map of the peptides to map: start of the sequence
      * &gt; list of peptides
-     * @param nThreads the number of threads to use
+     * @param executor the executor to use
      * @param waitingHandler a waiting handler
      *
      * @throws IOException exception thrown whenever an error occurred while
@@ -93,111 +114,100 @@ public class PeptideMapper {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database
      */
-    public void mapPeptides(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException, SQLException,
+    public void mapPeptides(HashMap<String, LinkedList<Peptide>> peptideMap, BoundedExecutor executor, WaitingHandler waitingHandler) throws IOException, InterruptedException, SQLException,
             ClassNotFoundException {
-        if (nThreads == 1) {
-            mapPeptidesSingleThreaded(peptideMap, waitingHandler);
-        } else {
-            mapPeptidesThreadingPerKey(peptideMap, nThreads, waitingHandler);
-        }
-    }
-
-    /**
-     * Maps the peptides found to the proteins.
-     *
-     * @param peptideMap a map of the peptides to map: start of the sequence
-     * &gt; list of peptides
-     * @param sequenceMatchingPreferences The sequence matching preferences
-     * @param idFilter The import filter
-     * @param waitingHandler A waiting handler
-     *
-     * @throws IOException exception thrown whenever an error occurred while
-     * reading or writing a file
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while mapping the peptides to the proteins
-     * @throws SQLException exception thrown whenever an error occurred while
-     * interacting with the database
-     * @throws ClassNotFoundException exception thrown whenever an error
-     * occurred while deserializing an object from the database
-     */
-    private void mapPeptidesSingleThreaded(HashMap<String, LinkedList<Peptide>> peptideMap, WaitingHandler waitingHandler)
-            throws IOException, InterruptedException, SQLException, ClassNotFoundException {
 
         if (peptideMap != null && !peptideMap.isEmpty()) {
-            waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
+
             waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
-            HashSet<String> keys = new HashSet<String>(peptideMap.keySet());
-            for (String key : keys) {
-                LinkedList<Peptide> peptides = peptideMap.get(key);
-                Iterator<Peptide> peptideIterator = peptides.iterator();
-                while (peptideIterator.hasNext()) {
-                    Peptide peptide = peptideIterator.next();
-                    mapPeptide(peptide, !peptideIterator.hasNext());
-                }
-                peptideMap.remove(key);
+            LinkedList<ArrayList<LinkedList<Peptide>>> batches = getBatches(peptideMap);
+            peptideMap.clear();
+
+            if (batches.isEmpty()) {
+                return;
+            }
+
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(batches.size());
+
+            while (!batches.isEmpty() && !canceled && !waitingHandler.isRunCanceled()) {
+                executor.submit(new BatchMapperRunnable(batches.pollFirst()));
+            }
+            if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+                waitingHandler.appendReport("Mapping peptides timed out. Please contact the developers.", true, true);
             }
         }
     }
 
     /**
-     * Maps the peptides found to the proteins.
+     * Groups the peptides of the given map by sequence and sets the parent
+     * proteins of the sequences already in cache to the peptides passing the
+     * import filter. The remaining sequences are
+     * returned in batches of BATCH_SIZE sequences. Sequences sharing the same
+     * key are kept together in order to benefit from the protein tree cache.
      *
      * @param peptideMap a map of the peptides to map: start of the sequence
      * &gt; list of peptides
-     * @param sequenceMatchingPreferences The sequence matching preferences
-     * @param idFilter the import filter
-     * @param nThreads the number of threads to use
-     * @param waitingHandler a waiting handler
+     *
+     * @return the batches of peptides to map, every list containing peptides
+     * of identical sequence
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file
      * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while mapping the peptides to the proteins
+     * occurred while validating the peptides
      * @throws SQLException exception thrown whenever an error occurred while
      * interacting with the database
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database
      */
-    private void mapPeptidesThreadingPerKey(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads,
-            WaitingHandler waitingHandler) throws IOException, InterruptedException, SQLException, ClassNotFoundException {
+    private LinkedList<ArrayList<LinkedList<Peptide>>> getBatches(HashMap<String, LinkedList<Peptide>> peptideMap) throws IOException, InterruptedException, SQLException, ClassNotFoundException {
 
-        if (peptideMap != null && !peptideMap.isEmpty()) {
-            waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
-            waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
-            HashSet<String> keys = new HashSet<String>(peptideMap.keySet());
-            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-            for (String key : keys) {
-                LinkedList<Peptide> peptides = peptideMap.get(key);
-                PeptideListMapperRunnable peptideMapperRunnable = new PeptideListMapperRunnable(peptides);
-                pool.submit(peptideMapperRunnable);
-                if (canceled || waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
-                }
-                peptideMap.remove(key);
-                if (canceled || waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        PeptideAssumptionFilter peptideAssumptionFilter = identificationParameters.getPeptideAssumptionFilter();
+        LinkedHashMap<String, LinkedList<Peptide>> peptidesBySequence = new LinkedHashMap<String, LinkedList<Peptide>>(peptideMap.size());
+
+        for (LinkedList<Peptide> peptides : peptideMap.values()) {
+            for (Peptide peptide : peptides) {
+                String sequence = peptide.getSequence();
+                ArrayList<String> parentProteins = proteinMappingCache.getParentProteins(sequence);
+                if (parentProteins != null) {
+                    if (peptideAssumptionFilter.validatePeptide(peptide, sequenceMatchingPreferences, identificationParameters.getSearchParameters().getDigestionPreferences())) {
+                        peptide.setParentProteins(parentProteins);
+                    }
+                    nPeptidesInCache++;
+                } else {
+                    LinkedList<Peptide> peptidesForSequence = peptidesBySequence.get(sequence);
+                    if (peptidesForSequence == null) {
+                        peptidesForSequence = new LinkedList<Peptide>();
+                        peptidesBySequence.put(sequence, peptidesForSequence);
+                    }
+                    peptidesForSequence.add(peptide);
                 }
             }
-            pool.shutdown();
-            if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
-                waitingHandler.appendReport("Mapping peptides timed out. Please contact the developers.", true, true);
+        }
+
+        LinkedList<ArrayList<LinkedList<Peptide>>> batches = new LinkedList<ArrayList<LinkedList<Peptide>>>();
+        ArrayList<LinkedList<Peptide>> batch = new ArrayList<LinkedList<Peptide>>(BATCH_SIZE);
+
+        for (LinkedList<Peptide> peptides : peptidesBySequence.values()) {
+            batch.add(peptides);
+            if (batch.size() == BATCH_SIZE) {
+                batches.add(batch);
+                batch = new ArrayList<LinkedList<Peptide>>(BATCH_SIZE);
             }
         }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+
+        return batches;
     }
 
     /**
-     * Maps the peptides found to the proteins.
+     * Maps a batch of peptides.
      *
-     * @param peptideMap a map of the peptides to map: start of the sequence
-     * &gt; list of peptides
-     * @param sequenceMatchingPreferences The sequence matching preferences
-     * @param idFilter the import filter
-     * @param nThreads the number of threads to use
-     * @param waitingHandler a waiting handler
+     * @param batch the peptides to map grouped by sequence
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file
@@ -208,37 +218,14 @@ public class PeptideMapper {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database
      */
-    private void mapPeptidesThreadingPerPeptide(HashMap<String, LinkedList<Peptide>> peptideMap, int nThreads,
-            WaitingHandler waitingHandler) throws IOException, InterruptedException, SQLException, ClassNotFoundException, ExecutionException {
-
-        if (peptideMap != null && !peptideMap.isEmpty()) {
-            waitingHandler.setMaxSecondaryProgressCounter(peptideMap.size());
-            waitingHandler.appendReport("Mapping peptides to proteins.", true, true);
-            HashSet<String> keys = new HashSet<String>(peptideMap.keySet());
-            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-            for (String key : keys) {
-                LinkedList<Peptide> peptides = peptideMap.get(key);
-                Iterator<Peptide> peptideIterator = peptides.iterator();
-                while (peptideIterator.hasNext()) {
-                    Peptide peptide = peptideIterator.next();
-                    PeptideMapperRunnable peptideMapperRunnable = new PeptideMapperRunnable(peptide, !peptideIterator.hasNext());
-                    pool.submit(peptideMapperRunnable);
-                    if (canceled || waitingHandler.isRunCanceled()) {
-                        pool.shutdownNow();
-                        return;
-                    }
-                }
-                peptideMap.remove(key);
-                if (canceled || waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
-                }
-            }
-            pool.shutdown();
-            if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
-                waitingHandler.appendReport("Mapping peptides timed out. Please contact the developers.", true, true);
+    private void mapBatch(ArrayList<LinkedList<Peptide>> batch) throws IOException, InterruptedException, SQLException, ClassNotFoundException {
+        for (LinkedList<Peptide> peptides : batch) {
+            if (canceled || waitingHandler.isRunCanceled()) {
+                return;
             }
+            mapPeptides(peptides);
         }
+        waitingHandler.increaseSecondaryProgressCounter();
     }
 
     /**
@@ -261,11 +248,48 @@ public class PeptideMapper {
     }
 
     /**
-     * Maps a list of peptides.
+     * Returns the cache containing the protein mapping of the sequences mapped
+     * by this mapper.
+     *
+     * @return the protein mapping cache
+     */
+    public ProteinMappingCache getProteinMappingCache() {
+        return proteinMappingCache;
+    }
+
+    /**
+     * Sets the store where to save the mappings for reuse by other projects.
+     * The mappings already in the store are loaded in the cache of this
+     * mapper.
      *
-     * @param peptide the peptide to map
-     * @param increaseProgressBar boolean indicating whether the progress bar
-     * should be increased after mapping the peptide
+     * @param proteinMappingStore the protein mapping store
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing the store
+     */
+    public void setProteinMappingStore(ProteinMappingStore proteinMappingStore) throws IOException {
+        proteinMappingStore.load(proteinMappingCache);
+        this.proteinMappingStore = proteinMappingStore;
+    }
+
+    /**
+     * Returns the number of peptides for which the protein mapping was found
+     * in cache.
+     *
+     * @return the number of peptides for which the protein mapping was found
+     * in cache
+     */
+    public int getnPeptidesInCache() {
+        return nPeptidesInCache;
+    }
+
+    /**
+     * Maps a list of peptides of identical sequence. The sequence is mapped
+     * using the first peptide passing the import filter, the result is stored
+     * in cache and set to the other peptides passing the filter. The cache is
+     * emptied when the memory runs low.
+     *
+     * @param peptides the peptides to map
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file
@@ -276,22 +300,31 @@ public class PeptideMapper {
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing an object from the database
      */
-    private void mapPeptide(Peptide peptide, boolean increaseProgressBar) throws IOException, InterruptedException, SQLException, ClassNotFoundException {
+    private void mapPeptides(LinkedList<Peptide> peptides) throws IOException, InterruptedException, SQLException, ClassNotFoundException {
         SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        if (identificationParameters.getPeptideAssumptionFilter().validatePeptide(peptide, sequenceMatchingPreferences, identificationParameters.getSearchParameters().getDigestionPreferences())) {
-            try {
-                peptide.getParentProteins(sequenceMatchingPreferences);
-            } catch (java.sql.SQLNonTransientConnectionException derbyException) {
-                derbyException.printStackTrace();
-                throw new IllegalArgumentException("PeptideShaker could not access the FASTA index database. "
-                        + "Please make sure that no other instance of PeptideShaker is running. "
-                        + "If the problem persists, restart your computer." 
-                        + System.getProperty("line.separator"));
+        PeptideAssumptionFilter peptideAssumptionFilter = identificationParameters.getPeptideAssumptionFilter();
+        ArrayList<String> parentProteins = null;
+        for (Peptide peptide : peptides) {
+            if (parentProteins != null) {
+                if (peptideAssumptionFilter.validatePeptide(peptide, sequenceMatchingPreferences, identificationParameters.getSearchParameters().getDigestionPreferences())) {
+                    peptide.setParentProteins(new ArrayList<String>(parentProteins));
+                }
+            } else if (peptideAssumptionFilter.validatePeptide(peptide, sequenceMatchingPreferences, identificationParameters.getSearchParameters().getDigestionPreferences())) {
+                try {
+                    parentProteins = peptide.getParentProteins(sequenceMatchingPreferences);
+                } catch (java.sql.SQLNonTransientConnectionException derbyException) {
+                    derbyException.printStackTrace();
+                    throw new IllegalArgumentException("PeptideShaker could not access the FASTA index database. "
+                            + "Please make sure that no other instance of PeptideShaker is running. "
+                            + "If the problem persists, restart your computer."
+                            + System.getProperty("line.separator"));
+                }
+                if (proteinMappingCache.putParentProteins(peptide.getSequence(), parentProteins)
+                        && proteinMappingStore != null) {
+                    proteinMappingStore.write(peptide.getSequence(), parentProteins);
+                }
             }
         }
-        if (increaseProgressBar) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
         // free memory if needed
         if (MemoryConsumptionStatus.memoryUsed() > 0.8 && !ProteinTreeComponentsFactory.getInstance().getCache().isEmpty()) {
             ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(0.5, null);
@@ -302,6 +335,10 @@ public class PeptideMapper {
                 proteinTree.reduceNodeCacheSize(0.5);
             }
         }
+        if (MemoryConsumptionStatus.memoryUsed() > 0.8 && proteinMappingCache.size() > 0) {
+            // the mappings computed again are not appended to the store again
+            proteinMappingCache.clear();
+        }
         if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
             Runtime.getRuntime().gc();
             if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
@@ -523,76 +560,22 @@ public class PeptideMapper {
     }
 
     /**
-     * Private runnable to map peptides from a list.
+     * Private runnable mapping a batch of peptides.
      */
-    private class PeptideListMapperRunnable implements Runnable {
+    private class BatchMapperRunnable implements Runnable {
 
         /**
-         * The peptides to map.
+         * The batch of peptides to map grouped by sequence.
          */
-        private LinkedList<Peptide> peptideList;
-
-        /**
-         * Constructor.
-         *
-         * @param peptideList the peptides to map
-         */
-        public PeptideListMapperRunnable(LinkedList<Peptide> peptideList) {
-            this.peptideList = peptideList;
-        }
-
-        @Override
-        public void run() {
-
-            try {
-                Iterator<Peptide> peptideIterator = peptideList.iterator();
-                while (peptideIterator.hasNext()) {
-                    Peptide peptide = peptideIterator.next();
-                    if (!canceled && !waitingHandler.isRunCanceled()) {
-                        mapPeptide(peptide, !peptideIterator.hasNext());
-                    }
-                }
-            } catch (Exception e) {
-                if (!canceled && !waitingHandler.isRunCanceled()) {
-                    exceptionHandler.catchException(e);
-                    canceled = true;
-                }
-            }
-        }
-    }
-
-    /**
-     * Private runnable to map a peptide.
-     */
-    private class PeptideMapperRunnable implements Runnable {
-
-        /**
-         * The peptide to map.
-         */
-        private Peptide peptide;
-
-        /**
-         * Boolean indicating whether the progress bar should be increased.
-         */
-        private boolean increaseProgressBar;
-
-        /**
-         * Constructor.
-         */
-        public PeptideMapperRunnable() {
-
-        }
+        private final ArrayList<LinkedList<Peptide>> batch;
 
         /**
          * Constructor.
          *
-         * @param peptide the peptide to map
-         * @param increaseProgressBar boolean indicating whether the progress
-         * bar should be increased after mapping the peptide
+         * @param batch the batch of peptides to map grouped by sequence
          */
-        public PeptideMapperRunnable(Peptide peptide, boolean increaseProgressBar) {
-            this.peptide = peptide;
-            this.increaseProgressBar = increaseProgressBar;
+        public BatchMapperRunnable(ArrayList<LinkedList<Peptide>> batch) {
+            this.batch = batch;
         }
 
         @Override
@@ -600,7 +583,7 @@ public class PeptideMapper {
 
             try {
                 if (!canceled && !waitingHandler.isRunCanceled()) {
-                    mapPeptide(peptide, increaseProgressBar);
+                    mapBatch(batch);
                 }
             } catch (Exception e) {
                 if (!canceled && !waitingHandler.isRunCanceled()) {
@@ -0,0 +1,108 @@
+package eu.isas.peptideshaker.protein_inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class stores the result of the mapping of peptide sequences to the
+ * protein database. The accessions are stored as arrays indexed by peptide
+ * sequence so that a sequence found in several spectra or identification
+ * files of a project is mapped only once.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinMappingCache {
+
+    /**
+     * The parent proteins indexed by peptide sequence.
+     */
+    private final ConcurrentHashMap<String, String[]> parentProteins;
+    /**
+     * Canonical instances of the accessions, used to avoid keeping the same
+     * accession several times in memory.
+     */
+    private final ConcurrentHashMap<String, String> accessions;
+
+    /**
+     * Constructor.
+     *
+     * @param initialCapacity the expected number of sequences
+     */
+    public ProteinMappingCache(int initialCapacity) {
+        parentProteins = new ConcurrentHashMap<String, String[]>(initialCapacity);
+        accessions = new ConcurrentHashMap<String, String>(initialCapacity);
+    }
+
+    /**
+     * Constructor with default capacity.
+     */
+    public ProteinMappingCache() {
+        this(8000);
+    }
+
+    /**
+     * Indicates whether the cache contains the mapping of the given sequence.
+     *
+     * @param sequence the peptide sequence
+     *
+     * @return a boolean indicating whether the cache contains the mapping of
+     * the given sequence
+     */
+    public boolean contains(String sequence) {
+        return parentProteins.containsKey(sequence);
+    }
+
+    /**
+     * Returns the accessions of the proteins where the given sequence can be
+     * found in a new list, null if not in cache.
+     *
+     * @param sequence the peptide sequence
+     *
+     * @return the accessions of the parent proteins
+     */
+    public ArrayList<String> getParentProteins(String sequence) {
+        String[] proteins = parentProteins.get(sequence);
+        if (proteins == null) {
+            return null;
+        }
+        return new ArrayList<String>(Arrays.asList(proteins));
+    }
+
+    /**
+     * Stores the accessions of the proteins where the given sequence can be
+     * found if not already in cache.
+     *
+     * @param sequence the peptide sequence
+     * @param proteins the accessions of the parent proteins
+     *
+     * @return a boolean indicating whether the sequence was added to the
+     * cache
+     */
+    public boolean putParentProteins(String sequence, ArrayList<String> proteins) {
+        String[] proteinsArray = new String[proteins.size()];
+        for (int i = 0; i < proteinsArray.length; i++) {
+            String accession = proteins.get(i);
+            String canonicalAccession = accessions.putIfAbsent(accession, accession);
+            proteinsArray[i] = canonicalAccession != null ? canonicalAccession : accession;
+        }
+        return parentProteins.putIfAbsent(sequence, proteinsArray) == null;
+    }
+
+    /**
+     * Returns the number of sequences in cache.
+     *
+     * @return the number of sequences in cache
+     */
+    public int size() {
+        return parentProteins.size();
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public void clear() {
+        parentProteins.clear();
+        accessions.clear();
+    }
+}
@@ -0,0 +1,680 @@
+package eu.isas.peptideshaker.protein_inference;
+
+import com.compomics.util.preferences.IdentificationParameters;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * This class stores the mapping of peptide sequences to proteins on disk so
+ * that it can be reused by other projects using the same FASTA file and
+ * sequence matching settings. A store is located in a sub-folder of the store
+ * folder named after the checksum of the FASTA file and of the settings
+ * influencing the mapping. The mappings are appended to a single data file
+ * until the maximal size is reached, every mapping with its CRC32. A single
+ * process writes to a store at a time. The store is disabled as long as no
+ * folder is set.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinMappingStore {
+
+    /**
+     * The folder where the stores are saved. Null if not set.
+     */
+    private static String storeFolder = null;
+    /**
+     * The maximal size of a store in MB.
+     */
+    private static int maxSizeMb = 1024;
+    /**
+     * The name of the data file of a store.
+     */
+    public static final String DATA_FILE_NAME = "mappings.dat";
+    /**
+     * The version of the data file format.
+     */
+    public static final int VERSION = 2;
+    /**
+     * The maximal length of a mapping record in bytes. Longer lengths are
+     * considered corrupted.
+     */
+    private static final int MAX_RECORD_LENGTH = 64 * 1048576;
+    /**
+     * Checksums of the FASTA files already processed indexed by path, size
+     * and last modification date.
+     */
+    private static final HashMap<String, String> checksumsCache = new HashMap<String, String>();
+    /**
+     * The data file of this store.
+     */
+    private final File dataFile;
+    /**
+     * The key of this store.
+     */
+    private final String storeKey;
+    /**
+     * The data file opened by this store.
+     */
+    private RandomAccessFile randomAccessFile = null;
+    /**
+     * The lock on the data file held while the store is open for writing.
+     * Null if not held.
+     */
+    private FileLock lock = null;
+    /**
+     * Boolean indicating whether the data file was locked by another process.
+     */
+    private boolean readOnly = false;
+    /**
+     * The stream used to append mappings to the data file.
+     */
+    private DataOutputStream outputStream = null;
+    /**
+     * Buffer used to encode the mappings.
+     */
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+    /**
+     * Stream used to encode the mappings in the buffer.
+     */
+    private final DataOutputStream recordStream = new DataOutputStream(recordBuffer);
+    /**
+     * The checksum of the records.
+     */
+    private final CRC32 recordCrc32 = new CRC32();
+    /**
+     * The current size of the data file in bytes.
+     */
+    private long size = 0;
+    /**
+     * Boolean indicating whether the maximal size was reached.
+     */
+    private boolean full = false;
+    /**
+     * Hashes of the peptide sequences already in the data file. Used to avoid
+     * appending a mapping again when it is computed anew after the cache was
+     * cleared.
+     */
+    private final LongHashSet storedSequences = new LongHashSet();
+    /**
+     * The number of mappings loaded from the store.
+     */
+    private int nLoaded = 0;
+    /**
+     * The number of mappings written to the store.
+     */
+    private int nWritten = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param fastaFile the FASTA file used for the mapping
+     * @param identificationParameters the identification parameters
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or creating the store
+     */
+    public ProteinMappingStore(File fastaFile, IdentificationParameters identificationParameters) throws IOException {
+        this(new File(storeFolder), getChecksum(fastaFile) + "_" + getSettingsChecksum(identificationParameters));
+    }
+
+    /**
+     * Constructor for the store of the given key in the given folder.
+     *
+     * @param parentFolder the folder containing the stores
+     * @param storeKey the key of the store
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * creating the store
+     */
+    ProteinMappingStore(File parentFolder, String storeKey) throws IOException {
+        this.storeKey = storeKey;
+        File folder = new File(parentFolder, storeKey);
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Impossible to create folder " + folder.getAbsolutePath() + ".");
+        }
+        dataFile = new File(folder, DATA_FILE_NAME);
+    }
+
+    /**
+     * Loads the mappings of the store in the given cache and opens the store
+     * for writing. The data file is locked until the store is closed. If
+     * another process holds the lock, the mappings are loaded but the store
+     * is read only. Incomplete mappings at the end of the file are removed
+     * and mappings failing their checksum are skipped.
+     *
+     * @param proteinMappingCache the cache where to load the mappings
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing the data file
+     */
+    public synchronized void load(ProteinMappingCache proteinMappingCache) throws IOException {
+        boolean success = false;
+        try {
+            open(proteinMappingCache);
+            success = true;
+        } finally {
+            if (!success) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Opens the data file, loads the mappings in the given cache and prepares
+     * the store for writing if the lock could be acquired.
+     *
+     * @param proteinMappingCache the cache where to load the mappings
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing the data file
+     */
+    private void open(ProteinMappingCache proteinMappingCache) throws IOException {
+
+        randomAccessFile = new RandomAccessFile(dataFile, "rw");
+        FileChannel channel = randomAccessFile.getChannel();
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // already locked by another store of this process
+            lock = null;
+        }
+
+        long validLength = 0;
+
+        CountingInputStream countingInputStream = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        DataInputStream inputStream = new DataInputStream(countingInputStream);
+        try {
+            int version = inputStream.readInt();
+            String key = inputStream.readUTF();
+            if (version == VERSION && key.equals(storeKey)) {
+                validLength = countingInputStream.getCount();
+                CRC32 crc32 = new CRC32();
+                while (true) {
+                    int recordLength = inputStream.readInt();
+                    if (recordLength < 0 || recordLength > MAX_RECORD_LENGTH) {
+                        // corrupted length, the following records cannot be located
+                        break;
+                    }
+                    byte[] record = new byte[recordLength];
+                    inputStream.readFully(record);
+                    int checksum = inputStream.readInt();
+                    crc32.reset();
+                    crc32.update(record);
+                    if ((int) crc32.getValue() == checksum) {
+                        DataInputStream recordInputStream = new DataInputStream(new ByteArrayInputStream(record));
+                        String sequence = recordInputStream.readUTF();
+                        int nProteins = recordInputStream.readInt();
+                        ArrayList<String> proteins = new ArrayList<String>(nProteins);
+                        for (int i = 0; i < nProteins; i++) {
+                            proteins.add(recordInputStream.readUTF());
+                        }
+                        proteinMappingCache.putParentProteins(sequence, proteins);
+                        storedSequences.add(getSequenceHash(sequence));
+                        nLoaded++;
+                        validLength = countingInputStream.getCount();
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // end of the file or incomplete last mapping
+        }
+
+        if (lock == null) {
+            // the file is being written by another store
+            readOnly = true;
+            size = channel.size();
+            randomAccessFile.close();
+            randomAccessFile = null;
+            return;
+        }
+
+        // remove incomplete mappings or invalid files
+        channel.truncate(validLength);
+        channel.position(validLength);
+
+        size = validLength;
+        full = size >= getMaxSizeBytes();
+        outputStream = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+        if (size == 0) {
+            recordBuffer.reset();
+            recordStream.writeInt(VERSION);
+            recordStream.writeUTF(storeKey);
+            recordBuffer.writeTo(outputStream);
+            size = recordBuffer.size();
+        }
+    }
+
+    /**
+     * Writes the mapping of a peptide sequence to the store. Mappings are
+     * ignored when the maximal size of the store is reached or when the
+     * sequence is already in the store. The mapping cache can hence be
+     * cleared at any time without duplicating records in the store.
+     *
+     * @param sequence the peptide sequence
+     * @param proteins the accessions of the parent proteins
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the data file
+     */
+    public synchronized void write(String sequence, ArrayList<String> proteins) throws IOException {
+        if (full || outputStream == null || !storedSequences.add(getSequenceHash(sequence))) {
+            return;
+        }
+        recordBuffer.reset();
+        recordStream.writeUTF(sequence);
+        recordStream.writeInt(proteins.size());
+        for (String accession : proteins) {
+            recordStream.writeUTF(accession);
+        }
+        byte[] record = recordBuffer.toByteArray();
+        recordCrc32.reset();
+        recordCrc32.update(record);
+        outputStream.writeInt(record.length);
+        outputStream.write(record);
+        outputStream.writeInt((int) recordCrc32.getValue());
+        size += record.length + 8;
+        nWritten++;
+        if (size >= getMaxSizeBytes()) {
+            full = true;
+        }
+    }
+
+    /**
+     * Closes the store.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the data file
+     */
+    public synchronized void close() throws IOException {
+        if (outputStream != null) {
+            outputStream.flush();
+            outputStream = null;
+        }
+        if (randomAccessFile != null) {
+            try {
+                if (lock != null) {
+                    lock.release();
+                    lock = null;
+                }
+            } finally {
+                randomAccessFile.close();
+                randomAccessFile = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of mappings loaded from the store.
+     *
+     * @return the number of mappings loaded from the store
+     */
+    public int getnLoaded() {
+        return nLoaded;
+    }
+
+    /**
+     * Returns the number of mappings written to the store.
+     *
+     * @return the number of mappings written to the store
+     */
+    public int getnWritten() {
+        return nWritten;
+    }
+
+    /**
+     * Indicates whether the store is read only because its data file is
+     * locked by another process.
+     *
+     * @return a boolean indicating whether the store is read only
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Returns the size of the store in bytes.
+     *
+     * @return the size of the store in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Indicates whether the maximal size of the store was reached.
+     *
+     * @return a boolean indicating whether the maximal size of the store was
+     * reached
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Returns a short report on the usage of the store.
+     *
+     * @return a short report on the usage of the store
+     */
+    public String getReport() {
+        String report = nLoaded + " peptide to protein mappings loaded from the mapping cache, " + nWritten + " added (" + (size / 1048576) + " MB).";
+        if (isReadOnly()) {
+            report += " The mapping cache was in use by another process, new mappings were not stored.";
+        }
+        if (full) {
+            report += " The maximal size of the mapping cache (" + maxSizeMb + " MB) was reached.";
+        }
+        return report;
+    }
+
+    /**
+     * Returns the maximal size of a store in bytes.
+     *
+     * @return the maximal size of a store in bytes
+     */
+    private static long getMaxSizeBytes() {
+        return 1048576L * maxSizeMb;
+    }
+
+    /**
+     * Indicates whether the stores are enabled, i.e., whether a folder was
+     * set.
+     *
+     * @return a boolean indicating whether the stores are enabled
+     */
+    public static boolean isEnabled() {
+        return storeFolder != null;
+    }
+
+    /**
+     * Returns the folder where the stores are saved. Null if not set.
+     *
+     * @return the folder where the stores are saved
+     */
+    public static String getStoreFolder() {
+        return storeFolder;
+    }
+
+    /**
+     * Sets the folder where the stores are saved. Null disables the stores.
+     *
+     * @param newFolder the folder where the stores are saved
+     */
+    public static void setStoreFolder(String newFolder) {
+        storeFolder = newFolder;
+    }
+
+    /**
+     * Returns the maximal size of a store in MB.
+     *
+     * @return the maximal size of a store in MB
+     */
+    public static int getMaxSizeMb() {
+        return maxSizeMb;
+    }
+
+    /**
+     * Sets the maximal size of a store in MB.
+     *
+     * @param newMaxSizeMb the maximal size of a store in MB
+     */
+    public static void setMaxSizeMb(int newMaxSizeMb) {
+        maxSizeMb = newMaxSizeMb;
+    }
+
+    /**
+     * Returns the MD5 checksum of the given file as hexadecimal string. The
+     * checksums are cached for the files which were not modified since.
+     *
+     * @param file the file
+     *
+     * @return the checksum of the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public static String getChecksum(File file) throws IOException {
+        String fileKey = file.getAbsolutePath() + "_" + file.length() + "_" + file.lastModified();
+        synchronized (checksumsCache) {
+            String checksum = checksumsCache.get(fileKey);
+            if (checksum == null) {
+                MessageDigest messageDigest = getMessageDigest();
+                InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+                try {
+                    byte[] buffer = new byte[1048576];
+                    int nRead;
+                    while ((nRead = inputStream.read(buffer)) != -1) {
+                        messageDigest.update(buffer, 0, nRead);
+                    }
+                } finally {
+                    inputStream.close();
+                }
+                checksum = toHex(messageDigest.digest());
+                checksumsCache.put(fileKey, checksum);
+            }
+            return checksum;
+        }
+    }
+
+    /**
+     * Returns the checksum of the settings influencing the protein mapping.
+     *
+     * @param identificationParameters the identification parameters
+     *
+     * @return the checksum of the settings influencing the protein mapping
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * serializing the settings
+     */
+    public static String getSettingsChecksum(IdentificationParameters identificationParameters) throws IOException {
+        MessageDigest messageDigest = getMessageDigest();
+        messageDigest.update(serialize(identificationParameters.getSequenceMatchingPreferences()));
+        messageDigest.update(serialize(identificationParameters.getPeptideVariantsPreferences()));
+        return toHex(messageDigest.digest());
+    }
+
+    /**
+     * Serializes the given object.
+     *
+     * @param object the object to serialize
+     *
+     * @return the serialized object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * serializing the object
+     */
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
+        try {
+            objectOutputStream.writeObject(object);
+        } finally {
+            objectOutputStream.close();
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * Returns an MD5 message digest.
+     *
+     * @return an MD5 message digest
+     */
+    private static MessageDigest getMessageDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("MD5 not available.", e);
+        }
+    }
+
+    /**
+     * Returns the given bytes as hexadecimal string.
+     *
+     * @param bytes the bytes
+     *
+     * @return the hexadecimal string
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns a 64 bit FNV-1a hash of the given sequence. A collision only
+     * results in a mapping not being stored and computed again by the next
+     * project.
+     *
+     * @param sequence the sequence
+     *
+     * @return the hash of the sequence
+     */
+    private static long getSequenceHash(String sequence) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < sequence.length(); i++) {
+            hash ^= sequence.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Set of long values using open addressing, taking 8 to 16 bytes per
+     * value.
+     */
+    private static class LongHashSet {
+
+        /**
+         * The table of values, 0 marking empty slots.
+         */
+        private long[] table = new long[1024];
+        /**
+         * The number of values in the set.
+         */
+        private int size = 0;
+
+        /**
+         * Adds a value to the set.
+         *
+         * @param value the value to add
+         *
+         * @return true if the value was not in the set
+         */
+        public boolean add(long value) {
+            if (value == 0) {
+                value = 1;
+            }
+            if (2 * (size + 1) > table.length) {
+                long[] oldTable = table;
+                table = new long[2 * oldTable.length];
+                for (long oldValue : oldTable) {
+                    if (oldValue != 0) {
+                        insert(oldValue);
+                    }
+                }
+            }
+            if (insert(value)) {
+                size++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Inserts a non-zero value in the table.
+         *
+         * @param value the value to insert
+         *
+         * @return true if the value was not in the table
+         */
+        private boolean insert(long value) {
+            int mask = table.length - 1;
+            int index = (int) (value ^ (value >>> 32)) & mask;
+            while (table[index] != 0) {
+                if (table[index] == value) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            table[index] = value;
+            return true;
+        }
+    }
+
+    /**
+     * Input stream counting the bytes read.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        /**
+         * The number of bytes read.
+         */
+        private long count = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param inputStream the stream to read from
+         */
+        public CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result != -1) {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result != -1) {
+                count += result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long result = super.skip(n);
+            count += result;
+            return result;
+        }
+
+        /**
+         * Returns the number of bytes read.
+         *
+         * @return the number of bytes read
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -32,15 +32,16 @@ import com.compomics.util.experiment.identification.protein_inference.PeptidePro
 import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.utils.BoundedExecutor;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import javax.xml.bind.JAXBException;
 import org.xmlpull.v1.XmlPullParserException;
@@ -73,6 +74,20 @@ public class TagMapper {
      * The sequence factory.
      */
     private SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+    /**
+     * Cache for the protein mapping of the tags indexed by tag key.
+     */
+    private final ConcurrentHashMap<String, ArrayList<PeptideProteinMapping>> tagMappingCache = new ConcurrentHashMap<String, ArrayList<PeptideProteinMapping>>();
+    /**
+     * The tag matchers, one per thread.
+     */
+    private final ThreadLocal<TagMatcher> tagMatchers = new ThreadLocal<TagMatcher>() {
+        @Override
+        protected TagMatcher initialValue() {
+            PtmSettings modificationProfile = identificationParameters.getSearchParameters().getPtmSettings();
+            return new TagMatcher(modificationProfile.getFixedModifications(), modificationProfile.getAllNotFixedModifications(), identificationParameters.getSequenceMatchingPreferences());
+        }
+    };
 
     /**
      * Constructor.
@@ -87,13 +102,14 @@ public class TagMapper {
 
     /**
      * Maps the tags found in an identification files to the ProteinTree of this
-     * mapper.
+     * mapper. Tags are mapped using a tag matcher per thread and the mapping
+     * of tags already encountered is retrieved from cache.
      *
      * @param idfileReader the identification file to map
      * @param identification identification object used to store the matches
      * @param waitingHandler a waiting handler used to display progress and
      * cancel the process
-     * @param nThreads the number of threads to use
+     * @param executor the executor to use
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file
@@ -110,29 +126,20 @@ public class TagMapper {
      * @throws org.xmlpull.v1.XmlPullParserException thrown whenever an error
      * occurred while accessing an mzML file
      */
-    public void mapTags(IdfileReader idfileReader, Identification identification, WaitingHandler waitingHandler, int nThreads) throws IOException,
+    public void mapTags(IdfileReader idfileReader, Identification identification, WaitingHandler waitingHandler, BoundedExecutor executor) throws IOException,
             InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException, JAXBException, XmlPullParserException {
 
-        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
         LinkedList<SpectrumMatch> spectrumMatches = idfileReader.getAllSpectrumMatches(waitingHandler, identificationParameters.getSearchParameters());
         if (spectrumMatches != null && !spectrumMatches.isEmpty()) {
             waitingHandler.setMaxSecondaryProgressCounter(spectrumMatches.size());
             waitingHandler.appendReport("Mapping de novo tags to peptides.", true, true);
-            PtmSettings modificationProfile = identificationParameters.getSearchParameters().getPtmSettings();
-            TagMatcher tagMatcher = new TagMatcher(modificationProfile.getFixedModifications(), modificationProfile.getAllNotFixedModifications(), identificationParameters.getSequenceMatchingPreferences());
-            tagMatcher.setSynchronizedIndexing(true);
-            for (SpectrumMatch spectrumMatch : spectrumMatches) {
-                SpectrumMatchTagMapperRunnable tagMapperRunnable = new SpectrumMatchTagMapperRunnable(identification, spectrumMatch, tagMatcher, waitingHandler);
-                pool.submit(tagMapperRunnable);
-                if (waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
-                }
+            while (!spectrumMatches.isEmpty() && !waitingHandler.isRunCanceled()) {
+                SpectrumMatchTagMapperRunnable tagMapperRunnable = new SpectrumMatchTagMapperRunnable(identification, spectrumMatches.pollFirst(), waitingHandler);
+                executor.submit(tagMapperRunnable);
+            }
+            if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+                waitingHandler.appendReport("Mapping tags timed out. Please contact the developers.", true, true);
             }
-        }
-        pool.shutdown();
-        if (!pool.awaitTermination(1, TimeUnit.DAYS)) {
-            waitingHandler.appendReport("Mapping tags timed out. Please contact the developers.", true, true);
         }
     }
 
@@ -141,8 +148,6 @@ public class TagMapper {
      *
      * @param identification identification object used to store the matches
      * @param spectrumMatch the spectrum match containing the tags to map
-     * @param tagMatcher the tag matcher to match the tags
-     * @param key the key of the tag to match
      * @param waitingHandler waiting handler allowing the display of progress
      * and canceling the process
      *
@@ -157,7 +162,9 @@ public class TagMapper {
      * @throws MzMLUnmarshallerException exception thrown whenever an error
      * occurred while accessing an mzML file.
      */
-    private void mapTagsForSpectrumMatch(Identification identification, SpectrumMatch spectrumMatch, TagMatcher tagMatcher, WaitingHandler waitingHandler) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException {
+    private void mapTagsForSpectrumMatch(Identification identification, SpectrumMatch spectrumMatch, WaitingHandler waitingHandler) throws IOException, InterruptedException, ClassNotFoundException, SQLException, MzMLUnmarshallerException {
+
+        TagMatcher tagMatcher = tagMatchers.get();
 
         com.compomics.util.experiment.identification.protein_inference.PeptideMapper peptideMapper = sequenceFactory.getDefaultPeptideMapper();
         String spectrumKey = spectrumMatch.getKey();
@@ -189,8 +196,20 @@ public class TagMapper {
                             mapPtmsForTag(tag, advocateId);
                             Double refMass = spectrum.getPrecursor().getMassPlusProton(1);
                             Double fragmentIonAccuracy = searchParameters.getFragmentIonAccuracyInDaltons(refMass);
-                            ArrayList<PeptideProteinMapping> proteinMapping = peptideMapper.getProteinMapping(tag, tagMatcher, sequenceMatchingPreferences, fragmentIonAccuracy);
-                            for (Peptide peptide : PeptideProteinMapping.getPeptides(proteinMapping, sequenceMatchingPreferences)) {
+                            ArrayList<PeptideProteinMapping> proteinMapping;
+                            if (searchParameters.getFragmentAccuracyType() == SearchParameters.MassAccuracyType.PPM) {
+                                // the tolerance depends on the precursor, the mapping cannot be reused
+                                proteinMapping = peptideMapper.getProteinMapping(tag, tagMatcher, sequenceMatchingPreferences, fragmentIonAccuracy);
+                            } else {
+                                String tagKey = getTagKey(tag, fragmentIonAccuracy);
+                                proteinMapping = tagMappingCache.get(tagKey);
+                                if (proteinMapping == null) {
+                                    proteinMapping = peptideMapper.getProteinMapping(tag, tagMatcher, sequenceMatchingPreferences, fragmentIonAccuracy);
+                                    tagMappingCache.put(tagKey, proteinMapping);
+                                }
+                            }
+                            for (Peptide cachedPeptide : PeptideProteinMapping.getPeptides(proteinMapping, sequenceMatchingPreferences)) {
+                                Peptide peptide = copyPeptide(cachedPeptide);
                                 String peptideKey = peptide.getKey();
                                 if (!peptidesFound.contains(peptideKey)) {
                                     PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, tagAssumption.getRank(), advocateId, tagAssumption.getIdentificationCharge(), tagAssumption.getScore(), tagAssumption.getIdentificationFile());
@@ -215,6 +234,9 @@ public class TagMapper {
         waitingHandler.increaseSecondaryProgressCounter();
 
         // free memory if needed and possible
+        if (MemoryConsumptionStatus.memoryUsed() > 0.8) {
+            tagMappingCache.clear();
+        }
         if (sequenceMatchingPreferences.getPeptideMapperType() == PeptideMapperType.tree) {
             if (MemoryConsumptionStatus.memoryUsed() > 0.8 && !ProteinTreeComponentsFactory.getInstance().getCache().isEmpty()) {
                 ProteinTreeComponentsFactory.getInstance().getCache().reduceMemoryConsumption(0.5, null);
@@ -226,6 +248,88 @@ public class TagMapper {
         }
     }
 
+    /**
+     * Returns a copy of a peptide obtained from the tag mapping cache. The
+     * modification matches and parent proteins are copied so that the
+     * peptides of the different spectra can be edited independently.
+     *
+     * @param peptide the peptide to copy
+     *
+     * @return a copy of the peptide
+     */
+    private Peptide copyPeptide(Peptide peptide) {
+
+        ArrayList<ModificationMatch> modificationMatches = null;
+
+        if (peptide.getModificationMatches() != null) {
+            modificationMatches = new ArrayList<ModificationMatch>(peptide.getModificationMatches().size());
+            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                modificationMatches.add(new ModificationMatch(modificationMatch.getTheoreticPtm(), modificationMatch.isVariable(), modificationMatch.getModificationSite()));
+            }
+        }
+
+        Peptide copy = new Peptide(peptide.getSequence(), modificationMatches);
+        ArrayList<String> parentProteins = peptide.getParentProteinsNoRemapping();
+
+        if (parentProteins != null) {
+            copy.setParentProteins(new ArrayList<String>(parentProteins));
+        }
+
+        return copy;
+    }
+
+    /**
+     * Returns the key of a tag for the tag mapping cache. The key is made of
+     * the amino acids, modifications and mass gaps of the tag, and of the
+     * fragment ion accuracy used for the mapping.
+     *
+     * @param tag the tag
+     * @param fragmentIonAccuracy the fragment ion accuracy in Dalton
+     *
+     * @return the key of the tag
+     */
+    private String getTagKey(Tag tag, double fragmentIonAccuracy) {
+
+        StringBuilder key = new StringBuilder();
+
+        for (TagComponent tagComponent : tag.getContent()) {
+            if (tagComponent instanceof AminoAcidPattern) {
+                AminoAcidPattern aminoAcidPattern = (AminoAcidPattern) tagComponent;
+                key.append(aminoAcidPattern.asSequence());
+                ArrayList<Integer> indexes = new ArrayList<Integer>();
+                for (int aa : aminoAcidPattern.getModificationIndexes()) {
+                    indexes.add(aa);
+                }
+                Collections.sort(indexes);
+                for (int aa : indexes) {
+                    for (ModificationMatch modificationMatch : aminoAcidPattern.getModificationsAt(aa)) {
+                        key.append('_').append(aa).append(':').append(modificationMatch.getTheoreticPtm());
+                    }
+                }
+            } else if (tagComponent instanceof AminoAcidSequence) {
+                AminoAcidSequence aminoAcidSequence = (AminoAcidSequence) tagComponent;
+                key.append(aminoAcidSequence.asSequence());
+                ArrayList<Integer> indexes = new ArrayList<Integer>();
+                for (int aa : aminoAcidSequence.getModificationIndexes()) {
+                    indexes.add(aa);
+                }
+                Collections.sort(indexes);
+                for (int aa : indexes) {
+                    for (ModificationMatch modificationMatch : aminoAcidSequence.getModificationsAt(aa)) {
+                        key.append('_').append(aa).append(':').append(modificationMatch.getTheoreticPtm());
+                    }
+                }
+            } else {
+                key.append('<').append(tagComponent.getMass()).append('>');
+            }
+            key.append('|');
+        }
+
+        key.append(fragmentIonAccuracy);
+
+        return key.toString();
+    }
+
     /**
      * Remaps the PTMs for a given tag based on the search parameters.
      *
@@ -346,10 +450,6 @@ public class TagMapper {
          * The waiting handler to display progress and cancel the process.
          */
         private final WaitingHandler waitingHandler;
-        /**
-         * The tag to protein matcher.
-         */
-        private final TagMatcher tagMatcher;
         /**
          * Identification where to store the matches
          */
@@ -361,14 +461,12 @@ public class TagMapper {
          * @param identification the identification object where to store the
          * matches
          * @param spectrumMatch the spectrum match to map
-         * @param tagMatcher the tag matcher
          * @param waitingHandler waiting handler allowing the display of
          * progress and cancelling the process
          */
-        public SpectrumMatchTagMapperRunnable(Identification identification, SpectrumMatch spectrumMatch, TagMatcher tagMatcher, WaitingHandler waitingHandler) {
+        public SpectrumMatchTagMapperRunnable(Identification identification, SpectrumMatch spectrumMatch, WaitingHandler waitingHandler) {
             this.spectrumMatch = spectrumMatch;
             this.waitingHandler = waitingHandler;
-            this.tagMatcher = tagMatcher;
             this.identification = identification;
         }
 
@@ -377,7 +475,7 @@ public class TagMapper {
 
             try {
                 if (!waitingHandler.isRunCanceled()) {
-                    mapTagsForSpectrumMatch(identification, spectrumMatch, tagMatcher, waitingHandler);
+                    mapTagsForSpectrumMatch(identification, spectrumMatch, waitingHandler);
                 }
             } catch (Exception e) {
                 if (!waitingHandler.isRunCanceled()) {
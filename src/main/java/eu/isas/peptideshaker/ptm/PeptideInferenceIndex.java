@@ -0,0 +1,183 @@
+package eu.isas.peptideshaker.ptm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Index of the PSMs used for the peptide inference. The confidently localized
+ * PTMs are stored per PTM mass and peptide sequence as arrays of localization
+ * sites, and the PSMs carrying ambiguously localized PTMs are stored per
+ * spectrum file with the PTM masses to relocate. PTM masses and peptide
+ * sequences are referred to by int ids.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideInferenceIndex {
+
+    /**
+     * The PTM masses indexed by id.
+     */
+    private final ArrayList<Double> masses = new ArrayList<Double>();
+    /**
+     * The id of every PTM mass.
+     */
+    private final HashMap<Double, Integer> massIds = new HashMap<Double, Integer>();
+    /**
+     * The peptide sequences indexed by id.
+     */
+    private final ArrayList<String> sequences = new ArrayList<String>();
+    /**
+     * The id of every peptide sequence.
+     */
+    private final HashMap<String, Integer> sequenceIds = new HashMap<String, Integer>();
+    /**
+     * The confident localizations indexed by mass id and sequence id. Every
+     * localization is an array containing the number of modifications of the
+     * mass on the peptide followed by the localized sites.
+     */
+    private final ArrayList<HashMap<Integer, ArrayList<int[]>>> confidentLocalizations = new ArrayList<HashMap<Integer, ArrayList<int[]>>>();
+    /**
+     * The mass ids to relocate of the PSMs with ambiguously localized PTMs
+     * indexed by spectrum file and spectrum key.
+     */
+    private final HashMap<String, HashMap<String, int[]>> ambiguousPsms = new HashMap<String, HashMap<String, int[]>>();
+
+    /**
+     * Constructor.
+     */
+    public PeptideInferenceIndex() {
+
+    }
+
+    /**
+     * Returns the id of a PTM mass, a new id is given to new masses.
+     *
+     * @param mass the PTM mass
+     *
+     * @return the id of the mass
+     */
+    public synchronized int getMassId(double mass) {
+        Integer id = massIds.get(mass);
+        if (id == null) {
+            id = masses.size();
+            masses.add(mass);
+            massIds.put(mass, id);
+            confidentLocalizations.add(new HashMap<Integer, ArrayList<int[]>>(2));
+        }
+        return id;
+    }
+
+    /**
+     * Returns the PTM mass of the given id.
+     *
+     * @param massId the id of the mass
+     *
+     * @return the PTM mass
+     */
+    public synchronized double getMass(int massId) {
+        return masses.get(massId);
+    }
+
+    /**
+     * Returns the id of a peptide sequence, a new id is given to new
+     * sequences.
+     *
+     * @param sequence the peptide sequence
+     *
+     * @return the id of the sequence
+     */
+    public synchronized int getSequenceId(String sequence) {
+        Integer id = sequenceIds.get(sequence);
+        if (id == null) {
+            id = sequences.size();
+            sequences.add(sequence);
+            sequenceIds.put(sequence, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the peptide sequence of the given id.
+     *
+     * @param sequenceId the id of the sequence
+     *
+     * @return the peptide sequence
+     */
+    public synchronized String getSequence(int sequenceId) {
+        return sequences.get(sequenceId);
+    }
+
+    /**
+     * Adds the confident localization of a PSM.
+     *
+     * @param massId the id of the PTM mass
+     * @param sequenceId the id of the peptide sequence
+     * @param nMod the number of modifications of this mass on the peptide
+     * @param sites the confidently localized sites of this mass on the peptide
+     */
+    public synchronized void addConfidentLocalization(int massId, int sequenceId, int nMod, ArrayList<Integer> sites) {
+        HashMap<Integer, ArrayList<int[]>> massMap = confidentLocalizations.get(massId);
+        ArrayList<int[]> localizations = massMap.get(sequenceId);
+        if (localizations == null) {
+            localizations = new ArrayList<int[]>(1);
+            massMap.put(sequenceId, localizations);
+        }
+        int[] localization = new int[sites.size() + 1];
+        localization[0] = nMod;
+        for (int i = 0; i < sites.size(); i++) {
+            localization[i + 1] = sites.get(i);
+        }
+        localizations.add(localization);
+    }
+
+    /**
+     * Returns the confident localizations of the given PTM mass indexed by
+     * sequence id, null if none. Every localization is an array containing the
+     * number of modifications of the mass on the peptide followed by the
+     * localized sites. The map should not be modified.
+     *
+     * @param mass the PTM mass
+     *
+     * @return the confident localizations of the given PTM mass
+     */
+    public synchronized HashMap<Integer, ArrayList<int[]>> getConfidentLocalizations(double mass) {
+        Integer massId = massIds.get(mass);
+        if (massId == null) {
+            return null;
+        }
+        HashMap<Integer, ArrayList<int[]>> result = confidentLocalizations.get(massId);
+        if (result.isEmpty()) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Adds a PSM with ambiguously localized PTMs.
+     *
+     * @param spectrumFile the spectrum file
+     * @param spectrumKey the spectrum key
+     * @param massIds the ids of the PTM masses to relocate
+     */
+    public synchronized void addAmbiguousPsm(String spectrumFile, String spectrumKey, int[] massIds) {
+        HashMap<String, int[]> filePsms = ambiguousPsms.get(spectrumFile);
+        if (filePsms == null) {
+            filePsms = new HashMap<String, int[]>();
+            ambiguousPsms.put(spectrumFile, filePsms);
+        }
+        filePsms.put(spectrumKey, massIds);
+    }
+
+    /**
+     * Returns the PSMs with ambiguously localized PTMs of a spectrum file
+     * indexed by spectrum key with the ids of the PTM masses to relocate, null
+     * if none.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return the PSMs with ambiguously localized PTMs of the spectrum file
+     */
+    public synchronized HashMap<String, int[]> getAmbiguousPsms(String spectrumFile) {
+        return ambiguousPsms.get(spectrumFile);
+    }
+}
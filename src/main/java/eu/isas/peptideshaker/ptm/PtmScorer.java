@@ -27,11 +27,9 @@ import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.preferences.IdentificationParameters;
-import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
 import com.compomics.util.preferences.PTMScoringPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
-import com.compomics.util.preferences.ProcessingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.parameters.PSPtmScores;
@@ -40,18 +38,18 @@ import eu.isas.peptideshaker.scoring.maps.PsmPTMMap;
 import eu.isas.peptideshaker.scoring.PtmScoring;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
+import eu.isas.peptideshaker.utils.BoundedExecutor;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import eu.isas.peptideshaker.utils.Metrics;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.math.MathException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
@@ -109,128 +107,119 @@ public class PtmScorer {
      */
     public void attachDeltaScore(Identification identification, SpectrumMatch spectrumMatch, SequenceMatchingPreferences sequenceMatchingPreferences) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        HashMap<String, ArrayList<Integer>> modificationProfiles = new HashMap<String, ArrayList<Integer>>();
-        PSPtmScores ptmScores = new PSPtmScores();
-
-        if (spectrumMatch.getUrParam(ptmScores) != null) {
-            ptmScores = (PSPtmScores) spectrumMatch.getUrParam(ptmScores);
-        }
-
-        PSParameter psParameter = new PSParameter();
-        double p1 = 1;
         Peptide psPeptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
-        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumMatch.getKey());
-        for (Integer id : assumptionsMap.keySet()) {
-            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> algorithmAssumptions = assumptionsMap.get(id);
-            for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : algorithmAssumptions.values()) {
-                for (SpectrumIdentificationAssumption spectrumIdentificationAssumption : assumptionsAtScore) {
-                    if (spectrumIdentificationAssumption instanceof PeptideAssumption) {
-                        PeptideAssumption peptideAssumption = (PeptideAssumption) spectrumIdentificationAssumption;
-                        Peptide sePeptide = peptideAssumption.getPeptide();
-                        if (psPeptide.isSameSequence(sePeptide, sequenceMatchingPreferences) && psPeptide.sameModificationsAs(sePeptide)) {
-                            psParameter = (PSParameter) peptideAssumption.getUrParam(psParameter);
-                            double ptemp = psParameter.getSearchEngineProbability();
-                            if (ptemp < p1) {
-                                p1 = ptemp;
-                            }
-                        }
-                    }
-                }
-            }
+
+        if (!psPeptide.isModified()) {
+            return;
         }
 
-        String mainSequence = psPeptide.getSequence();
-        ArrayList<String> modifications = new ArrayList<String>();
+        // the variable modifications of the best peptide, one entry per modification site
+        ArrayList<ModificationMatch> modificationMatches = psPeptide.getModificationMatches();
+        int nSites = 0;
+        String[] siteModifications = new String[modificationMatches.size()];
+        double[] siteMasses = new double[modificationMatches.size()];
+        int[] sites = new int[modificationMatches.size()];
 
-        if (psPeptide.isModified()) {
-            for (ModificationMatch modificationMatch : psPeptide.getModificationMatches()) {
-                if (modificationMatch.isVariable()) {
-                    String modificationName = modificationMatch.getTheoreticPtm();
-                    if (!modifications.contains(modificationName)) {
-                        modifications.add(modificationName);
-                        modificationProfiles.put(modificationName, new ArrayList<Integer>());
-                    }
-                    modificationProfiles.get(modificationName).add(modificationMatch.getModificationSite());
-                }
+        for (ModificationMatch modificationMatch : modificationMatches) {
+            if (modificationMatch.isVariable()) {
+                String modificationName = modificationMatch.getTheoreticPtm();
+                siteModifications[nSites] = modificationName;
+                siteMasses[nSites] = ptmFactory.getPTM(modificationName).getMass();
+                sites[nSites] = modificationMatch.getModificationSite();
+                nSites++;
             }
         }
 
-        if (!modifications.isEmpty()) {
-
-            for (String modName : modifications) {
-
-                PTM ptm1 = ptmFactory.getPTM(modName);
-
-                for (int modSite : modificationProfiles.get(modName)) {
-
-                    double refP = 1, secondaryP = 1;
-
-                    for (Integer id : assumptionsMap.keySet()) {
-                        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> algorithmAssumptions = assumptionsMap.get(id);
-                        for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : algorithmAssumptions.values()) {
-                            for (SpectrumIdentificationAssumption spectrumIdentificationAssumption : assumptionsAtScore) {
-                                if (spectrumIdentificationAssumption instanceof PeptideAssumption) {
-                                    PeptideAssumption peptideAssumption = (PeptideAssumption) spectrumIdentificationAssumption;
-
-                                    if (peptideAssumption.getPeptide().getSequence().equals(mainSequence)) {
-
-                                        boolean modificationAtSite = false, modificationFound = false;
-
-                                        Peptide peptide = peptideAssumption.getPeptide();
-                                        if (peptide.isModified()) {
-                                            for (ModificationMatch modMatch : peptide.getModificationMatches()) {
-
-                                                PTM ptm2 = ptmFactory.getPTM(modMatch.getTheoreticPtm());
-
-                                                if (ptm1.getMass() == ptm2.getMass()) {
-
-                                                    modificationFound = true;
-                                                    psParameter = (PSParameter) peptideAssumption.getUrParam(psParameter);
-                                                    double p = psParameter.getSearchEngineProbability();
+        if (nSites == 0) {
+            return;
+        }
 
-                                                    if (modMatch.getModificationSite() == modSite) {
+        // single pass on the assumptions to get the best probability of the assumptions supporting or contradicting each site
+        double[] refP = new double[nSites];
+        double[] secondaryP = new double[nSites];
+        Arrays.fill(refP, 1.0);
+        Arrays.fill(secondaryP, 1.0);
+        boolean[] modificationAtSite = new boolean[nSites];
+        boolean[] modificationFound = new boolean[nSites];
 
-                                                        modificationAtSite = true;
+        String mainSequence = psPeptide.getSequence();
+        PSParameter psParameter = new PSParameter();
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = identification.getAssumptions(spectrumMatch.getKey());
 
-                                                        if (p < refP) {
-                                                            refP = p;
-                                                        }
-                                                    }
-                                                }
-                                            }
+        for (HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> algorithmAssumptions : assumptionsMap.values()) {
+            for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : algorithmAssumptions.values()) {
+                for (SpectrumIdentificationAssumption spectrumIdentificationAssumption : assumptionsAtScore) {
+                    if (spectrumIdentificationAssumption instanceof PeptideAssumption) {
+                        PeptideAssumption peptideAssumption = (PeptideAssumption) spectrumIdentificationAssumption;
+                        Peptide peptide = peptideAssumption.getPeptide();
+
+                        if (peptide.getSequence().equals(mainSequence) && peptide.isModified()) {
+
+                            Arrays.fill(modificationAtSite, false);
+                            Arrays.fill(modificationFound, false);
+                            boolean found = false;
+
+                            for (ModificationMatch modMatch : peptide.getModificationMatches()) {
+                                double ptmMass = ptmFactory.getPTM(modMatch.getTheoreticPtm()).getMass();
+                                int modificationSite = modMatch.getModificationSite();
+                                for (int i = 0; i < nSites; i++) {
+                                    if (siteMasses[i] == ptmMass) {
+                                        found = true;
+                                        modificationFound[i] = true;
+                                        if (modificationSite == sites[i]) {
+                                            modificationAtSite[i] = true;
                                         }
+                                    }
+                                }
+                            }
 
-                                        if (!modificationAtSite && modificationFound) {
-                                            psParameter = (PSParameter) peptideAssumption.getUrParam(psParameter);
-                                            double p = psParameter.getSearchEngineProbability();
-                                            if (p < secondaryP) {
-                                                secondaryP = p;
-                                            }
+                            if (found) {
+                                psParameter = (PSParameter) peptideAssumption.getUrParam(psParameter);
+                                double p = psParameter.getSearchEngineProbability();
+                                for (int i = 0; i < nSites; i++) {
+                                    if (modificationAtSite[i]) {
+                                        if (p < refP[i]) {
+                                            refP[i] = p;
+                                        }
+                                    } else if (modificationFound[i]) {
+                                        if (p < secondaryP[i]) {
+                                            secondaryP[i] = p;
                                         }
                                     }
                                 }
                             }
                         }
                     }
+                }
+            }
+        }
 
-                    PtmScoring ptmScoring = ptmScores.getPtmScoring(modName);
-                    if (ptmScoring == null) {
-                        ptmScoring = new PtmScoring(modName);
-                        ptmScores.addPtmScoring(modName, ptmScoring);
-                    }
+        PSPtmScores ptmScores = new PSPtmScores();
 
-                    if (secondaryP < refP) {
-                        secondaryP = refP;
-                    }
+        if (spectrumMatch.getUrParam(ptmScores) != null) {
+            ptmScores = (PSPtmScores) spectrumMatch.getUrParam(ptmScores);
+        }
 
-                    double deltaScore = (secondaryP - refP) * 100;
-                    ptmScoring.setDeltaScore(modSite, deltaScore);
-                }
+        for (int i = 0; i < nSites; i++) {
 
-                spectrumMatch.addUrParam(ptmScores);
-                identification.updateSpectrumMatch(spectrumMatch);
+            String modName = siteModifications[i];
+            PtmScoring ptmScoring = ptmScores.getPtmScoring(modName);
+            if (ptmScoring == null) {
+                ptmScoring = new PtmScoring(modName);
+                ptmScores.addPtmScoring(modName, ptmScoring);
+            }
+
+            double secondary = secondaryP[i];
+            if (secondary < refP[i]) {
+                secondary = refP[i];
             }
+
+            double deltaScore = (secondary - refP[i]) * 100;
+            ptmScoring.setDeltaScore(sites[i], deltaScore);
         }
+
+        spectrumMatch.addUrParam(ptmScores);
+        identification.updateSpectrumMatch(spectrumMatch);
     }
 
     /**
@@ -265,7 +254,7 @@ public class PtmScorer {
         SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences(),
                 ptmSequenceMatchingPreferences = scoringPreferences.getSequenceMatchingPreferences();
 
-        PtmSettings ptmProfile = searchParameters.getPtmSettings();
+        PtmTable ptmTable = PtmTable.getPtmTable(searchParameters.getPtmSettings());
 
         PSPtmScores ptmScores = new PSPtmScores();
         if (spectrumMatch.getUrParam(ptmScores) != null) {
@@ -280,13 +269,10 @@ public class PtmScorer {
         if (peptide.isModified()) {
             for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
                 if (modificationMatch.isVariable()) {
-                    PTM refPTM = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
+                    PTM refPTM = ptmTable.getPtm(modificationMatch.getTheoreticPtm());
                     double ptmMass = refPTM.getMass();
                     if (!modifications.containsKey(ptmMass)) {
-                        ArrayList<PTM> ptms = new ArrayList<PTM>();
-                        for (String ptm : ptmProfile.getSimilarNotFixedModifications(ptmMass)) {
-                            ptms.add(ptmFactory.getPTM(ptm));
-                        }
+                        ArrayList<PTM> ptms = new ArrayList<PTM>(Arrays.asList(ptmTable.getSimilarNotFixedModifications(ptmMass)));
                         modifications.put(ptmMass, ptms);
                         nMod.put(ptmMass, 1);
                     } else {
@@ -300,6 +286,7 @@ public class PtmScorer {
 
             MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumMatch.getKey());
             SpecificAnnotationSettings specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationPreferences(spectrum.getSpectrumKey(), bestPeptideAssumption, identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences());
+            HashMap<String, HashSet<Integer>> potentialSitesMap = new HashMap<String, HashSet<Integer>>(modifications.size());
 
             for (Double ptmMass : modifications.keySet()) {
                 HashMap<Integer, Double> scores = null;
@@ -321,11 +308,12 @@ public class PtmScorer {
                     // remap to searched PTMs
                     PTM mappedModification = null;
                     String peptideSequence = peptide.getSequence();
+                    ArrayList<PTM> similarPtms = modifications.get(ptmMass);
                     for (int site : scores.keySet()) {
                         if (site == 0) {
                             // N-term ptm
-                            for (PTM ptm : modifications.get(ptmMass)) {
-                                if (ptm.isNTerm() && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(1)) {
+                            for (PTM ptm : similarPtms) {
+                                if (ptm.isNTerm() && getPotentialModificationSites(peptide, ptm, potentialSitesMap, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(1)) {
                                     mappedModification = ptm;
                                     break;
                                 }
@@ -335,8 +323,8 @@ public class PtmScorer {
                             }
                         } else if (site == peptideSequence.length() + 1) {
                             // C-term ptm
-                            for (PTM ptm : modifications.get(ptmMass)) {
-                                if (ptm.isCTerm() && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(peptideSequence.length())) {
+                            for (PTM ptm : similarPtms) {
+                                if (ptm.isCTerm() && getPotentialModificationSites(peptide, ptm, potentialSitesMap, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(peptideSequence.length())) {
                                     mappedModification = ptm;
                                     break;
                                 }
@@ -345,8 +333,8 @@ public class PtmScorer {
                                 throw new IllegalArgumentException("Could not map the PTM of mass " + ptmMass + " on the C-terminus of the peptide " + peptideSequence + ".");
                             }
                         } else {
-                            for (PTM ptm : modifications.get(ptmMass)) {
-                                if (peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(site)) {
+                            for (PTM ptm : similarPtms) {
+                                if (getPotentialModificationSites(peptide, ptm, potentialSitesMap, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(site)) {
                                     mappedModification = ptm;
                                     break;
                                 }
@@ -375,6 +363,42 @@ public class PtmScorer {
         }
     }
 
+    /**
+     * Returns the potential modification sites of a PTM on a peptide. The
+     * sites are computed once per PTM and stored in the given map.
+     *
+     * @param peptide the peptide
+     * @param ptm the PTM
+     * @param potentialSitesMap map of the sites already computed indexed by
+     * PTM name
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * for peptide to protein mapping
+     * @param ptmSequenceMatchingPreferences the sequence matching preferences
+     * for PTM to peptide mapping
+     *
+     * @return the potential modification sites of the PTM on the peptide
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a protein sequence
+     * @throws InterruptedException exception thrown whenever an error
+     * occurred while reading a protein sequence
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while reading a protein sequence
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading a protein sequence
+     */
+    private HashSet<Integer> getPotentialModificationSites(Peptide peptide, PTM ptm, HashMap<String, HashSet<Integer>> potentialSitesMap,
+            SequenceMatchingPreferences sequenceMatchingPreferences, SequenceMatchingPreferences ptmSequenceMatchingPreferences)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        String ptmName = ptm.getName();
+        HashSet<Integer> sites = potentialSitesMap.get(ptmName);
+        if (sites == null) {
+            sites = new HashSet<Integer>(peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences));
+            potentialSitesMap.put(ptmName, sites);
+        }
+        return sites;
+    }
+
     /**
      * Scores PTM locations for a desired spectrum match.
      *
@@ -417,12 +441,13 @@ public class PtmScorer {
         if (ptmScores != null) {
 
             Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+            PtmTable ptmTable = PtmTable.getPtmTable(identificationParameters.getSearchParameters().getPtmSettings());
 
             ArrayList<Double> modificationMasses = new ArrayList<Double>(peptide.getNModifications());
             if (peptide.isModified()) {
                 for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
                     if (modificationMatch.isVariable()) {
-                        PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
+                        PTM ptm = ptmTable.getPtm(modificationMatch.getTheoreticPtm());
                         if (!modificationMasses.contains(ptm.getMass())) {
                             modificationMasses.add(ptm.getMass());
                         }
@@ -439,7 +464,7 @@ public class PtmScorer {
 
                 for (String modification : ptmScores.getScoredPTMs()) {
 
-                    PTM ptm = ptmFactory.getPTM(modification);
+                    PTM ptm = ptmTable.getPtm(modification);
 
                     if (ptm.getMass() == ptmMass) {
 
@@ -598,7 +623,7 @@ public class PtmScorer {
         }
 
         SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        PtmSettings ptmSettings = identificationParameters.getSearchParameters().getPtmSettings();
+        PtmTable ptmTable = PtmTable.getPtmTable(identificationParameters.getSearchParameters().getPtmSettings());
 
         PSPtmScores peptideScores = new PSPtmScores();
         PSParameter psParameter = new PSParameter();
@@ -614,20 +639,9 @@ public class PtmScorer {
         for (ModificationMatch modificationMatch : originalMatches) {
             if (modificationMatch.isVariable()) {
                 String modName = modificationMatch.getTheoreticPtm();
-                PTM ptm = ptmFactory.getPTM(modName);
+                PTM ptm = ptmTable.getPtm(modName);
                 double ptmMass = ptm.getMass();
-                boolean maybeNotTerminal = ptm.getType() == PTM.MODAA;
-                if (!maybeNotTerminal) {
-                    for (String otherPtmName : ptmSettings.getAllNotFixedModifications()) {
-                        if (!otherPtmName.equals(modName)) {
-                            PTM ptm2 = ptmFactory.getPTM(otherPtmName);
-                            if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
-                                maybeNotTerminal = true;
-                                break;
-                            }
-                        }
-                    }
-                }
+                boolean maybeNotTerminal = ptm.getType() == PTM.MODAA || ptmTable.hasSameMassDifferentType(modName);
                 if (maybeNotTerminal) {
                     Integer nPtm = variableModifications.get(ptmMass);
                     if (nPtm == null) {
@@ -662,12 +676,12 @@ public class PtmScorer {
                         if (cTermPtmConfident != null) {
                             throw new IllegalArgumentException("Multiple PTMs on termini not supported.");
                         }
-                        cTermPtmConfident = ptmFactory.getPTM(modName);
+                        cTermPtmConfident = ptm;
                     } else if (ptm.isNTerm()) {
                         if (nTermPtmConfident != null) {
                             throw new IllegalArgumentException("Multiple PTMs on termini not supported.");
                         }
-                        nTermPtmConfident = ptmFactory.getPTM(modName);
+                        nTermPtmConfident = ptm;
                     } else {
                         throw new IllegalArgumentException("Non-terminal PTM should be of type PTM.MODAA.");
                     }
@@ -725,7 +739,7 @@ public class PtmScorer {
             for (Integer refSite : psmScores.getConfidentSites()) {
                 for (String ptmName : psmScores.getConfidentModificationsAt(refSite)) {
                     int site = refSite;
-                    PTM ptm = ptmFactory.getPTM(ptmName);
+                    PTM ptm = ptmTable.getPtm(ptmName);
                     Double ptmMass = ptm.getMass();
                     Integer occurrence = variableModifications.get(ptmMass);
                     if (occurrence != null) {
@@ -817,7 +831,7 @@ public class PtmScorer {
                     for (int refSite : ambiguousMappingAtSite.keySet()) {
                         for (String ptmName : ambiguousMappingAtSite.get(refSite)) {
                             int site = refSite;
-                            PTM ptm = ptmFactory.getPTM(ptmName);
+                            PTM ptm = ptmTable.getPtm(ptmName);
                             Double ptmMass = ptm.getMass();
                             Integer occurrence = variableModifications.get(ptmMass);
                             if (occurrence != null) {
@@ -1402,21 +1416,19 @@ PeptideMatch peptideMatch;
      * @param exceptionHandler handler for exceptions
      * @param identificationParameters the identification parameters
      * @param metrics the dataset metrics
-     * @param processingPreferences the processing preferences
+     * @param executor the executor to use
      *
      * @throws Exception exception thrown whenever a problem occurred while
      * deserializing a match
      */
     public void scorePsmPtms(Identification identification, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, IdentificationParameters identificationParameters,
-            Metrics metrics, ProcessingPreferences processingPreferences) throws Exception {
+            Metrics metrics, BoundedExecutor executor) throws Exception {
 
         waitingHandler.setWaitingText("Scoring PSM PTMs. Please Wait...");
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
-        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
-
         HashMap<String, ArrayList<String>> spectrumKeysMap = metrics.getOrderedSpectrumKeys();
         for (String spectrumFileName : identification.getSpectrumFiles()) {
             ArrayList<String> spectrumKeys = null;
@@ -1424,17 +1436,16 @@ PeptideMatch peptideMatch;
                 spectrumKeys = spectrumKeysMap.get(spectrumFileName);
             }
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, null, true, null);
-            for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            for (int i = 1; i <= executor.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
                 PsmPtmScorerRunnable runnable = new PsmPtmScorerRunnable(psmIterator, identification, identificationParameters, waitingHandler, exceptionHandler);
-                pool.submit(runnable);
+                executor.submit(runnable);
             }
             if (waitingHandler.isRunCanceled()) {
-                pool.shutdownNow();
+                executor.awaitAfterCancel();
                 return;
             }
         }
-        pool.shutdown();
-        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+        if (!executor.waitForTasks(7, TimeUnit.DAYS)) {
             throw new InterruptedException("PSM PTM scoring timed out. Please contact the developers.");
         }
     }
@@ -1548,336 +1559,397 @@ ProteinMatch proteinMatch;
 
     /**
      * Infers the PTM localization and its confidence for the best match of
-     * every spectrum.
+     * every spectrum. In a first pass, the confidently localized PTMs are
+     * indexed and the PSMs with ambiguously localized PTMs are listed. In a
+     * second pass, only the PSMs with ambiguously localized PTMs are loaded
+     * and their sites relocated according to the confident localizations of
+     * related peptides. Both passes are run in parallel per spectrum file.
      *
      * @param identification identification object containing the identification
      * matches
-     * @param waitingHandler waiting handler displaying progress to the user
      * @param identificationParameters the identification parameters
+     * @param waitingHandler waiting handler displaying progress to the user
+     * @param exceptionHandler handler for exceptions
+     * @param executor the executor to use
+     *
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    public void peptideInference(Identification identification, IdentificationParameters identificationParameters, WaitingHandler waitingHandler,
+            ExceptionHandler exceptionHandler, BoundedExecutor executor) throws InterruptedException {
+
+        waitingHandler.setWaitingText("Peptide Inference. Please Wait...");
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
+
+        PeptideInferenceIndex peptideInferenceIndex = new PeptideInferenceIndex();
+
+        // index the confident and ambiguous PTM localizations
+        for (String spectrumFileName : identification.getSpectrumFiles()) {
+            PeptideInferenceRunnable runnable = new PeptideInferenceRunnable(spectrumFileName, peptideInferenceIndex, false, identification, identificationParameters, waitingHandler, exceptionHandler);
+            executor.submit(runnable);
+        }
+        if (!executor.waitForTasks(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Peptide inference timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        // try to infer the modification site based on any related peptide
+        for (String spectrumFileName : identification.getSpectrumFiles()) {
+            if (peptideInferenceIndex.getAmbiguousPsms(spectrumFileName) != null) {
+                PeptideInferenceRunnable runnable = new PeptideInferenceRunnable(spectrumFileName, peptideInferenceIndex, true, identification, identificationParameters, waitingHandler, exceptionHandler);
+                executor.submit(runnable);
+            }
+        }
+        if (!executor.waitForTasks(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("Peptide inference timed out. Please contact the developers.");
+        }
+    }
+
+    /**
+     * Indexes the confident and ambiguous PTM localizations of the PSMs of a
+     * spectrum file for the peptide inference.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param spectrumFileName the name of the spectrum file
+     * @param peptideInferenceIndex the index where to store the localizations
+     * @param ptmTable the PTM table of the project
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param waitingHandler waiting handler displaying progress to the user
      *
      * @throws SQLException exception thrown whenever a problem occurred while
      * interacting with the database
      * @throws IOException exception thrown whenever a problem occurred while
-     * writing/reading the database or the FASTA file
+     * reading the database
      * @throws ClassNotFoundException exception thrown whenever a problem
      * occurred while deserializing an object from the database
-     * @throws IllegalArgumentException exception thrown whenever an error
-     * occurred while reading a protein sequence
-     * @throws InterruptedException exception thrown whenever an error occurred
-     * while reading a protein sequence
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while interacting with the database
      */
-    public void peptideInference(Identification identification, IdentificationParameters identificationParameters, WaitingHandler waitingHandler)
-            throws SQLException, IOException, ClassNotFoundException, IllegalArgumentException, InterruptedException {
+    private void indexPeptideInference(Identification identification, String spectrumFileName, PeptideInferenceIndex peptideInferenceIndex, PtmTable ptmTable,
+            SequenceMatchingPreferences sequenceMatchingPreferences, WaitingHandler waitingHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        waitingHandler.setWaitingText("Peptide Inference. Please Wait...");
+        PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, true, waitingHandler);
+        SpectrumMatch spectrumMatch;
 
-        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-        waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
+        while ((spectrumMatch = psmIterator.next()) != null && !waitingHandler.isRunCanceled()) {
 
-        SequenceMatchingPreferences ptmSequenceMatchingPreferences = identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences(),
-                sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
-        SearchParameters searchParameters = identificationParameters.getSearchParameters();
-        PtmSettings ptmSettings = searchParameters.getPtmSettings();
+            boolean confident = true;
 
-        // PSMs with confidently localized PTMs in a map: PTM mass -> peptide sequence -> spectrum keys
-        HashMap<Double, HashMap<String, HashSet<String>>> confidentPeptideInference = new HashMap<Double, HashMap<String, HashSet<String>>>();
-        // PSMs with ambiguously localized PTMs in a map: File -> PTM mass -> spectrum keys
-        HashMap<String, HashMap<Double, HashSet<String>>> notConfidentPeptideInference = new HashMap<String, HashMap<Double, HashSet<String>>>();
+            if (spectrumMatch.getBestPeptideAssumption() != null) {
 
-        for (String spectrumFileName : identification.getSpectrumFiles()) {
+                Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
 
-            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, true, waitingHandler);
-SpectrumMatch spectrumMatch;
-            
-            while ((spectrumMatch = psmIterator.next()) != null) {
+                if (peptide.isModified()) {
 
-                String spectrumKey = spectrumMatch.getKey();
-                if (spectrumMatch.getBestPeptideAssumption() != null) {
-                    boolean variableAA = false;
-                    Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
-                    if (peptide.isModified()) {
-                        for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                            if (modificationMatch.isVariable()) {
-                                String modName = modificationMatch.getTheoreticPtm();
-                                PTM ptm = ptmFactory.getPTM(modName);
-                                if (ptm.getType() == PTM.MODAA) {
-                                    variableAA = true;
-                                    break;
-                                } else {
-                                    double ptmMass = ptm.getMass();
-                                    for (String otherPtmName : ptmSettings.getAllNotFixedModifications()) {
-                                        if (!otherPtmName.equals(modName)) {
-                                            PTM ptm2 = ptmFactory.getPTM(otherPtmName);
-                                            if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
-                                                variableAA = true;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    if (variableAA) {
-                        boolean confident = true;
-                        for (ModificationMatch modMatch : peptide.getModificationMatches()) {
-                            if (modMatch.isVariable()) {
-                                String modName = modMatch.getTheoreticPtm();
-                                PTM ptm = ptmFactory.getPTM(modName);
+                    ArrayList<Double> confidentMasses = null;
+                    ArrayList<Double> ambiguousMasses = null;
+
+                    for (ModificationMatch modMatch : peptide.getModificationMatches()) {
+                        if (modMatch.isVariable()) {
+                            String modName = modMatch.getTheoreticPtm();
+                            PTM ptm = ptmTable.getPtm(modName);
+                            if (ptm.getType() == PTM.MODAA || ptmTable.hasSameMassDifferentType(modName)) {
                                 double ptmMass = ptm.getMass();
-                                boolean maybeNotTerminal = ptm.getType() == PTM.MODAA;
-                                if (!maybeNotTerminal) {
-                                    for (String otherPtmName : ptmSettings.getAllNotFixedModifications()) {
-                                        if (!otherPtmName.equals(modName)) {
-                                            PTM ptm2 = ptmFactory.getPTM(otherPtmName);
-                                            if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
-                                                maybeNotTerminal = true;
-                                                break;
-                                            }
-                                        }
+                                if (!modMatch.isConfident()) {
+                                    if (ambiguousMasses == null) {
+                                        ambiguousMasses = new ArrayList<Double>(1);
                                     }
-                                }
-                                if (maybeNotTerminal) {
-                                    if (!modMatch.isConfident()) {
-                                        HashMap<Double, HashSet<String>> fileMap = notConfidentPeptideInference.get(spectrumFileName);
-                                        if (fileMap == null) {
-                                            fileMap = new HashMap<Double, HashSet<String>>(2);
-                                            notConfidentPeptideInference.put(spectrumFileName, fileMap);
-                                        }
-                                        HashSet<String> spectra = fileMap.get(ptmMass);
-                                        if (spectra == null) {
-                                            spectra = new HashSet<String>(2);
-                                            fileMap.put(ptmMass, spectra);
-                                        }
-                                        spectra.add(spectrumKey);
-                                        confident = false;
-                                    } else {
-                                        HashMap<String, HashSet<String>> modMap = confidentPeptideInference.get(ptmMass);
-                                        if (modMap == null) {
-                                            modMap = new HashMap<String, HashSet<String>>(2);
-                                            confidentPeptideInference.put(ptmMass, modMap);
-                                        }
-                                        String sequence = spectrumMatch.getBestPeptideAssumption().getPeptide().getSequence();
-                                        HashSet<String> spectra = modMap.get(sequence);
-                                        if (spectra == null) {
-                                            spectra = new HashSet<String>(2);
-                                            modMap.put(sequence, spectra);
-                                        }
-                                        spectra.add(spectrumKey);
+                                    if (!ambiguousMasses.contains(ptmMass)) {
+                                        ambiguousMasses.add(ptmMass);
+                                    }
+                                } else {
+                                    if (confidentMasses == null) {
+                                        confidentMasses = new ArrayList<Double>(1);
+                                    }
+                                    if (!confidentMasses.contains(ptmMass)) {
+                                        confidentMasses.add(ptmMass);
                                     }
                                 }
                             }
                         }
-                        if (confident) {
-                            waitingHandler.increaseSecondaryProgressCounter();
-                        }
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
+                    }
+
+                    if (confidentMasses != null) {
+                        String matchingKey = peptide.getMatchingKey(sequenceMatchingPreferences);
+                        int sequenceId = peptideInferenceIndex.getSequenceId(peptide.getSequence());
+                        for (double ptmMass : confidentMasses) {
+                            int massId = peptideInferenceIndex.getMassId(ptmMass);
+                            int nMod = Peptide.getModificationCount(matchingKey, ptmMass);
+                            ArrayList<Integer> sites = Peptide.getNModificationLocalized(matchingKey, ptmMass);
+                            peptideInferenceIndex.addConfidentLocalization(massId, sequenceId, nMod, sites);
                         }
-                    } else {
-                        waitingHandler.increaseSecondaryProgressCounter();
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
+                    }
+
+                    if (ambiguousMasses != null) {
+                        int[] massIds = new int[ambiguousMasses.size()];
+                        for (int i = 0; i < massIds.length; i++) {
+                            massIds[i] = peptideInferenceIndex.getMassId(ambiguousMasses.get(i));
                         }
+                        peptideInferenceIndex.addAmbiguousPsm(spectrumFileName, spectrumMatch.getKey(), massIds);
+                        confident = false;
                     }
                 }
             }
+
+            if (confident) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
         }
+    }
 
-        // try to infer the modification site based on any related peptide
-        for (String spectrumFile : notConfidentPeptideInference.keySet()) {
+    /**
+     * Relocates the ambiguously localized PTMs of the PSMs of a spectrum file
+     * based on the confident localizations of related peptides.
+     *
+     * @param identification identification object containing the identification
+     * matches
+     * @param spectrumFileName the name of the spectrum file
+     * @param peptideInferenceIndex the index of the localizations
+     * @param ptmTable the PTM table of the project
+     * @param identificationParameters the identification parameters
+     * @param waitingHandler waiting handler displaying progress to the user
+     *
+     * @throws SQLException exception thrown whenever a problem occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever a problem occurred while
+     * writing/reading the database or the FASTA file
+     * @throws ClassNotFoundException exception thrown whenever a problem
+     * occurred while deserializing an object from the database
+     * @throws IllegalArgumentException exception thrown whenever an error
+     * occurred while reading a protein sequence
+     * @throws InterruptedException exception thrown whenever an error occurred
+     * while reading a protein sequence
+     */
+    private void relocateAmbiguousPtms(Identification identification, String spectrumFileName, PeptideInferenceIndex peptideInferenceIndex, PtmTable ptmTable,
+            IdentificationParameters identificationParameters, WaitingHandler waitingHandler)
+            throws SQLException, IOException, ClassNotFoundException, IllegalArgumentException, InterruptedException {
+
+        HashMap<String, int[]> ambiguousPsms = peptideInferenceIndex.getAmbiguousPsms(spectrumFileName);
+        PsmIterator psmIterator = identification.getPsmIterator(new ArrayList<String>(ambiguousPsms.keySet()), true, waitingHandler);
+        SpectrumMatch spectrumMatch;
 
-            HashSet<String> progress = new HashSet<String>();
-            HashMap<Double, HashSet<String>> peptidesOfFile = notConfidentPeptideInference.get(spectrumFile);
+        while ((spectrumMatch = psmIterator.next()) != null && !waitingHandler.isRunCanceled()) {
 
-            for (Double ptmMass : peptidesOfFile.keySet()) {
+            boolean updated = false;
 
-                ArrayList<String> spectrumKeys = new ArrayList<String>(peptidesOfFile.get(ptmMass));
-                PsmIterator psmIterator = identification.getPsmIterator(spectrumKeys, true, waitingHandler);
-SpectrumMatch spectrumMatch;
-                
-                while ((spectrumMatch = psmIterator.next()) != null) {
+            for (int massId : ambiguousPsms.get(spectrumMatch.getKey())) {
+                double ptmMass = peptideInferenceIndex.getMass(massId);
+                if (relocateAmbiguousPtms(spectrumMatch, ptmMass, peptideInferenceIndex, ptmTable, identificationParameters)) {
+                    updated = true;
+                }
+            }
 
-                    String spectrumKey = spectrumMatch.getKey();
+            if (updated) {
+                identification.updateSpectrumMatch(spectrumMatch);
+            }
 
-                    Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
-                    String sequence = peptide.getSequence();
-                    String notConfidentKey = peptide.getMatchingKey(sequenceMatchingPreferences);
-                    int nMod = Peptide.getModificationCount(notConfidentKey, ptmMass);
-                    ArrayList<Integer> tempLocalizations, oldLocalizations = Peptide.getNModificationLocalized(notConfidentKey, ptmMass);
-                    ArrayList<Integer> newLocalizationCandidates = new ArrayList<Integer>(oldLocalizations.size());
+            waitingHandler.increaseSecondaryProgressCounter();
+        }
+    }
 
-                    HashMap<String, HashSet<String>> ptmConfidentPeptides = confidentPeptideInference.get(ptmMass);
+    /**
+     * Relocates the ambiguously localized PTMs of the given mass of a PSM
+     * based on the confident localizations of related peptides.
+     *
+     * @param spectrumMatch the spectrum match
+     * @param ptmMass the PTM mass
+     * @param peptideInferenceIndex the index of the localizations
+     * @param ptmTable the PTM table of the project
+     * @param identificationParameters the identification parameters
+     *
+     * @return a boolean indicating whether confident localizations were found
+     * for the PTM mass and the match needs to be updated
+     *
+     * @throws IOException exception thrown whenever a problem occurred while
+     * reading the FASTA file
+     * @throws IllegalArgumentException exception thrown whenever an error
+     * occurred while reading a protein sequence
+     * @throws InterruptedException exception thrown whenever an error occurred
+     * while reading a protein sequence
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while reading a protein sequence
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading a protein sequence
+     */
+    private boolean relocateAmbiguousPtms(SpectrumMatch spectrumMatch, double ptmMass, PeptideInferenceIndex peptideInferenceIndex, PtmTable ptmTable,
+            IdentificationParameters identificationParameters) throws IOException, IllegalArgumentException, InterruptedException, ClassNotFoundException, SQLException {
 
-                    if (ptmConfidentPeptides != null) {
+        HashMap<Integer, ArrayList<int[]>> confidentAtMass = peptideInferenceIndex.getConfidentLocalizations(ptmMass);
 
-                        // See if we can explain this peptide by another already identified peptide with the same number of modifications (the two peptides will be merged)
-                        HashSet<String> keys = ptmConfidentPeptides.get(sequence);
+        if (confidentAtMass == null) {
+            return false;
+        }
 
-                        if (keys != null) {
-                            for (String tempKey : keys) {
-                                SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                if (Peptide.getModificationCount(secondaryKey, ptmMass) == nMod) {
-                                    tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                    for (int localization : tempLocalizations) {
-                                        if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
-                                            newLocalizationCandidates.add(localization);
-                                        }
-                                    }
-                                }
-                            }
-                            if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
-                                // we cannot merge this peptide, see whether we can explain the remaining modifications using peptides with the same sequence but other modification profile
-                                for (String tempKey : keys) {
-                                    SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                    String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                    tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                    for (int localization : tempLocalizations) {
-                                        if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
-                                            newLocalizationCandidates.add(localization);
-                                        }
-                                    }
-                                }
-                            }
+        SequenceMatchingPreferences ptmSequenceMatchingPreferences = identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences(),
+                sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        String spectrumKey = spectrumMatch.getKey();
+        Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+        String sequence = peptide.getSequence();
+        String notConfidentKey = peptide.getMatchingKey(sequenceMatchingPreferences);
+        int nMod = Peptide.getModificationCount(notConfidentKey, ptmMass);
+        ArrayList<Integer> oldLocalizations = Peptide.getNModificationLocalized(notConfidentKey, ptmMass);
+        ArrayList<Integer> newLocalizationCandidates = new ArrayList<Integer>(oldLocalizations.size());
+
+        // See if we can explain this peptide by another already identified peptide with the same number of modifications (the two peptides will be merged)
+        ArrayList<int[]> sameSequenceLocalizations = confidentAtMass.get(peptideInferenceIndex.getSequenceId(sequence));
+
+        if (sameSequenceLocalizations != null) {
+            for (int[] localizations : sameSequenceLocalizations) {
+                if (localizations[0] == nMod) {
+                    for (int i = 1; i < localizations.length; i++) {
+                        int localization = localizations[i];
+                        if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
+                            newLocalizationCandidates.add(localization);
                         }
-                        if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
-                            // There are still unexplained sites, let's see if we find a related peptide which can help.
-                            HashMap<String, HashSet<String>> confidentAtMass = confidentPeptideInference.get(ptmMass);
-                            for (String otherSequence : confidentAtMass.keySet()) {
-                                if (!sequence.equals(otherSequence) && sequence.contains(otherSequence)) {
-                                    for (String tempKey : confidentAtMass.get(otherSequence)) {
-                                        SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                        String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                        tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                        int tempIndex, ref = 0;
-                                        String tempSequence = sequence;
-                                        while ((tempIndex = tempSequence.indexOf(otherSequence)) >= 0) {
-                                            ref += tempIndex;
-                                            for (int localization : tempLocalizations) {
-                                                int shiftedLocalization = ref + localization;
-                                                if (!oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)) {
-                                                    boolean siteOccupied = false;
-                                                    for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                                                        PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
-                                                        if (ptm.getMass() != ptmMass && modificationMatch.getModificationSite() == shiftedLocalization) { // @TODO: compare against the accuracy
-                                                            siteOccupied = true;
-                                                        }
-                                                    }
-                                                    boolean candidatePtm = false;
-                                                    if (!siteOccupied) {
-                                                        for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
-                                                            PTM ptm = ptmFactory.getPTM(ptmName);
-                                                            if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(shiftedLocalization)) { // @TODO: compare against the accuracy
-                                                                candidatePtm = true;
-                                                                break;
-                                                            }
-                                                        }
-                                                    }
-                                                    if (candidatePtm && !siteOccupied) {
-                                                        newLocalizationCandidates.add(shiftedLocalization);
-                                                    }
-                                                }
-                                            }
-                                            tempSequence = tempSequence.substring(tempIndex + 1);
-                                            ref++;
-                                        }
-                                    }
-                                } else if (!sequence.equals(otherSequence) && otherSequence.contains(sequence)) {
-                                    for (String tempKey : confidentAtMass.get(otherSequence)) {
-                                        SpectrumMatch secondaryMatch = identification.getSpectrumMatch(tempKey);
-                                        String secondaryKey = secondaryMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(sequenceMatchingPreferences);
-                                        tempLocalizations = Peptide.getNModificationLocalized(secondaryKey, ptmMass);
-                                        int tempIndex, ref = 0;
-                                        String tempSequence = otherSequence;
-                                        while ((tempIndex = tempSequence.indexOf(sequence)) >= 0) {
-                                            ref += tempIndex;
-                                            for (int localization : tempLocalizations) {
-                                                int shiftedLocalization = localization - ref;
-                                                if (shiftedLocalization > 0 && shiftedLocalization <= sequence.length()
-                                                        && !oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)) {
-                                                    boolean siteOccupied = false;
-                                                    for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                                                        PTM ptm = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
-                                                        if (ptm.getMass() != ptmMass && modificationMatch.getModificationSite() == shiftedLocalization) { // @TODO: compare against the accuracy
-                                                            siteOccupied = true;
-                                                        }
-                                                    }
-                                                    boolean candidatePtm = false;
-                                                    if (!siteOccupied) {
-                                                        for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
-                                                            PTM ptm = ptmFactory.getPTM(ptmName);
-                                                            if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(shiftedLocalization)) { // @TODO: compare against the accuracy
-                                                                candidatePtm = true;
-                                                                break;
-                                                            }
-                                                        }
-                                                    }
-                                                    if (candidatePtm && !siteOccupied) {
-                                                        newLocalizationCandidates.add(shiftedLocalization);
-                                                    }
-                                                }
-                                            }
-                                            tempSequence = tempSequence.substring(tempIndex + 1);
-                                            ref++;
-                                        }
-                                    }
-                                }
-                            }
+                    }
+                }
+            }
+            if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
+                // we cannot merge this peptide, see whether we can explain the remaining modifications using peptides with the same sequence but other modification profile
+                for (int[] localizations : sameSequenceLocalizations) {
+                    for (int i = 1; i < localizations.length; i++) {
+                        int localization = localizations[i];
+                        if (!oldLocalizations.contains(localization) && !newLocalizationCandidates.contains(localization)) {
+                            newLocalizationCandidates.add(localization);
                         }
-                        
-                        // Map the most likely inferred sites
-                        if (!newLocalizationCandidates.isEmpty()) {
-                            HashMap<Integer, ModificationMatch> nonConfidentMatches = new HashMap<Integer, ModificationMatch>();
-                            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
-                                String ptmName = modificationMatch.getTheoreticPtm();
-                                PTM ptm = ptmFactory.getPTM(ptmName);
-                                if (ptm.getMass() == ptmMass && !modificationMatch.isConfident()) { // @TODO: compare against the accuracy
-                                    nonConfidentMatches.put(modificationMatch.getModificationSite(), modificationMatch);
+                    }
+                }
+            }
+        }
+        if (oldLocalizations.size() + newLocalizationCandidates.size() < nMod) {
+            // There are still unexplained sites, let's see if we find a related peptide which can help.
+            for (int otherSequenceId : confidentAtMass.keySet()) {
+                String otherSequence = peptideInferenceIndex.getSequence(otherSequenceId);
+                if (!sequence.equals(otherSequence) && sequence.contains(otherSequence)) {
+                    for (int[] localizations : confidentAtMass.get(otherSequenceId)) {
+                        int tempIndex, ref = 0;
+                        String tempSequence = sequence;
+                        while ((tempIndex = tempSequence.indexOf(otherSequence)) >= 0) {
+                            ref += tempIndex;
+                            for (int i = 1; i < localizations.length; i++) {
+                                int shiftedLocalization = ref + localizations[i];
+                                if (!oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)
+                                        && isCandidateSite(peptide, shiftedLocalization, ptmMass, ptmTable, sequenceMatchingPreferences, ptmSequenceMatchingPreferences)) {
+                                    newLocalizationCandidates.add(shiftedLocalization);
                                 }
                             }
-                            HashMap<Integer, Integer> mapping = PtmSiteMapping.align(nonConfidentMatches.keySet(), newLocalizationCandidates);
-                            for (Integer oldLocalization : mapping.keySet()) {
-                                ModificationMatch modificationMatch = nonConfidentMatches.get(oldLocalization);
-                                Integer newLocalization = mapping.get(oldLocalization);
-                                if (modificationMatch == null) {
-                                    throw new IllegalArgumentException("No modification match found at site " + oldLocalization + " in spectrum " + spectrumKey + ".");
-                                }
-                                if (newLocalization != null) {
-                                    if (!newLocalization.equals(oldLocalization)) {
-                                        String ptmCandidateName = null;
-                                        for (String ptmName : searchParameters.getPtmSettings().getAllNotFixedModifications()) {
-                                            PTM ptm = ptmFactory.getPTM(ptmName);
-                                            if (ptm.getMass() == ptmMass && peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(newLocalization)) { // @TODO: compare against the accuracy
-                                                ptmCandidateName = ptm.getName();
-                                                break;
-                                            }
-                                        }
-                                        if (ptmCandidateName == null) {
-                                            throw new IllegalArgumentException("No PTM found for site " + newLocalization + " on  peptide " + peptide.getSequence() + " in spectrum " + spectrumKey + ".");
-                                        }
-                                        modificationMatch.setModificationSite(newLocalization);
-                                        modificationMatch.setTheoreticPtm(ptmCandidateName);
-                                        PSPtmScores psmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
-                                        psmScores.changeRepresentativeSite(ptmCandidateName, oldLocalization, newLocalization);
-                                    }
-                                    modificationMatch.setInferred(true);
+                            tempSequence = tempSequence.substring(tempIndex + 1);
+                            ref++;
+                        }
+                    }
+                } else if (!sequence.equals(otherSequence) && otherSequence.contains(sequence)) {
+                    for (int[] localizations : confidentAtMass.get(otherSequenceId)) {
+                        int tempIndex, ref = 0;
+                        String tempSequence = otherSequence;
+                        while ((tempIndex = tempSequence.indexOf(sequence)) >= 0) {
+                            ref += tempIndex;
+                            for (int i = 1; i < localizations.length; i++) {
+                                int shiftedLocalization = localizations[i] - ref;
+                                if (shiftedLocalization > 0 && shiftedLocalization <= sequence.length()
+                                        && !oldLocalizations.contains(shiftedLocalization) && !newLocalizationCandidates.contains(shiftedLocalization)
+                                        && isCandidateSite(peptide, shiftedLocalization, ptmMass, ptmTable, sequenceMatchingPreferences, ptmSequenceMatchingPreferences)) {
+                                    newLocalizationCandidates.add(shiftedLocalization);
                                 }
                             }
-                            peptide.resetKeysCaches();
+                            tempSequence = tempSequence.substring(tempIndex + 1);
+                            ref++;
                         }
-                        identification.updateSpectrumMatch(spectrumMatch);
-                    }
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
                     }
-                    if (!progress.contains(spectrumKey)) {
-                        progress.add(spectrumKey);
-                        waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+        }
+
+        // Map the most likely inferred sites
+        if (!newLocalizationCandidates.isEmpty()) {
+            HashMap<Integer, ModificationMatch> nonConfidentMatches = new HashMap<Integer, ModificationMatch>();
+            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                String ptmName = modificationMatch.getTheoreticPtm();
+                PTM ptm = ptmTable.getPtm(ptmName);
+                if (ptm.getMass() == ptmMass && !modificationMatch.isConfident()) { // @TODO: compare against the accuracy
+                    nonConfidentMatches.put(modificationMatch.getModificationSite(), modificationMatch);
+                }
+            }
+            HashMap<Integer, Integer> mapping = PtmSiteMapping.align(nonConfidentMatches.keySet(), newLocalizationCandidates);
+            for (Integer oldLocalization : mapping.keySet()) {
+                ModificationMatch modificationMatch = nonConfidentMatches.get(oldLocalization);
+                Integer newLocalization = mapping.get(oldLocalization);
+                if (modificationMatch == null) {
+                    throw new IllegalArgumentException("No modification match found at site " + oldLocalization + " in spectrum " + spectrumKey + ".");
+                }
+                if (newLocalization != null) {
+                    if (!newLocalization.equals(oldLocalization)) {
+                        String ptmCandidateName = null;
+                        for (PTM ptm : ptmTable.getNotFixedModifications(ptmMass)) {
+                            if (peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(newLocalization)) { // @TODO: compare against the accuracy
+                                ptmCandidateName = ptm.getName();
+                                break;
+                            }
+                        }
+                        if (ptmCandidateName == null) {
+                            throw new IllegalArgumentException("No PTM found for site " + newLocalization + " on  peptide " + peptide.getSequence() + " in spectrum " + spectrumKey + ".");
+                        }
+                        modificationMatch.setModificationSite(newLocalization);
+                        modificationMatch.setTheoreticPtm(ptmCandidateName);
+                        PSPtmScores psmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
+                        psmScores.changeRepresentativeSite(ptmCandidateName, oldLocalization, newLocalization);
                     }
+                    modificationMatch.setInferred(true);
                 }
             }
+            peptide.resetKeysCaches();
+        }
+
+        return true;
+    }
+
+    /**
+     * Indicates whether a site of a peptide can receive a PTM of the given
+     * mass, i.e. the site is not occupied by a PTM of another mass and a not
+     * fixed PTM of the given mass can be located on it.
+     *
+     * @param peptide the peptide
+     * @param site the site on the peptide sequence
+     * @param ptmMass the PTM mass
+     * @param ptmTable the PTM table of the project
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param ptmSequenceMatchingPreferences the sequence matching preferences
+     * for PTM to peptide mapping
+     *
+     * @return a boolean indicating whether the site can receive a PTM of the
+     * given mass
+     *
+     * @throws IOException exception thrown whenever a problem occurred while
+     * reading the FASTA file
+     * @throws IllegalArgumentException exception thrown whenever an error
+     * occurred while reading a protein sequence
+     * @throws InterruptedException exception thrown whenever an error occurred
+     * while reading a protein sequence
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while reading a protein sequence
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading a protein sequence
+     */
+    private boolean isCandidateSite(Peptide peptide, int site, double ptmMass, PtmTable ptmTable,
+            SequenceMatchingPreferences sequenceMatchingPreferences, SequenceMatchingPreferences ptmSequenceMatchingPreferences)
+            throws IOException, IllegalArgumentException, InterruptedException, ClassNotFoundException, SQLException {
+        for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+            PTM ptm = ptmTable.getPtm(modificationMatch.getTheoreticPtm());
+            if (ptm.getMass() != ptmMass && modificationMatch.getModificationSite() == site) { // @TODO: compare against the accuracy
+                return false;
+            }
         }
+        for (PTM ptm : ptmTable.getNotFixedModifications(ptmMass)) {
+            if (peptide.getPotentialModificationSites(ptm, sequenceMatchingPreferences, ptmSequenceMatchingPreferences).contains(site)) { // @TODO: compare against the accuracy
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -1903,7 +1975,7 @@ SpectrumMatch spectrumMatch;
         if (psPeptide.isModified()) {
             
             SearchParameters searchParameters = identificationParameters.getSearchParameters();
-            PtmSettings modificationProfile = searchParameters.getPtmSettings();
+            PtmTable ptmTable = PtmTable.getPtmTable(searchParameters.getPtmSettings());
             PSPtmScores ptmScores = (PSPtmScores) spectrumMatch.getUrParam(new PSPtmScores());
             HashMap<Double, ArrayList<ModificationMatch>> modMatchesMap = new HashMap<Double, ArrayList<ModificationMatch>>(psPeptide.getNModifications());
             HashMap<Double, HashMap<Integer, String>> possiblePositions = new HashMap<Double, HashMap<Integer, String>>(psPeptide.getNModifications());
@@ -1912,7 +1984,7 @@ SpectrumMatch spectrumMatch;
             for (ModificationMatch modificationMatch : psPeptide.getModificationMatches()) {
                 if (modificationMatch.isVariable()) {
                     String modName = modificationMatch.getTheoreticPtm();
-                    PTM ptm = ptmFactory.getPTM(modName);
+                    PTM ptm = ptmTable.getPtm(modName);
                     double ptmMass = ptm.getMass();
                     ArrayList<ModificationMatch> ptmOccurence = modMatchesMap.get(ptmMass);
                     if (ptmOccurence == null) {
@@ -1924,22 +1996,11 @@ SpectrumMatch spectrumMatch;
                         ptmPossibleSites = new HashMap<Integer, String>();
                         possiblePositions.put(ptmMass, ptmPossibleSites);
                     }
-                    boolean maybeNotTerminal = ptm.getType() == PTM.MODAA;
-                    if (!maybeNotTerminal) {
-                        for (String otherPtmName : modificationProfile.getAllNotFixedModifications()) {
-                            if (!otherPtmName.equals(modName)) {
-                                PTM ptm2 = ptmFactory.getPTM(otherPtmName);
-                                if (ptm2.getMass() == ptmMass && ptm.getType() != ptm2.getType()) {
-                                    maybeNotTerminal = true;
-                                    break;
-                                }
-                            }
-                        }
-                    }
+                    boolean maybeNotTerminal = ptm.getType() == PTM.MODAA || ptmTable.hasSameMassDifferentType(modName);
                     if (maybeNotTerminal) {
                         ptmOccurence.add(modificationMatch);
-                        for (String similarPtmName : modificationProfile.getSimilarNotFixedModifications(ptmMass)) {
-                            PTM similarPtm = ptmFactory.getPTM(similarPtmName);
+                        for (PTM similarPtm : ptmTable.getSimilarNotFixedModifications(ptmMass)) {
+                            String similarPtmName = similarPtm.getName();
                             for (int pos : psPeptide.getPotentialModificationSites(similarPtm, identificationParameters.getSequenceMatchingPreferences(), identificationParameters.getPtmScoringPreferences().getSequenceMatchingPreferences())) {
                                 ptmPossibleSites.put(pos, similarPtmName);
                             }
@@ -2365,4 +2426,82 @@ SpectrumMatch spectrumMatch;
             }
         }
     }
+
+    /**
+     * Runnable running a pass of the peptide inference on the PSMs of a
+     * spectrum file.
+     *
+     * @author Marc Vaudel
+     */
+    private class PeptideInferenceRunnable implements Runnable {
+
+        /**
+         * The name of the spectrum file.
+         */
+        private final String spectrumFileName;
+        /**
+         * The index of the localizations.
+         */
+        private final PeptideInferenceIndex peptideInferenceIndex;
+        /**
+         * Boolean indicating whether the ambiguous PTMs should be relocated,
+         * if false the localizations are indexed.
+         */
+        private final boolean relocate;
+        /**
+         * The identification.
+         */
+        private final Identification identification;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumFileName the name of the spectrum file
+         * @param peptideInferenceIndex the index of the localizations
+         * @param relocate boolean indicating whether the ambiguous PTMs should
+         * be relocated, if false the localizations are indexed
+         * @param identification the identification containing the matches
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public PeptideInferenceRunnable(String spectrumFileName, PeptideInferenceIndex peptideInferenceIndex, boolean relocate, Identification identification,
+                IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.spectrumFileName = spectrumFileName;
+            this.peptideInferenceIndex = peptideInferenceIndex;
+            this.relocate = relocate;
+            this.identification = identification;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PtmTable ptmTable = PtmTable.getPtmTable(identificationParameters.getSearchParameters().getPtmSettings());
+                if (relocate) {
+                    relocateAmbiguousPtms(identification, spectrumFileName, peptideInferenceIndex, ptmTable, identificationParameters, waitingHandler);
+                } else {
+                    indexPeptideInference(identification, spectrumFileName, peptideInferenceIndex, ptmTable, identificationParameters.getSequenceMatchingPreferences(), waitingHandler);
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
 }
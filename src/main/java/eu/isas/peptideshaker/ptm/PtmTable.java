@@ -0,0 +1,362 @@
+package eu.isas.peptideshaker.ptm;
+
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Immutable table of the modifications of a project. The properties of the
+ * modifications of the PTM settings needed when mapping and scoring the PTMs
+ * of the matches are computed once, so that the PTM factory and the list of
+ * modifications do not need to be scanned for every modification of every
+ * match.
+ *
+ * @author Marc Vaudel
+ */
+public class PtmTable {
+
+    /**
+     * Flag indicating that another not fixed modification has the same mass
+     * and a different type.
+     */
+    private static final int SAME_MASS_DIFFERENT_TYPE = 1;
+    /**
+     * Flag indicating that another not fixed modification has the same mass
+     * and is not N-terminal.
+     */
+    private static final int SAME_MASS_NOT_N_TERM = 2;
+    /**
+     * Flag indicating that another not fixed modification has the same mass
+     * and is not C-terminal.
+     */
+    private static final int SAME_MASS_NOT_C_TERM = 4;
+    /**
+     * The table of the last PTM settings used.
+     */
+    private static PtmTable lastPtmTable = null;
+    /**
+     * The PTM settings the table was built from.
+     */
+    private final PtmSettings ptmSettings;
+    /**
+     * The names of the not fixed modifications of the settings when the table
+     * was built.
+     */
+    private final ArrayList<String> notFixedNames;
+    /**
+     * The names of all modifications of the settings when the table was
+     * built.
+     */
+    private final ArrayList<String> allNames;
+    /**
+     * The id of every modification indexed by name.
+     */
+    private final HashMap<String, Integer> ids;
+    /**
+     * The modifications indexed by id.
+     */
+    private final PTM[] ptms;
+    /**
+     * The flags of the modifications indexed by id.
+     */
+    private final int[] flags;
+    /**
+     * The distinct masses of the not fixed modifications in increasing order.
+     */
+    private final double[] notFixedMasses;
+    /**
+     * The not fixed modifications having the masses of notFixedMasses, in the
+     * order of the PTM settings.
+     */
+    private final PTM[][] notFixedPtmsAtMass;
+    /**
+     * The not fixed modifications similar to the masses of notFixedMasses as
+     * returned by the PTM settings.
+     */
+    private final PTM[][] similarPtmsAtMass;
+
+    /**
+     * Constructor.
+     *
+     * @param ptmSettings the PTM settings
+     * @param notFixedNames the names of the not fixed modifications of the
+     * settings
+     * @param allNames the names of all modifications of the settings
+     */
+    private PtmTable(PtmSettings ptmSettings, ArrayList<String> notFixedNames, ArrayList<String> allNames) {
+
+        this.ptmSettings = ptmSettings;
+        this.notFixedNames = notFixedNames;
+        this.allNames = allNames;
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+
+        // get the modifications in the order of the settings, not fixed first
+        ArrayList<PTM> notFixedPtms = new ArrayList<PTM>(notFixedNames.size());
+        ArrayList<PTM> allPtms = new ArrayList<PTM>();
+        HashMap<String, Integer> nameToIndex = new HashMap<String, Integer>();
+        for (String ptmName : notFixedNames) {
+            PTM ptm = ptmFactory.getPTM(ptmName);
+            if (ptm != null && !nameToIndex.containsKey(ptmName)) {
+                nameToIndex.put(ptmName, allPtms.size());
+                allPtms.add(ptm);
+                notFixedPtms.add(ptm);
+            }
+        }
+        for (String ptmName : allNames) {
+            PTM ptm = ptmFactory.getPTM(ptmName);
+            if (ptm != null && !nameToIndex.containsKey(ptmName)) {
+                nameToIndex.put(ptmName, allPtms.size());
+                allPtms.add(ptm);
+            }
+        }
+
+        // sort by mass, the sort is stable so that modifications of the same mass keep the order of the settings
+        PTM[] sortedPtms = allPtms.toArray(new PTM[allPtms.size()]);
+        Arrays.sort(sortedPtms, new Comparator<PTM>() {
+            @Override
+            public int compare(PTM ptm1, PTM ptm2) {
+                return Double.compare(ptm1.getMass(), ptm2.getMass());
+            }
+        });
+        ptms = sortedPtms;
+        ids = new HashMap<String, Integer>(ptms.length);
+        for (int id = 0; id < ptms.length; id++) {
+            ids.put(ptms[id].getName(), id);
+        }
+
+        // group the not fixed modifications by mass
+        HashMap<Double, ArrayList<PTM>> massToPtms = new HashMap<Double, ArrayList<PTM>>();
+        for (PTM ptm : notFixedPtms) {
+            ArrayList<PTM> ptmsAtMass = massToPtms.get(ptm.getMass());
+            if (ptmsAtMass == null) {
+                ptmsAtMass = new ArrayList<PTM>(1);
+                massToPtms.put(ptm.getMass(), ptmsAtMass);
+            }
+            ptmsAtMass.add(ptm);
+        }
+        notFixedMasses = new double[massToPtms.size()];
+        int i = 0;
+        for (double mass : massToPtms.keySet()) {
+            notFixedMasses[i++] = mass;
+        }
+        Arrays.sort(notFixedMasses);
+        notFixedPtmsAtMass = new PTM[notFixedMasses.length][];
+        similarPtmsAtMass = new PTM[notFixedMasses.length][];
+        for (i = 0; i < notFixedMasses.length; i++) {
+            ArrayList<PTM> ptmsAtMass = massToPtms.get(notFixedMasses[i]);
+            notFixedPtmsAtMass[i] = ptmsAtMass.toArray(new PTM[ptmsAtMass.size()]);
+            similarPtmsAtMass[i] = getSimilarPtms(ptmSettings, notFixedMasses[i]);
+        }
+
+        // flag the modifications sharing their mass with other not fixed modifications
+        flags = new int[ptms.length];
+        for (int id = 0; id < ptms.length; id++) {
+            PTM ptm = ptms[id];
+            for (PTM otherPtm : getNotFixedModifications(ptm.getMass())) {
+                if (!otherPtm.getName().equals(ptm.getName())) {
+                    if (otherPtm.getType() != ptm.getType()) {
+                        flags[id] |= SAME_MASS_DIFFERENT_TYPE;
+                    }
+                    if (!otherPtm.isNTerm()) {
+                        flags[id] |= SAME_MASS_NOT_N_TERM;
+                    }
+                    if (!otherPtm.isCTerm()) {
+                        flags[id] |= SAME_MASS_NOT_C_TERM;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the table of the given PTM settings. The table of the last
+     * settings is kept so that it is built only once per project. The table
+     * is rebuilt when the modifications of the settings or their definition
+     * in the PTM factory changed since it was built.
+     *
+     * @param ptmSettings the PTM settings
+     *
+     * @return the table of the given PTM settings
+     */
+    public static synchronized PtmTable getPtmTable(PtmSettings ptmSettings) {
+        ArrayList<String> notFixedNames = ptmSettings.getAllNotFixedModifications();
+        ArrayList<String> allNames = ptmSettings.getAllModifications();
+        PtmTable ptmTable = lastPtmTable;
+        if (ptmTable == null || ptmTable.ptmSettings != ptmSettings || !ptmTable.isTableOf(notFixedNames, allNames)) {
+            ptmTable = new PtmTable(ptmSettings, notFixedNames, allNames);
+            lastPtmTable = ptmTable;
+        }
+        return ptmTable;
+    }
+
+    /**
+     * Indicates whether this table was built from the given modifications
+     * and whether their definition in the PTM factory is unchanged.
+     *
+     * @param notFixedNames the names of the not fixed modifications of the
+     * settings
+     * @param allNames the names of all modifications of the settings
+     *
+     * @return a boolean indicating whether this table was built from the
+     * given modifications
+     */
+    private boolean isTableOf(ArrayList<String> notFixedNames, ArrayList<String> allNames) {
+        if (!this.notFixedNames.equals(notFixedNames) || !this.allNames.equals(allNames)) {
+            return false;
+        }
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        for (int id = 0; id < ptms.length; id++) {
+            if (ptmFactory.getPTM(ptms[id].getName()) != ptms[id]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Clears the table kept in memory.
+     */
+    public static synchronized void clear() {
+        lastPtmTable = null;
+    }
+
+    /**
+     * Returns the modification of the given name. Modifications which are not
+     * in the settings are retrieved from the PTM factory.
+     *
+     * @param ptmName the name of the modification
+     *
+     * @return the modification of the given name
+     */
+    public PTM getPtm(String ptmName) {
+        Integer id = ids.get(ptmName);
+        if (id == null) {
+            return PTMFactory.getInstance().getPTM(ptmName);
+        }
+        return ptms[id];
+    }
+
+    /**
+     * Returns the not fixed modifications having exactly the given mass, in
+     * the order of the PTM settings. An empty array if none.
+     *
+     * @param mass the mass
+     *
+     * @return the not fixed modifications having the given mass
+     */
+    public PTM[] getNotFixedModifications(double mass) {
+        int index = Arrays.binarySearch(notFixedMasses, mass);
+        if (index < 0) {
+            return new PTM[0];
+        }
+        return notFixedPtmsAtMass[index];
+    }
+
+    /**
+     * Returns the not fixed modifications similar to the given mass according
+     * to the PTM settings. The result is precomputed for the masses of the not
+     * fixed modifications.
+     *
+     * @param mass the mass
+     *
+     * @return the not fixed modifications similar to the given mass
+     */
+    public PTM[] getSimilarNotFixedModifications(double mass) {
+        int index = Arrays.binarySearch(notFixedMasses, mass);
+        if (index < 0) {
+            return getSimilarPtms(ptmSettings, mass);
+        }
+        return similarPtmsAtMass[index];
+    }
+
+    /**
+     * Returns the not fixed modifications similar to the given mass according
+     * to the given PTM settings.
+     *
+     * @param ptmSettings the PTM settings
+     * @param mass the mass
+     *
+     * @return the not fixed modifications similar to the given mass
+     */
+    private static PTM[] getSimilarPtms(PtmSettings ptmSettings, double mass) {
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        ArrayList<String> ptmNames = ptmSettings.getSimilarNotFixedModifications(mass);
+        PTM[] result = new PTM[ptmNames.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ptmFactory.getPTM(ptmNames.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Indicates whether another not fixed modification has the same mass as
+     * the given modification and a different type, i.e. whether the
+     * localization of the modification on a terminus or a residue is
+     * ambiguous.
+     *
+     * @param ptmName the name of the modification
+     *
+     * @return a boolean indicating whether another not fixed modification has
+     * the same mass and a different type
+     */
+    public boolean hasSameMassDifferentType(String ptmName) {
+        return hasFlag(ptmName, SAME_MASS_DIFFERENT_TYPE);
+    }
+
+    /**
+     * Indicates whether another not fixed modification has the same mass as
+     * the given modification and is not N-terminal.
+     *
+     * @param ptmName the name of the modification
+     *
+     * @return a boolean indicating whether another not fixed modification has
+     * the same mass and is not N-terminal
+     */
+    public boolean hasSameMassNotNTerm(String ptmName) {
+        return hasFlag(ptmName, SAME_MASS_NOT_N_TERM);
+    }
+
+    /**
+     * Indicates whether another not fixed modification has the same mass as
+     * the given modification and is not C-terminal.
+     *
+     * @param ptmName the name of the modification
+     *
+     * @return a boolean indicating whether another not fixed modification has
+     * the same mass and is not C-terminal
+     */
+    public boolean hasSameMassNotCTerm(String ptmName) {
+        return hasFlag(ptmName, SAME_MASS_NOT_C_TERM);
+    }
+
+    /**
+     * Indicates whether the given modification has the given flag. For
+     * modifications which are not in the settings, the flag is computed from
+     * the not fixed modifications of the same mass.
+     *
+     * @param ptmName the name of the modification
+     * @param flag the flag
+     *
+     * @return a boolean indicating whether the modification has the flag
+     */
+    private boolean hasFlag(String ptmName, int flag) {
+        Integer id = ids.get(ptmName);
+        if (id != null) {
+            return (flags[id] & flag) != 0;
+        }
+        PTM ptm = PTMFactory.getInstance().getPTM(ptmName);
+        for (PTM otherPtm : getNotFixedModifications(ptm.getMass())) {
+            if (!otherPtm.getName().equals(ptmName)
+                    && (flag == SAME_MASS_DIFFERENT_TYPE && otherPtm.getType() != ptm.getType()
+                    || flag == SAME_MASS_NOT_N_TERM && !otherPtm.isNTerm()
+                    || flag == SAME_MASS_NOT_C_TERM && !otherPtm.isCTerm())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -27,6 +27,7 @@ import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import eu.isas.peptideshaker.utils.Metrics;
 import eu.isas.peptideshaker.validation.MatchesValidator;
+import eu.isas.peptideshaker.validation.PrecursorMzDeviations;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -131,8 +132,14 @@ public class BestMatchSelection {
 
         PSParameter psParameter = new PSParameter();
 
+        // collect the precursor m/z deviations of the target PSMs for the validation
+        PrecursorMzDeviations precursorMzDeviations = matchesValidator.getPrecursorMzDeviations();
+        precursorMzDeviations.clear();
+
         for (String spectrumFileName : identification.getSpectrumFiles()) {
 
+            precursorMzDeviations.addSpectrumFile(spectrumFileName);
+
             HashMap<String, ArrayList<String>> keysMap = null;
             if (orderedPsmMap != null) {
                 keysMap = new HashMap<String, ArrayList<String>>();
@@ -511,6 +518,11 @@ public class BestMatchSelection {
                         psParameter.setDeltaPEP(matchParameter.getDeltaPEP());
 
                         matchesValidator.getPsmMap().addPoint(psParameter.getPsmProbabilityScore(), spectrumMatch, sequenceMatchingPreferences);
+                        if (sequenceFactory.concatenatedTargetDecoy() && !psPeptide.isDecoy(sequenceMatchingPreferences)) {
+                            double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
+                            double precursorMzError = psAssumption.getDeltaMass(precursorMz, searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
+                            precursorMzDeviations.addDeviation(spectrumFileName, psAssumption.getIdentificationCharge().value, psParameter.getPsmProbabilityScore(), precursorMzError);
+                        }
                         String validationMapKey = "";
                         if (idMatchValidationPreferences.getSeparatePsms()) {
                             validationMapKey += psAssumption.getIdentificationCharge().value;
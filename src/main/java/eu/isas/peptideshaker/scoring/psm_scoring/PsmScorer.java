@@ -26,13 +26,13 @@ import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.parameters.PSParameter;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import eu.isas.peptideshaker.utils.BoundedExecutor;
+import eu.isas.peptideshaker.utils.TaskGroups;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.util.FastMath;
@@ -81,6 +81,40 @@ public class PsmScorer {
             IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
             throws SQLException, IOException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
 
+        BoundedExecutor executor = new BoundedExecutor(processingPreferences.getnThreads());
+        try {
+            estimateIntermediateScores(identification, inputMap, executor, identificationParameters, waitingHandler, exceptionHandler);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Scores the PSMs contained in an identification object using the given
+     * executor. The PSMs of all spectrum files are scored on the executor at
+     * the same time, and the missing e-values of a file are estimated as soon
+     * as the scoring of this file is completed.
+     *
+     * @param identification the object containing the identification matches
+     * @param inputMap the input map scores
+     * @param executor the executor to use
+     * @param identificationParameters identification parameters used
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler a handler for exceptions
+     *
+     * @throws IOException thrown if an IOException occurs
+     * @throws InterruptedException thrown if an InterruptedException occurs
+     * @throws SQLException thrown if an SQLException occurs
+     * @throws ClassNotFoundException thrown if a ClassNotFoundException occurs
+     * @throws IllegalArgumentException thrown if an IllegalArgumentException
+     * occurs
+     * @throws MzMLUnmarshallerException thrown if an MzMLUnmarshallerException
+     * occurs
+     */
+    public void estimateIntermediateScores(Identification identification, InputMap inputMap, BoundedExecutor executor,
+            IdentificationParameters identificationParameters, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
+            throws SQLException, IOException, InterruptedException, ClassNotFoundException, MzMLUnmarshallerException {
+
         // Remove the intensity filter during scoring
         AnnotationSettings annotationSettings = identificationParameters.getAnnotationPreferences();
         double intensityThreshold = annotationSettings.getAnnotationIntensityLimit();
@@ -91,26 +125,43 @@ public class PsmScorer {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
-        for (String spectrumFileName : identification.getSpectrumFiles()) {
-            ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        int nThreads = executor.getnThreads();
+        ArrayList<String> spectrumFiles = identification.getSpectrumFiles();
+        HashMap<String, ArrayList<PsmScorerRunnable>> psmScorerRunnablesMap = new HashMap<String, ArrayList<PsmScorerRunnable>>(spectrumFiles.size());
+        TaskGroups<String> fileTasks = new TaskGroups<String>();
+
+        for (String spectrumFileName : spectrumFiles) {
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, null, true, null);
-            ArrayList<PsmScorerRunnable> psmScorerRunnables = new ArrayList<PsmScorerRunnable>(processingPreferences.getnThreads());
-            for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
-                PsmScorerRunnable runnable = new PsmScorerRunnable(psmIterator, identification, inputMap, identificationParameters, waitingHandler, exceptionHandler);
-                psmScorerRunnables.add(runnable);
-                pool.submit(runnable);
+            ArrayList<PsmScorerRunnable> psmScorerRunnables = new ArrayList<PsmScorerRunnable>(nThreads);
+            for (int i = 1; i <= nThreads; i++) {
+                psmScorerRunnables.add(new PsmScorerRunnable(psmIterator, identification, inputMap, identificationParameters, waitingHandler, exceptionHandler));
+            }
+            psmScorerRunnablesMap.put(spectrumFileName, psmScorerRunnables);
+            fileTasks.addTasks(spectrumFileName, nThreads);
+            for (PsmScorerRunnable runnable : psmScorerRunnables) {
+                executor.submit(fileTasks.getTask(spectrumFileName, runnable));
             }
             if (waitingHandler.isRunCanceled()) {
-                pool.shutdownNow();
+                executor.awaitAfterCancel();
                 return;
             }
-            pool.shutdown();
-            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+        }
+
+        // estimate the missing e-values of every file once its PSMs are scored
+        for (int i = 0; i < spectrumFiles.size(); i++) {
+
+            String spectrumFileName = fileTasks.takeCompletedGroup(7, TimeUnit.DAYS);
+            if (spectrumFileName == null) {
                 throw new InterruptedException("PSM scoring timed out. Please contact the developers.");
             }
+            if (waitingHandler.isRunCanceled()) {
+                executor.awaitAfterCancel();
+                return;
+            }
 
-            ArrayList<HashMap<Double, Integer>> aHistograms = new ArrayList<HashMap<Double, Integer>>(processingPreferences.getnThreads());
-            ArrayList<HashMap<Double, Integer>> bHistograms = new ArrayList<HashMap<Double, Integer>>(processingPreferences.getnThreads());
+            ArrayList<PsmScorerRunnable> psmScorerRunnables = psmScorerRunnablesMap.remove(spectrumFileName);
+            ArrayList<HashMap<Double, Integer>> aHistograms = new ArrayList<HashMap<Double, Integer>>(nThreads);
+            ArrayList<HashMap<Double, Integer>> bHistograms = new ArrayList<HashMap<Double, Integer>>(nThreads);
             HashMap<String, ArrayList<Integer>> missingValuesMap = new HashMap<String, ArrayList<Integer>>();
             for (PsmScorerRunnable runnable : psmScorerRunnables) {
                 HashMap<String, ArrayList<Integer>> currentMissingValuesMap = runnable.getMissingEValues();
@@ -131,23 +182,21 @@ public class PsmScorer {
                     defaultB = HistogramUtils.getMedianValue(bHistogram);
                 }
                 ArrayList<String> spectrumKeys = new ArrayList<String>(missingValuesMap.keySet());
-                psmIterator = identification.getPsmIterator(spectrumKeys, null, true, null);
-                pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
-                for (int i = 1; i <= processingPreferences.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+                PsmIterator psmIterator = identification.getPsmIterator(spectrumKeys, null, true, null);
+                for (int j = 1; j <= nThreads && !waitingHandler.isRunCanceled(); j++) {
                     MissingEValueEstimatorRunnable runnable = new MissingEValueEstimatorRunnable(missingValuesMap, defaultA, defaultB, psmIterator, identification, inputMap, identificationParameters, waitingHandler, exceptionHandler);
-                    pool.submit(runnable);
-                }
-                if (waitingHandler.isRunCanceled()) {
-                    pool.shutdownNow();
-                    return;
-                }
-                pool.shutdown();
-                if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
-                    throw new InterruptedException("PSM scoring timed out. Please contact the developers.");
+                    executor.submit(runnable);
                 }
             }
         }
 
+        if (!executor.waitForTasks(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("PSM scoring timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
 
         // Restaure intensity scoring
@@ -0,0 +1,191 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor running tasks on a fixed number of threads where the number of
+ * tasks waiting for execution is bounded. Submitting a task blocks until a
+ * slot is available, hence avoiding the accumulation of tasks in memory when
+ * tasks are produced faster than they are processed. The threads are kept
+ * alive until shutdown so that per-thread resources can be reused by
+ * consecutive tasks, and the executor can be used for several consecutive
+ * stages by waiting for the submitted tasks to complete using waitForTasks.
+ *
+ * @author Marc Vaudel
+ */
+public class BoundedExecutor {
+
+    /**
+     * The default number of tasks which can wait for execution per thread.
+     */
+    public static final int DEFAULT_QUEUE_SIZE_PER_THREAD = 10;
+    /**
+     * The executor service running the tasks.
+     */
+    private final ExecutorService pool;
+    /**
+     * Semaphore limiting the number of tasks submitted and not completed.
+     */
+    private final Semaphore slots;
+    /**
+     * The number of threads.
+     */
+    private final int nThreads;
+    /**
+     * The number of tasks submitted and not completed.
+     */
+    private int nPending = 0;
+    /**
+     * Lock used to wait for the completion of the tasks.
+     */
+    private final Object pendingLock = new Object();
+
+    /**
+     * Constructor.
+     *
+     * @param nThreads the number of threads to use
+     * @param queueSize the maximal number of tasks waiting for execution
+     */
+    public BoundedExecutor(int nThreads, int queueSize) {
+        this.nThreads = nThreads;
+        pool = Executors.newFixedThreadPool(nThreads);
+        slots = new Semaphore(nThreads + queueSize);
+    }
+
+    /**
+     * Constructor using the default queue size.
+     *
+     * @param nThreads the number of threads to use
+     */
+    public BoundedExecutor(int nThreads) {
+        this(nThreads, DEFAULT_QUEUE_SIZE_PER_THREAD * nThreads);
+    }
+
+    /**
+     * Submits a task for execution. Blocks until a slot is available.
+     *
+     * @param task the task to run
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting for a slot
+     */
+    public void submit(final Runnable task) throws InterruptedException {
+
+        slots.acquire();
+
+        synchronized (pendingLock) {
+            nPending++;
+        }
+
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        taskCompleted();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            taskCompleted();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the slot of a task and notifies the threads waiting for the
+     * tasks to complete if no task is pending.
+     */
+    private void taskCompleted() {
+        slots.release();
+        synchronized (pendingLock) {
+            nPending--;
+            if (nPending == 0) {
+                pendingLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for all the submitted tasks to complete. The executor can be
+     * used for new tasks afterwards.
+     *
+     * @param timeout the maximal time to wait
+     * @param unit the unit of the timeout
+     *
+     * @return true if all tasks completed, false if the timeout elapsed
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting
+     */
+    public boolean waitForTasks(long timeout, TimeUnit unit) throws InterruptedException {
+        long end = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (pendingLock) {
+            while (nPending > 0) {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                pendingLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the tasks already submitted when a process is canceled. The
+     * tasks check the waiting handler and stop early, waiting for them
+     * prevents them from accessing the identification while the caller
+     * returns and the project is closed or processed again.
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting
+     */
+    public void awaitAfterCancel() throws InterruptedException {
+        waitForTasks(7, TimeUnit.DAYS);
+    }
+
+    /**
+     * Returns the number of threads used by this executor.
+     *
+     * @return the number of threads used by this executor
+     */
+    public int getnThreads() {
+        return nThreads;
+    }
+
+    /**
+     * Shuts down the executor after the completion of the submitted tasks.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Shuts down the executor and attempts to stop the running tasks.
+     */
+    public void shutdownNow() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Waits for the termination of the executor after shutdown.
+     *
+     * @param timeout the maximal time to wait
+     * @param unit the unit of the timeout
+     *
+     * @return true if the executor terminated, false if the timeout elapsed
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+}
@@ -451,6 +451,29 @@ public class CpsParent extends UserPreferencesParent {
 
         SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
 
+        File mgfFile = locateSpectrumFile(spectrumFileName);
+        if (mgfFile == null) {
+            return false;
+        }
+
+        spectrumFactory.addSpectra(mgfFile, waitingHandler);
+        mgfFiles.add(mgfFile);
+
+        return true;
+    }
+
+    /**
+     * Locates a spectrum file of the project without loading it. The file is
+     * looked for at the location saved in the project, in the project folder
+     * and in its data sub-folder. The project details are updated with the
+     * location found.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     *
+     * @return the spectrum file, null if not found
+     */
+    public File locateSpectrumFile(String spectrumFileName) {
+
         File providedSpectrumLocation = projectDetails.getSpectrumFile(spectrumFileName);
         File projectFolder = cpsFile.getParentFile();
         File dataFolder = new File(projectFolder, "data");
@@ -465,15 +488,11 @@ public class CpsParent extends UserPreferencesParent {
             } else if (fileInDataFolder.exists()) {
                 projectDetails.addSpectrumFile(fileInDataFolder);
             } else {
-                return false;
+                return null;
             }
         }
 
-        File mgfFile = projectDetails.getSpectrumFile(spectrumFileName);
-        spectrumFactory.addSpectra(mgfFile, waitingHandler);
-        mgfFiles.add(mgfFile);
-
-        return true;
+        return projectDetails.getSpectrumFile(spectrumFileName);
     }
 
     /**
@@ -0,0 +1,545 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.biology.genes.go.GoMapping;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compact table of the GO mapping of a species. The GO terms are indexed by
+ * name in alphabetical order and the terms of every protein are stored as
+ * term indexes in a single array. The table is built once from the Ensembl GO
+ * mapping file and saved next to it in a binary file which is memory mapped
+ * when loaded again. The tables loaded are kept in memory for the session.
+ *
+ * @author Marc Vaudel
+ */
+public class GoMappingTable {
+
+    /**
+     * The version of the binary file format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The extension of the binary file of a table.
+     */
+    public static final String CACHE_EXTENSION = ".cache";
+    /**
+     * The tables loaded indexed by path of the GO mapping file.
+     */
+    private static final HashMap<String, GoMappingTable> loadedTables = new HashMap<String, GoMappingTable>();
+    /**
+     * The size of the GO mapping file the table was built from.
+     */
+    private final long sourceLength;
+    /**
+     * The last modification date of the GO mapping file the table was built
+     * from.
+     */
+    private final long sourceLastModified;
+    /**
+     * The names of the GO terms in alphabetical order.
+     */
+    private final String[] termNames;
+    /**
+     * The accessions of the GO terms.
+     */
+    private final String[] termAccessions;
+    /**
+     * The number of background proteins mapped to every GO term.
+     */
+    private final int[] backgroundFrequencies;
+    /**
+     * The number of background proteins mapped to GO terms.
+     */
+    private final int nBackgroundProteins;
+    /**
+     * The index of every protein indexed by accession.
+     */
+    private final HashMap<String, Integer> proteinIndexes;
+    /**
+     * The start of the terms of every protein in the proteinTerms array, the
+     * last element is the length of the proteinTerms array.
+     */
+    private final int[] proteinTermsStart;
+    /**
+     * The indexes of the terms of the proteins.
+     */
+    private final int[] proteinTerms;
+
+    /**
+     * Constructor.
+     *
+     * @param sourceLength the size of the GO mapping file
+     * @param sourceLastModified the last modification date of the GO mapping
+     * file
+     * @param termNames the names of the GO terms in alphabetical order
+     * @param termAccessions the accessions of the GO terms
+     * @param backgroundFrequencies the number of background proteins mapped
+     * to every GO term
+     * @param nBackgroundProteins the number of background proteins mapped to
+     * GO terms
+     * @param proteinAccessions the accessions of the proteins having terms
+     * @param proteinTermsStart the start of the terms of every protein
+     * @param proteinTerms the indexes of the terms of the proteins
+     */
+    private GoMappingTable(long sourceLength, long sourceLastModified, String[] termNames, String[] termAccessions, int[] backgroundFrequencies,
+            int nBackgroundProteins, String[] proteinAccessions, int[] proteinTermsStart, int[] proteinTerms) {
+        this.sourceLength = sourceLength;
+        this.sourceLastModified = sourceLastModified;
+        this.termNames = termNames;
+        this.termAccessions = termAccessions;
+        this.backgroundFrequencies = backgroundFrequencies;
+        this.nBackgroundProteins = nBackgroundProteins;
+        this.proteinTermsStart = proteinTermsStart;
+        this.proteinTerms = proteinTerms;
+        proteinIndexes = new HashMap<String, Integer>(proteinAccessions.length);
+        for (int i = 0; i < proteinAccessions.length; i++) {
+            proteinIndexes.put(proteinAccessions[i], i);
+        }
+    }
+
+    /**
+     * Returns the table of the given GO mapping file. The table is taken from
+     * memory or from its binary file when up to date, built from the mapping
+     * file otherwise.
+     *
+     * @param goMappingFile the GO mapping file
+     * @param waitingHandler a waiting handler displaying progress to the user
+     *
+     * @return the table of the given GO mapping file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    public static synchronized GoMappingTable getGoMappingTable(File goMappingFile, WaitingHandler waitingHandler) throws IOException {
+
+        String path = goMappingFile.getAbsolutePath();
+        GoMappingTable goMappingTable = loadedTables.get(path);
+
+        if (goMappingTable != null && goMappingTable.isUpToDate(goMappingFile)) {
+            return goMappingTable;
+        }
+
+        File cacheFile = getCacheFile(goMappingFile);
+        goMappingTable = null;
+
+        if (cacheFile.exists()) {
+            try {
+                goMappingTable = load(cacheFile);
+            } catch (IOException e) {
+                // the table is built anew
+            }
+            if (goMappingTable != null && !goMappingTable.isUpToDate(goMappingFile)) {
+                goMappingTable = null;
+            }
+        }
+
+        if (goMappingTable == null) {
+            GoMapping goMapping = new GoMapping();
+            goMapping.loadMappingsFromFile(goMappingFile, waitingHandler);
+            goMappingTable = build(goMapping, goMappingFile);
+            try {
+                goMappingTable.save(cacheFile);
+            } catch (IOException e) {
+                // the table can be used without binary file
+                cacheFile.delete();
+            }
+        }
+
+        loadedTables.put(path, goMappingTable);
+
+        return goMappingTable;
+    }
+
+    /**
+     * Returns the binary file of the table of a GO mapping file.
+     *
+     * @param goMappingFile the GO mapping file
+     *
+     * @return the binary file of the table
+     */
+    public static File getCacheFile(File goMappingFile) {
+        return new File(goMappingFile.getParentFile(), goMappingFile.getName() + CACHE_EXTENSION);
+    }
+
+    /**
+     * Indicates whether the table was built from the current version of the
+     * given GO mapping file.
+     *
+     * @param goMappingFile the GO mapping file
+     *
+     * @return a boolean indicating whether the table is up to date
+     */
+    private boolean isUpToDate(File goMappingFile) {
+        return goMappingFile.length() == sourceLength && goMappingFile.lastModified() == sourceLastModified;
+    }
+
+    /**
+     * Builds the table of a GO mapping.
+     *
+     * @param goMapping the GO mapping
+     * @param goMappingFile the GO mapping file
+     *
+     * @return the table of the GO mapping
+     */
+    private static GoMappingTable build(GoMapping goMapping, File goMappingFile) {
+
+        ArrayList<String> sortedTermNames = goMapping.getSortedTermNames();
+        int nTerms = sortedTermNames.size();
+        String[] termNames = sortedTermNames.toArray(new String[nTerms]);
+        String[] termAccessions = new String[nTerms];
+        int[] backgroundFrequencies = new int[nTerms];
+        HashMap<String, Integer> termIndexes = new HashMap<String, Integer>(nTerms);
+
+        for (int i = 0; i < nTerms; i++) {
+            String goAccession = goMapping.getTermAccession(termNames[i]);
+            termAccessions[i] = goAccession;
+            backgroundFrequencies[i] = goMapping.getProteinAccessions(goAccession).size();
+            termIndexes.put(goAccession, i);
+        }
+
+        int nProteins = goMapping.getProteinToGoMap().size();
+        String[] proteinAccessions = new String[nProteins];
+        int[] proteinTermsStart = new int[nProteins + 1];
+        ArrayList<Integer> terms = new ArrayList<Integer>();
+        int proteinIndex = 0;
+
+        for (String accession : goMapping.getProteinToGoMap().keySet()) {
+            proteinAccessions[proteinIndex] = accession;
+            proteinTermsStart[proteinIndex] = terms.size();
+            HashSet<String> goAccessions = goMapping.getGoAccessions(accession);
+            if (goAccessions != null) {
+                for (String goAccession : goAccessions) {
+                    Integer termIndex = termIndexes.get(goAccession);
+                    if (termIndex != null) {
+                        terms.add(termIndex);
+                    }
+                }
+            }
+            proteinIndex++;
+        }
+        proteinTermsStart[nProteins] = terms.size();
+
+        int[] proteinTerms = new int[terms.size()];
+        for (int i = 0; i < proteinTerms.length; i++) {
+            proteinTerms[i] = terms.get(i);
+        }
+
+        return new GoMappingTable(goMappingFile.length(), goMappingFile.lastModified(), termNames, termAccessions, backgroundFrequencies,
+                nProteins, proteinAccessions, proteinTermsStart, proteinTerms);
+    }
+
+    /**
+     * Saves the table to a binary file.
+     *
+     * @param cacheFile the file where to save the table
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void save(File cacheFile) throws IOException {
+
+        String[] proteinAccessions = new String[proteinIndexes.size()];
+        for (String accession : proteinIndexes.keySet()) {
+            proteinAccessions[proteinIndexes.get(accession)] = accession;
+        }
+
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
+        try {
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(sourceLength);
+            outputStream.writeLong(sourceLastModified);
+            outputStream.writeInt(nBackgroundProteins);
+            outputStream.writeInt(termNames.length);
+            for (int i = 0; i < termNames.length; i++) {
+                writeString(outputStream, termNames[i]);
+                writeString(outputStream, termAccessions[i]);
+                outputStream.writeInt(backgroundFrequencies[i]);
+            }
+            outputStream.writeInt(proteinAccessions.length);
+            for (int i = 0; i < proteinAccessions.length; i++) {
+                writeString(outputStream, proteinAccessions[i]);
+                outputStream.writeInt(proteinTermsStart[i]);
+            }
+            outputStream.writeInt(proteinTerms.length);
+            for (int term : proteinTerms) {
+                outputStream.writeInt(term);
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Loads a table from its binary file using a memory mapped buffer.
+     *
+     * @param cacheFile the binary file
+     *
+     * @return the table, null if the file is not in the current format
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static GoMappingTable load(File cacheFile) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 4 || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            long sourceLength = buffer.getLong();
+            long sourceLastModified = buffer.getLong();
+            int nBackgroundProteins = buffer.getInt();
+
+            int nTerms = buffer.getInt();
+            String[] termNames = new String[nTerms];
+            String[] termAccessions = new String[nTerms];
+            int[] backgroundFrequencies = new int[nTerms];
+            for (int i = 0; i < nTerms; i++) {
+                termNames[i] = readString(buffer);
+                termAccessions[i] = readString(buffer);
+                backgroundFrequencies[i] = buffer.getInt();
+            }
+
+            int nProteins = buffer.getInt();
+            String[] proteinAccessions = new String[nProteins];
+            int[] proteinTermsStart = new int[nProteins + 1];
+            for (int i = 0; i < nProteins; i++) {
+                proteinAccessions[i] = readString(buffer);
+                proteinTermsStart[i] = buffer.getInt();
+            }
+
+            int[] proteinTerms = new int[buffer.getInt()];
+            buffer.asIntBuffer().get(proteinTerms);
+            proteinTermsStart[nProteins] = proteinTerms.length;
+
+            return new GoMappingTable(sourceLength, sourceLastModified, termNames, termAccessions, backgroundFrequencies,
+                    nBackgroundProteins, proteinAccessions, proteinTermsStart, proteinTerms);
+
+        } catch (RuntimeException e) {
+            // truncated or corrupted file
+            return null;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes.
+     *
+     * @param outputStream the stream to write to
+     * @param string the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the string
+     */
+    private static void writeString(DataOutputStream outputStream, String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding the string
+     */
+    private static String readString(MappedByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Returns the number of GO terms.
+     *
+     * @return the number of GO terms
+     */
+    public int getNTerms() {
+        return termNames.length;
+    }
+
+    /**
+     * Returns the name of the GO term at the given index, terms are sorted
+     * by name.
+     *
+     * @param termIndex the index of the term
+     *
+     * @return the name of the GO term
+     */
+    public String getTermName(int termIndex) {
+        return termNames[termIndex];
+    }
+
+    /**
+     * Returns the accession of the GO term at the given index.
+     *
+     * @param termIndex the index of the term
+     *
+     * @return the accession of the GO term
+     */
+    public String getTermAccession(int termIndex) {
+        return termAccessions[termIndex];
+    }
+
+    /**
+     * Returns the number of background proteins mapped to the GO term at the
+     * given index.
+     *
+     * @param termIndex the index of the term
+     *
+     * @return the number of background proteins mapped to the GO term
+     */
+    public int getBackgroundFrequency(int termIndex) {
+        return backgroundFrequencies[termIndex];
+    }
+
+    /**
+     * Returns the number of background proteins mapped to GO terms.
+     *
+     * @return the number of background proteins mapped to GO terms
+     */
+    public int getNBackgroundProteins() {
+        return nBackgroundProteins;
+    }
+
+    /**
+     * Counts the number of the given proteins mapped to every GO term. The
+     * proteins are split in batches counted in parallel on the given
+     * executor.
+     *
+     * @param proteinAccessions the accessions of the proteins
+     * @param termFrequencies array where to store the number of proteins
+     * mapped to every GO term, indexed by term index
+     * @param executor the executor to use
+     * @param waitingHandler a waiting handler allowing to cancel the process
+     *
+     * @return the number of proteins mapped to at least one GO term
+     *
+     * @throws InterruptedException exception thrown whenever a threading
+     * error occurred
+     */
+    public int countTerms(final ArrayList<String> proteinAccessions, int[] termFrequencies, BoundedExecutor executor, final WaitingHandler waitingHandler)
+            throws InterruptedException {
+
+        final int nTerms = termNames.length;
+        final int nThreads = executor.getnThreads();
+        final int batchSize = Math.max(1, (proteinAccessions.size() + nThreads - 1) / nThreads);
+        final int nBatches = (proteinAccessions.size() + batchSize - 1) / batchSize;
+        final int[][] batchFrequencies = new int[nBatches][];
+        final int[] batchMapped = new int[nBatches];
+
+        for (int batch = 0; batch < nBatches; batch++) {
+            final int batchIndex = batch;
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    int[] frequencies = new int[nTerms];
+                    int nMapped = 0;
+                    int end = Math.min(proteinAccessions.size(), (batchIndex + 1) * batchSize);
+                    for (int i = batchIndex * batchSize; i < end && !waitingHandler.isRunCanceled(); i++) {
+                        Integer proteinIndex = proteinIndexes.get(proteinAccessions.get(i));
+                        if (proteinIndex != null && proteinTermsStart[proteinIndex + 1] > proteinTermsStart[proteinIndex]) {
+                            nMapped++;
+                            for (int j = proteinTermsStart[proteinIndex]; j < proteinTermsStart[proteinIndex + 1]; j++) {
+                                frequencies[proteinTerms[j]]++;
+                            }
+                        }
+                    }
+                    batchFrequencies[batchIndex] = frequencies;
+                    batchMapped[batchIndex] = nMapped;
+                }
+            });
+        }
+        if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+            throw new InterruptedException("GO terms counting timed out. Please contact the developers.");
+        }
+
+        int nMapped = 0;
+        for (int batch = 0; batch < nBatches; batch++) {
+            if (batchFrequencies[batch] != null) {
+                for (int term = 0; term < nTerms; term++) {
+                    termFrequencies[term] += batchFrequencies[batch][term];
+                }
+                nMapped += batchMapped[batch];
+            }
+        }
+
+        return nMapped;
+    }
+
+    /**
+     * Returns the hypergeometric probability of the frequency of every GO term
+     * in a sample of the background proteins. The probabilities are computed
+     * for all terms at once from a table of the logarithms of the factorials.
+     *
+     * @param termFrequencies the number of sample proteins mapped to every GO
+     * term
+     * @param sampleSize the number of sample proteins mapped to GO terms
+     *
+     * @return the probability of the frequency of every GO term
+     */
+    public double[] getHypergeometricProbabilities(int[] termFrequencies, int sampleSize) {
+
+        int populationSize = nBackgroundProteins;
+        double[] logFactorials = new double[Math.max(populationSize, sampleSize) + 1];
+        for (int i = 2; i < logFactorials.length; i++) {
+            logFactorials[i] = logFactorials[i - 1] + Math.log(i);
+        }
+
+        double[] result = new double[termNames.length];
+
+        if (sampleSize > populationSize) {
+            return result;
+        }
+
+        double logSampleCombinations = logCombinations(logFactorials, populationSize, sampleSize);
+
+        for (int term = 0; term < termNames.length; term++) {
+            int successes = backgroundFrequencies[term];
+            int k = termFrequencies[term];
+            if (k <= successes && sampleSize - k <= populationSize - successes && k >= 0 && k <= sampleSize) {
+                result[term] = Math.exp(logCombinations(logFactorials, successes, k)
+                        + logCombinations(logFactorials, populationSize - successes, sampleSize - k)
+                        - logSampleCombinations);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the logarithm of the number of combinations of k elements among
+     * n.
+     *
+     * @param logFactorials the logarithms of the factorials
+     * @param n the number of elements
+     * @param k the number of elements selected
+     *
+     * @return the logarithm of the number of combinations
+     */
+    private static double logCombinations(double[] logFactorials, int n, int k) {
+        return logFactorials[n] - logFactorials[k] - logFactorials[n - k];
+    }
+}
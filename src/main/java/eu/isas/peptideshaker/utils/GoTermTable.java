@@ -0,0 +1,238 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Table of the name and domain of the Gene Ontology terms parsed from a local
+ * ontology file in the OBO format. The file is searched in the GO ontology
+ * folder set in the path settings. The table is parsed once and kept in
+ * memory as long as the file does not change.
+ *
+ * @author Marc Vaudel
+ */
+public class GoTermTable {
+
+    /**
+     * The names of the ontology files searched in the GO ontology folder, in
+     * order of preference.
+     */
+    public static final String[] OBO_FILE_NAMES = {"go-basic.obo", "go.obo"};
+    /**
+     * The folder containing the ontology file. Null if not set.
+     */
+    private static String goOntologyFolder = null;
+    /**
+     * The table parsed from the ontology file, null if not loaded.
+     */
+    private static GoTermTable goTermTable = null;
+    /**
+     * The ontology file the table was parsed from.
+     */
+    private final File oboFile;
+    /**
+     * The last modification date of the ontology file when parsed.
+     */
+    private final long lastModified;
+    /**
+     * The index of every term indexed by accession, including the alternative
+     * accessions.
+     */
+    private final HashMap<String, Integer> termIndexes;
+    /**
+     * The name of every term.
+     */
+    private final String[] names;
+    /**
+     * The domain of every term, e.g. biological_process.
+     */
+    private final String[] domains;
+
+    /**
+     * Constructor.
+     *
+     * @param oboFile the ontology file
+     * @param termIndexes the index of every term indexed by accession
+     * @param names the name of every term
+     * @param domains the domain of every term
+     */
+    private GoTermTable(File oboFile, HashMap<String, Integer> termIndexes, String[] names, String[] domains) {
+        this.oboFile = oboFile;
+        this.lastModified = oboFile.lastModified();
+        this.termIndexes = termIndexes;
+        this.names = names;
+        this.domains = domains;
+    }
+
+    /**
+     * Returns the folder containing the ontology file, null if not set.
+     *
+     * @return the folder containing the ontology file
+     */
+    public static String getGoOntologyFolder() {
+        return goOntologyFolder;
+    }
+
+    /**
+     * Sets the folder containing the ontology file.
+     *
+     * @param goOntologyFolder the folder containing the ontology file
+     */
+    public static synchronized void setGoOntologyFolder(String goOntologyFolder) {
+        GoTermTable.goOntologyFolder = goOntologyFolder;
+        goTermTable = null;
+    }
+
+    /**
+     * Returns the ontology file found in the GO ontology folder, null if the
+     * folder is not set or does not contain an ontology file.
+     *
+     * @return the ontology file
+     */
+    public static File getOboFile() {
+        if (goOntologyFolder == null) {
+            return null;
+        }
+        for (String fileName : OBO_FILE_NAMES) {
+            File oboFile = new File(goOntologyFolder, fileName);
+            if (oboFile.exists()) {
+                return oboFile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the table of the ontology file of the GO ontology folder, null
+     * if no ontology file is available. The file is parsed at the first call
+     * and when it changes.
+     *
+     * @return the table of the GO terms
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the ontology file
+     */
+    public static synchronized GoTermTable getGoTermTable() throws IOException {
+        File oboFile = getOboFile();
+        if (oboFile == null) {
+            return null;
+        }
+        if (goTermTable == null || !goTermTable.oboFile.equals(oboFile) || goTermTable.lastModified != oboFile.lastModified()) {
+            goTermTable = parse(oboFile);
+        }
+        return goTermTable;
+    }
+
+    /**
+     * Parses the terms of an ontology file in the OBO format. Obsolete terms
+     * are included so that older mappings can still be annotated.
+     *
+     * @param oboFile the ontology file
+     *
+     * @return the table of the GO terms
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the ontology file
+     */
+    private static GoTermTable parse(File oboFile) throws IOException {
+
+        HashMap<String, Integer> termIndexes = new HashMap<String, Integer>();
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<String> domains = new ArrayList<String>();
+
+        BufferedReader br = new BufferedReader(new FileReader(oboFile));
+
+        try {
+            boolean inTerm = false;
+            ArrayList<String> accessions = new ArrayList<String>(1);
+            String name = null;
+            String domain = null;
+            String line;
+
+            while (true) {
+
+                line = br.readLine();
+
+                if (line == null || line.startsWith("[")) {
+
+                    // store the previous term
+                    if (inTerm && !accessions.isEmpty()) {
+                        int index = names.size();
+                        names.add(name);
+                        domains.add(domain);
+                        for (String accession : accessions) {
+                            termIndexes.put(accession, index);
+                        }
+                    }
+
+                    if (line == null) {
+                        break;
+                    }
+
+                    inTerm = line.trim().equals("[Term]");
+                    accessions.clear();
+                    name = null;
+                    domain = null;
+
+                } else if (inTerm) {
+
+                    if (line.startsWith("id: ") || line.startsWith("alt_id: ")) {
+                        accessions.add(line.substring(line.indexOf(':') + 1).trim());
+                    } else if (line.startsWith("name: ")) {
+                        name = line.substring(6).trim();
+                    } else if (line.startsWith("namespace: ")) {
+                        domain = line.substring(11).trim();
+                    }
+                }
+            }
+        } finally {
+            br.close();
+        }
+
+        return new GoTermTable(oboFile, termIndexes, names.toArray(new String[names.size()]), domains.toArray(new String[domains.size()]));
+    }
+
+    /**
+     * Returns the number of terms in the table.
+     *
+     * @return the number of terms in the table
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the name of a term, null if not found.
+     *
+     * @param goAccession the accession of the term
+     *
+     * @return the name of the term
+     */
+    public String getName(String goAccession) {
+        Integer index = termIndexes.get(goAccession);
+        if (index == null) {
+            return null;
+        }
+        return names[index];
+    }
+
+    /**
+     * Returns the domain of a term, e.g. biological_process, null if not
+     * found.
+     *
+     * @param goAccession the accession of the term
+     *
+     * @return the domain of the term
+     */
+    public String getDomain(String goAccession) {
+        Integer index = termIndexes.get(goAccession);
+        if (index == null) {
+            return null;
+        }
+        return domains[index];
+    }
+}
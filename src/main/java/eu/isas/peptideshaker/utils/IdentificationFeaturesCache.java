@@ -182,6 +182,26 @@ public class IdentificationFeaturesCache implements Serializable {
      * Indicates whether the cache is read only.
      */
     private boolean readOnly = false;
+    /**
+     * Table of the features computed for all proteins after processing, null
+     * if not computed.
+     */
+    private ProteinFeaturesTable proteinFeaturesTable = null;
+    /**
+     * Index of the searchable text of the protein matches, null if not
+     * built.
+     */
+    private SubstringIndex proteinSearchIndex = null;
+    /**
+     * Index of the searchable text of the peptide matches, null if not
+     * built.
+     */
+    private SubstringIndex peptideSearchIndex = null;
+    /**
+     * The distributions of the metrics displayed in the QC plots, null if not
+     * computed.
+     */
+    private QCDistributions qcDistributions = null;
 
     /**
      * Clears all objects of the given type.
@@ -190,6 +210,9 @@ public class IdentificationFeaturesCache implements Serializable {
      */
     public synchronized void removeObjects(ObjectType type) {
         if (!readOnly) {
+            if (proteinFeaturesTable != null) {
+                proteinFeaturesTable.clearFeature(type);
+            }
             String typeKey = getTypeAsString(type);
             ArrayList<String> toRemove = new ArrayList<String>();
 
@@ -242,6 +265,9 @@ public class IdentificationFeaturesCache implements Serializable {
      */
     public synchronized void addObject(ObjectType type, String objectKey, Object object) {
         if (!readOnly) {
+            if (proteinFeaturesTable != null && proteinFeaturesTable.setFeature(type, objectKey, object)) {
+                return;
+            }
             switch (type) {
                 case coverable_AA_p:
                 case AA_coverage:
@@ -318,6 +344,12 @@ public class IdentificationFeaturesCache implements Serializable {
      * @return the desired object
      */
     public Object getObject(ObjectType type, String objectKey) {
+        if (proteinFeaturesTable != null) {
+            Object feature = proteinFeaturesTable.getFeature(type, objectKey);
+            if (feature != null) {
+                return feature;
+            }
+        }
         switch (type) {
             case coverable_AA_p:
             case AA_coverage:
@@ -658,4 +690,84 @@ public class IdentificationFeaturesCache implements Serializable {
     public void setReadOnly(boolean readOnly) {
         this.readOnly = readOnly;
     }
+
+    /**
+     * Returns the table of the features computed for all proteins, null if
+     * not computed.
+     *
+     * @return the table of the features computed for all proteins
+     */
+    public ProteinFeaturesTable getProteinFeaturesTable() {
+        return proteinFeaturesTable;
+    }
+
+    /**
+     * Sets the table of the features computed for all proteins.
+     *
+     * @param proteinFeaturesTable the table of the features computed for all
+     * proteins
+     */
+    public void setProteinFeaturesTable(ProteinFeaturesTable proteinFeaturesTable) {
+        this.proteinFeaturesTable = proteinFeaturesTable;
+    }
+
+    /**
+     * Returns the index of the searchable text of the protein matches, null
+     * if not built.
+     *
+     * @return the index of the searchable text of the protein matches
+     */
+    public SubstringIndex getProteinSearchIndex() {
+        return proteinSearchIndex;
+    }
+
+    /**
+     * Sets the index of the searchable text of the protein matches.
+     *
+     * @param proteinSearchIndex the index of the searchable text of the
+     * protein matches
+     */
+    public void setProteinSearchIndex(SubstringIndex proteinSearchIndex) {
+        this.proteinSearchIndex = proteinSearchIndex;
+    }
+
+    /**
+     * Returns the index of the searchable text of the peptide matches, null
+     * if not built.
+     *
+     * @return the index of the searchable text of the peptide matches
+     */
+    public SubstringIndex getPeptideSearchIndex() {
+        return peptideSearchIndex;
+    }
+
+    /**
+     * Sets the index of the searchable text of the peptide matches.
+     *
+     * @param peptideSearchIndex the index of the searchable text of the
+     * peptide matches
+     */
+    public void setPeptideSearchIndex(SubstringIndex peptideSearchIndex) {
+        this.peptideSearchIndex = peptideSearchIndex;
+    }
+
+    /**
+     * Returns the distributions of the metrics displayed in the QC plots,
+     * null if not computed.
+     *
+     * @return the distributions of the metrics displayed in the QC plots
+     */
+    public QCDistributions getQCDistributions() {
+        return qcDistributions;
+    }
+
+    /**
+     * Sets the distributions of the metrics displayed in the QC plots.
+     *
+     * @param qcDistributions the distributions of the metrics displayed in
+     * the QC plots
+     */
+    public void setQCDistributions(QCDistributions qcDistributions) {
+        this.qcDistributions = qcDistributions;
+    }
 }
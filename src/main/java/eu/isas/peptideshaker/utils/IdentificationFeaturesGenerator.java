@@ -1,5 +1,6 @@
 package eu.isas.peptideshaker.utils;
 
+import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.units.MetricsPrefix;
 import com.compomics.util.experiment.biology.AminoAcidPattern;
 import com.compomics.util.experiment.biology.Enzyme;
@@ -19,11 +20,13 @@ import com.compomics.util.experiment.identification.matches_iterators.PeptideMat
 import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
 import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
 import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.experiment.personalization.UrParameter;
 import com.compomics.util.experiment.units.StandardUnit;
 import com.compomics.util.experiment.units.UnitOfMeasurement;
 import com.compomics.util.math.statistics.Distribution;
+import com.compomics.util.memory.MemoryConsumptionStatus;
 import com.compomics.util.math.statistics.distributions.NonSymmetricalNormalDistribution;
 import com.compomics.util.preferences.DigestionPreferences;
 import com.compomics.util.waiting.WaitingHandler;
@@ -42,6 +45,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.math.MathException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
@@ -66,6 +71,11 @@ public class IdentificationFeaturesGenerator {
      * The spectrum factory.
      */
     private SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+    /**
+     * The loader of the spectrum files when the project was displayed before
+     * its spectrum files were loaded, null if none.
+     */
+    private volatile SpectrumFilesLoader spectrumFilesLoader = null;
     /**
      * The identification features cache where the recently accessed
      * identification features are stored
@@ -91,6 +101,30 @@ public class IdentificationFeaturesGenerator {
      * Map of the distributions of precursor mass errors.
      */
     private HashMap<String, NonSymmetricalNormalDistribution> massErrorDistribution = null;
+    /**
+     * Separator used to build the keys of the peptide positions.
+     */
+    private static final String PEPTIDE_POSITION_SEPARATOR = "_pps_";
+    /**
+     * The start indexes of the peptides on the protein sequences, 0 being the
+     * first amino acid, indexed by protein accession and peptide sequence.
+     */
+    private final ConcurrentHashMap<String, int[]> peptideStartIndexes = new ConcurrentHashMap<String, int[]>();
+    /**
+     * Indicates whether the peptides are enzymatic on the protein sequences,
+     * indexed by protein accession and peptide sequence.
+     */
+    private final ConcurrentHashMap<String, Boolean> enzymaticPeptides = new ConcurrentHashMap<String, Boolean>();
+    /**
+     * The observable length of the proteins indexed by protein accession,
+     * enzymes and maximal peptide length.
+     */
+    private final ConcurrentHashMap<String, Double> observableLengths = new ConcurrentHashMap<String, Double>();
+    /**
+     * The number of cleavage sites of the proteins indexed by protein
+     * accession and enzymes.
+     */
+    private final ConcurrentHashMap<String, Integer> nCleavageSites = new ConcurrentHashMap<String, Integer>();
 
     /**
      * Constructor.
@@ -180,6 +214,7 @@ public class IdentificationFeaturesGenerator {
                 String spectrumKey = spectrumMatch.getKey();
                 psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
                 if (psParameter.getMatchValidationLevel().isValidated()) {
+                    loadSpectrumFile(spectrumFile);
                     double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
                     SearchParameters searchParameters = identificationParameters.getSearchParameters();
                     double precursorMzError = peptideAssumption.getDeltaMass(precursorMz, searchParameters.isPrecursorAccuracyTypePpm(), searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
@@ -321,18 +356,10 @@ public class IdentificationFeaturesGenerator {
     private HashMap<Integer, Double> estimateSequenceCoverage(String proteinMatchKey)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        int[] aaCoverage = getAACoverage(proteinMatchKey);
-        HashMap<Integer, Double> result = new HashMap<Integer, Double>();
-        for (int validationLevel : MatchValidationLevel.getValidationLevelIndexes()) {
-            result.put(validationLevel, 0.0);
-        }
-        for (int validationLevel : aaCoverage) {
-            result.put(validationLevel, result.get(validationLevel) + 1);
-        }
-        ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
-        String sequence = sequenceFactory.getProtein(proteinMatch.getMainMatch()).getSequence();
+        double[] sequenceCoverage = getValidationLevelCoverage(proteinMatchKey, true, true).getSequenceCoverage();
+        HashMap<Integer, Double> result = new HashMap<Integer, Double>(sequenceCoverage.length);
         for (int validationLevel : MatchValidationLevel.getValidationLevelIndexes()) {
-            result.put(validationLevel, result.get(validationLevel) / sequence.length());
+            result.put(validationLevel, sequenceCoverage[validationLevel + 1]);
         }
         return result;
     }
@@ -360,18 +387,7 @@ public class IdentificationFeaturesGenerator {
     private Double estimateValidatedSequenceCoverage(String proteinMatchKey)
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        int[] aaCoverage = getAACoverage(proteinMatchKey);
-        double nAAValidated = 0;
-        for (int validationLevel : aaCoverage) {
-            if (validationLevel == MatchValidationLevel.doubtful.getIndex()
-                    || validationLevel == MatchValidationLevel.confident.getIndex()) {
-                nAAValidated++;
-            }
-        }
-        ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
-        String sequence = sequenceFactory.getProtein(proteinMatch.getMainMatch()).getSequence();
-        double result = nAAValidated / sequence.length();
-        return result;
+        return getValidationLevelCoverage(proteinMatchKey, true, true).getValidatedSequenceCoverage();
     }
 
     /**
@@ -430,79 +446,125 @@ public class IdentificationFeaturesGenerator {
      */
     private int[] estimateAACoverage(String proteinMatchKey, boolean allPeptides, boolean enzymatic) // @TODO: add waiting handler?
             throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        return getValidationLevelCoverage(proteinMatchKey, allPeptides, enzymatic).getAACoverage();
+    }
+
+    /**
+     * Returns the coverage of the sequence of the main protein of a protein
+     * match by the peptides of every validation level.
+     *
+     * @param proteinMatchKey the key of the protein match
+     * @param allPeptides indicates whether all peptides should be taken into
+     * account
+     * @param enzymatic if not all peptides are considered, if true only
+     * enzymatic peptides will be considered, if false only non enzymatic
+     *
+     * @return the coverage of the protein sequence by validation level
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with a database (from the protein tree or identification)
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from a database (from the protein
+     * tree or identification)
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while interacting with a database (from the protein tree or
+     * identification)
+     */
+    private ValidationLevelCoverage getValidationLevelCoverage(String proteinMatchKey, boolean allPeptides, boolean enzymatic)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
-        Protein currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
+        String accession = proteinMatch.getMainMatch();
+        Protein currentProtein = getProtein(sequenceFactory, accession);
         String sequence = currentProtein.getSequence();
+        ValidationLevelCoverage validationLevelCoverage = new ValidationLevelCoverage(sequence.length());
+
+        if (MemoryConsumptionStatus.memoryUsed() > 0.9) {
+            peptideStartIndexes.clear();
+            enzymaticPeptides.clear();
+        }
 
-        HashMap<Integer, ArrayList<Integer>> aminoAcids = new HashMap<Integer, ArrayList<Integer>>();
-        HashMap<Integer, boolean[]> coverage = new HashMap<Integer, boolean[]>();
         PSParameter psParameter = new PSParameter();
-        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
 
-        // iterate the peptides and store the coverage for each peptide validation level
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(proteinMatch.getPeptideMatchesKeys(), parameters, false, null, null);
-        PeptideMatch peptideMatch;
+        // batch load the peptide match parameters
+        identification.loadPeptideMatchParameters(proteinMatch.getPeptideMatchesKeys(), psParameter, null, false);
 
-        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+        for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
 
-            String peptideKey = peptideMatch.getKey();
-            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
             String peptideSequence = Peptide.getSequence(peptideKey);
-            boolean enzymaticPeptide = true;
+            String positionKey = accession + PEPTIDE_POSITION_SEPARATOR + peptideSequence;
+
             if (!allPeptides) {
+                boolean enzymaticPeptide = true;
                 DigestionPreferences digestionPreferences = identificationParameters.getSearchParameters().getDigestionPreferences();
                 if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
-                    enzymaticPeptide = currentProtein.isEnzymaticPeptide(peptideSequence, digestionPreferences.getEnzymes(),
-                            identificationParameters.getSequenceMatchingPreferences());
+                    Boolean cachedValue = enzymaticPeptides.get(positionKey);
+                    if (cachedValue == null) {
+                        cachedValue = currentProtein.isEnzymaticPeptide(peptideSequence, digestionPreferences.getEnzymes(),
+                                identificationParameters.getSequenceMatchingPreferences());
+                        enzymaticPeptides.put(positionKey, cachedValue);
+                    }
+                    enzymaticPeptide = cachedValue;
                 }
-            }
-            if (allPeptides || enzymatic && enzymaticPeptide || !enzymatic && !enzymaticPeptide) {
-                int validationLevel = psParameter.getMatchValidationLevel().getIndex();
-                boolean[] validationLevelCoverage = coverage.get(validationLevel);
-                ArrayList<Integer> levelAminoAcids = aminoAcids.get(validationLevel);
-                if (validationLevelCoverage == null) {
-                    validationLevelCoverage = new boolean[sequence.length() + 1];
-                    coverage.put(validationLevel, validationLevelCoverage);
-                    levelAminoAcids = new ArrayList<Integer>();
-                    aminoAcids.put(validationLevel, levelAminoAcids);
+                if (enzymatic != enzymaticPeptide) {
+                    continue;
                 }
+            }
+
+            int[] startIndexes = peptideStartIndexes.get(positionKey);
+            if (startIndexes == null) {
                 AminoAcidPattern aminoAcidPattern = AminoAcidPattern.getAminoAcidPatternFromString(peptideSequence);
+                ArrayList<Integer> indexes = new ArrayList<Integer>(1);
                 for (int index : aminoAcidPattern.getIndexes(sequence, identificationParameters.getSequenceMatchingPreferences())) {
-                    int peptideTempStart = index - 1;
-                    int peptideTempEnd = peptideTempStart + peptideSequence.length();
-                    for (int j = peptideTempStart; j < peptideTempEnd; j++) {
-                        boolean found = validationLevelCoverage[j];
-                        if (!found) {
-                            validationLevelCoverage[j] = true;
-                            levelAminoAcids.add(j);
-                        }
-                    }
+                    indexes.add(index - 1);
+                }
+                startIndexes = new int[indexes.size()];
+                for (int i = 0; i < startIndexes.length; i++) {
+                    startIndexes[i] = indexes.get(i);
                 }
+                peptideStartIndexes.put(positionKey, startIndexes);
             }
-        }
 
-        int[] result = new int[sequence.length()];
-        for (int i = 0; i < sequence.length(); i++) {
-            result[i] = MatchValidationLevel.none.getIndex();
-        }
-        ArrayList<Integer> validationLevels = new ArrayList<Integer>(coverage.keySet());
-        Collections.sort(validationLevels, Collections.reverseOrder());
-        for (int validationLevel : validationLevels) {
-            boolean[] validationLevelCoverage = coverage.get(validationLevel);
-            if (validationLevelCoverage != null) {
-                ArrayList<Integer> levelAminoAcids = aminoAcids.get(validationLevel);
-                for (int aa : levelAminoAcids) {
-                    int previousLevel = result[aa];
-                    if (previousLevel == MatchValidationLevel.none.getIndex()) {
-                        result[aa] = validationLevel;
-                    }
-                }
+            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+            int validationLevel = psParameter.getMatchValidationLevel().getIndex();
+
+            for (int peptideStart : startIndexes) {
+                validationLevelCoverage.addPeptide(validationLevel, peptideStart, peptideStart + peptideSequence.length());
             }
         }
 
-        return result;
+        return validationLevelCoverage;
+    }
+
+    /**
+     * Computes the sequence coverage of the given protein matches in parallel
+     * and stores it in cache. The protein matches with a coverage already in
+     * cache are skipped.
+     *
+     * @param proteinKeys the keys of the protein matches
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     * @param executor the executor to use
+     *
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while waiting for the computation to complete
+     */
+    public void computeSequenceCoverage(ArrayList<String> proteinKeys, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, BoundedExecutor executor)
+            throws InterruptedException {
+
+        for (String proteinKey : proteinKeys) {
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+            if (!sequenceCoverageInCache(proteinKey)) {
+                executor.submit(new SequenceCoverageRunnable(proteinKey, waitingHandler, exceptionHandler));
+            }
+        }
+        if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+            throw new InterruptedException("Sequence coverage computation timed out. Please contact the developers.");
+        }
     }
 
     /**
@@ -555,7 +617,7 @@ public class IdentificationFeaturesGenerator {
     private double[] estimateCoverableAA(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
         ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
-        String sequence = sequenceFactory.getProtein(proteinMatch.getMainMatch()).getSequence();
+        String sequence = getProtein(sequenceFactory, proteinMatch.getMainMatch()).getSequence();
         double[] result = new double[sequence.length()];
         Distribution peptideLengthDistribution = metrics.getPeptideLengthDistribution();
         DigestionPreferences digestionPreferences = identificationParameters.getSearchParameters().getDigestionPreferences();
@@ -767,7 +829,7 @@ public class IdentificationFeaturesGenerator {
                     String peptideSequence = Peptide.getSequence(peptideKey);
                     boolean enzymatic = false;
                     for (String accession : ProteinMatch.getAccessions(proteinMatchKey)) {
-                        Protein currentProtein = sequenceFactory.getProtein(accession);
+                        Protein currentProtein = getProtein(sequenceFactory, accession);
                         if (currentProtein.isEnzymaticPeptide(peptideSequence, digestionPreferences.getEnzymes(),
                                 identificationParameters.getSequenceMatchingPreferences())) {
                             enzymatic = true;
@@ -1015,7 +1077,7 @@ public class IdentificationFeaturesGenerator {
             SpectrumCountingPreferences tempPreferences = new SpectrumCountingPreferences();
             tempPreferences.setSelectedMethod(method);
             return estimateSpectrumCounting(identification, sequenceFactory, proteinMatchKey, tempPreferences,
-                    identificationParameters.getPeptideAssumptionFilter().getMaxPepLength(), identificationParameters);
+                    identificationParameters.getPeptideAssumptionFilter().getMaxPepLength(), identificationParameters, observableLengths, nCleavageSites);
         }
     }
 
@@ -1054,7 +1116,7 @@ public class IdentificationFeaturesGenerator {
     private double estimateSpectrumCounting(String proteinMatchKey) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
         return estimateSpectrumCounting(identification, sequenceFactory, proteinMatchKey,
                 spectrumCountingPreferences,
-                identificationParameters.getPeptideAssumptionFilter().getMaxPepLength(), identificationParameters);
+                identificationParameters.getPeptideAssumptionFilter().getMaxPepLength(), identificationParameters, observableLengths, nCleavageSites);
     }
 
     /**
@@ -1084,6 +1146,42 @@ public class IdentificationFeaturesGenerator {
     public static Double estimateSpectrumCounting(Identification identification, SequenceFactory sequenceFactory, String proteinMatchKey,
             SpectrumCountingPreferences spectrumCountingPreferences, int maxPepLength, IdentificationParameters identificationParameters)
             throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        return estimateSpectrumCounting(identification, sequenceFactory, proteinMatchKey, spectrumCountingPreferences, maxPepLength, identificationParameters,
+                new ConcurrentHashMap<String, Double>(1), new ConcurrentHashMap<String, Integer>(1));
+    }
+
+    /**
+     * Returns the spectrum counting index based on the project settings.
+     *
+     * @param identification the identification
+     * @param sequenceFactory the sequence factory
+     * @param proteinMatchKey the protein match key
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param maxPepLength the maximal length accepted for a peptide
+     * @param identificationParameters the identification parameters
+     * @param observableLengths cache for the observable length of the
+     * proteins
+     * @param nCleavageSites cache for the number of cleavage sites of the
+     * proteins
+     *
+     * @return the spectrum counting index
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    private static Double estimateSpectrumCounting(Identification identification, SequenceFactory sequenceFactory, String proteinMatchKey,
+            SpectrumCountingPreferences spectrumCountingPreferences, int maxPepLength, IdentificationParameters identificationParameters,
+            ConcurrentHashMap<String, Double> observableLengths, ConcurrentHashMap<String, Integer> nCleavageSites)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
 
         ProteinMatch testMatch, proteinMatch = identification.getProteinMatch(proteinMatchKey);
         DigestionPreferences digestionPreferences = identificationParameters.getSearchParameters().getDigestionPreferences();
@@ -1094,7 +1192,6 @@ public class IdentificationFeaturesGenerator {
 
             // NSAF
             double result = 0;
-            int peptideOccurrence = 0;
 
             PSParameter psParameter = new PSParameter();
             ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
@@ -1111,6 +1208,7 @@ public class IdentificationFeaturesGenerator {
                 if (psParameter.getMatchValidationLevel().getIndex() >= spectrumCountingPreferences.getMatchValidationLevel()) {
                     String peptideSequence = Peptide.getSequence(peptideKey);
                     ArrayList<String> possibleProteinMatches = new ArrayList<String>();
+                    int peptideOccurrence = 0;
 
                     for (String protein : peptideMatch.getTheoreticPeptide().getParentProteins(sequenceMatchingPreferences)) {
                         if (identification.getProteinMap().get(protein) != null) {
@@ -1119,7 +1217,7 @@ public class IdentificationFeaturesGenerator {
                                     try {
                                         testMatch = identification.getProteinMatch(proteinKey);
                                         if (testMatch.getPeptideMatchesKeys().contains(peptideKey)) {
-                                            Protein currentProtein = sequenceFactory.getProtein(testMatch.getMainMatch());
+                                            Protein currentProtein = getProtein(sequenceFactory, testMatch.getMainMatch());
                                             peptideOccurrence += currentProtein.getPeptideStart(peptideSequence,
                                                     sequenceMatchingPreferences).size();
                                             possibleProteinMatches.add(proteinKey);
@@ -1150,19 +1248,9 @@ public class IdentificationFeaturesGenerator {
                 }
             }
 
-            Protein currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
-
-            if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
-                result /= currentProtein.getObservableLength(digestionPreferences.getEnzymes(), maxPepLength);
-            } else {
-                result /= currentProtein.getLength();
-            }
-
-            if (new Double(result).isInfinite() || new Double(result).isNaN()) {
-                result = 0.0;
-            }
+            Protein currentProtein = getProtein(sequenceFactory, proteinMatch.getMainMatch());
 
-            return result;
+            return getNsaf(result, getNsafLength(currentProtein, digestionPreferences, maxPepLength, observableLengths));
         } else {
 
             // emPAI
@@ -1178,101 +1266,179 @@ public class IdentificationFeaturesGenerator {
                 }
             }
 
-            Protein currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
-            if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
-                result = Math.pow(10, result / (currentProtein.getNCleavageSites(digestionPreferences.getEnzymes()) + 1)) - 1;
-            } else {
-                result = Math.pow(10, result) - 1;
-            }
+            Protein currentProtein = getProtein(sequenceFactory, proteinMatch.getMainMatch());
 
-            if (new Double(result).isInfinite() || new Double(result).isNaN()) {
-                result = 0.0;
-            }
+            return getEmpai(currentProtein, result, digestionPreferences, nCleavageSites);
+        }
+    }
 
-            return result;
+    /**
+     * Returns the protein of the given accession. The protein is taken from
+     * the packed sequence store when the sequences of the current FASTA file
+     * were packed, from the sequence factory otherwise.
+     *
+     * @param sequenceFactory the sequence factory
+     * @param accession the accession of the protein
+     *
+     * @return the protein
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the protein tree
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the protein tree
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while interacting with the protein tree
+     */
+    private static Protein getProtein(SequenceFactory sequenceFactory, String accession) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        PackedSequenceStore packedSequenceStore = PackedSequenceStore.getSequenceStore(sequenceFactory.getCurrentFastaFile());
+        if (packedSequenceStore != null) {
+            Protein protein = packedSequenceStore.getProtein(accession);
+            if (protein != null) {
+                return protein;
+            }
         }
+        return sequenceFactory.getProtein(accession);
     }
 
     /**
-     * Returns the best protein coverage possible according to the given
-     * cleavage settings.
+     * Returns the emPAI index of a protein.
      *
-     * @param proteinMatchKey the key of the protein match of interest
+     * @param protein the protein
+     * @param nPeptides the number of peptides counted for the protein
+     * @param digestionPreferences the digestion preferences
+     * @param nCleavageSites cache for the number of cleavage sites of the
+     * proteins
      *
-     * @return the best protein coverage possible according to the given
-     * cleavage settings
+     * @return the emPAI index of the protein
+     */
+    private static double getEmpai(Protein protein, double nPeptides, DigestionPreferences digestionPreferences, ConcurrentHashMap<String, Integer> nCleavageSites) {
+
+        double result;
+        if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
+            result = Math.pow(10, nPeptides / (getNCleavageSites(protein, digestionPreferences.getEnzymes(), nCleavageSites) + 1)) - 1;
+        } else {
+            result = Math.pow(10, nPeptides) - 1;
+        }
+
+        if (new Double(result).isInfinite() || new Double(result).isNaN()) {
+            result = 0.0;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the NSAF index of a protein.
      *
-     * @throws java.sql.SQLException exception thrown whenever an error occurred
-     * while interacting with a database (from the protein tree or
-     * identification)
-     * @throws java.io.IOException exception thrown whenever an error occurred
-     * while reading or writing a file
-     * @throws java.lang.ClassNotFoundException exception thrown whenever an
-     * error occurred while deserializing an object from a database (from the
-     * protein tree or identification)
-     * @throws java.lang.InterruptedException exception thrown whenever a
-     * threading error occurred while interacting with a database (from the
-     * protein tree or identification)
-     * @throws org.apache.commons.math.MathException exception thrown whenever
-     * an error occurred while estimating the probability to observe an amino
-     * acid
+     * @param spectrumCount the spectrum count of the protein, every spectrum
+     * being divided by the number of occurrences of its peptide
+     * @param length the length of the protein used for the NSAF
+     *
+     * @return the NSAF index of the protein
      */
-    public Double getObservableCoverage(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MathException {
+    private static double getNsaf(double spectrumCount, double length) {
 
-        Double result = (Double) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.expected_coverage, proteinMatchKey);
-        if (result == null) {
-            result = estimateObservableCoverage(proteinMatchKey);
-            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.expected_coverage, proteinMatchKey, result);
+        double result = spectrumCount / length;
+
+        if (new Double(result).isInfinite() || new Double(result).isNaN()) {
+            result = 0.0;
         }
 
         return result;
     }
 
     /**
-     * Indicates whether the observable coverage of a protein match is in cache.
+     * Returns the length of a protein used for the NSAF, i.e. the observable
+     * length when an enzyme is used and the sequence length otherwise.
      *
-     * @param proteinMatchKey the key of the protein match
+     * @param protein the protein
+     * @param digestionPreferences the digestion preferences
+     * @param maxPepLength the maximal length accepted for a peptide
+     * @param observableLengths cache for the observable length of the
+     * proteins
      *
-     * @return true if the data is in cache
+     * @return the length of the protein used for the NSAF
      */
-    public boolean observableCoverageInCache(String proteinMatchKey) {
-        return identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.expected_coverage, proteinMatchKey) != null;
+    private static double getNsafLength(Protein protein, DigestionPreferences digestionPreferences, int maxPepLength, ConcurrentHashMap<String, Double> observableLengths) {
+        if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
+            return getObservableLength(protein, digestionPreferences.getEnzymes(), maxPepLength, observableLengths);
+        } else {
+            return protein.getLength();
+        }
     }
 
     /**
-     * Updates the best protein coverage possible according to the given
-     * cleavage settings. Used when the main key for a protein has been altered.
+     * Returns the observable length of a protein for the given enzymes and
+     * maximal peptide length. The lengths are cached so that the protein is
+     * digested only once.
      *
-     * @param proteinMatchKey the key of the protein match of interest
+     * @param protein the protein
+     * @param enzymes the enzymes
+     * @param maxPepLength the maximal length accepted for a peptide
+     * @param observableLengths cache for the observable length of the
+     * proteins
      *
-     * @throws java.sql.SQLException exception thrown whenever an error occurred
-     * while interacting with a database (from the protein tree or
-     * identification)
-     * @throws java.io.IOException exception thrown whenever an error occurred
-     * while reading or writing a file
-     * @throws java.lang.ClassNotFoundException exception thrown whenever an
-     * error occurred while deserializing an object from a database (from the
-     * protein tree or identification)
-     * @throws java.lang.InterruptedException exception thrown whenever a
-     * threading error occurred while interacting with a database (from the
-     * protein tree or identification)
-     * @throws org.apache.commons.math.MathException exception thrown whenever
-     * an error occurred while estimating the probability to observe an amino
-     * acid
+     * @return the observable length of the protein
      */
-    public void updateObservableCoverage(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MathException {
-        Double result = estimateObservableCoverage(proteinMatchKey);
-        identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.expected_coverage, proteinMatchKey, result);
+    private static double getObservableLength(Protein protein, ArrayList<Enzyme> enzymes, int maxPepLength, ConcurrentHashMap<String, Double> observableLengths) {
+
+        StringBuilder key = new StringBuilder(protein.getAccession());
+        key.append(PEPTIDE_POSITION_SEPARATOR).append(maxPepLength);
+        for (Enzyme enzyme : enzymes) {
+            key.append(PEPTIDE_POSITION_SEPARATOR).append(enzyme.getName());
+        }
+        String lengthKey = key.toString();
+
+        Double result = observableLengths.get(lengthKey);
+        if (result == null) {
+            result = protein.getObservableLength(enzymes, maxPepLength);
+            observableLengths.put(lengthKey, result);
+        }
+        return result;
     }
 
     /**
-     * Returns the best protein coverage possible according to the given
-     * cleavage settings.
+     * Returns the number of cleavage sites of a protein for the given
+     * enzymes. The numbers are cached so that the protein is digested only
+     * once.
      *
-     * @param proteinMatchKey the key of the protein match of interest
+     * @param protein the protein
+     * @param enzymes the enzymes
+     * @param nCleavageSites cache for the number of cleavage sites of the
+     * proteins
      *
-     * @return the best protein coverage possible according to the given
-     * cleavage settings
+     * @return the number of cleavage sites of the protein
+     */
+    private static int getNCleavageSites(Protein protein, ArrayList<Enzyme> enzymes, ConcurrentHashMap<String, Integer> nCleavageSites) {
+
+        StringBuilder key = new StringBuilder(protein.getAccession());
+        for (Enzyme enzyme : enzymes) {
+            key.append(PEPTIDE_POSITION_SEPARATOR).append(enzyme.getName());
+        }
+        String sitesKey = key.toString();
+
+        Integer result = nCleavageSites.get(sitesKey);
+        if (result == null) {
+            result = protein.getNCleavageSites(enzymes);
+            nCleavageSites.put(sitesKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the spectrum counting index of all protein matches using the
+     * preference settings and stores it in cache. The validated peptides and
+     * their number of validated spectra are counted once, then the number of
+     * occurrences of every peptide is summed over the protein matches
+     * containing it, so that the protein matches sharing a peptide are not
+     * loaded again for every protein. The matches are processed in parallel
+     * on the given executor.
+     *
+     * @param executor the executor to use
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -1285,36 +1451,300 @@ public class IdentificationFeaturesGenerator {
      * @throws java.lang.InterruptedException exception thrown whenever a
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
-     * @throws org.apache.commons.math.MathException exception thrown whenever
-     * an error occurred while estimating the probability to observe an amino
-     * acid
      */
-    private Double estimateObservableCoverage(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MathException {
+    public void computeSpectrumCounting(BoundedExecutor executor, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        DigestionPreferences digestionPreferences = identificationParameters.getSearchParameters().getDigestionPreferences();
-        if (digestionPreferences.getCleavagePreference() != DigestionPreferences.CleavagePreference.enzyme) {
-            return 1.0;
+        boolean nsaf = spectrumCountingPreferences.getSelectedMethod() == SpectralCountingMethod.NSAF;
+        ConcurrentHashMap<String, Integer> validatedPeptides = new ConcurrentHashMap<String, Integer>(identification.getPeptideIdentification().size());
+        HashMap<String, Integer> peptideOccurrences = new HashMap<String, Integer>(identification.getPeptideIdentification().size());
+        ConcurrentHashMap<String, Double> proteinLengths = new ConcurrentHashMap<String, Double>(identification.getProteinIdentification().size());
+        ConcurrentHashMap<String, ArrayList<String>> proteinPeptides = new ConcurrentHashMap<String, ArrayList<String>>(identification.getProteinIdentification().size());
+
+        // count the validated spectra of the validated peptides
+        PSParameter psParameter = new PSParameter();
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(psParameter);
+        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, null, null);
+        for (int i = 1; i <= executor.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            executor.submit(new SpectrumCountingRunnable(peptideMatchesIterator, null, nsaf, validatedPeptides, peptideOccurrences, proteinLengths, proteinPeptides, waitingHandler, exceptionHandler));
         }
-        String mainMatch;
-        if (ProteinMatch.getNProteins(proteinMatchKey) == 1) {
-            mainMatch = proteinMatchKey;
-        } else {
-            ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
-            mainMatch = proteinMatch.getMainMatch();
+        if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+            throw new InterruptedException("Spectrum counting timed out. Please contact the developers.");
         }
-        Protein currentProtein = sequenceFactory.getProtein(mainMatch);
-        double lengthMax = identificationParameters.getPeptideAssumptionFilter().getMaxPepLength();
-        if (metrics.getPeptideLengthDistribution() != null) {
-            lengthMax = Math.min(lengthMax, metrics.getPeptideLengthDistribution().getValueAtCumulativeProbability(0.99));
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        // count the occurrences of the validated peptides in the protein matches
+        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(null, false, null, false, null, null);
+        for (int i = 1; i <= executor.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
+            executor.submit(new SpectrumCountingRunnable(null, proteinMatchesIterator, nsaf, validatedPeptides, peptideOccurrences, proteinLengths, proteinPeptides, waitingHandler, exceptionHandler));
+        }
+        if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+            throw new InterruptedException("Spectrum counting timed out. Please contact the developers.");
+        }
+        if (waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        // compute the NSAF of every protein now that the peptide occurrences are known
+        if (nsaf) {
+            for (String proteinKey : proteinPeptides.keySet()) {
+                double spectrumCount = 0;
+                for (String peptideKey : proteinPeptides.get(proteinKey)) {
+                    spectrumCount += ((double) validatedPeptides.get(peptideKey)) / peptideOccurrences.get(peptideKey);
+                }
+                double result = getNsaf(spectrumCount, proteinLengths.get(proteinKey));
+                identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.spectrum_counting, proteinKey, result);
+            }
         }
-        return ((double) currentProtein.getObservableLength(digestionPreferences.getEnzymes(), lengthMax)) / currentProtein.getLength();
     }
 
     /**
-     * Returns the number of validated proteins. Note that this value is only
-     * available after getSortedProteinKeys has been called.
+     * Counts the validated spectra of the validated peptides returned by the
+     * given iterator.
      *
-     * @return the number of validated proteins
+     * @param peptideMatchesIterator the peptide matches iterator
+     * @param nsaf boolean indicating whether the spectra should be counted
+     * @param validatedPeptides the map where to store the number of validated
+     * spectra of the validated peptides
+     * @param waitingHandler the handler displaying feedback to the user
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    private void countValidatedSpectra(PeptideMatchesIterator peptideMatchesIterator, boolean nsaf, ConcurrentHashMap<String, Integer> validatedPeptides,
+            WaitingHandler waitingHandler) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        PSParameter psParameter = new PSParameter();
+        PeptideMatch peptideMatch;
+
+        while ((peptideMatch = peptideMatchesIterator.next()) != null && !waitingHandler.isRunCanceled()) {
+
+            String peptideKey = peptideMatch.getKey();
+            psParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, psParameter);
+
+            if (psParameter.getMatchValidationLevel().getIndex() >= spectrumCountingPreferences.getMatchValidationLevel()) {
+
+                int nSpectra = 0;
+
+                if (nsaf) {
+                    identification.loadSpectrumMatchParameters(peptideMatch.getSpectrumMatchesKeys(), psParameter, null, false);
+                    for (String spectrumMatchKey : peptideMatch.getSpectrumMatchesKeys()) {
+                        psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumMatchKey, psParameter);
+                        if (psParameter.getMatchValidationLevel().getIndex() >= spectrumCountingPreferences.getMatchValidationLevel()) {
+                            nSpectra++;
+                        }
+                    }
+                }
+
+                validatedPeptides.put(peptideKey, nSpectra);
+            }
+        }
+    }
+
+    /**
+     * Processes the protein matches returned by the given iterator. For the
+     * NSAF, the validated peptides of every match and the length of its main
+     * protein are stored, and the occurrences of the peptides on the main
+     * protein are added. For the emPAI, the index is computed and stored in
+     * cache.
+     *
+     * @param proteinMatchesIterator the protein matches iterator
+     * @param nsaf boolean indicating whether the NSAF is computed
+     * @param validatedPeptides the number of validated spectra of the
+     * validated peptides
+     * @param peptideOccurrences the map where to add the peptide occurrences
+     * @param proteinLengths the map where to store the length of the main
+     * protein of every protein match used for the NSAF
+     * @param proteinPeptides the map where to store the validated peptides of
+     * every protein match
+     * @param waitingHandler the handler displaying feedback to the user
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    private void countPeptideOccurrences(ProteinMatchesIterator proteinMatchesIterator, boolean nsaf, ConcurrentHashMap<String, Integer> validatedPeptides,
+            HashMap<String, Integer> peptideOccurrences, ConcurrentHashMap<String, Double> proteinLengths, ConcurrentHashMap<String, ArrayList<String>> proteinPeptides,
+            WaitingHandler waitingHandler) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        DigestionPreferences digestionPreferences = identificationParameters.getSearchParameters().getDigestionPreferences();
+        int maxPepLength = identificationParameters.getPeptideAssumptionFilter().getMaxPepLength();
+        ProteinMatch proteinMatch;
+
+        while ((proteinMatch = proteinMatchesIterator.next()) != null && !waitingHandler.isRunCanceled()) {
+
+            Protein protein = getProtein(sequenceFactory, proteinMatch.getMainMatch());
+            ArrayList<String> peptideKeys = new ArrayList<String>();
+
+            for (String peptideKey : proteinMatch.getPeptideMatchesKeys()) {
+                if (validatedPeptides.containsKey(peptideKey)) {
+                    peptideKeys.add(peptideKey);
+                    if (nsaf) {
+                        int nOccurrences = protein.getPeptideStart(Peptide.getSequence(peptideKey), sequenceMatchingPreferences).size();
+                        synchronized (peptideOccurrences) {
+                            Integer occurrences = peptideOccurrences.get(peptideKey);
+                            if (occurrences == null) {
+                                occurrences = 0;
+                            }
+                            peptideOccurrences.put(peptideKey, occurrences + nOccurrences);
+                        }
+                    }
+                }
+            }
+
+            if (nsaf) {
+                proteinLengths.put(proteinMatch.getKey(), getNsafLength(protein, digestionPreferences, maxPepLength, observableLengths));
+                proteinPeptides.put(proteinMatch.getKey(), peptideKeys);
+            } else {
+                double result = getEmpai(protein, peptideKeys.size(), digestionPreferences, nCleavageSites);
+                identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.spectrum_counting, proteinMatch.getKey(), result);
+            }
+        }
+    }
+
+    /**
+     * Returns the best protein coverage possible according to the given
+     * cleavage settings.
+     *
+     * @param proteinMatchKey the key of the protein match of interest
+     *
+     * @return the best protein coverage possible according to the given
+     * cleavage settings
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an error occurred while estimating the probability to observe an amino
+     * acid
+     */
+    public Double getObservableCoverage(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MathException {
+
+        Double result = (Double) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.expected_coverage, proteinMatchKey);
+        if (result == null) {
+            result = estimateObservableCoverage(proteinMatchKey);
+            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.expected_coverage, proteinMatchKey, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Indicates whether the observable coverage of a protein match is in cache.
+     *
+     * @param proteinMatchKey the key of the protein match
+     *
+     * @return true if the data is in cache
+     */
+    public boolean observableCoverageInCache(String proteinMatchKey) {
+        return identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.expected_coverage, proteinMatchKey) != null;
+    }
+
+    /**
+     * Updates the best protein coverage possible according to the given
+     * cleavage settings. Used when the main key for a protein has been altered.
+     *
+     * @param proteinMatchKey the key of the protein match of interest
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an error occurred while estimating the probability to observe an amino
+     * acid
+     */
+    public void updateObservableCoverage(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MathException {
+        Double result = estimateObservableCoverage(proteinMatchKey);
+        identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.expected_coverage, proteinMatchKey, result);
+    }
+
+    /**
+     * Returns the best protein coverage possible according to the given
+     * cleavage settings.
+     *
+     * @param proteinMatchKey the key of the protein match of interest
+     *
+     * @return the best protein coverage possible according to the given
+     * cleavage settings
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an error occurred while estimating the probability to observe an amino
+     * acid
+     */
+    private Double estimateObservableCoverage(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException, MathException {
+
+        DigestionPreferences digestionPreferences = identificationParameters.getSearchParameters().getDigestionPreferences();
+        if (digestionPreferences.getCleavagePreference() != DigestionPreferences.CleavagePreference.enzyme) {
+            return 1.0;
+        }
+        String mainMatch;
+        if (ProteinMatch.getNProteins(proteinMatchKey) == 1) {
+            mainMatch = proteinMatchKey;
+        } else {
+            ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
+            mainMatch = proteinMatch.getMainMatch();
+        }
+        Protein currentProtein = getProtein(sequenceFactory, mainMatch);
+        double lengthMax = identificationParameters.getPeptideAssumptionFilter().getMaxPepLength();
+        if (metrics.getPeptideLengthDistribution() != null) {
+            lengthMax = Math.min(lengthMax, metrics.getPeptideLengthDistribution().getValueAtCumulativeProbability(0.99));
+        }
+        return ((double) currentProtein.getObservableLength(digestionPreferences.getEnzymes(), lengthMax)) / currentProtein.getLength();
+    }
+
+    /**
+     * Returns the number of validated proteins. Note that this value is only
+     * available after getSortedProteinKeys has been called.
+     *
+     * @return the number of validated proteins
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -2091,7 +2521,359 @@ public class IdentificationFeaturesGenerator {
      *
      * @param proteinMatchKey the key of the protein match
      *
-     * @return the number of validated spectra
+     * @return the number of validated spectra
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    public int getNConfidentSpectra(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        Integer result = (Integer) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.number_of_confident_spectra, proteinMatchKey);
+
+        if (result == null) {
+            result = estimateNConfidentSpectra(proteinMatchKey);
+            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.number_of_confident_spectra, proteinMatchKey, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Indicates whether the number of validated spectra is in cache for the
+     * given protein match.
+     *
+     * @param proteinMatchKey the key of the protein match
+     *
+     * @return true if the data is in cache
+     */
+    public boolean nValidatedSpectraInCache(String proteinMatchKey) {
+        Integer result = (Integer) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.number_of_validated_spectra, proteinMatchKey);
+        return result != null;
+    }
+
+    /**
+     * Estimates the number of validated spectra for a given protein match.
+     *
+     * @param proteinMatch the protein match of interest
+     *
+     * @return the number of spectra where this protein was found
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    private int estimateNValidatedSpectra(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        int result = 0;
+
+        ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
+        PSParameter psParameter = new PSParameter();
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(psParameter);
+
+        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(proteinMatch.getPeptideMatchesKeys(), null, false, parameters, null);
+        PeptideMatch peptideMatch;
+
+        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+
+            for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
+                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                if (psParameter.getMatchValidationLevel().isValidated()) {
+                    result++;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Estimates the number of confident spectra for a given protein match.
+     *
+     * @param proteinMatch the protein match of interest
+     *
+     * @return the number of spectra where this protein was found
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    private int estimateNConfidentSpectra(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        int result = 0;
+
+        ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
+        PSParameter psParameter = new PSParameter();
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(psParameter);
+
+        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(proteinMatch.getPeptideMatchesKeys(), null, false, parameters, null);
+        PeptideMatch peptideMatch;
+
+        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+
+            for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
+                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
+                if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
+                    result++;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of validated spectra for a given peptide match.
+     *
+     * @param peptideMatchKey the key of the peptide match
+     *
+     * @return the number of validated spectra
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    public int getNValidatedSpectraForPeptide(String peptideMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        Integer result = (Integer) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.number_of_validated_spectra, peptideMatchKey);
+
+        if (result == null) {
+            result = estimateNValidatedSpectraForPeptide(peptideMatchKey);
+            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.number_of_validated_spectra, peptideMatchKey, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Sets the number of confident spectra for a given peptide match.
+     *
+     * @param peptideMatchKey the key of the peptide match
+     *
+     * @return the number of confident spectra
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    public int getNConfidentSpectraForPeptide(String peptideMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        Integer result = (Integer) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.number_of_confident_spectra, peptideMatchKey);
+
+        if (result == null) {
+            result = estimateNConfidentSpectraForPeptide(peptideMatchKey);
+            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.number_of_confident_spectra, peptideMatchKey, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates the number of confident spectra for a given peptide match.
+     *
+     * @param peptideMatchKey the key of the peptide match
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    public void updateNConfidentSpectraForPeptide(String peptideMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        Integer result = estimateNConfidentSpectraForPeptide(peptideMatchKey);
+        identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.number_of_confident_spectra, peptideMatchKey, result);
+    }
+
+    /**
+     * Indicates whether the number of validated spectra for a peptide match is
+     * in cache.
+     *
+     * @param peptideMatchKey the key of the peptide match
+     *
+     * @return true if the data is in cache
+     */
+    public boolean nValidatedSpectraForPeptideInCache(String peptideMatchKey) {
+        return identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.number_of_validated_spectra, peptideMatchKey) != null;
+    }
+
+    /**
+     * Estimates the number of confident spectra for a given peptide match.
+     *
+     * @param peptideMatchKey the peptide match of interest
+     *
+     * @return the number of confident spectra where this peptide was found
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    private int estimateNConfidentSpectraForPeptide(String peptideMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        int nValidated = 0;
+
+        PeptideMatch peptideMatch = identification.getPeptideMatch(peptideMatchKey);
+        PSParameter psParameter = new PSParameter();
+
+        identification.loadSpectrumMatchParameters(peptideMatch.getSpectrumMatchesKeys(), psParameter, null, false);
+        for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
+            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, new PSParameter());
+            if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
+                nValidated++;
+            }
+        }
+
+        return nValidated;
+    }
+
+    /**
+     * Estimates the number of validated spectra for a given peptide match.
+     *
+     * @param peptideMatchKey the peptide match of interest
+     *
+     * @return the number of validated spectra where this peptide was found
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    private int estimateNValidatedSpectraForPeptide(String peptideMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        int nValidated = 0;
+
+        PeptideMatch peptideMatch = identification.getPeptideMatch(peptideMatchKey);
+        PSParameter psParameter = new PSParameter();
+
+        identification.loadSpectrumMatchParameters(peptideMatch.getSpectrumMatchesKeys(), psParameter, null, false);
+        for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
+            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, new PSParameter());
+            if (psParameter.getMatchValidationLevel().isValidated()) {
+                nValidated++;
+            }
+        }
+
+        return nValidated;
+    }
+
+    /**
+     * Clears the spectrum counting data in cache.
+     */
+    public void clearSpectrumCounting() {
+        identificationFeaturesCache.removeObjects(IdentificationFeaturesCache.ObjectType.spectrum_counting);
+        clearQCDistributions();
+    }
+
+    /**
+     * Computes the features of all protein matches and stores them in the
+     * protein features table of the cache. The proteins are processed in
+     * parallel on the given executor.
+     *
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     * @param executor the executor to use
+     *
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with a database (from the protein tree or
+     * identification)
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from a database (from the
+     * protein tree or identification)
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while interacting with a database (from the
+     * protein tree or identification)
+     */
+    public void computeProteinFeatures(WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, BoundedExecutor executor)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        ArrayList<String> proteinKeys = new ArrayList<String>(identification.getProteinIdentification());
+        ProteinFeaturesTable proteinFeaturesTable = new ProteinFeaturesTable(proteinKeys);
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setMaxSecondaryProgressCounter(proteinKeys.size());
+
+        for (int row = 0; row < proteinFeaturesTable.size() && !waitingHandler.isRunCanceled(); row++) {
+            executor.submit(new ProteinFeaturesRunnable(proteinFeaturesTable, row, waitingHandler, exceptionHandler));
+        }
+        if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+            throw new InterruptedException("Protein features computation timed out. Please contact the developers.");
+        }
+
+        if (!waitingHandler.isRunCanceled()) {
+            identificationFeaturesCache.setProteinFeaturesTable(proteinFeaturesTable);
+        }
+
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+    }
+
+    /**
+     * Computes the features of the protein match at the given row of a
+     * protein features table and stores them in the table.
+     *
+     * @param proteinFeaturesTable the protein features table
+     * @param row the row of the protein match
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -2105,36 +2887,40 @@ public class IdentificationFeaturesGenerator {
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
      */
-    public int getNConfidentSpectra(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-        Integer result = (Integer) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.number_of_confident_spectra, proteinMatchKey);
+    private void computeProteinFeatures(ProteinFeaturesTable proteinFeaturesTable, int row)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        if (result == null) {
-            result = estimateNConfidentSpectra(proteinMatchKey);
-            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.number_of_confident_spectra, proteinMatchKey, result);
-        }
+        String proteinKey = proteinFeaturesTable.getProteinKey(row);
+        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
 
-        return result;
-    }
+        int nPeptides = proteinMatch.getPeptideMatchesKeys().size();
+        int nSpectra = estimateNSpectra(proteinKey);
+        int nValidatedPeptides = estimateNValidatedPeptides(proteinKey);
+        int nConfidentPeptides = estimateNConfidentPeptides(proteinKey);
+        int nValidatedSpectra = estimateNValidatedSpectra(proteinKey);
+        int nConfidentSpectra = estimateNConfidentSpectra(proteinKey);
+        ValidationLevelCoverage validationLevelCoverage = getValidationLevelCoverage(proteinKey, true, true);
+        double validatedSequenceCoverage = validationLevelCoverage.getValidatedSequenceCoverage();
+        double spectrumCounting = getSpectrumCounting(proteinKey);
+        double molecularWeight = estimateMolecularWeight(proteinMatch);
 
-    /**
-     * Indicates whether the number of validated spectra is in cache for the
-     * given protein match.
-     *
-     * @param proteinMatchKey the key of the protein match
-     *
-     * @return true if the data is in cache
-     */
-    public boolean nValidatedSpectraInCache(String proteinMatchKey) {
-        Integer result = (Integer) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.number_of_validated_spectra, proteinMatchKey);
-        return result != null;
+        PSParameter psParameter = new PSParameter();
+        psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
+        int proteinInferenceClass = psParameter.getProteinInferenceClass();
+
+        proteinFeaturesTable.setFeatures(row, nPeptides, nSpectra, nValidatedPeptides, nConfidentPeptides, nValidatedSpectra, nConfidentSpectra,
+                validatedSequenceCoverage, spectrumCounting, molecularWeight, proteinInferenceClass);
+        proteinFeaturesTable.setMainMatch(row, proteinMatch.getMainMatch());
     }
 
     /**
-     * Estimates the number of validated spectra for a given protein match.
-     *
-     * @param proteinMatch the protein match of interest
+     * Computes the distributions of the metrics displayed in the QC plots and
+     * stores them in the cache. Proteins, peptides and the PSMs of every
+     * spectrum file are processed in parallel on the given executor.
      *
-     * @return the number of spectra where this protein was found
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     * @param executor the executor to use
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -2148,37 +2934,39 @@ public class IdentificationFeaturesGenerator {
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
      */
-    private int estimateNValidatedSpectra(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-
-        int result = 0;
+    public void computeQCDistributions(WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, BoundedExecutor executor)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
-        PSParameter psParameter = new PSParameter();
-        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
-        parameters.add(psParameter);
+        QCDistributions qcDistributions = new QCDistributions(identificationParameters.getSearchParameters().getPrecursorAccuracy());
 
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(proteinMatch.getPeptideMatchesKeys(), null, false, parameters, null);
-        PeptideMatch peptideMatch;
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setMaxSecondaryProgressCounter(identification.getProteinIdentification().size()
+                + identification.getPeptideIdentification().size() + identification.getSpectrumIdentificationSize());
 
-        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+        executor.submit(new QCDistributionsRunnable(qcDistributions, true, null, waitingHandler, exceptionHandler));
+        executor.submit(new QCDistributionsRunnable(qcDistributions, false, null, waitingHandler, exceptionHandler));
+        for (String spectrumFileName : identification.getSpectrumFiles()) {
+            executor.submit(new QCDistributionsRunnable(qcDistributions, false, spectrumFileName, waitingHandler, exceptionHandler));
+        }
+        if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+            throw new InterruptedException("QC distributions computation timed out. Please contact the developers.");
+        }
 
-            for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-                if (psParameter.getMatchValidationLevel().isValidated()) {
-                    result++;
-                }
-            }
+        if (!waitingHandler.isRunCanceled()) {
+            qcDistributions.finish();
+            identificationFeaturesCache.setQCDistributions(qcDistributions);
         }
 
-        return result;
+        waitingHandler.setSecondaryProgressCounterIndeterminate(true);
     }
 
     /**
-     * Estimates the number of confident spectra for a given protein match.
-     *
-     * @param proteinMatch the protein match of interest
+     * Adds the values of the protein metrics to the QC distributions. Hidden
+     * matches are excluded.
      *
-     * @return the number of spectra where this protein was found
+     * @param qcDistributions the QC distributions
+     * @param waitingHandler the handler displaying feedback to the user
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -2192,37 +2980,43 @@ public class IdentificationFeaturesGenerator {
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
      */
-    private int estimateNConfidentSpectra(String proteinMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-
-        int result = 0;
+    private void addProteinQCDistributions(QCDistributions qcDistributions, WaitingHandler waitingHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        ProteinMatch proteinMatch = identification.getProteinMatch(proteinMatchKey);
         PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
+        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, false, null, false, null, waitingHandler);
+        ProteinMatch proteinMatch;
 
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(proteinMatch.getPeptideMatchesKeys(), null, false, parameters, null);
-        PeptideMatch peptideMatch;
+        while ((proteinMatch = proteinMatchesIterator.next()) != null && !waitingHandler.isRunCanceled()) {
 
-        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+            String proteinKey = proteinMatch.getKey();
+            psParameter = (PSParameter) identification.getProteinMatchParameter(proteinKey, psParameter);
 
-            for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
-                psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psParameter);
-                if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                    result++;
+            if (!psParameter.isHidden()) {
+
+                QCDistributions.Category category = QCDistributions.Category.getCategory(psParameter.getMatchValidationLevel(), ProteinMatch.isDecoy(proteinKey));
+
+                qcDistributions.add(QCDistributions.Metric.protein_validated_peptides, category, getNValidatedPeptides(proteinKey));
+                qcDistributions.add(QCDistributions.Metric.protein_spectrum_counting, category, getSpectrumCounting(proteinKey));
+                qcDistributions.add(QCDistributions.Metric.protein_sequence_coverage, category, 100 * getValidatedSequenceCoverage(proteinKey));
+                Protein protein = getProtein(sequenceFactory, proteinMatch.getMainMatch());
+                if (protein != null) {
+                    qcDistributions.add(QCDistributions.Metric.protein_sequence_length, category, protein.getSequence().length());
                 }
             }
-        }
 
-        return result;
+            waitingHandler.increaseSecondaryProgressCounter();
+        }
     }
 
     /**
-     * Returns the number of validated spectra for a given peptide match.
-     *
-     * @param peptideMatchKey the key of the peptide match
+     * Adds the values of the peptide metrics to the QC distributions. Hidden
+     * matches are excluded.
      *
-     * @return the number of validated spectra
+     * @param qcDistributions the QC distributions
+     * @param waitingHandler the handler displaying feedback to the user
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -2236,23 +3030,67 @@ public class IdentificationFeaturesGenerator {
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
      */
-    public int getNValidatedSpectraForPeptide(String peptideMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-        Integer result = (Integer) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.number_of_validated_spectra, peptideMatchKey);
+    private void addPeptideQCDistributions(QCDistributions qcDistributions, WaitingHandler waitingHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-        if (result == null) {
-            result = estimateNValidatedSpectraForPeptide(peptideMatchKey);
-            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.number_of_validated_spectra, peptideMatchKey, result);
-        }
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        DigestionPreferences digestionPreferences = identificationParameters.getSearchParameters().getDigestionPreferences();
 
-        return result;
+        PSParameter peptideParameter = new PSParameter();
+        PSParameter psmParameter = new PSParameter();
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(psmParameter);
+        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, parameters, waitingHandler);
+        PeptideMatch peptideMatch;
+
+        while ((peptideMatch = peptideMatchesIterator.next()) != null && !waitingHandler.isRunCanceled()) {
+
+            String peptideKey = peptideMatch.getKey();
+            peptideParameter = (PSParameter) identification.getPeptideMatchParameter(peptideKey, peptideParameter);
+
+            if (!peptideParameter.isHidden()) {
+
+                QCDistributions.Category category = QCDistributions.Category.getCategory(peptideParameter.getMatchValidationLevel(),
+                        peptideMatch.getTheoreticPeptide().isDecoy(sequenceMatchingPreferences));
+
+                int nValidatedPsms = 0;
+                for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
+                    psmParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psmParameter);
+                    if (psmParameter.getMatchValidationLevel().isValidated() && !psmParameter.isHidden()) {
+                        nValidatedPsms++;
+                    }
+                }
+                qcDistributions.add(QCDistributions.Metric.peptide_validated_psms, category, nValidatedPsms);
+
+                String sequence = Peptide.getSequence(peptideKey);
+                Integer missedCleavages = null;
+                if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
+                    for (Enzyme enzyme : digestionPreferences.getEnzymes()) {
+                        int enzymeMissedCleavages = enzyme.getNmissedCleavages(sequence);
+                        if (missedCleavages == null || enzymeMissedCleavages < missedCleavages) {
+                            missedCleavages = enzymeMissedCleavages;
+                        }
+                    }
+                }
+                if (missedCleavages == null) {
+                    missedCleavages = 0;
+                }
+                qcDistributions.add(QCDistributions.Metric.peptide_missed_cleavages, category, missedCleavages);
+                qcDistributions.add(QCDistributions.Metric.peptide_length, category, sequence.length());
+            }
+
+            waitingHandler.increaseSecondaryProgressCounter();
+        }
     }
 
     /**
-     * Sets the number of confident spectra for a given peptide match.
-     *
-     * @param peptideMatchKey the key of the peptide match
+     * Adds the values of the PSM metrics of a spectrum file to the QC
+     * distributions. Hidden matches and matches without peptide assumption are
+     * excluded.
      *
-     * @return the number of confident spectra
+     * @param qcDistributions the QC distributions
+     * @param spectrumFileName the name of the spectrum file
+     * @param waitingHandler the handler displaying feedback to the user
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -2265,22 +3103,58 @@ public class IdentificationFeaturesGenerator {
      * @throws java.lang.InterruptedException exception thrown whenever a
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file
      */
-    public int getNConfidentSpectraForPeptide(String peptideMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-        Integer result = (Integer) identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.number_of_confident_spectra, peptideMatchKey);
+    private void addPsmQCDistributions(QCDistributions qcDistributions, String spectrumFileName, WaitingHandler waitingHandler)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException, MzMLUnmarshallerException {
 
-        if (result == null) {
-            result = estimateNConfidentSpectraForPeptide(peptideMatchKey);
-            identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.number_of_confident_spectra, peptideMatchKey, result);
+        SequenceMatchingPreferences sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+        SearchParameters searchParameters = identificationParameters.getSearchParameters();
+
+        PSParameter psmParameter = new PSParameter();
+        ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
+        parameters.add(psmParameter);
+        loadSpectrumFile(spectrumFileName);
+        PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, parameters, false, waitingHandler);
+        SpectrumMatch spectrumMatch;
+
+        while ((spectrumMatch = psmIterator.next()) != null && !waitingHandler.isRunCanceled()) {
+
+            String spectrumKey = spectrumMatch.getKey();
+            psmParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, psmParameter);
+            PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+
+            if (!psmParameter.isHidden() && peptideAssumption != null) {
+
+                QCDistributions.Category category = QCDistributions.Category.getCategory(psmParameter.getMatchValidationLevel(),
+                        peptideAssumption.getPeptide().isDecoy(sequenceMatchingPreferences));
+
+                Precursor precursor = spectrumFactory.getPrecursor(spectrumKey);
+                double massError = peptideAssumption.getDeltaMass(precursor.getMz(), searchParameters.isPrecursorAccuracyTypePpm(),
+                        searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
+                qcDistributions.add(QCDistributions.Metric.psm_precursor_mass_error, category, massError);
+                qcDistributions.add(QCDistributions.Metric.psm_precursor_charge, category, peptideAssumption.getIdentificationCharge().value);
+            }
+
+            waitingHandler.increaseSecondaryProgressCounter();
         }
+    }
 
-        return result;
+    /**
+     * Clears the QC distributions, they will be computed anew when needed.
+     */
+    public void clearQCDistributions() {
+        identificationFeaturesCache.setQCDistributions(null);
     }
 
     /**
-     * Updates the number of confident spectra for a given peptide match.
+     * Returns the molecular weight of the main protein of a protein match, 0
+     * if the protein is not found in the database.
      *
-     * @param peptideMatchKey the key of the peptide match
+     * @param proteinMatch the protein match
+     *
+     * @return the molecular weight of the main protein of a protein match
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -2294,29 +3168,22 @@ public class IdentificationFeaturesGenerator {
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
      */
-    public void updateNConfidentSpectraForPeptide(String peptideMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-        Integer result = estimateNConfidentSpectraForPeptide(peptideMatchKey);
-        identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.number_of_confident_spectra, peptideMatchKey, result);
-    }
-
-    /**
-     * Indicates whether the number of validated spectra for a peptide match is
-     * in cache.
-     *
-     * @param peptideMatchKey the key of the peptide match
-     *
-     * @return true if the data is in cache
-     */
-    public boolean nValidatedSpectraForPeptideInCache(String peptideMatchKey) {
-        return identificationFeaturesCache.getObject(IdentificationFeaturesCache.ObjectType.number_of_validated_spectra, peptideMatchKey) != null;
+    private double estimateMolecularWeight(ProteinMatch proteinMatch)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        Protein protein = getProtein(sequenceFactory, proteinMatch.getMainMatch());
+        if (protein == null) {
+            return 0;
+        }
+        return sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
     }
 
     /**
-     * Estimates the number of confident spectra for a given peptide match.
+     * Returns the molecular weight of the main protein of a protein match.
+     * The value is taken from the protein features table when available.
      *
-     * @param peptideMatchKey the peptide match of interest
+     * @param proteinMatch the protein match
      *
-     * @return the number of confident spectra where this peptide was found
+     * @return the molecular weight of the main protein of a protein match
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -2330,30 +3197,23 @@ public class IdentificationFeaturesGenerator {
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
      */
-    private int estimateNConfidentSpectraForPeptide(String peptideMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-
-        int nValidated = 0;
-
-        PeptideMatch peptideMatch = identification.getPeptideMatch(peptideMatchKey);
-        PSParameter psParameter = new PSParameter();
-
-        identification.loadSpectrumMatchParameters(peptideMatch.getSpectrumMatchesKeys(), psParameter, null, false);
-        for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
-            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, new PSParameter());
-            if (psParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                nValidated++;
+    public double getMolecularWeight(ProteinMatch proteinMatch)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        ProteinFeaturesTable proteinFeaturesTable = identificationFeaturesCache.getProteinFeaturesTable();
+        if (proteinFeaturesTable != null) {
+            int row = proteinFeaturesTable.getRow(proteinMatch.getKey());
+            if (row != -1) {
+                return proteinFeaturesTable.getMolecularWeight(row);
             }
         }
-
-        return nValidated;
+        return estimateMolecularWeight(proteinMatch);
     }
 
     /**
-     * Estimates the number of validated spectra for a given peptide match.
-     *
-     * @param peptideMatchKey the peptide match of interest
+     * Updates the main match and molecular weight of a protein match in the
+     * protein features table after a change of main match.
      *
-     * @return the number of validated spectra where this peptide was found
+     * @param proteinMatch the protein match
      *
      * @throws java.sql.SQLException exception thrown whenever an error occurred
      * while interacting with a database (from the protein tree or
@@ -2367,29 +3227,33 @@ public class IdentificationFeaturesGenerator {
      * threading error occurred while interacting with a database (from the
      * protein tree or identification)
      */
-    private int estimateNValidatedSpectraForPeptide(String peptideMatchKey) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-
-        int nValidated = 0;
-
-        PeptideMatch peptideMatch = identification.getPeptideMatch(peptideMatchKey);
-        PSParameter psParameter = new PSParameter();
-
-        identification.loadSpectrumMatchParameters(peptideMatch.getSpectrumMatchesKeys(), psParameter, null, false);
-        for (String spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
-            psParameter = (PSParameter) identification.getSpectrumMatchParameter(spectrumKey, new PSParameter());
-            if (psParameter.getMatchValidationLevel().isValidated()) {
-                nValidated++;
+    public void updateMolecularWeight(ProteinMatch proteinMatch)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        ProteinFeaturesTable proteinFeaturesTable = identificationFeaturesCache.getProteinFeaturesTable();
+        if (proteinFeaturesTable != null) {
+            int row = proteinFeaturesTable.getRow(proteinMatch.getKey());
+            if (row != -1) {
+                proteinFeaturesTable.setMolecularWeight(row, estimateMolecularWeight(proteinMatch));
+                proteinFeaturesTable.setMainMatch(row, proteinMatch.getMainMatch());
             }
         }
-
-        return nValidated;
     }
 
     /**
-     * Clears the spectrum counting data in cache.
+     * Updates the protein inference class of a protein match in the protein
+     * features table.
+     *
+     * @param proteinMatchKey the key of the protein match
+     * @param proteinInferenceClass the new protein inference class
      */
-    public void clearSpectrumCounting() {
-        identificationFeaturesCache.removeObjects(IdentificationFeaturesCache.ObjectType.spectrum_counting);
+    public void updateProteinInferenceClass(String proteinMatchKey, int proteinInferenceClass) {
+        ProteinFeaturesTable proteinFeaturesTable = identificationFeaturesCache.getProteinFeaturesTable();
+        if (proteinFeaturesTable != null) {
+            int row = proteinFeaturesTable.getRow(proteinMatchKey);
+            if (row != -1) {
+                proteinFeaturesTable.setProteinInferenceClass(row, proteinInferenceClass);
+            }
+        }
     }
 
     /**
@@ -2925,13 +3789,9 @@ public class IdentificationFeaturesGenerator {
                                 maxSpectrumCounting = tempSpectrumCounting;
                             }
 
-                            Protein currentProtein = sequenceFactory.getProtein(proteinMatch.getMainMatch());
-
-                            if (currentProtein != null) {
-                                double mw = sequenceFactory.computeMolecularWeight(proteinMatch.getMainMatch());
-                                if (mw > maxMW) {
-                                    maxMW = mw;
-                                }
+                            double mw = getMolecularWeight(proteinMatch);
+                            if (mw > maxMW) {
+                                maxMW = mw;
                             }
 
                             if (probabilities.getMatchValidationLevel().isValidated()) {
@@ -3227,6 +4087,7 @@ public class IdentificationFeaturesGenerator {
                     }
                     if (hasRT) {
                         try {
+                            loadSpectrumFile(Spectrum.getSpectrumFile(spectrumKey));
                             Precursor precursor = spectrumFactory.getPrecursor(spectrumKey);
                             rt = precursor.getRt();
                             if (rt == -1) {
@@ -3343,6 +4204,34 @@ public class IdentificationFeaturesGenerator {
         return metrics;
     }
 
+    /**
+     * Sets the loader of the spectrum files of a project displayed before its
+     * spectrum files were loaded. The spectrum files are then loaded on demand
+     * before their spectra are accessed.
+     *
+     * @param spectrumFilesLoader the loader of the spectrum files, null if
+     * all spectrum files are loaded
+     */
+    public void setSpectrumFilesLoader(SpectrumFilesLoader spectrumFilesLoader) {
+        this.spectrumFilesLoader = spectrumFilesLoader;
+    }
+
+    /**
+     * Makes sure that the given spectrum file is loaded when the project was
+     * displayed before its spectrum files were loaded.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * loading the file
+     */
+    private void loadSpectrumFile(String spectrumFileName) throws IOException {
+        SpectrumFilesLoader loader = spectrumFilesLoader;
+        if (loader != null) {
+            loader.loadSpectrumFile(spectrumFileName);
+        }
+    }
+
     /**
      * Sets the spectrum couting preferences.
      *
@@ -3403,4 +4292,280 @@ public class IdentificationFeaturesGenerator {
         }
         return nValidated;
     }
+
+    /**
+     * Runnable computing the features of a protein match.
+     *
+     * @author Marc Vaudel
+     */
+    private class ProteinFeaturesRunnable implements Runnable {
+
+        /**
+         * The protein features table where to store the features.
+         */
+        private final ProteinFeaturesTable proteinFeaturesTable;
+        /**
+         * The row of the protein match in the table.
+         */
+        private final int row;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinFeaturesTable the protein features table where to
+         * store the features
+         * @param row the row of the protein match in the table
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public ProteinFeaturesRunnable(ProteinFeaturesTable proteinFeaturesTable, int row, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.proteinFeaturesTable = proteinFeaturesTable;
+            this.row = row;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!waitingHandler.isRunCanceled()) {
+                    computeProteinFeatures(proteinFeaturesTable, row);
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
+
+    /**
+     * Runnable adding the values of the proteins, of the peptides or of the
+     * PSMs of a spectrum file to the QC distributions.
+     *
+     * @author Marc Vaudel
+     */
+    private class QCDistributionsRunnable implements Runnable {
+
+        /**
+         * The QC distributions where to add the values.
+         */
+        private final QCDistributions qcDistributions;
+        /**
+         * Boolean indicating whether the proteins should be processed.
+         */
+        private final boolean proteins;
+        /**
+         * The name of the spectrum file whose PSMs should be processed. If
+         * null and proteins is false, the peptides are processed.
+         */
+        private final String spectrumFileName;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param qcDistributions the QC distributions where to add the values
+         * @param proteins boolean indicating whether the proteins should be
+         * processed
+         * @param spectrumFileName the name of the spectrum file whose PSMs
+         * should be processed, null for proteins and peptides
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public QCDistributionsRunnable(QCDistributions qcDistributions, boolean proteins, String spectrumFileName, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.qcDistributions = qcDistributions;
+            this.proteins = proteins;
+            this.spectrumFileName = spectrumFileName;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!waitingHandler.isRunCanceled()) {
+                    if (proteins) {
+                        addProteinQCDistributions(qcDistributions, waitingHandler);
+                    } else if (spectrumFileName == null) {
+                        addPeptideQCDistributions(qcDistributions, waitingHandler);
+                    } else {
+                        addPsmQCDistributions(qcDistributions, spectrumFileName, waitingHandler);
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
+
+    /**
+     * Runnable counting the validated spectra of the peptides or the peptide
+     * occurrences in the proteins for the spectrum counting.
+     *
+     * @author Marc Vaudel
+     */
+    private class SpectrumCountingRunnable implements Runnable {
+
+        /**
+         * The peptide matches iterator, null if proteins are processed.
+         */
+        private final PeptideMatchesIterator peptideMatchesIterator;
+        /**
+         * The protein matches iterator, null if peptides are processed.
+         */
+        private final ProteinMatchesIterator proteinMatchesIterator;
+        /**
+         * Boolean indicating whether the NSAF is computed.
+         */
+        private final boolean nsaf;
+        /**
+         * The number of validated spectra of the validated peptides.
+         */
+        private final ConcurrentHashMap<String, Integer> validatedPeptides;
+        /**
+         * The number of occurrences of the peptides in the protein matches.
+         */
+        private final HashMap<String, Integer> peptideOccurrences;
+        /**
+         * The length of the main protein of every protein match used for the
+         * NSAF.
+         */
+        private final ConcurrentHashMap<String, Double> proteinLengths;
+        /**
+         * The validated peptides of every protein match.
+         */
+        private final ConcurrentHashMap<String, ArrayList<String>> proteinPeptides;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param peptideMatchesIterator the peptide matches iterator, null if
+         * proteins are processed
+         * @param proteinMatchesIterator the protein matches iterator, null if
+         * peptides are processed
+         * @param nsaf boolean indicating whether the NSAF is computed
+         * @param validatedPeptides the number of validated spectra of the
+         * validated peptides
+         * @param peptideOccurrences the number of occurrences of the peptides
+         * in the protein matches
+         * @param proteinLengths the length of the main protein of every
+         * protein match used for the NSAF
+         * @param proteinPeptides the validated peptides of every protein match
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         */
+        public SpectrumCountingRunnable(PeptideMatchesIterator peptideMatchesIterator, ProteinMatchesIterator proteinMatchesIterator, boolean nsaf,
+                ConcurrentHashMap<String, Integer> validatedPeptides, HashMap<String, Integer> peptideOccurrences, ConcurrentHashMap<String, Double> proteinLengths,
+                ConcurrentHashMap<String, ArrayList<String>> proteinPeptides, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.peptideMatchesIterator = peptideMatchesIterator;
+            this.proteinMatchesIterator = proteinMatchesIterator;
+            this.nsaf = nsaf;
+            this.validatedPeptides = validatedPeptides;
+            this.peptideOccurrences = peptideOccurrences;
+            this.proteinLengths = proteinLengths;
+            this.proteinPeptides = proteinPeptides;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!waitingHandler.isRunCanceled()) {
+                    if (peptideMatchesIterator != null) {
+                        countValidatedSpectra(peptideMatchesIterator, nsaf, validatedPeptides, waitingHandler);
+                    } else {
+                        countPeptideOccurrences(proteinMatchesIterator, nsaf, validatedPeptides, peptideOccurrences, proteinLengths, proteinPeptides, waitingHandler);
+                    }
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+    }
+
+    /**
+     * Runnable computing the sequence coverage of a protein match.
+     *
+     * @author Marc Vaudel
+     */
+    private class SequenceCoverageRunnable implements Runnable {
+
+        /**
+         * The key of the protein match.
+         */
+        private final String proteinKey;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param proteinKey the key of the protein match
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process, can be null
+         * @param exceptionHandler handler for exceptions
+         */
+        public SequenceCoverageRunnable(String proteinKey, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.proteinKey = proteinKey;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                    ValidationLevelCoverage validationLevelCoverage = getValidationLevelCoverage(proteinKey, true, true);
+                    double[] sequenceCoverage = validationLevelCoverage.getSequenceCoverage();
+                    HashMap<Integer, Double> result = new HashMap<Integer, Double>(sequenceCoverage.length);
+                    for (int validationLevel : MatchValidationLevel.getValidationLevelIndexes()) {
+                        result.put(validationLevel, sequenceCoverage[validationLevel + 1]);
+                    }
+                    identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.sequence_validation_coverage, proteinKey, result);
+                    identificationFeaturesCache.addObject(IdentificationFeaturesCache.ObjectType.sequence_coverage, proteinKey, validationLevelCoverage.getValidatedSequenceCoverage());
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                if (waitingHandler != null) {
+                    waitingHandler.setRunCanceled();
+                }
+            }
+        }
+    }
 }
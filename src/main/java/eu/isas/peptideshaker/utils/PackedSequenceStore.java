@@ -0,0 +1,1396 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.protein.Header;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.protein_inference.ProteinMappingStore;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Store of the protein sequences of a FASTA file packed in memory-mapped
+ * files. Every residue is stored as one byte and the sequences are retrieved
+ * via an accession index mapped as well, where the accessions are sorted and
+ * searched by binary search, so that the sequences of large databases can be
+ * accessed without being loaded in the heap or read through the sequence
+ * factory cache. When the decoy sequences are the reversed target
+ * sequences, only the targets are stored and the decoys are generated on the
+ * fly. The store is built in parallel from chunks of the FASTA file, every
+ * chunk being packed in its own file. When a store folder is set, the store
+ * is saved in a sub-folder named after the checksum of the FASTA file and
+ * reused by the next runs on the same file. The content of a saved store is
+ * verified against its checksums once when published, later runs only check
+ * the index and the size and modification date of the files. A run using a
+ * saved store holds a shared lock on the lock file of the store folder, the
+ * stores are deleted only under an exclusive lock. The least recently used
+ * stores are deleted when the saved stores exceed a maximal size.
+ *
+ * @author Marc Vaudel
+ */
+public class PackedSequenceStore {
+
+    /**
+     * The size of the chunks of the FASTA file packed in parallel in bytes.
+     */
+    private static final long CHUNK_SIZE = 1l << 28;
+    /**
+     * The name of the index file of a saved store.
+     */
+    public static final String INDEX_FILE_NAME = "index.dat";
+    /**
+     * The extension of the data files.
+     */
+    public static final String DATA_FILE_EXTENSION = ".psq";
+    /**
+     * The name of the accession index file.
+     */
+    public static final String ACCESSIONS_FILE_NAME = "accessions.psi";
+    /**
+     * The name of the lock file of a saved store.
+     */
+    public static final String LOCK_FILE_NAME = "store.lock";
+    /**
+     * The suffix of the folders where the stores are built.
+     */
+    private static final String BUILD_FOLDER_SUFFIX = ".tmp";
+    /**
+     * The age in milliseconds after which a build folder left in the store
+     * folder is considered abandoned.
+     */
+    private static final long ABANDONED_BUILD_AGE = 24l * 60 * 60 * 1000;
+    /**
+     * The version of the index file format.
+     */
+    public static final int VERSION = 4;
+    /**
+     * The size in bytes of a record of the accession index: offset and length
+     * of the accession, data file, position and length of the sequence.
+     */
+    private static final int RECORD_SIZE = 20;
+    /**
+     * The position of the first record in the accession index, after the
+     * number of sequences.
+     */
+    private static final int RECORDS_START = 4;
+    /**
+     * The encoding of the accessions.
+     */
+    private static final Charset ENCODING = Charset.forName("UTF-8");
+    /**
+     * Suffix of the key of the stores where the decoy sequences are generated
+     * on the fly.
+     */
+    private static final String REVERSED_DECOYS_SUFFIX = "_reversed";
+    /**
+     * The folder where the stores are saved for reuse across runs. Null if
+     * not set.
+     */
+    private static String storeFolder = null;
+    /**
+     * The maximal size in bytes of the stores saved in the store folder.
+     */
+    private static long maxStoreFolderSize = 1l << 34;
+    /**
+     * The store of the FASTA file currently used, null if not built.
+     */
+    private static PackedSequenceStore sequenceStore = null;
+    /**
+     * The FASTA file the store was built from.
+     */
+    private final File fastaFile;
+    /**
+     * The files containing the packed sequences, one per chunk of the FASTA
+     * file.
+     */
+    private final File[] dataFiles;
+    /**
+     * Boolean indicating whether the decoy sequences are generated on the fly
+     * by reversing the target sequences.
+     */
+    private final boolean reversedDecoys;
+    /**
+     * The accession index file. The file contains the number of sequences,
+     * one record per sequence in the order of the accessions and the
+     * accessions.
+     */
+    private final File accessionsFile;
+    /**
+     * The mapped accession index.
+     */
+    private final MappedByteBuffer accessionsBuffer;
+    /**
+     * The number of sequences stored.
+     */
+    private final int nSequences;
+    /**
+     * The mapped data files.
+     */
+    private final MappedByteBuffer[] buffers;
+    /**
+     * The shared lock on the folder of a saved store held while the store is
+     * in use, null for stores which are not saved.
+     */
+    private FileLock folderLock = null;
+
+    /**
+     * Constructor.
+     *
+     * @param fastaFile the FASTA file
+     * @param dataFiles the files containing the packed sequences
+     * @param accessionsFile the accession index file
+     * @param reversedDecoys boolean indicating whether the decoy sequences
+     * are generated on the fly
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the files
+     */
+    private PackedSequenceStore(File fastaFile, File[] dataFiles, File accessionsFile, boolean reversedDecoys) throws IOException {
+
+        this.fastaFile = fastaFile;
+        this.dataFiles = dataFiles;
+        this.accessionsFile = accessionsFile;
+        this.reversedDecoys = reversedDecoys;
+
+        buffers = new MappedByteBuffer[dataFiles.length];
+        for (int i = 0; i < dataFiles.length; i++) {
+            buffers[i] = map(dataFiles[i]);
+        }
+        accessionsBuffer = map(accessionsFile);
+        nSequences = accessionsBuffer.getInt(0);
+        if (nSequences < 0 || RECORDS_START + (long) nSequences * RECORD_SIZE > accessionsBuffer.capacity()) {
+            throw new IOException("Accession index " + accessionsFile.getName() + " is corrupted.");
+        }
+    }
+
+    /**
+     * Maps a file in memory in read only mode.
+     *
+     * @param file the file
+     *
+     * @return the mapped file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close(); // the mapping remains valid after closing the channel
+        }
+    }
+
+    /**
+     * Returns the store of the FASTA file currently loaded in the sequence
+     * factory. If a store folder is set, the store saved for this FASTA file
+     * is used if valid, otherwise the store is built and saved for the next
+     * runs. If no folder is set, the store is built in temporary files.
+     *
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler displaying progress to the user
+     * and allowing canceling the process
+     * @param exceptionHandler handler for exceptions
+     *
+     * @return the store of the FASTA file, null if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or writing the store
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while packing the chunks
+     * @throws TimeoutException exception thrown if the packing of the chunks
+     * timed out
+     */
+    public static PackedSequenceStore getStore(int nThreads, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler)
+            throws IOException, InterruptedException, TimeoutException {
+
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        File fastaFile = sequenceFactory.getCurrentFastaFile();
+        boolean reversedDecoys = sequenceFactory.concatenatedTargetDecoy() && sequenceFactory.isDefaultReversed();
+
+        if (storeFolder == null) {
+            return build(fastaFile, reversedDecoys, nThreads, null, waitingHandler, exceptionHandler);
+        }
+
+        File parentFolder = new File(storeFolder);
+        deleteAbandonedBuilds(parentFolder);
+        String storeKey = getStoreKey(fastaFile, reversedDecoys);
+        File folder = new File(storeFolder, storeKey);
+        PackedSequenceStore store = load(fastaFile, folder, storeKey, false);
+        if (store != null) {
+            return store;
+        }
+
+        // build in a new folder so that concurrent runs do not write the same files
+        if (!parentFolder.exists() && !parentFolder.mkdirs()) {
+            throw new IOException("Impossible to create folder " + parentFolder.getAbsolutePath() + ".");
+        }
+        File buildFolder = File.createTempFile(storeKey + "_", BUILD_FOLDER_SUFFIX, parentFolder);
+        if (!buildFolder.delete() || !buildFolder.mkdir()) {
+            throw new IOException("Impossible to create folder " + buildFolder.getAbsolutePath() + ".");
+        }
+        store = build(fastaFile, reversedDecoys, nThreads, buildFolder, waitingHandler, exceptionHandler);
+        if (store == null) {
+            deleteFolder(buildFolder);
+            return null;
+        }
+        store.writeIndex(new File(buildFolder, INDEX_FILE_NAME), storeKey);
+
+        // publish the store unless another run published it in the meantime, the content is verified once here
+        PackedSequenceStore publishedStore = load(fastaFile, folder, storeKey, false);
+        if (publishedStore == null) {
+            if ((!folder.exists() || deleteStoreFolder(folder)) && buildFolder.renameTo(folder)) {
+                publishedStore = load(fastaFile, folder, storeKey, true);
+            }
+        }
+
+        // the files which could not be published are used for this run only
+        if (buildFolder.exists()) {
+            for (File file : buildFolder.listFiles()) {
+                file.deleteOnExit();
+            }
+            buildFolder.deleteOnExit();
+        }
+
+        if (publishedStore != null) {
+            deleteLeastRecentlyUsedStores(parentFolder, folder);
+            return publishedStore;
+        }
+        return store;
+    }
+
+    /**
+     * Deletes the build folders left in the store folder by runs which did
+     * not complete. Only the folders older than a day are deleted so that
+     * the builds of concurrent runs are left untouched.
+     *
+     * @param parentFolder the store folder
+     */
+    private static void deleteAbandonedBuilds(File parentFolder) {
+        File[] folders = parentFolder.listFiles();
+        if (folders != null) {
+            long limit = System.currentTimeMillis() - ABANDONED_BUILD_AGE;
+            for (File folder : folders) {
+                if (folder.isDirectory() && folder.getName().endsWith(BUILD_FOLDER_SUFFIX) && folder.lastModified() < limit) {
+                    deleteFolder(folder);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used stores until the size of the saved
+     * stores is below the maximal size. The time of last use of a store is
+     * the time of last modification of its index file. The stores in use by
+     * other runs are skipped.
+     *
+     * @param parentFolder the store folder
+     * @param currentFolder the folder of the store in use, never deleted
+     */
+    private static void deleteLeastRecentlyUsedStores(File parentFolder, File currentFolder) {
+
+        File[] folders = parentFolder.listFiles();
+        if (folders == null) {
+            return;
+        }
+        ArrayList<File> storeFolders = new ArrayList<File>(folders.length);
+        final HashMap<File, Long> lastUses = new HashMap<File, Long>(folders.length);
+        HashMap<File, Long> sizes = new HashMap<File, Long>(folders.length);
+        long totalSize = 0;
+        for (File folder : folders) {
+            if (folder.isDirectory() && !folder.getName().endsWith(BUILD_FOLDER_SUFFIX)) {
+                long size = 0;
+                File[] files = folder.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        size += file.length();
+                    }
+                }
+                storeFolders.add(folder);
+                lastUses.put(folder, new File(folder, INDEX_FILE_NAME).lastModified());
+                sizes.put(folder, size);
+                totalSize += size;
+            }
+        }
+        if (totalSize <= maxStoreFolderSize) {
+            return;
+        }
+
+        Collections.sort(storeFolders, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return lastUses.get(o1).compareTo(lastUses.get(o2));
+            }
+        });
+        for (File folder : storeFolders) {
+            if (totalSize <= maxStoreFolderSize) {
+                break;
+            }
+            if (!folder.equals(currentFolder) && deleteStoreFolder(folder)) {
+                totalSize -= sizes.get(folder);
+            }
+        }
+    }
+
+    /**
+     * Returns the key of the store of a FASTA file. The key is the checksum of
+     * the FASTA file, followed by a suffix when the decoy sequences are
+     * generated on the fly.
+     *
+     * @param fastaFile the FASTA file
+     * @param reversedDecoys boolean indicating whether the decoy sequences
+     * are generated on the fly
+     *
+     * @return the key of the store
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     */
+    private static String getStoreKey(File fastaFile, boolean reversedDecoys) throws IOException {
+        String key = ProteinMappingStore.getChecksum(fastaFile);
+        if (reversedDecoys) {
+            key += REVERSED_DECOYS_SUFFIX;
+        }
+        return key;
+    }
+
+    /**
+     * Packs the sequences of a FASTA file. The FASTA file is split in chunks
+     * packed in parallel.
+     *
+     * @param fastaFile the FASTA file
+     * @param reversedDecoys boolean indicating whether the decoy sequences
+     * are generated on the fly
+     * @param nThreads the number of threads to use
+     * @param folder the folder where to write the data files, temporary files
+     * are used if null
+     * @param waitingHandler waiting handler displaying progress to the user
+     * and allowing canceling the process
+     * @param exceptionHandler handler for exceptions
+     *
+     * @return the store of the FASTA file, null if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or writing the store
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while packing the chunks
+     * @throws TimeoutException exception thrown if the packing of the chunks
+     * timed out
+     */
+    private static PackedSequenceStore build(File fastaFile, boolean reversedDecoys, int nThreads, File folder, WaitingHandler waitingHandler,
+            ExceptionHandler exceptionHandler) throws IOException, InterruptedException, TimeoutException {
+
+        long fileSize = fastaFile.length();
+        int nChunks = (int) Math.max(nThreads, (fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        long chunkSize = Math.max((fileSize + nChunks - 1) / nChunks, 1);
+        ArrayList<ChunkPacker> packers = new ArrayList<ChunkPacker>(nChunks);
+
+        waitingHandler.resetSecondaryProgressCounter();
+        waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+        waitingHandler.setMaxSecondaryProgressCounter(nChunks);
+
+        BoundedExecutor executor = new BoundedExecutor(nThreads);
+        try {
+            for (long start = 0; start < fileSize && !waitingHandler.isRunCanceled(); start += chunkSize) {
+                File dataFile;
+                if (folder == null) {
+                    dataFile = File.createTempFile("peptide-shaker_sequences", DATA_FILE_EXTENSION);
+                    dataFile.deleteOnExit();
+                } else {
+                    dataFile = new File(folder, packers.size() + DATA_FILE_EXTENSION);
+                }
+                ChunkPacker packer = new ChunkPacker(fastaFile, dataFile, start, Math.min(start + chunkSize, fileSize), reversedDecoys, waitingHandler, exceptionHandler);
+                packers.add(packer);
+                executor.submit(packer);
+            }
+            if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+                throw new TimeoutException("Sequence packing timed out. Please contact the developers.");
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        if (waitingHandler.isRunCanceled()) {
+            return null;
+        }
+
+        File[] dataFiles = new File[packers.size()];
+        for (int segment = 0; segment < packers.size(); segment++) {
+            dataFiles[segment] = packers.get(segment).dataFile;
+        }
+        File accessionsFile;
+        if (folder == null) {
+            accessionsFile = File.createTempFile("peptide-shaker_accessions", DATA_FILE_EXTENSION);
+            accessionsFile.deleteOnExit();
+        } else {
+            accessionsFile = new File(folder, ACCESSIONS_FILE_NAME);
+        }
+        writeAccessions(packers, accessionsFile);
+
+        return new PackedSequenceStore(fastaFile, dataFiles, accessionsFile, reversedDecoys);
+    }
+
+    /**
+     * Writes the accession index of the sequences packed by the given
+     * packers. The accessions are sorted by their encoded bytes, for
+     * duplicate accessions the first sequence in the FASTA file is kept.
+     *
+     * @param packers the packers in the order of the FASTA file
+     * @param accessionsFile the file where to write the index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the index or if the index is too large to be mapped
+     */
+    private static void writeAccessions(ArrayList<ChunkPacker> packers, File accessionsFile) throws IOException {
+
+        int nSequences = 0;
+        for (ChunkPacker packer : packers) {
+            nSequences += packer.size;
+        }
+        final byte[][] keys = new byte[nSequences][];
+        int[] segments = new int[nSequences];
+        int[] positions = new int[nSequences];
+        int[] lengths = new int[nSequences];
+        int nRead = 0;
+        for (int segment = 0; segment < packers.size(); segment++) {
+            ChunkPacker packer = packers.get(segment);
+            for (int i = 0; i < packer.size; i++) {
+                keys[nRead] = packer.accessions.get(i).getBytes(ENCODING);
+                segments[nRead] = segment;
+                positions[nRead] = packer.positions[i];
+                lengths[nRead] = packer.lengths[i];
+                nRead++;
+            }
+        }
+
+        // sort by accession, duplicates in the order of the file
+        Integer[] order = new Integer[nSequences];
+        for (int i = 0; i < nSequences; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int result = compareKeys(keys[o1], keys[o2]);
+                if (result != 0) {
+                    return result;
+                }
+                return o1.compareTo(o2);
+            }
+        });
+
+        int nStored = 0;
+        long keysSize = 0;
+        byte[] previousKey = null;
+        for (int i = 0; i < nSequences; i++) {
+            byte[] key = keys[order[i]];
+            if (previousKey != null && compareKeys(previousKey, key) == 0) {
+                order[i] = null;
+            } else {
+                nStored++;
+                keysSize += key.length;
+                previousKey = key;
+            }
+        }
+        long keysStart = RECORDS_START + (long) nStored * RECORD_SIZE;
+        if (keysStart + keysSize > Integer.MAX_VALUE) {
+            throw new IOException("Too many sequences to be packed, please use a smaller database.");
+        }
+
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(accessionsFile)));
+        try {
+            outputStream.writeInt(nStored);
+            int keyOffset = (int) keysStart;
+            for (Integer i : order) {
+                if (i != null) {
+                    outputStream.writeInt(keyOffset);
+                    outputStream.writeInt(keys[i].length);
+                    outputStream.writeInt(segments[i]);
+                    outputStream.writeInt(positions[i]);
+                    outputStream.writeInt(lengths[i]);
+                    keyOffset += keys[i].length;
+                }
+            }
+            for (Integer i : order) {
+                if (i != null) {
+                    outputStream.write(keys[i]);
+                }
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Compares two encoded accessions byte by byte, the bytes being unsigned.
+     *
+     * @param key1 the first accession
+     * @param key2 the second accession
+     *
+     * @return a negative number, zero or a positive number if the first
+     * accession is respectively before, equal to or after the second
+     */
+    private static int compareKeys(byte[] key1, byte[] key2) {
+        int length = Math.min(key1.length, key2.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (key1[i] & 0xff) - (key2[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return key1.length - key2.length;
+    }
+
+    /**
+     * Writes the index of the store. The index contains the key of the
+     * store and the size, modification date and checksum of the data files
+     * and of the accession index, followed by a checksum of its content.
+     *
+     * @param indexFile the file where to write the index
+     * @param storeKey the key of the store
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the index
+     */
+    private void writeIndex(File indexFile, String storeKey) throws IOException {
+        CheckedOutputStream checkedOutputStream = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)), new CRC32());
+        DataOutputStream outputStream = new DataOutputStream(checkedOutputStream);
+        try {
+            outputStream.writeInt(VERSION);
+            outputStream.writeUTF(storeKey);
+            outputStream.writeBoolean(reversedDecoys);
+            outputStream.writeInt(dataFiles.length);
+            for (File dataFile : dataFiles) {
+                writeFileDescription(outputStream, dataFile);
+            }
+            writeFileDescription(outputStream, accessionsFile);
+            outputStream.flush();
+            outputStream.writeLong(checkedOutputStream.getChecksum().getValue());
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Writes the name, size, modification date and checksum of a file.
+     *
+     * @param outputStream the stream where to write
+     * @param file the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file or writing the stream
+     */
+    private static void writeFileDescription(DataOutputStream outputStream, File file) throws IOException {
+        outputStream.writeUTF(file.getName());
+        outputStream.writeLong(file.length());
+        outputStream.writeLong(file.lastModified());
+        outputStream.writeLong(getChecksum(file));
+    }
+
+    /**
+     * Reads the description of a file written by writeFileDescription and
+     * returns the file if its size and modification date match the
+     * description and, if requested, its content matches the checksum.
+     *
+     * @param inputStream the stream where to read
+     * @param folder the folder of the file
+     * @param verifyContent boolean indicating whether the checksum of the
+     * content should be verified
+     *
+     * @return the file, null if it does not match the description
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the stream or the file
+     */
+    private static File readFileDescription(DataInputStream inputStream, File folder, boolean verifyContent) throws IOException {
+        File file = new File(folder, inputStream.readUTF());
+        long length = inputStream.readLong();
+        long lastModified = inputStream.readLong();
+        long checksum = inputStream.readLong();
+        if (file.length() != length || file.lastModified() != lastModified
+                || verifyContent && getChecksum(file) != checksum) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Returns the CRC32 checksum of the content of a file.
+     *
+     * @param file the file
+     *
+     * @return the checksum of the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static long getChecksum(File file) throws IOException {
+        CheckedInputStream inputStream = new CheckedInputStream(new FileInputStream(file), new CRC32());
+        try {
+            byte[] buffer = new byte[65536];
+            while (inputStream.read(buffer) != -1) {
+                // the checksum is updated while reading
+            }
+            return inputStream.getChecksum().getValue();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Loads the store saved in the given folder. The store is validated
+     * against its key, the size and modification date of its files and the
+     * checksum of its index, the content of the files being checked against
+     * their checksums only if requested. A shared lock is taken on the folder
+     * for as long as the store is in use. The index file of a valid store is
+     * touched to mark the store as recently used.
+     *
+     * @param fastaFile the FASTA file
+     * @param folder the folder of the store
+     * @param storeKey the key of the store
+     * @param verifyContent boolean indicating whether the content of the
+     * files should be verified against their checksums
+     *
+     * @return the store, null if not found, not valid or being deleted
+     */
+    private static PackedSequenceStore load(File fastaFile, File folder, String storeKey, boolean verifyContent) {
+
+        File indexFile = new File(folder, INDEX_FILE_NAME);
+        if (!indexFile.exists()) {
+            return null;
+        }
+
+        FileLock lock = null;
+        try {
+            lock = lockFolder(folder, true);
+            if (lock == null) {
+                return null;
+            }
+            CheckedInputStream checkedInputStream = new CheckedInputStream(new BufferedInputStream(new FileInputStream(indexFile)), new CRC32());
+            DataInputStream inputStream = new DataInputStream(checkedInputStream);
+            try {
+                if (inputStream.readInt() != VERSION || !inputStream.readUTF().equals(storeKey)) {
+                    return null;
+                }
+                boolean reversedDecoys = inputStream.readBoolean();
+                File[] dataFiles = new File[inputStream.readInt()];
+                for (int i = 0; i < dataFiles.length; i++) {
+                    dataFiles[i] = readFileDescription(inputStream, folder, verifyContent);
+                    if (dataFiles[i] == null) {
+                        return null;
+                    }
+                }
+                File accessionsFile = readFileDescription(inputStream, folder, verifyContent);
+                if (accessionsFile == null) {
+                    return null;
+                }
+                long checksum = checkedInputStream.getChecksum().getValue();
+                if (inputStream.readLong() != checksum) {
+                    return null;
+                }
+                PackedSequenceStore store = new PackedSequenceStore(fastaFile, dataFiles, accessionsFile, reversedDecoys);
+                store.folderLock = lock;
+                lock = null;
+                indexFile.setLastModified(System.currentTimeMillis());
+                return store;
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            // incomplete or corrupted store, the store is rebuilt
+            return null;
+        } finally {
+            if (lock != null) {
+                releaseLock(lock);
+            }
+        }
+    }
+
+    /**
+     * Tries to lock the lock file of the given folder.
+     *
+     * @param folder the folder
+     * @param shared boolean indicating whether the lock should be shared
+     *
+     * @return the lock, null if the folder is locked by another run
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the lock file
+     */
+    private static FileLock lockFolder(File folder, boolean shared) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(new File(folder, LOCK_FILE_NAME), "rw");
+        FileLock lock = null;
+        try {
+            lock = raf.getChannel().tryLock(0, Long.MAX_VALUE, shared);
+        } catch (OverlappingFileLockException e) {
+            // already locked by this process
+        } finally {
+            if (lock == null) {
+                raf.close();
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Releases a lock and closes its file.
+     *
+     * @param lock the lock
+     */
+    private static void releaseLock(FileLock lock) {
+        try {
+            lock.channel().close();
+        } catch (IOException e) {
+            // the lock is released when the process exits
+        }
+    }
+
+    /**
+     * Releases the lock of this store on its folder, if any.
+     */
+    private synchronized void releaseFolder() {
+        if (folderLock != null) {
+            releaseLock(folderLock);
+            folderLock = null;
+        }
+    }
+
+    /**
+     * Deletes the folder of a saved store unless it is used by another run.
+     * The index is deleted first, while the folder is locked, so that runs
+     * acquiring the lock afterwards do not load the store.
+     *
+     * @param folder the folder of the store
+     *
+     * @return a boolean indicating whether the store was deleted
+     */
+    private static boolean deleteStoreFolder(File folder) {
+        try {
+            FileLock lock = lockFolder(folder, false);
+            if (lock == null) {
+                return false;
+            }
+            try {
+                new File(folder, INDEX_FILE_NAME).delete();
+                File[] files = folder.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (!file.getName().equals(LOCK_FILE_NAME)) {
+                            file.delete();
+                        }
+                    }
+                }
+            } finally {
+                releaseLock(lock);
+            }
+            new File(folder, LOCK_FILE_NAME).delete();
+            folder.delete();
+            return !new File(folder, INDEX_FILE_NAME).exists();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Deletes a folder and the files it contains.
+     *
+     * @param folder the folder to delete
+     */
+    private static void deleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    /**
+     * Indicates whether the stores are saved for reuse across runs, i.e.,
+     * whether a folder was set.
+     *
+     * @return a boolean indicating whether the stores are saved
+     */
+    public static boolean isStoreFolderSet() {
+        return storeFolder != null;
+    }
+
+    /**
+     * Returns the folder where the stores are saved. Null if not set.
+     *
+     * @return the folder where the stores are saved
+     */
+    public static String getStoreFolder() {
+        return storeFolder;
+    }
+
+    /**
+     * Sets the folder where the stores are saved. Null disables the saving of
+     * the stores.
+     *
+     * @param newFolder the folder where the stores are saved
+     */
+    public static void setStoreFolder(String newFolder) {
+        storeFolder = newFolder;
+    }
+
+    /**
+     * Returns the maximal size in bytes of the stores saved in the store
+     * folder.
+     *
+     * @return the maximal size of the saved stores
+     */
+    public static long getMaxStoreFolderSize() {
+        return maxStoreFolderSize;
+    }
+
+    /**
+     * Sets the maximal size in bytes of the stores saved in the store folder.
+     * The least recently used stores are deleted when a new store is saved
+     * and the saved stores exceed this size.
+     *
+     * @param maxSize the maximal size of the saved stores
+     */
+    public static void setMaxStoreFolderSize(long maxSize) {
+        maxStoreFolderSize = maxSize;
+    }
+
+    /**
+     * Returns the store of the given FASTA file, null if no store was built
+     * for this file.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the store of the given FASTA file
+     */
+    public static PackedSequenceStore getSequenceStore(File fastaFile) {
+        PackedSequenceStore store = sequenceStore;
+        if (store == null || fastaFile == null || !store.fastaFile.equals(fastaFile)) {
+            return null;
+        }
+        return store;
+    }
+
+    /**
+     * Sets the store of the FASTA file currently used.
+     *
+     * @param sequenceStore the store of the FASTA file currently used
+     */
+    public static synchronized void setSequenceStore(PackedSequenceStore sequenceStore) {
+        if (PackedSequenceStore.sequenceStore != null && PackedSequenceStore.sequenceStore != sequenceStore) {
+            PackedSequenceStore.sequenceStore.releaseFolder();
+        }
+        PackedSequenceStore.sequenceStore = sequenceStore;
+    }
+
+    /**
+     * Clears the store of the FASTA file currently used and releases its
+     * lock. The temporary data files are deleted when the application exits.
+     */
+    public static synchronized void clear() {
+        if (sequenceStore != null) {
+            sequenceStore.releaseFolder();
+        }
+        sequenceStore = null;
+    }
+
+    /**
+     * Returns the FASTA file the store was built from.
+     *
+     * @return the FASTA file the store was built from
+     */
+    public File getFastaFile() {
+        return fastaFile;
+    }
+
+    /**
+     * Returns the files containing the packed sequences.
+     *
+     * @return the files containing the packed sequences
+     */
+    public File[] getDataFiles() {
+        return dataFiles;
+    }
+
+    /**
+     * Returns the accession index file.
+     *
+     * @return the accession index file
+     */
+    public File getAccessionsFile() {
+        return accessionsFile;
+    }
+
+    /**
+     * Returns the number of sequences stored. Decoy sequences generated on the
+     * fly are not included.
+     *
+     * @return the number of sequences stored
+     */
+    public int size() {
+        return nSequences;
+    }
+
+    /**
+     * Returns the index of the stored sequence of the given accession, -1 if
+     * not found. The accession is searched by binary search in the mapped
+     * accession index.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the index of the stored sequence
+     */
+    private int getIndex(String accession) {
+        byte[] key = accession.getBytes(ENCODING);
+        int low = 0;
+        int high = nSequences - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareKey(middle, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the accession of a stored sequence to an encoded accession
+     * byte by byte, the bytes being unsigned.
+     *
+     * @param index the index of the stored sequence
+     * @param key the encoded accession
+     *
+     * @return a negative number, zero or a positive number if the accession
+     * of the stored sequence is respectively before, equal to or after the
+     * given accession
+     */
+    private int compareKey(int index, byte[] key) {
+        int record = RECORDS_START + index * RECORD_SIZE;
+        int offset = accessionsBuffer.getInt(record);
+        int keyLength = accessionsBuffer.getInt(record + 4);
+        int length = Math.min(keyLength, key.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (accessionsBuffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return keyLength - key.length;
+    }
+
+    /**
+     * Returns the data file of a stored sequence.
+     *
+     * @param index the index of the sequence
+     *
+     * @return the data file of the sequence
+     */
+    private int getSegment(int index) {
+        return accessionsBuffer.getInt(RECORDS_START + index * RECORD_SIZE + 8);
+    }
+
+    /**
+     * Returns the position of a stored sequence in its data file.
+     *
+     * @param index the index of the sequence
+     *
+     * @return the position of the sequence
+     */
+    private int getPosition(int index) {
+        return accessionsBuffer.getInt(RECORDS_START + index * RECORD_SIZE + 12);
+    }
+
+    /**
+     * Returns the length of a stored sequence.
+     *
+     * @param index the index of the sequence
+     *
+     * @return the length of the sequence
+     */
+    private int getLength(int index) {
+        return accessionsBuffer.getInt(RECORDS_START + index * RECORD_SIZE + 16);
+    }
+
+    /**
+     * Returns the target accession of the given accession if the decoy
+     * sequence is generated on the fly, null otherwise. To be called for
+     * accessions not stored.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the target accession of a decoy generated on the fly
+     */
+    private String getReversedTarget(String accession) {
+        if (reversedDecoys && SequenceFactory.getInstance().isDecoyAccession(accession)) {
+            return SequenceFactory.getDefaultTargetAccession(accession);
+        }
+        return null;
+    }
+
+    /**
+     * Indicates whether the store contains the sequence of the given
+     * accession, including the decoy sequences generated on the fly.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return a boolean indicating whether the store contains the sequence
+     */
+    public boolean contains(String accession) {
+        if (getIndex(accession) != -1) {
+            return true;
+        }
+        String targetAccession = getReversedTarget(accession);
+        return targetAccession != null && getIndex(targetAccession) != -1;
+    }
+
+    /**
+     * Returns the length of the sequence of the given accession without
+     * reading the sequence, -1 if not found.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the length of the sequence
+     */
+    public int getLength(String accession) {
+        int index = getIndex(accession);
+        if (index == -1) {
+            String targetAccession = getReversedTarget(accession);
+            if (targetAccession != null) {
+                index = getIndex(targetAccession);
+            }
+        }
+        if (index == -1) {
+            return -1;
+        }
+        return getLength(index);
+    }
+
+    /**
+     * Returns the residue at the given position of the sequence of the given
+     * accession, read directly from the mapped file.
+     *
+     * @param accession the accession of the protein
+     * @param position the position on the sequence, 0 based
+     *
+     * @return the residue at the given position
+     */
+    public char getResidue(String accession, int position) {
+        int index = getIndex(accession);
+        if (index != -1) {
+            return getResidue(index, position);
+        }
+        String targetAccession = getReversedTarget(accession);
+        if (targetAccession != null) {
+            index = getIndex(targetAccession);
+            if (index != -1) {
+                return getResidue(index, getLength(index) - position - 1);
+            }
+        }
+        throw new IllegalArgumentException("Protein " + accession + " not found in the sequence store.");
+    }
+
+    /**
+     * Returns the residue at the given position of a stored sequence.
+     *
+     * @param index the index of the sequence
+     * @param position the position on the sequence, 0 based
+     *
+     * @return the residue at the given position
+     */
+    private char getResidue(int index, int position) {
+        if (position < 0 || position >= getLength(index)) {
+            throw new IndexOutOfBoundsException("Position " + position + " out of the sequence bounds.");
+        }
+        return (char) buffers[getSegment(index)].get(getPosition(index) + position);
+    }
+
+    /**
+     * Returns the sequence of the given accession, null if not found. Decoy
+     * sequences are reversed on the fly when needed.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the sequence of the protein
+     */
+    public String getSequence(String accession) {
+        int index = getIndex(accession);
+        if (index != -1) {
+            return getSequence(index, false);
+        }
+        String targetAccession = getReversedTarget(accession);
+        if (targetAccession != null) {
+            index = getIndex(targetAccession);
+            if (index != -1) {
+                return getSequence(index, true);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a stored sequence. The buffers are read using absolute
+     * positions so that the sequences can be read concurrently.
+     *
+     * @param index the index of the sequence
+     * @param reversed boolean indicating whether the sequence should be
+     * reversed
+     *
+     * @return the sequence
+     */
+    private String getSequence(int index, boolean reversed) {
+        MappedByteBuffer buffer = buffers[getSegment(index)];
+        int start = getPosition(index);
+        int length = getLength(index);
+        char[] residues = new char[length];
+        if (reversed) {
+            for (int i = 0; i < length; i++) {
+                residues[length - i - 1] = (char) buffer.get(start + i);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                residues[i] = (char) buffer.get(start + i);
+            }
+        }
+        return new String(residues);
+    }
+
+    /**
+     * Returns the protein of the given accession, null if not found.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the protein
+     */
+    public Protein getProtein(String accession) {
+        String sequence = getSequence(accession);
+        if (sequence == null) {
+            return null;
+        }
+        return new Protein(accession, sequence);
+    }
+
+    /**
+     * Runnable packing the sequences of the entries of a FASTA file starting
+     * in a chunk of the file. The last entry is read beyond the end of the
+     * chunk until the next entry.
+     */
+    private static class ChunkPacker implements Runnable {
+
+        /**
+         * The FASTA file.
+         */
+        private final File fastaFile;
+        /**
+         * The start of the chunk in bytes.
+         */
+        private final long start;
+        /**
+         * The end of the chunk in bytes, exclusive.
+         */
+        private final long end;
+        /**
+         * Boolean indicating whether the decoy entries should be skipped.
+         */
+        private final boolean skipDecoys;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The exception handler.
+         */
+        private final ExceptionHandler exceptionHandler;
+        /**
+         * The file where the sequences are packed.
+         */
+        private final File dataFile;
+        /**
+         * The accessions of the packed sequences.
+         */
+        private final ArrayList<String> accessions = new ArrayList<String>();
+        /**
+         * The position of every packed sequence in the data file.
+         */
+        private int[] positions = new int[128];
+        /**
+         * The length of every packed sequence.
+         */
+        private int[] lengths = new int[128];
+        /**
+         * The number of packed sequences.
+         */
+        private int size = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param fastaFile the FASTA file
+         * @param dataFile the file where the sequences are packed
+         * @param start the start of the chunk in bytes
+         * @param end the end of the chunk in bytes, exclusive
+         * @param skipDecoys boolean indicating whether the decoy entries
+         * should be skipped
+         * @param waitingHandler the waiting handler
+         * @param exceptionHandler the exception handler
+         */
+        private ChunkPacker(File fastaFile, File dataFile, long start, long end, boolean skipDecoys, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler) {
+            this.fastaFile = fastaFile;
+            this.dataFile = dataFile;
+            this.start = start;
+            this.end = end;
+            this.skipDecoys = skipDecoys;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                pack();
+                waitingHandler.increaseSecondaryProgressCounter();
+            } catch (Exception e) {
+                if (!waitingHandler.isRunCanceled()) {
+                    exceptionHandler.catchException(e);
+                    waitingHandler.setRunCanceled();
+                }
+            }
+        }
+
+        /**
+         * Packs the sequences of the entries starting in the chunk.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the FASTA file or writing the data file
+         */
+        private void pack() throws IOException {
+
+            SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+            BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(fastaFile));
+            BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(dataFile));
+
+            try {
+                // start from the previous byte to know whether the chunk starts at the beginning of a line
+                long position = Math.max(start - 1, 0);
+                long toSkip = position;
+                while (toSkip > 0) {
+                    long skipped = inputStream.skip(toSkip);
+                    if (skipped <= 0) {
+                        throw new IOException("Impossible to reach position " + position + " in " + fastaFile.getName() + ".");
+                    }
+                    toSkip -= skipped;
+                }
+
+                boolean lineStart = start == 0;
+                boolean inEntry = false;
+                boolean inHeader = false;
+                boolean storeEntry = false;
+                StringBuilder header = new StringBuilder();
+                int dataPosition = 0;
+                int sequenceLength = 0;
+                int b;
+
+                while ((b = inputStream.read()) != -1) {
+
+                    if (position >= start) {
+
+                        if (b == '>' && lineStart) {
+
+                            if (storeEntry) {
+                                addSequence(dataPosition - sequenceLength, sequenceLength);
+                            }
+                            if (position >= end) {
+                                break;
+                            }
+                            if (waitingHandler.isRunCanceled()) {
+                                return;
+                            }
+                            inEntry = true;
+                            inHeader = true;
+                            storeEntry = false;
+                            header.setLength(0);
+                            header.append('>');
+                            sequenceLength = 0;
+
+                        } else if (inHeader) {
+
+                            if (b == '\n') {
+                                inHeader = false;
+                                String accession = Header.parseFromFASTA(header.toString().trim()).getAccessionOrRest();
+                                storeEntry = !skipDecoys || !sequenceFactory.isDecoyAccession(accession);
+                                if (storeEntry) {
+                                    accessions.add(accession);
+                                }
+                            } else {
+                                header.append((char) b);
+                            }
+
+                        } else if (inEntry && storeEntry && b > ' ') {
+
+                            outputStream.write(b);
+                            dataPosition++;
+                            sequenceLength++;
+                        }
+                    }
+
+                    lineStart = b == '\n';
+                    position++;
+                }
+
+                if (storeEntry && accessions.size() > size) {
+                    addSequence(dataPosition - sequenceLength, sequenceLength);
+                }
+
+            } finally {
+                inputStream.close();
+                outputStream.close();
+            }
+        }
+
+        /**
+         * Adds the position and length of the last sequence packed.
+         *
+         * @param position the position of the sequence in the data file
+         * @param length the length of the sequence
+         */
+        private void addSequence(int position, int length) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, 2 * size);
+                lengths = Arrays.copyOf(lengths, 2 * size);
+            }
+            positions[size] = position;
+            lengths[size] = length;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,1117 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Container used to save the content of the project folder in a cpsx file.
+ * The files are stored one after the other and indexed at the end of the
+ * container with their position, so that they can be written and extracted in
+ * parallel, every file being optionally compressed separately. Projects can
+ * still be saved as tar files readable by older versions via
+ * setTarMode(true), as selected in the user preferences of the GUI or via the
+ * output_tar option of the command line.
+ *
+ * When saving to an existing container, the files which did not change since
+ * they were extracted are kept in place and only the files modified are
+ * appended, followed by a new index. A file is considered unchanged when its
+ * size and CRC32 match the index. The header points to the last complete
+ * index and is updated only once the new index is written, so that an
+ * interrupted save leaves the previous save readable. The regions of the
+ * replaced files are reclaimed by writing the whole container again, in a
+ * temporary file replacing the container when complete, when they take more
+ * space than the data in use.
+ *
+ * @author Marc Vaudel
+ */
+public class ProjectArchive {
+
+    /**
+     * The tag written at the beginning of the containers.
+     */
+    public static final String MAGIC = "PeptideShakerProjectArchive";
+    /**
+     * The version of the container format. Version 2 stores the size and
+     * modification date of the files in the index. Version 3 stores the
+     * CRC32 of the files and the position of the index in the header.
+     */
+    public static final int VERSION = 3;
+    /**
+     * The size of the header of the containers in bytes: the tag, the
+     * version and the position of the index.
+     */
+    private static final long HEADER_SIZE = 2 + MAGIC.length() + 4 + 8;
+    /**
+     * The position of the index position in the header.
+     */
+    private static final long INDEX_POINTER_POSITION = HEADER_SIZE - 8;
+    /**
+     * Boolean indicating whether the projects should be saved as tar files
+     * instead of containers.
+     */
+    private static boolean tarMode = false;
+    /**
+     * Boolean indicating whether the files should be compressed.
+     */
+    private static boolean compression = false;
+    /**
+     * The number of threads used to write and extract the files.
+     */
+    private static int nThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * Boolean indicating whether only the files modified should be written
+     * when saving to an existing container.
+     */
+    private static boolean incrementalSaving = true;
+
+    /**
+     * Indicates whether the projects should be saved as tar files instead of
+     * containers.
+     *
+     * @return a boolean indicating whether the projects should be saved as tar
+     * files
+     */
+    public static boolean isTarMode() {
+        return tarMode;
+    }
+
+    /**
+     * Sets whether the projects should be saved as tar files instead of
+     * containers.
+     *
+     * @param newTarMode a boolean indicating whether the projects should be
+     * saved as tar files
+     */
+    public static void setTarMode(boolean newTarMode) {
+        tarMode = newTarMode;
+    }
+
+    /**
+     * Indicates whether the files are compressed in the containers.
+     *
+     * @return a boolean indicating whether the files are compressed
+     */
+    public static boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets whether the files should be compressed in the containers.
+     *
+     * @param newCompression a boolean indicating whether the files should be
+     * compressed
+     */
+    public static void setCompression(boolean newCompression) {
+        compression = newCompression;
+    }
+
+    /**
+     * Returns the number of threads used to write and extract the files.
+     *
+     * @return the number of threads used to write and extract the files
+     */
+    public static int getnThreads() {
+        return nThreads;
+    }
+
+    /**
+     * Sets the number of threads used to write and extract the files.
+     *
+     * @param newNThreads the number of threads used to write and extract the
+     * files
+     */
+    public static void setnThreads(int newNThreads) {
+        nThreads = newNThreads;
+    }
+
+    /**
+     * Indicates whether only the files modified are written when saving to an
+     * existing container.
+     *
+     * @return a boolean indicating whether only the files modified are
+     * written when saving to an existing container
+     */
+    public static boolean isIncrementalSaving() {
+        return incrementalSaving;
+    }
+
+    /**
+     * Sets whether only the files modified should be written when saving to an
+     * existing container.
+     *
+     * @param newIncrementalSaving a boolean indicating whether only the files
+     * modified should be written when saving to an existing container
+     */
+    public static void setIncrementalSaving(boolean newIncrementalSaving) {
+        incrementalSaving = newIncrementalSaving;
+    }
+
+    /**
+     * Indicates whether the given file is a container.
+     *
+     * @param file the file
+     *
+     * @return a boolean indicating whether the given file is a container
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public static boolean isProjectArchive(File file) throws IOException {
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int length = inputStream.readUnsignedShort();
+            if (length != MAGIC.length()) {
+                return false;
+            }
+            byte[] tag = new byte[length];
+            inputStream.readFully(tag);
+            return MAGIC.equals(new String(tag, "UTF-8"));
+        } catch (IOException e) {
+            return false;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Saves the content of a folder in a container. The files are written in
+     * parallel. If the destination is a container and incremental saving is
+     * enabled, only the files modified since they were extracted are written.
+     *
+     * @param folder the folder to save
+     * @param destinationFile the container file
+     * @param exceptions the absolute paths of the files to exclude
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while writing the files
+     */
+    public static void archiveFolderContent(File folder, File destinationFile, HashSet<String> exceptions, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException {
+
+        ArrayList<File> files = new ArrayList<File>();
+        ArrayList<String> names = new ArrayList<String>();
+        listFiles(folder, "", exceptions, files, names);
+
+        HashMap<String, ArchiveEntry> previousEntries = null;
+        if (incrementalSaving && destinationFile.exists() && isProjectArchive(destinationFile)) {
+            previousEntries = getPreviousEntries(destinationFile);
+        }
+
+        if (previousEntries != null) {
+
+            // files of the same size might have been modified in place, compare their checksums
+            ArrayList<Integer> candidates = new ArrayList<Integer>();
+            for (int i = 0; i < files.size(); i++) {
+                ArchiveEntry entry = previousEntries.get(names.get(i));
+                if (entry != null && entry.size == files.get(i).length()) {
+                    candidates.add(i);
+                }
+            }
+            long[] checksums = getChecksums(files, candidates, waitingHandler);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            ArrayList<ArchiveEntry> unchangedEntries = new ArrayList<ArchiveEntry>();
+            ArrayList<Integer> modifiedFiles = new ArrayList<Integer>();
+            long unchangedSize = 0, modifiedSize = 0;
+            for (int i = 0; i < files.size(); i++) {
+                ArchiveEntry entry = previousEntries.get(names.get(i));
+                if (entry != null && checksums[i] != -1 && entry.checksum == checksums[i]) {
+                    unchangedEntries.add(entry);
+                    unchangedSize += entry.storedSize;
+                } else {
+                    modifiedFiles.add(i);
+                    modifiedSize += files.get(i).length();
+                }
+            }
+
+            // write the whole container again if the regions not in use would take more space than the data
+            long unusedSize = destinationFile.length() - unchangedSize;
+            if (unusedSize <= unchangedSize + modifiedSize) {
+                appendFiles(files, names, modifiedFiles, unchangedEntries, destinationFile, waitingHandler);
+                return;
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(files.size());
+        }
+
+        // write in a temporary file so that the previous save is kept until the new one is complete
+        File tempFile = new File(destinationFile.getParentFile(), destinationFile.getName() + ".tmp");
+        boolean completed = false;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+            try {
+                raf.setLength(0);
+                raf.writeUTF(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeLong(-1);
+                FileChannel channel = raf.getChannel();
+                ArchiveWriter archiveWriter = new ArchiveWriter(channel, HEADER_SIZE, destinationFile.getParentFile());
+
+                ArrayList<Integer> indexes = new ArrayList<Integer>(files.size());
+                for (int i = 0; i < files.size(); i++) {
+                    indexes.add(i);
+                }
+                writeFiles(archiveWriter, files, names, indexes, waitingHandler);
+
+                archiveWriter.checkError();
+
+                if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                    archiveWriter.writeIndex();
+                    completed = true;
+                }
+            } finally {
+                raf.close();
+            }
+            if (completed && !tempFile.renameTo(destinationFile)) {
+                if (!destinationFile.delete() || !tempFile.renameTo(destinationFile)) {
+                    completed = false;
+                    throw new IOException("Impossible to replace " + destinationFile.getAbsolutePath() + ".");
+                }
+            }
+        } finally {
+            if (!completed) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Appends the given files to an existing container followed by a new
+     * index referencing the files kept in place. The header is pointed to the
+     * new index only once all data is written, the previous index being left
+     * untouched before. The container is restored in its previous state if
+     * an error occurs or if the process is canceled.
+     *
+     * @param files the files of the folder
+     * @param names the names of the files relative to the root folder
+     * @param indexes the indexes of the files to append
+     * @param unchangedEntries the entries of the container to keep
+     * @param destinationFile the container file
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while writing the files
+     */
+    private static void appendFiles(ArrayList<File> files, ArrayList<String> names, ArrayList<Integer> indexes, ArrayList<ArchiveEntry> unchangedEntries,
+            File destinationFile, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(indexes.size());
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(destinationFile, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long previousLength = channel.size();
+            ArchiveWriter archiveWriter = new ArchiveWriter(channel, previousLength, destinationFile.getParentFile());
+            for (ArchiveEntry entry : unchangedEntries) {
+                archiveWriter.addEntry(entry);
+            }
+
+            boolean completed = false;
+            try {
+                writeFiles(archiveWriter, files, names, indexes, waitingHandler);
+                archiveWriter.checkError();
+                if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                    archiveWriter.writeIndex();
+                    completed = true;
+                }
+            } finally {
+                if (!completed) {
+                    // the header still points to the index of the previous save
+                    channel.truncate(previousLength);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes files in a container in parallel.
+     *
+     * @param archiveWriter the writer of the container
+     * @param files the files of the folder
+     * @param names the names of the files relative to the root folder
+     * @param indexes the indexes of the files to write
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while writing the files
+     */
+    private static void writeFiles(ArchiveWriter archiveWriter, ArrayList<File> files, ArrayList<String> names, ArrayList<Integer> indexes,
+            WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        BoundedExecutor executor = new BoundedExecutor(nThreads);
+        try {
+            for (int i : indexes) {
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    break;
+                }
+                executor.submit(archiveWriter.getEntryWriter(files.get(i), names.get(i), compression, waitingHandler));
+            }
+            if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+                throw new IOException("Project saving timed out. Please contact the developers.");
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Computes the CRC32 of the given files in parallel.
+     *
+     * @param files the files of the folder
+     * @param indexes the indexes of the files to process
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null
+     *
+     * @return the checksums of the files by index, -1 for the files not
+     * processed or which could not be read
+     *
+     * @throws IOException exception thrown whenever the computation timed out
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while reading the files
+     */
+    private static long[] getChecksums(final ArrayList<File> files, ArrayList<Integer> indexes, final WaitingHandler waitingHandler)
+            throws IOException, InterruptedException {
+
+        final long[] checksums = new long[files.size()];
+        Arrays.fill(checksums, -1);
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(indexes.size());
+        }
+
+        BoundedExecutor executor = new BoundedExecutor(nThreads);
+        try {
+            for (final int i : indexes) {
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    break;
+                }
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            checksums[i] = getChecksum(files.get(i));
+                        } catch (IOException e) {
+                            // considered as modified, errors are reported when writing the file
+                        }
+                        if (waitingHandler != null) {
+                            waitingHandler.increaseSecondaryProgressCounter();
+                        }
+                    }
+                });
+            }
+            if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+                throw new IOException("Project saving timed out. Please contact the developers.");
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return checksums;
+    }
+
+    /**
+     * Returns the CRC32 of a file.
+     *
+     * @param file the file
+     *
+     * @return the CRC32 of the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static long getChecksum(File file) throws IOException {
+        CRC32 crc32 = new CRC32();
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[65536];
+            int nRead;
+            while ((nRead = inputStream.read(buffer)) != -1) {
+                crc32.update(buffer, 0, nRead);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * Returns the entries of an existing container indexed by name, null if
+     * the container was saved with another version of the format or cannot be
+     * read, in which case it is written again entirely.
+     *
+     * @param archiveFile the container file
+     *
+     * @return the entries of the container indexed by name
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    private static HashMap<String, ArchiveEntry> getPreviousEntries(File archiveFile) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(archiveFile, "r");
+        try {
+            raf.readUTF();
+            int version = raf.readInt();
+            if (version != VERSION) {
+                return null;
+            }
+            ArrayList<ArchiveEntry> entries = readIndex(raf, version);
+            HashMap<String, ArchiveEntry> result = new HashMap<String, ArchiveEntry>(entries.size());
+            for (ArchiveEntry entry : entries) {
+                result.put(entry.name, entry);
+            }
+            return result;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Lists the files of a folder recursively.
+     *
+     * @param folder the folder
+     * @param prefix the prefix of the names of the files of the folder
+     * @param exceptions the absolute paths of the files to exclude
+     * @param files the list where to add the files
+     * @param names the list where to add the names of the files relative to
+     * the root folder
+     */
+    private static void listFiles(File folder, String prefix, HashSet<String> exceptions, ArrayList<File> files, ArrayList<String> names) {
+        for (File file : folder.listFiles()) {
+            if (file.isDirectory()) {
+                listFiles(file, prefix + file.getName() + "/", exceptions, files, names);
+            } else if (!exceptions.contains(file.getAbsolutePath())) {
+                files.add(file);
+                names.add(prefix + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Extracts the files of a container in the given folder. The files are
+     * extracted in parallel.
+     *
+     * @param archiveFile the container file
+     * @param destinationFolder the folder where to extract the files
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while extracting the files
+     */
+    public static void extract(File archiveFile, File destinationFolder, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        RandomAccessFile raf = new RandomAccessFile(archiveFile, "r");
+        try {
+            if (!raf.readUTF().equals(MAGIC)) {
+                throw new IOException(archiveFile.getName() + " is not a PeptideShaker project archive.");
+            }
+            int version = raf.readInt();
+            if (version > VERSION) {
+                throw new IOException(archiveFile.getName() + " was saved with a more recent version of PeptideShaker. Please update PeptideShaker.");
+            }
+            FileChannel channel = raf.getChannel();
+            ArrayList<ArchiveEntry> entries = readIndex(raf, version);
+
+            if (waitingHandler != null) {
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                waitingHandler.setMaxSecondaryProgressCounter(entries.size());
+            }
+
+            EntryExtractor[] extractors = new EntryExtractor[entries.size()];
+            BoundedExecutor executor = new BoundedExecutor(nThreads);
+            try {
+                for (int i = 0; i < entries.size(); i++) {
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                    extractors[i] = new EntryExtractor(channel, entries.get(i), destinationFolder, waitingHandler);
+                    executor.submit(extractors[i]);
+                }
+                if (!executor.waitForTasks(1, TimeUnit.DAYS)) {
+                    throw new IOException("Project extraction timed out. Please contact the developers.");
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            for (EntryExtractor extractor : extractors) {
+                if (extractor != null && extractor.error != null) {
+                    throw extractor.error;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads the index of a container. From version 3 the position of the
+     * index is read from the header and the index is checked against its
+     * CRC32, before the position is read from the end of the container.
+     *
+     * @param raf the container file positioned after the version
+     * @param version the version of the container format
+     *
+     * @return the entries of the container
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static ArrayList<ArchiveEntry> readIndex(RandomAccessFile raf, int version) throws IOException {
+
+        FileChannel channel = raf.getChannel();
+        DataInputStream inputStream;
+
+        if (version >= 3) {
+            long indexPosition = raf.readLong();
+            if (indexPosition < HEADER_SIZE || indexPosition > channel.size() - 8) {
+                throw new IOException("Incomplete project archive.");
+            }
+            raf.seek(indexPosition);
+            int indexLength = raf.readInt();
+            if (indexLength < 0 || indexPosition + 8 + indexLength > channel.size()) {
+                throw new IOException("Incomplete project archive.");
+            }
+            byte[] index = new byte[indexLength];
+            raf.readFully(index);
+            CRC32 crc32 = new CRC32();
+            crc32.update(index);
+            if (raf.readInt() != (int) crc32.getValue()) {
+                throw new IOException("Corrupted project archive index.");
+            }
+            inputStream = new DataInputStream(new ByteArrayInputStream(index));
+        } else {
+            ByteBuffer trailer = ByteBuffer.allocate(8);
+            long trailerPosition = channel.size() - 8;
+            while (trailer.hasRemaining()) {
+                if (channel.read(trailer, trailerPosition + trailer.position()) == -1) {
+                    throw new IOException("Incomplete project archive.");
+                }
+            }
+            trailer.flip();
+            long indexPosition = trailer.getLong();
+            if (indexPosition < 0 || indexPosition > trailerPosition) {
+                throw new IOException("Incomplete project archive.");
+            }
+            inputStream = new DataInputStream(new BufferedInputStream(new RangeInputStream(channel, indexPosition, trailerPosition - indexPosition)));
+        }
+
+        int nEntries = inputStream.readInt();
+        ArrayList<ArchiveEntry> entries = new ArrayList<ArchiveEntry>(nEntries);
+        for (int i = 0; i < nEntries; i++) {
+            String name = inputStream.readUTF();
+            long position = inputStream.readLong();
+            long storedSize = inputStream.readLong();
+            boolean compressed = inputStream.readBoolean();
+            long size = -1, lastModified = -1, checksum = -1;
+            if (version >= 2) {
+                size = inputStream.readLong();
+                lastModified = inputStream.readLong();
+            }
+            if (version >= 3) {
+                checksum = inputStream.readInt() & 0xffffffffL;
+            }
+            entries.add(new ArchiveEntry(name, position, storedSize, compressed, size, lastModified, checksum));
+        }
+        return entries;
+    }
+
+    /**
+     * A file stored in a container.
+     */
+    private static class ArchiveEntry {
+
+        /**
+         * The name of the file relative to the root folder.
+         */
+        private final String name;
+        /**
+         * The position of the file in the container.
+         */
+        private final long position;
+        /**
+         * The size of the file in the container.
+         */
+        private final long storedSize;
+        /**
+         * Boolean indicating whether the file is compressed.
+         */
+        private final boolean compressed;
+        /**
+         * The size of the file, -1 if not known.
+         */
+        private final long size;
+        /**
+         * The modification date of the file when saved, -1 if not known.
+         */
+        private final long lastModified;
+        /**
+         * The CRC32 of the file, -1 if not known.
+         */
+        private final long checksum;
+
+        /**
+         * Constructor.
+         *
+         * @param name the name of the file relative to the root folder
+         * @param position the position of the file in the container
+         * @param storedSize the size of the file in the container
+         * @param compressed boolean indicating whether the file is compressed
+         * @param size the size of the file, -1 if not known
+         * @param lastModified the modification date of the file when saved, -1
+         * if not known
+         * @param checksum the CRC32 of the file, -1 if not known
+         */
+        private ArchiveEntry(String name, long position, long storedSize, boolean compressed, long size, long lastModified, long checksum) {
+            this.name = name;
+            this.position = position;
+            this.storedSize = storedSize;
+            this.compressed = compressed;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * Writes files in a container. Every file is given a region of the
+     * container where it is written independently of the other files.
+     */
+    private static class ArchiveWriter {
+
+        /**
+         * The channel of the container file.
+         */
+        private final FileChannel channel;
+        /**
+         * The end of the data written so far.
+         */
+        private long end;
+        /**
+         * The folder where to write the temporary compressed files.
+         */
+        private final File tempFolder;
+        /**
+         * The entries written.
+         */
+        private final ArrayList<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
+        /**
+         * The first error encountered while writing the files, null if none.
+         */
+        private IOException error = null;
+
+        /**
+         * Constructor.
+         *
+         * @param channel the channel of the container file
+         * @param start the position where to start writing the files
+         * @param tempFolder the folder where to write the temporary compressed
+         * files
+         */
+        private ArchiveWriter(FileChannel channel, long start, File tempFolder) {
+            this.channel = channel;
+            this.end = start;
+            this.tempFolder = tempFolder;
+        }
+
+        /**
+         * Reserves a region of the container for a file.
+         *
+         * @param storedSize the size of the file in the container
+         *
+         * @return the position of the region
+         */
+        private synchronized long reserve(long storedSize) {
+            long position = end;
+            end += storedSize;
+            return position;
+        }
+
+        /**
+         * Adds an entry to the index.
+         *
+         * @param entry the entry
+         */
+        private synchronized void addEntry(ArchiveEntry entry) {
+            entries.add(entry);
+        }
+
+        /**
+         * Writes the content of a file in the container at the given
+         * position.
+         *
+         * @param file the file
+         * @param position the position in the container
+         * @param crc32 the checksum to update with the content of the file,
+         * can be null
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading or writing a file
+         */
+        private void transfer(File file, long position, CRC32 crc32) throws IOException {
+            FileInputStream inputStream = new FileInputStream(file);
+            try {
+                FileChannel inputChannel = inputStream.getChannel();
+                long size = inputChannel.size();
+                ByteBuffer buffer = ByteBuffer.allocate(65536);
+                long written = 0;
+                while (written < size) {
+                    buffer.clear();
+                    if (size - written < buffer.capacity()) {
+                        buffer.limit((int) (size - written));
+                    }
+                    if (inputChannel.read(buffer) == -1) {
+                        throw new IOException("File " + file.getAbsolutePath() + " was modified while saving.");
+                    }
+                    buffer.flip();
+                    if (crc32 != null) {
+                        crc32.update(buffer.array(), 0, buffer.limit());
+                    }
+                    // absolute writes, the regions beyond the current end of the container are written by other threads
+                    while (buffer.hasRemaining()) {
+                        written += channel.write(buffer, position + written);
+                    }
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        /**
+         * Returns a runnable writing a file in the container.
+         *
+         * @param file the file
+         * @param name the name of the file relative to the root folder
+         * @param compress boolean indicating whether the file should be
+         * compressed
+         * @param waitingHandler the waiting handler, can be null
+         *
+         * @return a runnable writing the file in the container
+         */
+        private Runnable getEntryWriter(final File file, final String name, final boolean compress, final WaitingHandler waitingHandler) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long size = file.length();
+                        long lastModified = file.lastModified();
+                        CRC32 crc32 = new CRC32();
+                        if (compress) {
+                            File tempFile = File.createTempFile("peptide-shaker_archive", ".gz", tempFolder);
+                            try {
+                                InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+                                OutputStream outputStream = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                                try {
+                                    byte[] buffer = new byte[65536];
+                                    int nRead;
+                                    while ((nRead = inputStream.read(buffer)) != -1) {
+                                        crc32.update(buffer, 0, nRead);
+                                        outputStream.write(buffer, 0, nRead);
+                                    }
+                                } finally {
+                                    inputStream.close();
+                                    outputStream.close();
+                                }
+                                long storedSize = tempFile.length();
+                                long position = reserve(storedSize);
+                                transfer(tempFile, position, null);
+                                addEntry(new ArchiveEntry(name, position, storedSize, true, size, lastModified, crc32.getValue()));
+                            } finally {
+                                tempFile.delete();
+                            }
+                        } else {
+                            long position = reserve(size);
+                            transfer(file, position, crc32);
+                            addEntry(new ArchiveEntry(name, position, size, false, size, lastModified, crc32.getValue()));
+                        }
+                        if (waitingHandler != null) {
+                            waitingHandler.increaseSecondaryProgressCounter();
+                        }
+                    } catch (IOException e) {
+                        setError(e);
+                        if (waitingHandler != null) {
+                            waitingHandler.setRunCanceled();
+                        }
+                    }
+                }
+            };
+        }
+
+        /**
+         * Sets the error encountered while writing a file, only the first
+         * error is kept.
+         *
+         * @param e the error
+         */
+        private synchronized void setError(IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+
+        /**
+         * Throws the first error encountered while writing the files, if any.
+         *
+         * @throws IOException the first error encountered while writing the
+         * files
+         */
+        private synchronized void checkError() throws IOException {
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        /**
+         * Writes the index of the entries after the files, preceded by its
+         * length and followed by its CRC32, and points the header to the
+         * index once the files and the index are on disk.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        private synchronized void writeIndex() throws IOException {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+            outputStream.writeInt(entries.size());
+            for (ArchiveEntry entry : entries) {
+                outputStream.writeUTF(entry.name);
+                outputStream.writeLong(entry.position);
+                outputStream.writeLong(entry.storedSize);
+                outputStream.writeBoolean(entry.compressed);
+                outputStream.writeLong(entry.size);
+                outputStream.writeLong(entry.lastModified);
+                outputStream.writeInt((int) entry.checksum);
+            }
+            outputStream.close();
+            byte[] index = byteArrayOutputStream.toByteArray();
+            CRC32 crc32 = new CRC32();
+            crc32.update(index);
+            ByteBuffer buffer = ByteBuffer.allocate(index.length + 8);
+            buffer.putInt(index.length);
+            buffer.put(index);
+            buffer.putInt((int) crc32.getValue());
+            buffer.flip();
+            long position = end;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.truncate(position);
+            channel.force(false);
+
+            ByteBuffer pointer = ByteBuffer.allocate(8);
+            pointer.putLong(end);
+            pointer.flip();
+            while (pointer.hasRemaining()) {
+                channel.write(pointer, INDEX_POINTER_POSITION + pointer.position());
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Runnable extracting a file from a container.
+     */
+    private static class EntryExtractor implements Runnable {
+
+        /**
+         * The channel of the container file.
+         */
+        private final FileChannel channel;
+        /**
+         * The entry to extract.
+         */
+        private final ArchiveEntry entry;
+        /**
+         * The folder where to extract the file.
+         */
+        private final File destinationFolder;
+        /**
+         * The waiting handler, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The error encountered while extracting the file, null if none.
+         */
+        private IOException error = null;
+
+        /**
+         * Constructor.
+         *
+         * @param channel the channel of the container file
+         * @param entry the entry to extract
+         * @param destinationFolder the folder where to extract the file
+         * @param waitingHandler the waiting handler, can be null
+         */
+        private EntryExtractor(FileChannel channel, ArchiveEntry entry, File destinationFolder, WaitingHandler waitingHandler) {
+            this.channel = channel;
+            this.entry = entry;
+            this.destinationFolder = destinationFolder;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                File destinationFile = new File(destinationFolder, entry.name.replace('/', File.separatorChar));
+                if (!destinationFile.getCanonicalPath().startsWith(destinationFolder.getCanonicalPath() + File.separator)) {
+                    throw new IOException("Entry " + entry.name + " is outside of the destination folder.");
+                }
+                File parentFolder = destinationFile.getParentFile();
+                if (!parentFolder.exists() && !parentFolder.mkdirs() && !parentFolder.exists()) {
+                    throw new IOException("Impossible to create folder " + parentFolder.getAbsolutePath() + ".");
+                }
+                FileOutputStream outputStream = new FileOutputStream(destinationFile);
+                try {
+                    if (entry.compressed) {
+                        InputStream inputStream = new GZIPInputStream(new BufferedInputStream(new RangeInputStream(channel, entry.position, entry.storedSize)));
+                        try {
+                            OutputStream bufferedOutputStream = new BufferedOutputStream(outputStream);
+                            byte[] buffer = new byte[65536];
+                            int nRead;
+                            while ((nRead = inputStream.read(buffer)) != -1) {
+                                bufferedOutputStream.write(buffer, 0, nRead);
+                            }
+                            bufferedOutputStream.flush();
+                        } finally {
+                            inputStream.close();
+                        }
+                    } else {
+                        FileChannel outputChannel = outputStream.getChannel();
+                        long transferred = 0;
+                        while (transferred < entry.storedSize) {
+                            long nTransferred = channel.transferTo(entry.position + transferred, entry.storedSize - transferred, outputChannel);
+                            if (nTransferred <= 0) {
+                                throw new IOException("Incomplete project archive.");
+                            }
+                            transferred += nTransferred;
+                        }
+                    }
+                } finally {
+                    outputStream.close();
+                }
+
+                // keep the modification date so that unchanged files are not written again when saving
+                if (entry.lastModified >= 0) {
+                    destinationFile.setLastModified(entry.lastModified);
+                }
+
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            } catch (IOException e) {
+                error = e;
+                if (waitingHandler != null) {
+                    waitingHandler.setRunCanceled();
+                }
+            }
+        }
+    }
+
+    /**
+     * Input stream reading a region of a file channel using absolute
+     * positions, so that several regions can be read concurrently.
+     */
+    private static class RangeInputStream extends InputStream {
+
+        /**
+         * The channel to read from.
+         */
+        private final FileChannel channel;
+        /**
+         * The current position.
+         */
+        private long position;
+        /**
+         * The end of the region, exclusive.
+         */
+        private final long end;
+
+        /**
+         * Constructor.
+         *
+         * @param channel the channel to read from
+         * @param start the start of the region
+         * @param length the length of the region
+         */
+        private RangeInputStream(FileChannel channel, long start, long length) {
+            this.channel = channel;
+            this.position = start;
+            this.end = start + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int nRead = read(b, 0, 1);
+            if (nRead == -1) {
+                return -1;
+            }
+            return b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int toRead = (int) Math.min(len, end - position);
+            int nRead = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+            if (nRead > 0) {
+                position += nRead;
+            }
+            return nRead;
+        }
+    }
+}
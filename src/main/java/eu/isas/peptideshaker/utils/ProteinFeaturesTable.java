@@ -0,0 +1,364 @@
+package eu.isas.peptideshaker.utils;
+
+import eu.isas.peptideshaker.utils.IdentificationFeaturesCache.ObjectType;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+
+/**
+ * Table of the scalar features of the protein matches of a project. The
+ * features are computed once after the processing of the identifications and
+ * stored in primitive arrays indexed by row, the row of a protein match being
+ * retrieved from its key. The table is saved in the project together with the
+ * identification features cache.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinFeaturesTable implements Serializable {
+
+    /**
+     * Serial number for backward compatibility.
+     */
+    static final long serialVersionUID = 4139276612907536721L;
+    /**
+     * The row of every protein match indexed by key.
+     */
+    private final HashMap<String, Integer> rows;
+    /**
+     * The key of the protein match of every row.
+     */
+    private final String[] proteinKeys;
+    /**
+     * The accession of the main protein of every protein match.
+     */
+    private final String[] mainMatches;
+    /**
+     * The number of peptides of every protein match.
+     */
+    private final int[] nPeptides;
+    /**
+     * The number of spectra of every protein match.
+     */
+    private final int[] nSpectra;
+    /**
+     * The number of validated peptides of every protein match.
+     */
+    private final int[] nValidatedPeptides;
+    /**
+     * The number of confident peptides of every protein match.
+     */
+    private final int[] nConfidentPeptides;
+    /**
+     * The number of validated spectra of every protein match.
+     */
+    private final int[] nValidatedSpectra;
+    /**
+     * The number of confident spectra of every protein match.
+     */
+    private final int[] nConfidentSpectra;
+    /**
+     * The sequence coverage of every protein match using validated peptides.
+     */
+    private final double[] validatedSequenceCoverage;
+    /**
+     * The spectrum counting index of every protein match.
+     */
+    private final double[] spectrumCounting;
+    /**
+     * The molecular weight of the main protein of every protein match.
+     */
+    private final double[] molecularWeight;
+    /**
+     * The protein inference class of every protein match.
+     */
+    private final int[] proteinInferenceClass;
+    /**
+     * The features which were cleared and need to be computed anew.
+     */
+    private final EnumSet<ObjectType> clearedFeatures = EnumSet.noneOf(ObjectType.class);
+
+    /**
+     * Constructor.
+     *
+     * @param proteinKeys the keys of the protein matches
+     */
+    public ProteinFeaturesTable(ArrayList<String> proteinKeys) {
+        int nRows = proteinKeys.size();
+        this.proteinKeys = proteinKeys.toArray(new String[nRows]);
+        rows = new HashMap<String, Integer>(nRows);
+        for (int i = 0; i < nRows; i++) {
+            rows.put(this.proteinKeys[i], i);
+        }
+        mainMatches = new String[nRows];
+        nPeptides = new int[nRows];
+        nSpectra = new int[nRows];
+        nValidatedPeptides = new int[nRows];
+        nConfidentPeptides = new int[nRows];
+        nValidatedSpectra = new int[nRows];
+        nConfidentSpectra = new int[nRows];
+        validatedSequenceCoverage = new double[nRows];
+        spectrumCounting = new double[nRows];
+        molecularWeight = new double[nRows];
+        proteinInferenceClass = new int[nRows];
+    }
+
+    /**
+     * Returns the number of rows in the table.
+     *
+     * @return the number of rows in the table
+     */
+    public int size() {
+        return proteinKeys.length;
+    }
+
+    /**
+     * Returns the row of the given protein match, -1 if not in the table.
+     *
+     * @param proteinKey the key of the protein match
+     *
+     * @return the row of the given protein match
+     */
+    public int getRow(String proteinKey) {
+        Integer row = rows.get(proteinKey);
+        if (row == null) {
+            return -1;
+        }
+        return row;
+    }
+
+    /**
+     * Returns the key of the protein match at the given row.
+     *
+     * @param row the row
+     *
+     * @return the key of the protein match at the given row
+     */
+    public String getProteinKey(int row) {
+        return proteinKeys[row];
+    }
+
+    /**
+     * Returns the accession of the main protein of the protein match at the
+     * given row, null if not set.
+     *
+     * @param row the row
+     *
+     * @return the accession of the main protein
+     */
+    public String getMainMatch(int row) {
+        return mainMatches[row];
+    }
+
+    /**
+     * Sets the accession of the main protein of the protein match at the
+     * given row.
+     *
+     * @param row the row
+     * @param mainMatch the accession of the main protein
+     */
+    public void setMainMatch(int row, String mainMatch) {
+        mainMatches[row] = mainMatch;
+    }
+
+    /**
+     * Sets the features of the protein match at the given row. Different rows
+     * can be set from different threads.
+     *
+     * @param row the row
+     * @param nPeptides the number of peptides
+     * @param nSpectra the number of spectra
+     * @param nValidatedPeptides the number of validated peptides
+     * @param nConfidentPeptides the number of confident peptides
+     * @param nValidatedSpectra the number of validated spectra
+     * @param nConfidentSpectra the number of confident spectra
+     * @param validatedSequenceCoverage the sequence coverage using validated
+     * peptides
+     * @param spectrumCounting the spectrum counting index
+     * @param molecularWeight the molecular weight of the main protein
+     * @param proteinInferenceClass the protein inference class
+     */
+    public void setFeatures(int row, int nPeptides, int nSpectra, int nValidatedPeptides, int nConfidentPeptides, int nValidatedSpectra, int nConfidentSpectra,
+            double validatedSequenceCoverage, double spectrumCounting, double molecularWeight, int proteinInferenceClass) {
+        this.nPeptides[row] = nPeptides;
+        this.nSpectra[row] = nSpectra;
+        this.nValidatedPeptides[row] = nValidatedPeptides;
+        this.nConfidentPeptides[row] = nConfidentPeptides;
+        this.nValidatedSpectra[row] = nValidatedSpectra;
+        this.nConfidentSpectra[row] = nConfidentSpectra;
+        this.validatedSequenceCoverage[row] = validatedSequenceCoverage;
+        this.spectrumCounting[row] = spectrumCounting;
+        this.molecularWeight[row] = molecularWeight;
+        this.proteinInferenceClass[row] = proteinInferenceClass;
+    }
+
+    /**
+     * Returns the number of peptides of the protein match at the given row.
+     *
+     * @param row the row
+     *
+     * @return the number of peptides
+     */
+    public int getNPeptides(int row) {
+        return nPeptides[row];
+    }
+
+    /**
+     * Returns the molecular weight of the main protein of the protein match at
+     * the given row.
+     *
+     * @param row the row
+     *
+     * @return the molecular weight
+     */
+    public double getMolecularWeight(int row) {
+        return molecularWeight[row];
+    }
+
+    /**
+     * Sets the molecular weight of the main protein of the protein match at
+     * the given row.
+     *
+     * @param row the row
+     * @param molecularWeight the molecular weight
+     */
+    public void setMolecularWeight(int row, double molecularWeight) {
+        this.molecularWeight[row] = molecularWeight;
+    }
+
+    /**
+     * Returns the protein inference class of the protein match at the given
+     * row.
+     *
+     * @param row the row
+     *
+     * @return the protein inference class
+     */
+    public int getProteinInferenceClass(int row) {
+        return proteinInferenceClass[row];
+    }
+
+    /**
+     * Sets the protein inference class of the protein match at the given row.
+     *
+     * @param row the row
+     * @param proteinInferenceClass the protein inference class
+     */
+    public void setProteinInferenceClass(int row, int proteinInferenceClass) {
+        this.proteinInferenceClass[row] = proteinInferenceClass;
+    }
+
+    /**
+     * Indicates whether the given type of feature is stored in this table.
+     *
+     * @param type the type of feature
+     *
+     * @return a boolean indicating whether the given type of feature is stored
+     * in this table
+     */
+    public boolean contains(ObjectType type) {
+        switch (type) {
+            case number_of_spectra:
+            case number_of_validated_peptides:
+            case number_of_confident_peptides:
+            case number_of_validated_spectra:
+            case number_of_confident_spectra:
+            case sequence_coverage:
+            case spectrum_counting:
+                return !clearedFeatures.contains(type);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the value of a feature for a protein match, null if not in the
+     * table.
+     *
+     * @param type the type of feature
+     * @param proteinKey the key of the protein match
+     *
+     * @return the value of the feature
+     */
+    public Object getFeature(ObjectType type, String proteinKey) {
+        if (!contains(type)) {
+            return null;
+        }
+        int row = getRow(proteinKey);
+        if (row == -1) {
+            return null;
+        }
+        switch (type) {
+            case number_of_spectra:
+                return nSpectra[row];
+            case number_of_validated_peptides:
+                return nValidatedPeptides[row];
+            case number_of_confident_peptides:
+                return nConfidentPeptides[row];
+            case number_of_validated_spectra:
+                return nValidatedSpectra[row];
+            case number_of_confident_spectra:
+                return nConfidentSpectra[row];
+            case sequence_coverage:
+                return validatedSequenceCoverage[row];
+            case spectrum_counting:
+                return spectrumCounting[row];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Updates the value of a feature for a protein match.
+     *
+     * @param type the type of feature
+     * @param proteinKey the key of the protein match
+     * @param value the new value
+     *
+     * @return a boolean indicating whether the value was stored in the table
+     */
+    public boolean setFeature(ObjectType type, String proteinKey, Object value) {
+        if (!contains(type)) {
+            return false;
+        }
+        int row = getRow(proteinKey);
+        if (row == -1) {
+            return false;
+        }
+        switch (type) {
+            case number_of_spectra:
+                nSpectra[row] = (Integer) value;
+                return true;
+            case number_of_validated_peptides:
+                nValidatedPeptides[row] = (Integer) value;
+                return true;
+            case number_of_confident_peptides:
+                nConfidentPeptides[row] = (Integer) value;
+                return true;
+            case number_of_validated_spectra:
+                nValidatedSpectra[row] = (Integer) value;
+                return true;
+            case number_of_confident_spectra:
+                nConfidentSpectra[row] = (Integer) value;
+                return true;
+            case sequence_coverage:
+                validatedSequenceCoverage[row] = (Double) value;
+                return true;
+            case spectrum_counting:
+                spectrumCounting[row] = (Double) value;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Clears the given type of feature. The values will then be computed
+     * anew by the identification features generator.
+     *
+     * @param type the type of feature
+     */
+    public void clearFeature(ObjectType type) {
+        clearedFeatures.add(type);
+    }
+}
@@ -0,0 +1,373 @@
+package eu.isas.peptideshaker.utils;
+
+import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The distributions of the metrics displayed in the QC plots. For every
+ * metric and category of match, the distribution is stored as a histogram of
+ * the distinct values with their number of occurrences, so that the plots can
+ * be binned anew without iterating the matches. The values of continuous
+ * metrics are rounded to a resolution finer than the bins of the plots in
+ * order to limit the number of distinct values. The distributions are computed
+ * in one pass over the matches and saved in the project together with the
+ * identification features cache.
+ *
+ * @author Marc Vaudel
+ */
+public class QCDistributions implements Serializable {
+
+    /**
+     * Serial number for backward compatibility.
+     */
+    static final long serialVersionUID = 7264109385572630918L;
+
+    /**
+     * The metrics of the QC plots.
+     */
+    public enum Metric {
+
+        /**
+         * The number of validated peptides of the proteins.
+         */
+        protein_validated_peptides,
+        /**
+         * The spectrum counting index of the proteins.
+         */
+        protein_spectrum_counting,
+        /**
+         * The validated sequence coverage of the proteins in percent.
+         */
+        protein_sequence_coverage,
+        /**
+         * The sequence length of the proteins.
+         */
+        protein_sequence_length,
+        /**
+         * The number of validated PSMs of the peptides.
+         */
+        peptide_validated_psms,
+        /**
+         * The number of missed cleavages of the peptides.
+         */
+        peptide_missed_cleavages,
+        /**
+         * The length of the peptides.
+         */
+        peptide_length,
+        /**
+         * The precursor mass error of the PSMs.
+         */
+        psm_precursor_mass_error,
+        /**
+         * The precursor charge of the PSMs.
+         */
+        psm_precursor_charge;
+    }
+
+    /**
+     * The categories of matches.
+     */
+    public enum Category {
+
+        /**
+         * Confident target matches.
+         */
+        confident,
+        /**
+         * Doubtful target matches.
+         */
+        doubtful,
+        /**
+         * Not validated target matches.
+         */
+        not_validated,
+        /**
+         * Validated decoy matches.
+         */
+        validated_decoy,
+        /**
+         * Not validated decoy matches.
+         */
+        not_validated_decoy;
+
+        /**
+         * Returns the category of a match.
+         *
+         * @param matchValidationLevel the validation level of the match
+         * @param decoy boolean indicating whether the match is decoy
+         *
+         * @return the category of the match
+         */
+        public static Category getCategory(MatchValidationLevel matchValidationLevel, boolean decoy) {
+            if (decoy) {
+                if (matchValidationLevel.isValidated()) {
+                    return validated_decoy;
+                }
+                return not_validated_decoy;
+            }
+            if (matchValidationLevel == MatchValidationLevel.confident) {
+                return confident;
+            }
+            if (matchValidationLevel.isValidated()) {
+                return doubtful;
+            }
+            return not_validated;
+        }
+    }
+
+    /**
+     * The resolution of the sequence coverage in percent.
+     */
+    public static final double SEQUENCE_COVERAGE_RESOLUTION = 0.01;
+    /**
+     * The minimal resolution of the spectrum counting index.
+     */
+    public static final double SPECTRUM_COUNTING_RESOLUTION = 0.0001;
+    /**
+     * The number of significant digits kept for the spectrum counting index.
+     */
+    public static final int SPECTRUM_COUNTING_DIGITS = 4;
+    /**
+     * The number of steps of the precursor mass error resolution within the
+     * precursor tolerance.
+     */
+    public static final int MASS_ERROR_STEPS = 2000;
+    /**
+     * The histograms indexed by metric and category.
+     */
+    private final Histogram[][] histograms;
+    /**
+     * The resolution of the precursor mass error.
+     */
+    private final double massErrorResolution;
+
+    /**
+     * Constructor.
+     *
+     * @param precursorTolerance the precursor tolerance, in the unit of the
+     * precursor mass errors
+     */
+    public QCDistributions(double precursorTolerance) {
+        massErrorResolution = precursorTolerance / MASS_ERROR_STEPS;
+        histograms = new Histogram[Metric.values().length][Category.values().length];
+        for (Metric metric : Metric.values()) {
+            for (Category category : Category.values()) {
+                histograms[metric.ordinal()][category.ordinal()] = new Histogram();
+            }
+        }
+    }
+
+    /**
+     * Adds a value to the distribution of a metric. Values can be added from
+     * different threads. The values of continuous metrics are rounded to the
+     * resolution of the metric.
+     *
+     * @param metric the metric
+     * @param category the category of the match
+     * @param value the value
+     */
+    public void add(Metric metric, Category category, double value) {
+        histograms[metric.ordinal()][category.ordinal()].add(quantize(metric, value));
+    }
+
+    /**
+     * Rounds the value of a continuous metric to the resolution of the
+     * metric. Values of other metrics are returned as they are.
+     *
+     * @param metric the metric
+     * @param value the value
+     *
+     * @return the rounded value
+     */
+    private double quantize(Metric metric, double value) {
+        switch (metric) {
+            case protein_sequence_coverage:
+                return round(value, SEQUENCE_COVERAGE_RESOLUTION);
+            case protein_spectrum_counting:
+                if (value == 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+                    return value;
+                }
+                double significantResolution = Math.pow(10, Math.floor(Math.log10(Math.abs(value))) + 1 - SPECTRUM_COUNTING_DIGITS);
+                return round(value, Math.max(significantResolution, SPECTRUM_COUNTING_RESOLUTION));
+            case psm_precursor_mass_error:
+                return round(value, massErrorResolution);
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Rounds a value to the closest multiple of the given resolution.
+     *
+     * @param value the value
+     * @param resolution the resolution, values are returned as they are if
+     * not strictly positive
+     *
+     * @return the rounded value
+     */
+    private static double round(double value, double resolution) {
+        if (resolution <= 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+            return value;
+        }
+        return Math.round(value / resolution) * resolution;
+    }
+
+    /**
+     * Compacts the histograms once all values are added.
+     */
+    public void finish() {
+        for (Histogram[] metricHistograms : histograms) {
+            for (Histogram histogram : metricHistograms) {
+                histogram.finish();
+            }
+        }
+    }
+
+    /**
+     * Returns the histogram of a metric for a category of matches.
+     *
+     * @param metric the metric
+     * @param category the category of matches
+     *
+     * @return the histogram of the metric for the category of matches
+     */
+    public Histogram getHistogram(Metric metric, Category category) {
+        return histograms[metric.ordinal()][category.ordinal()];
+    }
+
+    /**
+     * Returns the maximal value of a metric over all categories,
+     * Double.MIN_VALUE if no value was found.
+     *
+     * @param metric the metric
+     *
+     * @return the maximal value of the metric
+     */
+    public double getMaxValue(Metric metric) {
+        double maxValue = Double.MIN_VALUE;
+        for (Histogram histogram : histograms[metric.ordinal()]) {
+            if (histogram.size() > 0 && histogram.getMaxValue() > maxValue) {
+                maxValue = histogram.getMaxValue();
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * Histogram of the distinct values of a distribution.
+     *
+     * @author Marc Vaudel
+     */
+    public static class Histogram implements Serializable {
+
+        /**
+         * Serial number for backward compatibility.
+         */
+        static final long serialVersionUID = -3810742598245366207L;
+        /**
+         * The number of occurrences of every value while the histogram is
+         * filled, null once finished.
+         */
+        private HashMap<Double, int[]> occurrences = new HashMap<Double, int[]>();
+        /**
+         * The distinct values in increasing order.
+         */
+        private double[] values = new double[0];
+        /**
+         * The number of occurrences of every value.
+         */
+        private int[] counts = new int[0];
+
+        /**
+         * Constructor.
+         */
+        public Histogram() {
+
+        }
+
+        /**
+         * Adds an occurrence of a value. Adding a value to a finished
+         * histogram reopens it, finish() must then be called again before
+         * reading the values.
+         *
+         * @param value the value
+         */
+        public synchronized void add(double value) {
+            if (occurrences == null) {
+                occurrences = new HashMap<Double, int[]>(values.length);
+                for (int i = 0; i < values.length; i++) {
+                    occurrences.put(values[i], new int[]{counts[i]});
+                }
+            }
+            int[] count = occurrences.get(value);
+            if (count == null) {
+                count = new int[1];
+                occurrences.put(value, count);
+            }
+            count[0]++;
+        }
+
+        /**
+         * Sorts the values and stores them in arrays.
+         */
+        public synchronized void finish() {
+            if (occurrences != null) {
+                values = new double[occurrences.size()];
+                int i = 0;
+                for (double value : occurrences.keySet()) {
+                    values[i++] = value;
+                }
+                Arrays.sort(values);
+                counts = new int[values.length];
+                for (i = 0; i < values.length; i++) {
+                    counts[i] = occurrences.get(values[i])[0];
+                }
+                occurrences = null;
+            }
+        }
+
+        /**
+         * Returns the number of distinct values.
+         *
+         * @return the number of distinct values
+         */
+        public int size() {
+            return values.length;
+        }
+
+        /**
+         * Returns the distinct value at the given index, values are sorted in
+         * increasing order.
+         *
+         * @param index the index
+         *
+         * @return the distinct value at the given index
+         */
+        public double getValue(int index) {
+            return values[index];
+        }
+
+        /**
+         * Returns the number of occurrences of the value at the given index.
+         *
+         * @param index the index
+         *
+         * @return the number of occurrences of the value at the given index
+         */
+        public int getCount(int index) {
+            return counts[index];
+        }
+
+        /**
+         * Returns the largest value of the histogram.
+         *
+         * @return the largest value of the histogram
+         */
+        public double getMaxValue() {
+            return values[values.length - 1];
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import javax.swing.SwingUtilities;
+
+/**
+ * Loads the spectrum files of a project in the background once the results
+ * are displayed. The files are indexed one at a time in the order they were
+ * added. A file needed before its turn is indexed next and the caller waits
+ * for it.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumFilesLoader {
+
+    /**
+     * Boolean indicating whether projects should be displayed before their
+     * spectrum files are loaded.
+     */
+    private static boolean lazyOpening = true;
+    /**
+     * The handler for the exceptions encountered while loading the files in
+     * the background.
+     */
+    private final ExceptionHandler exceptionHandler;
+    /**
+     * The spectrum factory.
+     */
+    private final SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+    /**
+     * The files waiting to be loaded indexed by name in order of addition.
+     */
+    private final LinkedHashMap<String, File> pendingFiles = new LinkedHashMap<String, File>();
+    /**
+     * The name of the file currently loaded, null if none.
+     */
+    private String currentFile = null;
+    /**
+     * The number of files requested by the GUI currently waiting to be
+     * loaded.
+     */
+    private int nPriorityRequests = 0;
+    /**
+     * Boolean indicating whether the loading was canceled.
+     */
+    private boolean canceled = false;
+    /**
+     * Lock ensuring that one file is loaded at a time.
+     */
+    private final Object loadingLock = new Object();
+
+    /**
+     * Constructor.
+     *
+     * @param exceptionHandler the handler for the exceptions encountered
+     * while loading the files in the background
+     */
+    public SpectrumFilesLoader(ExceptionHandler exceptionHandler) {
+        this.exceptionHandler = exceptionHandler;
+    }
+
+    /**
+     * Indicates whether projects should be displayed before their spectrum
+     * files are loaded.
+     *
+     * @return a boolean indicating whether projects should be displayed before
+     * their spectrum files are loaded
+     */
+    public static boolean isLazyOpening() {
+        return lazyOpening;
+    }
+
+    /**
+     * Sets whether projects should be displayed before their spectrum files
+     * are loaded.
+     *
+     * @param lazyOpening a boolean indicating whether projects should be
+     * displayed before their spectrum files are loaded
+     */
+    public static void setLazyOpening(boolean lazyOpening) {
+        SpectrumFilesLoader.lazyOpening = lazyOpening;
+    }
+
+    /**
+     * Adds a file to the files to load.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     * @param spectrumFile the spectrum file
+     */
+    public synchronized void addFile(String spectrumFileName, File spectrumFile) {
+        pendingFiles.put(spectrumFileName, spectrumFile);
+    }
+
+    /**
+     * Indicates whether files are waiting to be loaded or are being loaded.
+     *
+     * @return a boolean indicating whether files are waiting to be loaded or
+     * are being loaded
+     */
+    public synchronized boolean isLoading() {
+        return !pendingFiles.isEmpty() || currentFile != null;
+    }
+
+    /**
+     * Indicates whether the given file is waiting to be loaded or is being
+     * loaded.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     *
+     * @return a boolean indicating whether the given file is waiting to be
+     * loaded or is being loaded
+     */
+    public synchronized boolean isPending(String spectrumFileName) {
+        return pendingFiles.containsKey(spectrumFileName) || spectrumFileName.equals(currentFile);
+    }
+
+    /**
+     * Starts loading the files in the background.
+     *
+     * @param onCompletion runnable executed on the event dispatch thread when
+     * all files are loaded, ignored if null or if the loading is canceled
+     */
+    public void start(final Runnable onCompletion) {
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        String spectrumFileName;
+                        synchronized (SpectrumFilesLoader.this) {
+                            while (nPriorityRequests > 0 && !canceled) {
+                                SpectrumFilesLoader.this.wait();
+                            }
+                            if (canceled || pendingFiles.isEmpty()) {
+                                break;
+                            }
+                            spectrumFileName = pendingFiles.keySet().iterator().next();
+                        }
+                        loadFile(spectrumFileName);
+                    }
+                    if (!canceled && onCompletion != null) {
+                        SwingUtilities.invokeLater(onCompletion);
+                    }
+                } catch (Exception e) {
+                    if (!canceled) {
+                        exceptionHandler.catchException(e);
+                    }
+                }
+            }
+        }, "SpectrumFilesLoaderThread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Makes sure that the given spectrum file is loaded. If the file is
+     * waiting to be loaded it is loaded before the other files. Returns
+     * immediately if the file is already loaded or not handled by this loader.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * loading the file
+     */
+    public void loadSpectrumFile(String spectrumFileName) throws IOException {
+
+        synchronized (this) {
+            if (!pendingFiles.containsKey(spectrumFileName) && !spectrumFileName.equals(currentFile)) {
+                return;
+            }
+            nPriorityRequests++;
+        }
+        try {
+            loadFile(spectrumFileName);
+        } finally {
+            synchronized (this) {
+                nPriorityRequests--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Loads the given file in the spectrum factory if it is still waiting to
+     * be loaded.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * loading the file
+     */
+    private void loadFile(String spectrumFileName) throws IOException {
+
+        synchronized (loadingLock) {
+            File spectrumFile;
+            synchronized (this) {
+                spectrumFile = pendingFiles.remove(spectrumFileName);
+                if (spectrumFile == null) {
+                    return;
+                }
+                currentFile = spectrumFileName;
+            }
+            try {
+                spectrumFactory.addSpectra(spectrumFile, null);
+            } finally {
+                synchronized (this) {
+                    currentFile = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the loading of the files and waits for the file currently
+     * loaded, if any.
+     */
+    public void cancel() {
+        synchronized (this) {
+            canceled = true;
+            pendingFiles.clear();
+            notifyAll();
+        }
+        synchronized (loadingLock) {
+            // wait for the file being loaded
+        }
+    }
+}
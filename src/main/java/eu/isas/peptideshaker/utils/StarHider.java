@@ -278,6 +278,7 @@ public class StarHider {
         psParameter.setHidden(true);
         identification.updateProteinMatchParameter(matchKey, psParameter);
         peptideShakerGUI.setDataSaved(false);
+        peptideShakerGUI.getIdentificationFeaturesGenerator().clearQCDistributions();
     }
 
     /**
@@ -316,6 +317,7 @@ public class StarHider {
         psParameter.setHidden(true);
         identification.updateProteinMatchParameter(matchKey, psParameter);
         peptideShakerGUI.setDataSaved(false);
+        peptideShakerGUI.getIdentificationFeaturesGenerator().clearQCDistributions();
     }
 
     /**
@@ -459,6 +461,7 @@ public class StarHider {
         psParameter.setHidden(true);
         identification.updatePeptideMatchParameter(matchKey, psParameter);
         peptideShakerGUI.setDataSaved(false);
+        peptideShakerGUI.getIdentificationFeaturesGenerator().clearQCDistributions();
     }
 
     /**
@@ -498,6 +501,7 @@ public class StarHider {
         psParameter.setHidden(false);
         identification.updatePeptideMatchParameter(matchKey, psParameter);
         peptideShakerGUI.setDataSaved(false);
+        peptideShakerGUI.getIdentificationFeaturesGenerator().clearQCDistributions();
     }
 
     /**
@@ -645,6 +649,7 @@ public class StarHider {
         psParameter.setHidden(true);
         identification.updateSpectrumMatchParameter(matchKey, psParameter);
         peptideShakerGUI.setDataSaved(false);
+        peptideShakerGUI.getIdentificationFeaturesGenerator().clearQCDistributions();
     }
 
     /**
@@ -686,6 +691,7 @@ public class StarHider {
         psParameter.setHidden(false);
         identification.updateSpectrumMatchParameter(matchKey, psParameter);
         peptideShakerGUI.setDataSaved(false);
+        peptideShakerGUI.getIdentificationFeaturesGenerator().clearQCDistributions();
     }
 
     /**
@@ -0,0 +1,197 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Index of the trigrams of the lower case text of a list of keys. The index
+ * allows retrieving the keys whose text contains a given query without
+ * scanning all texts: only the keys sharing the least frequent trigram of the
+ * query are inspected. The index is built by adding all entries and then
+ * calling finish().
+ *
+ * @author Marc Vaudel
+ */
+public class SubstringIndex implements Serializable {
+
+    /**
+     * Serial number for backward compatibility.
+     */
+    static final long serialVersionUID = -2405619736470512863L;
+    /**
+     * The length of the indexed substrings.
+     */
+    public static final int GRAM_LENGTH = 3;
+    /**
+     * The separator used between the fields of the text of an entry.
+     */
+    public static final char FIELD_SEPARATOR = '\n';
+    /**
+     * The keys of the entries.
+     */
+    private ArrayList<String> keys = new ArrayList<String>();
+    /**
+     * The lower case text of the entries.
+     */
+    private ArrayList<String> texts = new ArrayList<String>();
+    /**
+     * The indexes of the entries containing every trigram in increasing
+     * order.
+     */
+    private HashMap<String, int[]> postings = null;
+
+    /**
+     * Constructor.
+     */
+    public SubstringIndex() {
+
+    }
+
+    /**
+     * Adds an entry to the index. The fields are searched independently, a
+     * query cannot span two fields.
+     *
+     * @param key the key of the entry
+     * @param fields the searchable fields of the entry, null fields are
+     * ignored
+     */
+    public void add(String key, String... fields) {
+        if (postings != null) {
+            throw new IllegalArgumentException("Entries cannot be added to an index which is already finished.");
+        }
+        StringBuilder text = new StringBuilder();
+        for (String field : fields) {
+            if (field != null) {
+                if (text.length() > 0) {
+                    text.append(FIELD_SEPARATOR);
+                }
+                text.append(field.toLowerCase());
+            }
+        }
+        keys.add(key);
+        texts.add(text.toString());
+    }
+
+    /**
+     * Builds the trigram postings of the entries added to the index.
+     */
+    public void finish() {
+
+        // count the entries containing every trigram
+        HashMap<String, int[]> counts = new HashMap<String, int[]>();
+        for (String text : texts) {
+            for (String gram : getGrams(text)) {
+                int[] count = counts.get(gram);
+                if (count == null) {
+                    count = new int[1];
+                    counts.put(gram, count);
+                }
+                count[0]++;
+            }
+        }
+
+        // fill the postings, the entries are parsed in order so that the postings are sorted
+        HashMap<String, int[]> newPostings = new HashMap<String, int[]>(counts.size());
+        for (String gram : counts.keySet()) {
+            newPostings.put(gram, new int[counts.get(gram)[0]]);
+            counts.get(gram)[0] = 0;
+        }
+        for (int i = 0; i < texts.size(); i++) {
+            for (String gram : getGrams(texts.get(i))) {
+                int[] count = counts.get(gram);
+                newPostings.get(gram)[count[0]++] = i;
+            }
+        }
+
+        keys.trimToSize();
+        texts.trimToSize();
+        postings = newPostings;
+    }
+
+    /**
+     * Indicates whether the index is finished and can be searched.
+     *
+     * @return a boolean indicating whether the index is finished
+     */
+    public boolean isFinished() {
+        return postings != null;
+    }
+
+    /**
+     * Returns the number of entries in the index.
+     *
+     * @return the number of entries in the index
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Returns the keys of the entries containing the given query, ignoring
+     * case, in the order they were added to the index. Queries shorter than
+     * the trigrams are matched against all texts.
+     *
+     * @param query the query
+     *
+     * @return the keys of the entries containing the given query
+     */
+    public ArrayList<String> search(String query) {
+
+        if (postings == null) {
+            throw new IllegalArgumentException("The index is not finished.");
+        }
+
+        String lowerCaseQuery = query.toLowerCase();
+        ArrayList<String> result = new ArrayList<String>();
+
+        if (lowerCaseQuery.length() < GRAM_LENGTH) {
+            for (int i = 0; i < texts.size(); i++) {
+                if (texts.get(i).contains(lowerCaseQuery)) {
+                    result.add(keys.get(i));
+                }
+            }
+            return result;
+        }
+
+        // select the least frequent trigram of the query
+        int[] candidates = null;
+        for (int i = 0; i + GRAM_LENGTH <= lowerCaseQuery.length(); i++) {
+            int[] gramPostings = postings.get(lowerCaseQuery.substring(i, i + GRAM_LENGTH));
+            if (gramPostings == null) {
+                return result;
+            }
+            if (candidates == null || gramPostings.length < candidates.length) {
+                candidates = gramPostings;
+            }
+        }
+
+        for (int i : candidates) {
+            if (texts.get(i).contains(lowerCaseQuery)) {
+                result.add(keys.get(i));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the distinct trigrams of a text, trigrams spanning two fields
+     * are excluded.
+     *
+     * @param text the text
+     *
+     * @return the distinct trigrams of the text
+     */
+    private static HashSet<String> getGrams(String text) {
+        HashSet<String> grams = new HashSet<String>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            String gram = text.substring(i, i + GRAM_LENGTH);
+            if (gram.indexOf(FIELD_SEPARATOR) == -1) {
+                grams.add(gram);
+            }
+        }
+        return grams;
+    }
+}
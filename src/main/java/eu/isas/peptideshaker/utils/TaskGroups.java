@@ -0,0 +1,103 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the completion of groups of tasks run on a shared executor, e.g. the
+ * tasks processing the matches of a spectrum file. The number of tasks of a
+ * group is registered before the tasks are submitted, and the groups are made
+ * available in order of completion so that the results of a group can be
+ * merged while the tasks of the other groups are still running.
+ *
+ * @param <K> the type of the keys of the groups
+ *
+ * @author Marc Vaudel
+ */
+public class TaskGroups<K> {
+
+    /**
+     * The number of tasks not completed indexed by group.
+     */
+    private final HashMap<K, Integer> pendingTasks = new HashMap<K, Integer>();
+    /**
+     * The groups completed and not yet taken.
+     */
+    private final LinkedBlockingQueue<K> completedGroups = new LinkedBlockingQueue<K>();
+
+    /**
+     * Constructor.
+     */
+    public TaskGroups() {
+
+    }
+
+    /**
+     * Registers tasks of a group. All the tasks of a group must be registered
+     * before the first one is submitted.
+     *
+     * @param group the group
+     * @param nTasks the number of tasks to register
+     */
+    public synchronized void addTasks(K group, int nTasks) {
+        Integer nPending = pendingTasks.get(group);
+        if (nPending == null) {
+            nPending = 0;
+        }
+        pendingTasks.put(group, nPending + nTasks);
+    }
+
+    /**
+     * Returns a runnable running the given task and notifying its completion
+     * for the given group.
+     *
+     * @param group the group of the task
+     * @param task the task
+     *
+     * @return a runnable running the task and notifying its completion
+     */
+    public Runnable getTask(final K group, final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    taskCompleted(group);
+                }
+            }
+        };
+    }
+
+    /**
+     * Notifies the completion of a task of a group.
+     *
+     * @param group the group of the task
+     */
+    private synchronized void taskCompleted(K group) {
+        int nPending = pendingTasks.get(group) - 1;
+        if (nPending == 0) {
+            pendingTasks.remove(group);
+            completedGroups.add(group);
+        } else {
+            pendingTasks.put(group, nPending);
+        }
+    }
+
+    /**
+     * Returns the next completed group, waiting for the completion of a group
+     * if needed. Every group is returned once.
+     *
+     * @param timeout the maximal time to wait
+     * @param unit the unit of the timeout
+     *
+     * @return the next completed group, null if the timeout elapsed
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting
+     */
+    public K takeCompletedGroup(long timeout, TimeUnit unit) throws InterruptedException {
+        return completedGroups.poll(timeout, unit);
+    }
+}
@@ -0,0 +1,213 @@
+package eu.isas.peptideshaker.utils;
+
+import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+
+/**
+ * The coverage of a protein sequence by peptides of every validation level.
+ * The amino acids covered at each validation level are stored in a bitset
+ * represented as an array of longs.
+ *
+ * @author Marc Vaudel
+ */
+public class ValidationLevelCoverage {
+
+    /**
+     * The validation levels sorted from the lowest to the highest.
+     */
+    private static final MatchValidationLevel[] VALIDATION_LEVELS = {MatchValidationLevel.none, MatchValidationLevel.not_validated, MatchValidationLevel.doubtful, MatchValidationLevel.confident};
+    /**
+     * The length of the protein sequence.
+     */
+    private final int length;
+    /**
+     * The bitsets of the amino acids covered at every validation level,
+     * indexed by validation level index + 1.
+     */
+    private final long[][] coverage = new long[VALIDATION_LEVELS.length][];
+
+    /**
+     * Constructor.
+     *
+     * @param length the length of the protein sequence
+     */
+    public ValidationLevelCoverage(int length) {
+        this.length = length;
+    }
+
+    /**
+     * Returns the length of the protein sequence.
+     *
+     * @return the length of the protein sequence
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Marks the amino acids between start (inclusive) and end (exclusive) as
+     * covered by a peptide of the given validation level.
+     *
+     * @param validationLevel the index of the validation level of the peptide
+     * @param start the index of the first amino acid, 0 is the first amino
+     * acid
+     * @param end the index after the last amino acid
+     */
+    public void addPeptide(int validationLevel, int start, int end) {
+
+        if (start < 0) {
+            start = 0;
+        }
+        if (end > length) {
+            end = length;
+        }
+        if (start >= end) {
+            return;
+        }
+
+        long[] bitset = coverage[validationLevel + 1];
+        if (bitset == null) {
+            bitset = new long[(length + 63) >>> 6];
+            coverage[validationLevel + 1] = bitset;
+        }
+
+        int startWord = start >>> 6;
+        int endWord = (end - 1) >>> 6;
+        long startMask = -1L << start;
+        long endMask = -1L >>> -end;
+
+        if (startWord == endWord) {
+            bitset[startWord] |= startMask & endMask;
+        } else {
+            bitset[startWord] |= startMask;
+            for (int i = startWord + 1; i < endWord; i++) {
+                bitset[i] = -1L;
+            }
+            bitset[endWord] |= endMask;
+        }
+    }
+
+    /**
+     * Returns for every validation level the bitset of the amino acids where
+     * it is the best validation level, indexed by validation level index + 1.
+     * Null for validation levels not covering any amino acid.
+     *
+     * @return the bitsets of the amino acids covered at every best validation
+     * level
+     */
+    private long[][] getBestLevelCoverage() {
+
+        int nWords = (length + 63) >>> 6;
+        long[][] result = new long[VALIDATION_LEVELS.length][];
+        long[] assigned = new long[nWords];
+
+        for (int level = VALIDATION_LEVELS.length - 1; level > 0; level--) {
+            long[] bitset = coverage[level];
+            if (bitset != null) {
+                long[] levelResult = new long[nWords];
+                for (int i = 0; i < nWords; i++) {
+                    long bits = bitset[i] & ~assigned[i];
+                    levelResult[i] = bits;
+                    assigned[i] |= bits;
+                }
+                result[level] = levelResult;
+            }
+        }
+
+        // the amino acids not covered by a validation level are attributed to no validation
+        long[] noneResult = new long[nWords];
+        for (int i = 0; i < nWords; i++) {
+            noneResult[i] = ~assigned[i];
+        }
+        if (nWords > 0 && (length & 63) != 0) {
+            noneResult[nWords - 1] &= -1L >>> -length;
+        }
+        result[0] = noneResult;
+
+        return result;
+    }
+
+    /**
+     * Returns the best validation level covering every amino acid of the
+     * sequence, 0 being the first amino acid.
+     *
+     * @return the best validation level covering every amino acid
+     */
+    public int[] getAACoverage() {
+
+        int[] result = new int[length];
+        long[][] bestLevelCoverage = getBestLevelCoverage();
+
+        for (int level = 0; level < VALIDATION_LEVELS.length; level++) {
+            long[] bitset = bestLevelCoverage[level];
+            if (bitset != null) {
+                int levelIndex = VALIDATION_LEVELS[level].getIndex();
+                for (int i = 0; i < bitset.length; i++) {
+                    long bits = bitset[i];
+                    while (bits != 0) {
+                        int bit = Long.numberOfTrailingZeros(bits);
+                        result[(i << 6) + bit] = levelIndex;
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns for every validation level the share of the sequence where it
+     * is the best validation level, indexed by validation level index + 1.
+     *
+     * @return the share of the sequence for every validation level
+     */
+    public double[] getSequenceCoverage() {
+        long[][] bestLevelCoverage = getBestLevelCoverage();
+        double[] result = new double[VALIDATION_LEVELS.length];
+        for (int level = 0; level < VALIDATION_LEVELS.length; level++) {
+            result[level] = ((double) bitCount(bestLevelCoverage[level])) / length;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the share of the sequence covered by validated peptides.
+     *
+     * @return the share of the sequence covered by validated peptides
+     */
+    public double getValidatedSequenceCoverage() {
+        long[] doubtful = coverage[MatchValidationLevel.doubtful.getIndex() + 1];
+        long[] confident = coverage[MatchValidationLevel.confident.getIndex() + 1];
+        int nValidated = 0;
+        int nWords = (length + 63) >>> 6;
+        for (int i = 0; i < nWords; i++) {
+            long bits = 0;
+            if (doubtful != null) {
+                bits |= doubtful[i];
+            }
+            if (confident != null) {
+                bits |= confident[i];
+            }
+            nValidated += Long.bitCount(bits);
+        }
+        return ((double) nValidated) / length;
+    }
+
+    /**
+     * Returns the number of bits set in a bitset.
+     *
+     * @param bitset the bitset, can be null
+     *
+     * @return the number of bits set in a bitset
+     */
+    private static int bitCount(long[] bitset) {
+        if (bitset == null) {
+            return 0;
+        }
+        int result = 0;
+        for (long bits : bitset) {
+            result += Long.bitCount(bits);
+        }
+        return result;
+    }
+}
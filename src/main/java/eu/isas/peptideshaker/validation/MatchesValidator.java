@@ -45,8 +45,10 @@ import eu.isas.peptideshaker.scoring.maps.ProteinMap;
 import eu.isas.peptideshaker.scoring.maps.PsmSpecificMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
+import eu.isas.peptideshaker.utils.BoundedExecutor;
 import eu.isas.peptideshaker.utils.IdentificationFeaturesGenerator;
 import eu.isas.peptideshaker.utils.Metrics;
+import eu.isas.peptideshaker.utils.TaskGroups;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -54,8 +56,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.math.MathException;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
@@ -79,6 +79,11 @@ public class MatchesValidator {
      * The protein target decoy map.
      */
     private ProteinMap proteinMap;
+    /**
+     * The precursor m/z deviations of the target PSMs collected during the
+     * best hit selection.
+     */
+    private PrecursorMzDeviations precursorMzDeviations = new PrecursorMzDeviations();
     /**
      * The spectrum factory.
      */
@@ -119,7 +124,7 @@ public class MatchesValidator {
      * generator providing information about the matches
      * @param inputMap the input target/decoy map
      * @param spectrumCountingPreferences the spectrum counting preferences
-     * @param processingPreferences the processing preferences
+     * @param executor the executor to use
      *
      * @throws IOException exception thrown whenever an error occurred while
      * reading or writing a file.
@@ -134,7 +139,7 @@ public class MatchesValidator {
      */
     public void validateIdentifications(Identification identification, Metrics metrics, GeneMaps geneMaps, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler,
             IdentificationParameters identificationParameters, IdentificationFeaturesGenerator identificationFeaturesGenerator, InputMap inputMap,
-            SpectrumCountingPreferences spectrumCountingPreferences, ProcessingPreferences processingPreferences) throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+            SpectrumCountingPreferences spectrumCountingPreferences, BoundedExecutor executor) throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
 
         IdMatchValidationPreferences validationPreferences = identificationParameters.getIdValidationPreferences();
 
@@ -203,7 +208,7 @@ public class MatchesValidator {
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
 
         validateIdentifications(identification, metrics, geneMaps, inputMap, waitingHandler, exceptionHandler,
-                identificationFeaturesGenerator, identificationParameters, spectrumCountingPreferences, processingPreferences);
+                identificationFeaturesGenerator, identificationParameters, spectrumCountingPreferences, executor);
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(true);
     }
@@ -244,18 +249,75 @@ public class MatchesValidator {
             SpectrumCountingPreferences spectrumCountingPreferences, ProcessingPreferences processingPreferences)
             throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
 
+        BoundedExecutor executor = new BoundedExecutor(processingPreferences.getnThreads());
+        try {
+            validateIdentifications(identification, metrics, geneMaps, inputMap, waitingHandler, exceptionHandler, identificationFeaturesGenerator,
+                    identificationParameters, spectrumCountingPreferences, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * This method validates the identification matches of an identification
+     * object using the given executor. The PSMs of all spectrum files are
+     * validated on the executor at the same time. Target Decoy thresholds
+     * must be set. The precursor m/z error distribution of the spectrum files
+     * for which deviations were collected during the best hit selection is
+     * estimated without iterating the PSMs, the PSMs of the other files are
+     * iterated twice.
+     *
+     * @param identification the identification class containing the matches to
+     * validate
+     * @param metrics if provided, metrics on fractions will be saved while
+     * iterating the matches
+     * @param geneMaps the gene maps
+     * @param inputMap the target decoy map of all search engine scores
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process
+     * @param exceptionHandler a handler for exceptions
+     * @param identificationFeaturesGenerator an identification features
+     * generator computing information about the identification matches
+     * @param identificationParameters the identification parameters
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param executor the executor to use
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides to the proteins.
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database.
+     * @throws uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException exception thrown
+     * whenever an error occurred while reading an mzML file.
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the database.
+     */
+    public void validateIdentifications(Identification identification, Metrics metrics, GeneMaps geneMaps, InputMap inputMap,
+            WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            IdentificationParameters identificationParameters,
+            SpectrumCountingPreferences spectrumCountingPreferences, BoundedExecutor executor)
+            throws SQLException, IOException, ClassNotFoundException, MzMLUnmarshallerException, InterruptedException {
+
         PSParameter psParameter = new PSParameter();
         ArrayList<UrParameter> parameters = new ArrayList<UrParameter>(1);
         parameters.add(psParameter);
         ValidationQCPreferences validationQCPreferences = identificationParameters.getIdValidationPreferences().getValidationQCPreferences();
+        int nThreads = executor.getnThreads();
 
         if (waitingHandler != null) {
             waitingHandler.setWaitingText("Match Validation and Quality Control. Please Wait...");
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
             waitingHandler.resetSecondaryProgressCounter();
+            int nPsms = identification.getSpectrumIdentificationSize();
+            for (String spectrumFileName : identification.getSpectrumFiles()) {
+                if (!precursorMzDeviations.contains(spectrumFileName)) {
+                    nPsms += identification.getSpectrumIdentification(spectrumFileName).size();
+                }
+            }
             waitingHandler.setMaxSecondaryProgressCounter(identification.getProteinIdentification().size()
                     + identification.getPeptideIdentification().size()
-                    + 2 * identification.getSpectrumIdentificationSize());
+                    + nPsms);
         }
 
         HashMap<String, ArrayList<String>> spectrumKeysMap = metrics.getOrderedSpectrumKeys();
@@ -264,13 +326,32 @@ public class MatchesValidator {
         if (inputMap != null) {
             inputMap.resetAdvocateContributions();
         }
-        for (String spectrumFileName : identification.getSpectrumFiles()) {
 
-            AnnotationSettings annotationPreferences = identificationParameters.getAnnotationPreferences();
-            Double intensityLimit = annotationPreferences.getAnnotationIntensityLimit();
-            annotationPreferences.setIntensityLimit(0);
+        AnnotationSettings annotationPreferences = identificationParameters.getAnnotationPreferences();
+        Double intensityLimit = annotationPreferences.getAnnotationIntensityLimit();
+        annotationPreferences.setIntensityLimit(0);
+
+        ArrayList<String> spectrumFiles = identification.getSpectrumFiles();
+        HashMap<String, ArrayList<PsmValidatorRunnable>> psmRunnablesMap = new HashMap<String, ArrayList<PsmValidatorRunnable>>(spectrumFiles.size());
+        TaskGroups<String> fileTasks = new TaskGroups<String>();
+        boolean lowPrecursorCount = false;
+        int nFilesIterated = 0;
+
+        for (String spectrumFileName : spectrumFiles) {
+
+            if (precursorMzDeviations.contains(spectrumFileName)) {
+
+                // the deviations of the validated PSMs are selected from the ones collected during the best hit selection
+                ArrayList<Double> validatedDeviations = getValidatedPrecursorMzDeviations(spectrumFileName);
 
-            ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+                if (validatedDeviations.size() >= 100) {
+                    Collections.sort(validatedDeviations);
+                    identificationFeaturesGenerator.setMassErrorDistribution(spectrumFileName, validatedDeviations);
+                } else {
+                    lowPrecursorCount = true;
+                }
+                continue;
+            }
 
             ArrayList<String> spectrumKeys = null;
             if (spectrumKeysMap != null) {
@@ -278,105 +359,118 @@ public class MatchesValidator {
             }
             PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, parameters, false, waitingHandler);
 
-            ArrayList<PsmValidatorRunnable> psmRunnables = new ArrayList<PsmValidatorRunnable>(processingPreferences.getnThreads());
-            for (int i = 1; i <= processingPreferences.getnThreads(); i++) {
-                PsmValidatorRunnable runnable = new PsmValidatorRunnable(psmIterator, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, inputMap, false, true);
-                pool.submit(runnable);
-                psmRunnables.add(runnable);
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    break;
-                }
+            ArrayList<PsmValidatorRunnable> psmRunnables = new ArrayList<PsmValidatorRunnable>(nThreads);
+            for (int i = 1; i <= nThreads; i++) {
+                psmRunnables.add(new PsmValidatorRunnable(psmIterator, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, inputMap, false, true));
+            }
+            psmRunnablesMap.put(spectrumFileName, psmRunnables);
+            nFilesIterated++;
+            fileTasks.addTasks(spectrumFileName, nThreads);
+            for (PsmValidatorRunnable runnable : psmRunnables) {
+                executor.submit(fileTasks.getTask(spectrumFileName, runnable));
             }
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                pool.shutdownNow();
+                executor.awaitAfterCancel();
                 return;
             }
-            pool.shutdown();
-            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+        }
+
+        // set the precursor m/z error distribution of every file as soon as its PSMs are processed
+        for (int i = 0; i < nFilesIterated; i++) {
+
+            String spectrumFileName = fileTasks.takeCompletedGroup(7, TimeUnit.DAYS);
+            if (spectrumFileName == null) {
                 throw new InterruptedException("PSM validation timed out. Please contact the developers.");
             }
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                executor.awaitAfterCancel();
+                return;
+            }
 
-            ArrayList<Double> precursorMzDeviations = new ArrayList<Double>();
-            for (PsmValidatorRunnable runnable : psmRunnables) {
-                precursorMzDeviations.addAll(runnable.getThreadPrecursorMzDeviations());
+            ArrayList<Double> validatedDeviations = new ArrayList<Double>();
+            for (PsmValidatorRunnable runnable : psmRunnablesMap.remove(spectrumFileName)) {
+                validatedDeviations.addAll(runnable.getThreadPrecursorMzDeviations());
             }
 
-            if (precursorMzDeviations.size() >= 100) {
-                Collections.sort(precursorMzDeviations);
-                identificationFeaturesGenerator.setMassErrorDistribution(spectrumFileName, precursorMzDeviations);
+            if (validatedDeviations.size() >= 100) {
+                Collections.sort(validatedDeviations);
+                identificationFeaturesGenerator.setMassErrorDistribution(spectrumFileName, validatedDeviations);
             } else {
-                // There are not enough precursors, disable probabilistic precursor filter
-                for (Filter filter : validationQCPreferences.getPsmFilters()) {
-                    PsmFilter psmFilter = (PsmFilter) filter;
-                    if (psmFilter.getItemsNames().contains(AssumptionFilterItem.precrusorMzErrorStat.name)) {
-                        psmFilter.removeFilterItem(AssumptionFilterItem.precrusorMzErrorStat.name);
-                        SearchParameters searchParameters = identificationParameters.getSearchParameters();
-                        if (searchParameters.isPrecursorAccuracyTypePpm()) {
-                            psmFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorPpm.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
-                        } else {
-                            psmFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorDa.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
-                        }
+                lowPrecursorCount = true;
+            }
+        }
+
+        if (lowPrecursorCount) {
+            // There are not enough precursors, disable probabilistic precursor filter
+            for (Filter filter : validationQCPreferences.getPsmFilters()) {
+                PsmFilter psmFilter = (PsmFilter) filter;
+                if (psmFilter.getItemsNames().contains(AssumptionFilterItem.precrusorMzErrorStat.name)) {
+                    psmFilter.removeFilterItem(AssumptionFilterItem.precrusorMzErrorStat.name);
+                    SearchParameters searchParameters = identificationParameters.getSearchParameters();
+                    if (searchParameters.isPrecursorAccuracyTypePpm()) {
+                        psmFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorPpm.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
+                    } else {
+                        psmFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorDa.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
                     }
-                    AssumptionFilter assumptionFilter = psmFilter.getAssumptionFilter();
-                    if (assumptionFilter.getItemsNames().contains(AssumptionFilterItem.precrusorMzErrorStat.name)) {
-                        assumptionFilter.removeFilterItem(AssumptionFilterItem.precrusorMzErrorStat.name);
-                        SearchParameters searchParameters = identificationParameters.getSearchParameters();
-                        if (searchParameters.isPrecursorAccuracyTypePpm()) {
-                            assumptionFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorPpm.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
-                        } else {
-                            assumptionFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorDa.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
-                        }
+                }
+                AssumptionFilter assumptionFilter = psmFilter.getAssumptionFilter();
+                if (assumptionFilter.getItemsNames().contains(AssumptionFilterItem.precrusorMzErrorStat.name)) {
+                    assumptionFilter.removeFilterItem(AssumptionFilterItem.precrusorMzErrorStat.name);
+                    SearchParameters searchParameters = identificationParameters.getSearchParameters();
+                    if (searchParameters.isPrecursorAccuracyTypePpm()) {
+                        assumptionFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorPpm.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
+                    } else {
+                        assumptionFilter.setFilterItem(AssumptionFilterItem.precrusorMzErrorDa.name, FilterItemComparator.lowerOrEqual, searchParameters.getPrecursorAccuracy());
                     }
                 }
             }
+        }
 
-            pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
+        for (String spectrumFileName : spectrumFiles) {
 
-            spectrumKeys = null;
+            ArrayList<String> spectrumKeys = null;
             if (spectrumKeysMap != null) {
                 spectrumKeys = spectrumKeysMap.get(spectrumFileName);
             }
-            psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, parameters, false, waitingHandler);
+            PsmIterator psmIterator = identification.getPsmIterator(spectrumFileName, spectrumKeys, parameters, false, waitingHandler);
 
-            for (int i = 1; i <= processingPreferences.getnThreads(); i++) {
-                PsmValidatorRunnable runnable = new PsmValidatorRunnable(psmIterator, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, inputMap, true, false);
-                pool.submit(runnable);
+            boolean storeContributions = precursorMzDeviations.contains(spectrumFileName);
+            for (int i = 1; i <= nThreads; i++) {
+                PsmValidatorRunnable runnable = new PsmValidatorRunnable(psmIterator, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, inputMap, true, storeContributions);
+                executor.submit(runnable);
                 if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                     break;
                 }
             }
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                pool.shutdownNow();
+                executor.awaitAfterCancel();
                 return;
             }
-            pool.shutdown();
-            if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
-                throw new InterruptedException("PSM validation timed out. Please contact the developers.");
-            }
-
-            annotationPreferences.setIntensityLimit(intensityLimit);
+        }
+        if (!executor.waitForTasks(7, TimeUnit.DAYS)) {
+            throw new InterruptedException("PSM validation timed out. Please contact the developers.");
         }
 
+        annotationPreferences.setIntensityLimit(intensityLimit);
+
         // validate the peptides
-        ExecutorService pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
-        ArrayList<PeptideValidatorRunnable> peptideRunnables = new ArrayList<PeptideValidatorRunnable>(processingPreferences.getnThreads());
+        ArrayList<PeptideValidatorRunnable> peptideRunnables = new ArrayList<PeptideValidatorRunnable>(nThreads);
 
         PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(parameters, false, parameters, waitingHandler);
 
-        for (int i = 1; i <= processingPreferences.getnThreads(); i++) {
+        for (int i = 1; i <= nThreads; i++) {
             PeptideValidatorRunnable runnable = new PeptideValidatorRunnable(peptideMatchesIterator, identification, identificationFeaturesGenerator, geneMaps, identificationParameters, waitingHandler, exceptionHandler, metrics);
-            pool.submit(runnable);
+            executor.submit(runnable);
             peptideRunnables.add(runnable);
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                 break;
             }
         }
         if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-            pool.shutdownNow();
+            executor.awaitAfterCancel();
             return;
         }
-        pool.shutdown();
-        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+        if (!executor.waitForTasks(7, TimeUnit.DAYS)) {
             throw new InterruptedException("PSM validation timed out. Please contact the developers.");
         }
 
@@ -400,26 +494,29 @@ public class MatchesValidator {
         }
         metrics.setTotalPeptidesPerFraction(validatedTotalPeptidesPerFraction);
 
+        // compute the spectrum counting of all proteins at once
+        identificationFeaturesGenerator.computeSpectrumCounting(executor, waitingHandler, exceptionHandler);
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
+
 //        ObjectsDB.setDebugInteractions(true);
         // validate the proteins
-        pool = Executors.newFixedThreadPool(processingPreferences.getnThreads());
-
         ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(parameters, true, parameters, false, null, waitingHandler);
-        ArrayList<ProteinValidatorRunnable> proteinRunnables = new ArrayList<ProteinValidatorRunnable>(processingPreferences.getnThreads());
-        for (int i = 1; i <= processingPreferences.getnThreads(); i++) {
+        ArrayList<ProteinValidatorRunnable> proteinRunnables = new ArrayList<ProteinValidatorRunnable>(nThreads);
+        for (int i = 1; i <= nThreads; i++) {
             ProteinValidatorRunnable runnable = new ProteinValidatorRunnable(proteinMatchesIterator, identification, identificationFeaturesGenerator, geneMaps, metrics, identificationParameters, spectrumCountingPreferences, waitingHandler, exceptionHandler);
-            pool.submit(runnable);
+            executor.submit(runnable);
             proteinRunnables.add(runnable);
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                 break;
             }
         }
         if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-            pool.shutdownNow();
+            executor.awaitAfterCancel();
             return;
         }
-        pool.shutdown();
-        if (!pool.awaitTermination(7, TimeUnit.DAYS)) {
+        if (!executor.waitForTasks(7, TimeUnit.DAYS)) {
             throw new InterruptedException("PSM validation timed out. Please contact the developers.");
         }
 
@@ -436,6 +533,34 @@ public class MatchesValidator {
         metrics.setTotalSpectrumCountingMass(totalSpectrumCountingMass);
     }
 
+    /**
+     * Returns the precursor m/z deviations of the target PSMs of a spectrum
+     * file validated according to the current PSM thresholds, without quality
+     * control filters, as collected during the best hit selection.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     *
+     * @return the precursor m/z deviations of the validated target PSMs
+     */
+    private ArrayList<Double> getValidatedPrecursorMzDeviations(String spectrumFileName) {
+
+        HashMap<Integer, Double> scoreThresholds = new HashMap<Integer, Double>();
+
+        if (sequenceFactory.concatenatedTargetDecoy()) {
+            for (int charge : precursorMzDeviations.getCharges(spectrumFileName)) {
+                TargetDecoyMap targetDecoyMap = psmMap.getTargetDecoyMap(charge, spectrumFileName);
+                if (targetDecoyMap != null) {
+                    TargetDecoyResults targetDecoyResults = targetDecoyMap.getTargetDecoyResults();
+                    if (!targetDecoyResults.noValidated()) {
+                        scoreThresholds.put(charge, targetDecoyResults.getScoreLimit());
+                    }
+                }
+            }
+        }
+
+        return precursorMzDeviations.getDeviations(spectrumFileName, scoreThresholds);
+    }
+
     /**
      * Updates the validation status of a protein match. If the match was
      * manually validated nothing will be changed.
@@ -1329,6 +1454,16 @@ public class MatchesValidator {
         return proteinMap;
     }
 
+    /**
+     * Returns the precursor m/z deviations of the target PSMs collected during
+     * the best hit selection.
+     *
+     * @return the precursor m/z deviations of the target PSMs
+     */
+    public PrecursorMzDeviations getPrecursorMzDeviations() {
+        return precursorMzDeviations;
+    }
+
     /**
      * Sets the protein scoring map.
      *
@@ -0,0 +1,164 @@
+package eu.isas.peptideshaker.validation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * The precursor m/z deviations of the target PSMs of every spectrum file,
+ * collected during the best hit selection. For every PSM the charge, the PSM
+ * probabilistic score and the precursor m/z deviation are stored in primitive
+ * arrays so that the deviations of the validated PSMs can be retrieved once
+ * the score thresholds are known, without iterating the PSMs again.
+ *
+ * @author Marc Vaudel
+ */
+public class PrecursorMzDeviations {
+
+    /**
+     * The deviations indexed by spectrum file.
+     */
+    private final HashMap<String, FileDeviations> deviationsMap = new HashMap<String, FileDeviations>();
+
+    /**
+     * Constructor.
+     */
+    public PrecursorMzDeviations() {
+
+    }
+
+    /**
+     * Adds a spectrum file. The deviations of a file are considered complete
+     * once the file is added, even if no deviation is added for this file.
+     *
+     * @param spectrumFile the name of the spectrum file
+     */
+    public synchronized void addSpectrumFile(String spectrumFile) {
+        if (!deviationsMap.containsKey(spectrumFile)) {
+            deviationsMap.put(spectrumFile, new FileDeviations());
+        }
+    }
+
+    /**
+     * Adds the precursor m/z deviation of a target PSM.
+     *
+     * @param spectrumFile the name of the spectrum file
+     * @param charge the charge of the PSM
+     * @param score the PSM probabilistic score
+     * @param deviation the precursor m/z deviation
+     */
+    public synchronized void addDeviation(String spectrumFile, int charge, double score, double deviation) {
+        FileDeviations fileDeviations = deviationsMap.get(spectrumFile);
+        if (fileDeviations == null) {
+            fileDeviations = new FileDeviations();
+            deviationsMap.put(spectrumFile, fileDeviations);
+        }
+        fileDeviations.add(charge, score, deviation);
+    }
+
+    /**
+     * Indicates whether the deviations of the given spectrum file were
+     * collected.
+     *
+     * @param spectrumFile the name of the spectrum file
+     *
+     * @return a boolean indicating whether the deviations of the given
+     * spectrum file were collected
+     */
+    public synchronized boolean contains(String spectrumFile) {
+        return deviationsMap.containsKey(spectrumFile);
+    }
+
+    /**
+     * Returns the charges of the PSMs of a spectrum file.
+     *
+     * @param spectrumFile the name of the spectrum file
+     *
+     * @return the charges of the PSMs of the spectrum file
+     */
+    public synchronized HashSet<Integer> getCharges(String spectrumFile) {
+        HashSet<Integer> result = new HashSet<Integer>();
+        FileDeviations fileDeviations = deviationsMap.get(spectrumFile);
+        if (fileDeviations != null) {
+            for (int i = 0; i < fileDeviations.size; i++) {
+                result.add(fileDeviations.charges[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the precursor m/z deviations of the PSMs of a spectrum file
+     * having a score lower or equal to the score threshold of their charge.
+     * PSMs of charges without threshold are skipped.
+     *
+     * @param spectrumFile the name of the spectrum file
+     * @param scoreThresholds the score thresholds indexed by charge
+     *
+     * @return the precursor m/z deviations of the PSMs passing the thresholds
+     */
+    public synchronized ArrayList<Double> getDeviations(String spectrumFile, HashMap<Integer, Double> scoreThresholds) {
+        ArrayList<Double> result = new ArrayList<Double>();
+        FileDeviations fileDeviations = deviationsMap.get(spectrumFile);
+        if (fileDeviations != null) {
+            for (int i = 0; i < fileDeviations.size; i++) {
+                Double threshold = scoreThresholds.get(fileDeviations.charges[i]);
+                if (threshold != null && fileDeviations.scores[i] <= threshold) {
+                    result.add(fileDeviations.deviations[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Clears the deviations.
+     */
+    public synchronized void clear() {
+        deviationsMap.clear();
+    }
+
+    /**
+     * The deviations of a spectrum file.
+     */
+    private static class FileDeviations {
+
+        /**
+         * The charges of the PSMs.
+         */
+        private int[] charges = new int[128];
+        /**
+         * The probabilistic scores of the PSMs.
+         */
+        private double[] scores = new double[128];
+        /**
+         * The precursor m/z deviations of the PSMs.
+         */
+        private double[] deviations = new double[128];
+        /**
+         * The number of PSMs.
+         */
+        private int size = 0;
+
+        /**
+         * Adds the deviation of a PSM.
+         *
+         * @param charge the charge of the PSM
+         * @param score the PSM probabilistic score
+         * @param deviation the precursor m/z deviation
+         */
+        private void add(int charge, double score, double deviation) {
+            if (size == charges.length) {
+                int newLength = 2 * size;
+                charges = Arrays.copyOf(charges, newLength);
+                scores = Arrays.copyOf(scores, newLength);
+                deviations = Arrays.copyOf(deviations, newLength);
+            }
+            charges[size] = charge;
+            scores[size] = score;
+            deviations[size] = deviation;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package eu.isas.peptideshaker.protein_inference;
+
+import com.compomics.util.Util;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the protein mapping store.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinMappingStoreTest extends TestCase {
+
+    /**
+     * The key of the store used for the tests.
+     */
+    private static final String STORE_KEY = "test";
+    /**
+     * The folder where the stores are saved.
+     */
+    private File folder;
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = File.createTempFile("peptide-shaker_mapping_store", "");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IllegalArgumentException("Impossible to create folder " + folder.getAbsolutePath() + ".");
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteDir(folder);
+    }
+
+    /**
+     * Tests writing and reading mappings.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testWriteAndLoad() throws Exception {
+
+        writeMappings(0, 3);
+
+        ProteinMappingCache proteinMappingCache = new ProteinMappingCache();
+        ProteinMappingStore proteinMappingStore = new ProteinMappingStore(folder, STORE_KEY);
+        proteinMappingStore.load(proteinMappingCache);
+        proteinMappingStore.close();
+
+        Assert.assertEquals(3, proteinMappingStore.getnLoaded());
+        checkMappings(proteinMappingCache, 3);
+    }
+
+    /**
+     * Tests that writing mappings again after the cache was cleared does not
+     * duplicate them in the store.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testWriteAfterClear() throws Exception {
+
+        writeMappings(0, 2);
+        File dataFile = new File(new File(folder, STORE_KEY), ProteinMappingStore.DATA_FILE_NAME);
+
+        ProteinMappingCache proteinMappingCache = new ProteinMappingCache();
+        ProteinMappingStore proteinMappingStore = new ProteinMappingStore(folder, STORE_KEY);
+        proteinMappingStore.load(proteinMappingCache);
+        proteinMappingStore.write(getSequence(2), getProteins(2));
+        proteinMappingCache.clear();
+        for (int i = 0; i < 3; i++) {
+            proteinMappingStore.write(getSequence(i), getProteins(i));
+        }
+        proteinMappingStore.close();
+
+        Assert.assertEquals(1, proteinMappingStore.getnWritten());
+        Assert.assertEquals(proteinMappingStore.getSize(), dataFile.length());
+
+        proteinMappingCache = new ProteinMappingCache();
+        proteinMappingStore = new ProteinMappingStore(folder, STORE_KEY);
+        proteinMappingStore.load(proteinMappingCache);
+        proteinMappingStore.close();
+
+        Assert.assertEquals(3, proteinMappingStore.getnLoaded());
+        checkMappings(proteinMappingCache, 3);
+    }
+
+    /**
+     * Tests that the mappings written before an incomplete mapping are
+     * loaded, that the incomplete mapping is removed and that new mappings
+     * can be appended.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testTruncatedWrite() throws Exception {
+
+        writeMappings(0, 3);
+        File dataFile = new File(new File(folder, STORE_KEY), ProteinMappingStore.DATA_FILE_NAME);
+        long completeLength = dataFile.length();
+        truncate(dataFile, completeLength - 3);
+
+        ProteinMappingCache proteinMappingCache = new ProteinMappingCache();
+        ProteinMappingStore proteinMappingStore = new ProteinMappingStore(folder, STORE_KEY);
+        proteinMappingStore.load(proteinMappingCache);
+
+        Assert.assertEquals(2, proteinMappingStore.getnLoaded());
+        checkMappings(proteinMappingCache, 2);
+        Assert.assertFalse(proteinMappingCache.contains(getSequence(2)));
+        Assert.assertTrue(dataFile.length() < completeLength - 3);
+
+        proteinMappingStore.write(getSequence(2), getProteins(2));
+        proteinMappingStore.write(getSequence(3), getProteins(3));
+        proteinMappingStore.close();
+
+        proteinMappingCache = new ProteinMappingCache();
+        proteinMappingStore = new ProteinMappingStore(folder, STORE_KEY);
+        proteinMappingStore.load(proteinMappingCache);
+        proteinMappingStore.close();
+
+        Assert.assertEquals(4, proteinMappingStore.getnLoaded());
+        checkMappings(proteinMappingCache, 4);
+    }
+
+    /**
+     * Tests that a mapping failing its checksum is skipped and that the
+     * following mappings are loaded.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testCorruptedRecord() throws Exception {
+
+        writeMappings(0, 3);
+        File dataFile = new File(new File(folder, STORE_KEY), ProteinMappingStore.DATA_FILE_NAME);
+        RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+        try {
+            byte[] content = new byte[(int) raf.length()];
+            raf.readFully(content);
+            int index = new String(content, "ISO-8859-1").indexOf(getSequence(1));
+            Assert.assertTrue(index > 0);
+            raf.seek(index);
+            raf.write('X');
+        } finally {
+            raf.close();
+        }
+
+        ProteinMappingCache proteinMappingCache = new ProteinMappingCache();
+        ProteinMappingStore proteinMappingStore = new ProteinMappingStore(folder, STORE_KEY);
+        proteinMappingStore.load(proteinMappingCache);
+        Assert.assertEquals(2, proteinMappingStore.getnLoaded());
+        Assert.assertTrue(proteinMappingCache.contains(getSequence(0)));
+        Assert.assertFalse(proteinMappingCache.contains(getSequence(1)));
+        Assert.assertTrue(proteinMappingCache.contains(getSequence(2)));
+        proteinMappingStore.write(getSequence(1), getProteins(1));
+        proteinMappingStore.close();
+        Assert.assertEquals(1, proteinMappingStore.getnWritten());
+
+        proteinMappingCache = new ProteinMappingCache();
+        proteinMappingStore = new ProteinMappingStore(folder, STORE_KEY);
+        proteinMappingStore.load(proteinMappingCache);
+        proteinMappingStore.close();
+
+        Assert.assertEquals(3, proteinMappingStore.getnLoaded());
+        checkMappings(proteinMappingCache, 3);
+    }
+
+    /**
+     * Tests that a store opened while another store holds the lock on the
+     * data file loads the mappings but does not write nor truncate the file.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testLockedStore() throws Exception {
+
+        writeMappings(0, 2);
+        File dataFile = new File(new File(folder, STORE_KEY), ProteinMappingStore.DATA_FILE_NAME);
+
+        ProteinMappingStore writingStore = new ProteinMappingStore(folder, STORE_KEY);
+        writingStore.load(new ProteinMappingCache());
+        Assert.assertFalse(writingStore.isReadOnly());
+        try {
+            ProteinMappingCache proteinMappingCache = new ProteinMappingCache();
+            ProteinMappingStore readingStore = new ProteinMappingStore(folder, STORE_KEY);
+            readingStore.load(proteinMappingCache);
+            Assert.assertTrue(readingStore.isReadOnly());
+            Assert.assertEquals(2, readingStore.getnLoaded());
+            checkMappings(proteinMappingCache, 2);
+            long length = dataFile.length();
+            readingStore.write(getSequence(2), getProteins(2));
+            readingStore.close();
+            Assert.assertEquals(0, readingStore.getnWritten());
+            Assert.assertEquals(length, dataFile.length());
+            writingStore.write(getSequence(2), getProteins(2));
+        } finally {
+            writingStore.close();
+        }
+        Assert.assertEquals(1, writingStore.getnWritten());
+
+        ProteinMappingCache proteinMappingCache = new ProteinMappingCache();
+        ProteinMappingStore proteinMappingStore = new ProteinMappingStore(folder, STORE_KEY);
+        proteinMappingStore.load(proteinMappingCache);
+        proteinMappingStore.close();
+        Assert.assertFalse(proteinMappingStore.isReadOnly());
+        checkMappings(proteinMappingCache, 3);
+    }
+
+    /**
+     * Tests that a store truncated in its header is reset.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testTruncatedHeader() throws Exception {
+
+        writeMappings(0, 3);
+        File dataFile = new File(new File(folder, STORE_KEY), ProteinMappingStore.DATA_FILE_NAME);
+        truncate(dataFile, 5);
+
+        ProteinMappingCache proteinMappingCache = new ProteinMappingCache();
+        ProteinMappingStore proteinMappingStore = new ProteinMappingStore(folder, STORE_KEY);
+        proteinMappingStore.load(proteinMappingCache);
+        Assert.assertEquals(0, proteinMappingStore.getnLoaded());
+        Assert.assertEquals(0, proteinMappingCache.size());
+        proteinMappingStore.write(getSequence(0), getProteins(0));
+        proteinMappingStore.close();
+
+        proteinMappingCache = new ProteinMappingCache();
+        proteinMappingStore = new ProteinMappingStore(folder, STORE_KEY);
+        proteinMappingStore.load(proteinMappingCache);
+        proteinMappingStore.close();
+
+        Assert.assertEquals(1, proteinMappingStore.getnLoaded());
+        checkMappings(proteinMappingCache, 1);
+    }
+
+    /**
+     * Writes test mappings to the store.
+     *
+     * @param first the index of the first mapping
+     * @param n the number of mappings to write
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * writing the store
+     */
+    private void writeMappings(int first, int n) throws Exception {
+        ProteinMappingStore proteinMappingStore = new ProteinMappingStore(folder, STORE_KEY);
+        proteinMappingStore.load(new ProteinMappingCache());
+        for (int i = first; i < first + n; i++) {
+            proteinMappingStore.write(getSequence(i), getProteins(i));
+        }
+        proteinMappingStore.close();
+        Assert.assertEquals(n, proteinMappingStore.getnWritten());
+    }
+
+    /**
+     * Checks that the cache contains the first test mappings.
+     *
+     * @param proteinMappingCache the cache
+     * @param n the number of mappings expected
+     */
+    private void checkMappings(ProteinMappingCache proteinMappingCache, int n) {
+        Assert.assertEquals(n, proteinMappingCache.size());
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals(getProteins(i), proteinMappingCache.getParentProteins(getSequence(i)));
+        }
+    }
+
+    /**
+     * Truncates a file.
+     *
+     * @param file the file
+     * @param length the new length
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * truncating the file
+     */
+    private void truncate(File file, long length) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the sequence of a test mapping.
+     *
+     * @param i the index of the mapping
+     *
+     * @return the sequence
+     */
+    private String getSequence(int i) {
+        return "PEPTIDE" + "ACDEFGHIKLMNPQRSTVWY".charAt(i) + "K";
+    }
+
+    /**
+     * Returns the proteins of a test mapping.
+     *
+     * @param i the index of the mapping
+     *
+     * @return the proteins
+     */
+    private ArrayList<String> getProteins(int i) {
+        ArrayList<String> proteins = new ArrayList<String>(Arrays.asList("P0000" + i, "Q1234" + i));
+        if (i % 2 == 0) {
+            proteins.add("O98765");
+        }
+        return proteins;
+    }
+}
@@ -1,6 +1,12 @@
 package eu.isas.peptideshaker.test;
 
 import eu.isas.peptideshaker.pride.PrideWebServiceTest;
+import eu.isas.peptideshaker.protein_inference.ProteinMappingStoreTest;
+import eu.isas.peptideshaker.utils.BoundedExecutorTest;
+import eu.isas.peptideshaker.utils.ProjectArchiveTest;
+import eu.isas.peptideshaker.utils.QCDistributionsTest;
+import eu.isas.peptideshaker.utils.SubstringIndexTest;
+import eu.isas.peptideshaker.utils.ValidationLevelCoverageTest;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -19,6 +25,12 @@ public class FullSuite extends TestCase {
     public static Test suite() {
         TestSuite ts = new TestSuite("Test suite for the PeptideShaker project.");
         ts.addTest(new TestSuite(PrideWebServiceTest.class));
+        ts.addTest(new TestSuite(BoundedExecutorTest.class));
+        ts.addTest(new TestSuite(ValidationLevelCoverageTest.class));
+        ts.addTest(new TestSuite(SubstringIndexTest.class));
+        ts.addTest(new TestSuite(ProteinMappingStoreTest.class));
+        ts.addTest(new TestSuite(QCDistributionsTest.class));
+        ts.addTest(new TestSuite(ProjectArchiveTest.class));
         return ts;
     }
 }
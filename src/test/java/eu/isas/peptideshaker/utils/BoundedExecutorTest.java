@@ -0,0 +1,174 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the bounded executor.
+ *
+ * @author Marc Vaudel
+ */
+public class BoundedExecutorTest extends TestCase {
+
+    /**
+     * Tests that the number of tasks submitted and not completed never
+     * exceeds the number of threads plus the queue size.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testBounding() throws Exception {
+
+        final int nThreads = 2;
+        final int queueSize = 3;
+        BoundedExecutor executor = new BoundedExecutor(nThreads, queueSize);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger nCompleted = new AtomicInteger();
+
+        try {
+            for (int i = 0; i < nThreads + queueSize; i++) {
+                executor.submit(new BlockingTask(release, nCompleted));
+            }
+
+            // all slots are taken, the next submission must block until a task completes
+            final BoundedExecutor finalExecutor = executor;
+            final CountDownLatch submitted = new CountDownLatch(1);
+            Thread submitter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        finalExecutor.submit(new BlockingTask(new CountDownLatch(0), nCompleted));
+                        submitted.countDown();
+                    } catch (InterruptedException e) {
+                        // test failed
+                    }
+                }
+            });
+            submitter.start();
+
+            Assert.assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(0, nCompleted.get());
+
+            release.countDown();
+
+            Assert.assertTrue(submitted.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(executor.waitForTasks(10, TimeUnit.SECONDS));
+            Assert.assertEquals(nThreads + queueSize + 1, nCompleted.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that waitForTasks waits for the completion of all tasks, times
+     * out when tasks are still running, and that the executor can be reused
+     * afterwards.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testWaitForTasks() throws Exception {
+
+        BoundedExecutor executor = new BoundedExecutor(3);
+        AtomicInteger nCompleted = new AtomicInteger();
+
+        try {
+            Assert.assertTrue(executor.waitForTasks(1, TimeUnit.SECONDS));
+
+            CountDownLatch release = new CountDownLatch(1);
+            executor.submit(new BlockingTask(release, nCompleted));
+            Assert.assertFalse(executor.waitForTasks(100, TimeUnit.MILLISECONDS));
+            release.countDown();
+            Assert.assertTrue(executor.waitForTasks(10, TimeUnit.SECONDS));
+            Assert.assertEquals(1, nCompleted.get());
+
+            for (int i = 0; i < 100; i++) {
+                executor.submit(new BlockingTask(release, nCompleted));
+            }
+            Assert.assertTrue(executor.waitForTasks(10, TimeUnit.SECONDS));
+            Assert.assertEquals(101, nCompleted.get());
+        } finally {
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Tests that a task throwing an exception releases its slot and does not
+     * prevent the completion of the other tasks, and that submitting after
+     * shutdown throws an exception.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testExceptions() throws Exception {
+
+        BoundedExecutor executor = new BoundedExecutor(1, 1);
+        AtomicInteger nCompleted = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(0);
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        throw new IllegalArgumentException("Test exception.");
+                    }
+                });
+                executor.submit(new BlockingTask(release, nCompleted));
+            }
+            Assert.assertTrue(executor.waitForTasks(10, TimeUnit.SECONDS));
+            Assert.assertEquals(10, nCompleted.get());
+        } finally {
+            executor.shutdown();
+        }
+
+        try {
+            executor.submit(new BlockingTask(release, nCompleted));
+            Assert.fail("No exception thrown when submitting a task after shutdown.");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        Assert.assertTrue(executor.waitForTasks(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Task waiting for a latch and counting its completion.
+     */
+    private static class BlockingTask implements Runnable {
+
+        /**
+         * The latch to wait for.
+         */
+        private final CountDownLatch release;
+        /**
+         * The number of completed tasks.
+         */
+        private final AtomicInteger nCompleted;
+
+        /**
+         * Constructor.
+         *
+         * @param release the latch to wait for
+         * @param nCompleted the number of completed tasks
+         */
+        public BlockingTask(CountDownLatch release, AtomicInteger nCompleted) {
+            this.release = release;
+            this.nCompleted = nCompleted;
+        }
+
+        @Override
+        public void run() {
+            try {
+                release.await();
+                nCompleted.incrementAndGet();
+            } catch (InterruptedException e) {
+                // canceled
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.Util;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.zip.CRC32;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the project archive.
+ *
+ * @author Marc Vaudel
+ */
+public class ProjectArchiveTest extends TestCase {
+
+    /**
+     * The folder where the files of the tests are written.
+     */
+    private File folder;
+    /**
+     * The compression setting before the test.
+     */
+    private boolean compression;
+    /**
+     * The number of threads before the test.
+     */
+    private int nThreads;
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = File.createTempFile("peptide-shaker_archive_test", "");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IllegalArgumentException("Impossible to create folder " + folder.getAbsolutePath() + ".");
+        }
+        compression = ProjectArchive.isCompression();
+        nThreads = ProjectArchive.getnThreads();
+        ProjectArchive.setnThreads(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ProjectArchive.setCompression(compression);
+        ProjectArchive.setnThreads(nThreads);
+        Util.deleteDir(folder);
+    }
+
+    /**
+     * Tests saving and extracting a folder without compression.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testArchive() throws Exception {
+        ProjectArchive.setCompression(false);
+        testArchiveAndExtract();
+    }
+
+    /**
+     * Tests saving and extracting a folder with compression.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testCompressedArchive() throws Exception {
+        ProjectArchive.setCompression(true);
+        testArchiveAndExtract();
+    }
+
+    /**
+     * Saves a folder, extracts it, modifies it, saves it again in the same
+     * archive and extracts it again. Checks that the data of the first save is
+     * kept in place and that only the modified files are appended, including
+     * a file modified in place without changing its size nor its modification
+     * date.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    private void testArchiveAndExtract() throws Exception {
+
+        File sourceFolder = new File(folder, "source");
+        Random random = new Random(42);
+        for (int i = 0; i < 8; i++) {
+            writeFile(new File(sourceFolder, "file_" + i), random, 1000 + 100000 * i);
+        }
+        writeFile(new File(sourceFolder, "matches" + File.separator + "db" + File.separator + "data"), random, 300000);
+        writeFile(new File(sourceFolder, "empty"), random, 0);
+
+        File archiveFile = new File(folder, "project.cpsx");
+        ProjectArchive.archiveFolderContent(sourceFolder, archiveFile, new HashSet<String>(), null);
+        Assert.assertTrue(ProjectArchive.isProjectArchive(archiveFile));
+
+        File destinationFolder = new File(folder, "extracted");
+        ProjectArchive.extract(archiveFile, destinationFolder, null);
+        checkFolders(sourceFolder, destinationFolder);
+
+        byte[] firstSave = readFile(archiveFile);
+        writeFile(new File(sourceFolder, "file_3"), random, 5000);
+        writeFile(new File(sourceFolder, "matches" + File.separator + "new"), random, 20000);
+        ProjectArchive.archiveFolderContent(sourceFolder, archiveFile, new HashSet<String>(), null);
+        checkAppended(firstSave, readFile(archiveFile), 25000);
+
+        File secondDestinationFolder = new File(folder, "extracted_again");
+        ProjectArchive.extract(archiveFile, secondDestinationFolder, null);
+        checkFolders(sourceFolder, secondDestinationFolder);
+
+        // modify a database file in place, keeping its size and modification date
+        byte[] secondSave = readFile(archiveFile);
+        File dataFile = new File(sourceFolder, "matches" + File.separator + "db" + File.separator + "data");
+        long lastModified = dataFile.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+        try {
+            raf.seek(1000);
+            raf.write(new byte[]{'x', 'y', 'z'});
+        } finally {
+            raf.close();
+        }
+        dataFile.setLastModified(lastModified);
+        ProjectArchive.archiveFolderContent(sourceFolder, archiveFile, new HashSet<String>(), null);
+        checkAppended(secondSave, readFile(archiveFile), 300000);
+
+        File thirdDestinationFolder = new File(folder, "extracted_third");
+        ProjectArchive.extract(archiveFile, thirdDestinationFolder, null);
+        checkFolders(sourceFolder, thirdDestinationFolder);
+    }
+
+    /**
+     * Checks that a save appended data to the previous save: the previous
+     * content is unchanged except for the position of the index in the
+     * header, and the data appended is not larger than the modified files
+     * and the new index.
+     *
+     * @param previousContent the content of the archive before the save
+     * @param content the content of the archive after the save
+     * @param modifiedSize the size of the modified files
+     */
+    private static void checkAppended(byte[] previousContent, byte[] content, int modifiedSize) {
+        int indexPointerEnd = getHeaderSize();
+        int indexPointerStart = indexPointerEnd - 8;
+        Assert.assertTrue(content.length > previousContent.length);
+        Assert.assertTrue(content.length - previousContent.length <= modifiedSize + 1024);
+        Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(previousContent, 0, indexPointerStart), Arrays.copyOfRange(content, 0, indexPointerStart)));
+        Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(previousContent, indexPointerEnd, previousContent.length),
+                Arrays.copyOfRange(content, indexPointerEnd, previousContent.length)));
+    }
+
+    /**
+     * Returns the size of the header of the archives: the tag, the version
+     * and the position of the index.
+     *
+     * @return the size of the header of the archives
+     */
+    private static int getHeaderSize() {
+        return 2 + ProjectArchive.MAGIC.length() + 4 + 8;
+    }
+
+    /**
+     * Tests that an entry pointing outside of the destination folder is not
+     * extracted.
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * running the test
+     */
+    public void testEntryOutsideOfDestination() throws Exception {
+
+        ProjectArchive.setCompression(false);
+        File sourceFolder = new File(folder, "source");
+        writeFile(new File(sourceFolder, "zz" + File.separator + "evil.txt"), new Random(42), 100);
+
+        File archiveFile = new File(folder, "project.cpsx");
+        ProjectArchive.archiveFolderContent(sourceFolder, archiveFile, new HashSet<String>(), null);
+
+        // rename the entry zz/evil.txt to ../evil.txt
+        byte[] content = readFile(archiveFile);
+        byte[] name = "zz/evil.txt".getBytes("UTF-8");
+        int index = indexOf(content, name);
+        Assert.assertTrue(index >= 0);
+        content[index] = '.';
+        content[index + 1] = '.';
+        updateIndexChecksum(content);
+        FileOutputStream outputStream = new FileOutputStream(archiveFile);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+
+        File destinationFolder = new File(folder, "extracted");
+        try {
+            ProjectArchive.extract(archiveFile, destinationFolder, null);
+            Assert.fail("An entry outside of the destination folder was extracted.");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertFalse(new File(folder, "evil.txt").exists());
+    }
+
+    /**
+     * Updates the checksum of the index of an archive after modification.
+     *
+     * @param content the content of the archive
+     */
+    private static void updateIndexChecksum(byte[] content) {
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        int indexPosition = (int) buffer.getLong(getHeaderSize() - 8);
+        int indexLength = buffer.getInt(indexPosition);
+        CRC32 crc32 = new CRC32();
+        crc32.update(content, indexPosition + 4, indexLength);
+        buffer.putInt(indexPosition + 4 + indexLength, (int) crc32.getValue());
+    }
+
+    /**
+     * Writes a file of random content.
+     *
+     * @param file the file
+     * @param random the random generator
+     * @param size the size of the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private static void writeFile(File file, Random random, int size) throws IOException {
+        file.getParentFile().mkdirs();
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('a' + random.nextInt(4)); // compressible content
+        }
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Returns the content of a file.
+     *
+     * @param file the file
+     *
+     * @return the content of the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            byte[] content = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(content);
+            return content;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Returns the index of the first occurrence of a pattern in an array, -1
+     * if not found.
+     *
+     * @param array the array
+     * @param pattern the pattern
+     *
+     * @return the index of the first occurrence of the pattern
+     */
+    private static int indexOf(byte[] array, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= array.length; i++) {
+            int j = 0;
+            while (j < pattern.length && array[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks that two folders contain the same files with the same content.
+     *
+     * @param expected the expected folder
+     * @param actual the folder to check
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a file
+     */
+    private static void checkFolders(File expected, File actual) throws IOException {
+        File[] expectedFiles = expected.listFiles();
+        File[] actualFiles = actual.listFiles();
+        Assert.assertNotNull(actualFiles);
+        Assert.assertEquals(expectedFiles.length, actualFiles.length);
+        for (File expectedFile : expectedFiles) {
+            File actualFile = new File(actual, expectedFile.getName());
+            if (expectedFile.isDirectory()) {
+                Assert.assertTrue(actualFile.isDirectory());
+                checkFolders(expectedFile, actualFile);
+            } else {
+                Assert.assertTrue(Arrays.equals(readFile(expectedFile), readFile(actualFile)));
+            }
+        }
+    }
+}
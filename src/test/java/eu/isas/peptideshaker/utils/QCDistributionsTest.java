@@ -0,0 +1,101 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the distributions of the QC plots.
+ *
+ * @author Marc Vaudel
+ */
+public class QCDistributionsTest extends TestCase {
+
+    /**
+     * Tests that the values of continuous metrics are rounded to the
+     * resolution of the metric while discrete metrics are kept as they are.
+     */
+    public void testQuantization() {
+
+        QCDistributions qcDistributions = new QCDistributions(10.0);
+        Random random = new Random(42);
+        int nValues = 100000;
+
+        for (int i = 0; i < nValues; i++) {
+            qcDistributions.add(QCDistributions.Metric.psm_precursor_mass_error, QCDistributions.Category.confident, 20 * random.nextDouble() - 10);
+            qcDistributions.add(QCDistributions.Metric.protein_sequence_coverage, QCDistributions.Category.confident, 100 * random.nextDouble());
+            qcDistributions.add(QCDistributions.Metric.protein_spectrum_counting, QCDistributions.Category.confident, Math.pow(10, 6 * random.nextDouble() - 4));
+            qcDistributions.add(QCDistributions.Metric.psm_precursor_charge, QCDistributions.Category.confident, 1 + random.nextInt(4));
+        }
+        qcDistributions.finish();
+
+        QCDistributions.Histogram massErrors = qcDistributions.getHistogram(QCDistributions.Metric.psm_precursor_mass_error, QCDistributions.Category.confident);
+        Assert.assertTrue(massErrors.size() <= 2 * QCDistributions.MASS_ERROR_STEPS + 1);
+        Assert.assertEquals(nValues, getTotal(massErrors));
+
+        QCDistributions.Histogram coverage = qcDistributions.getHistogram(QCDistributions.Metric.protein_sequence_coverage, QCDistributions.Category.confident);
+        Assert.assertTrue(coverage.size() <= 10001);
+        Assert.assertEquals(nValues, getTotal(coverage));
+
+        QCDistributions.Histogram spectrumCounting = qcDistributions.getHistogram(QCDistributions.Metric.protein_spectrum_counting, QCDistributions.Category.confident);
+        Assert.assertTrue(spectrumCounting.size() < 6 * 9000 + 1);
+        Assert.assertEquals(nValues, getTotal(spectrumCounting));
+        for (int i = 0; i < spectrumCounting.size(); i++) {
+            double value = spectrumCounting.getValue(i);
+            if (value >= 1) {
+                Assert.assertEquals(Math.rint(value * 1000) / 1000, value, 1e-9);
+            }
+        }
+
+        QCDistributions.Histogram charges = qcDistributions.getHistogram(QCDistributions.Metric.psm_precursor_charge, QCDistributions.Category.confident);
+        Assert.assertEquals(4, charges.size());
+        Assert.assertEquals(1.0, charges.getValue(0), 0.0);
+        Assert.assertEquals(4.0, charges.getMaxValue(), 0.0);
+        Assert.assertEquals(nValues, getTotal(charges));
+
+        QCDistributions.Histogram empty = qcDistributions.getHistogram(QCDistributions.Metric.peptide_length, QCDistributions.Category.confident);
+        Assert.assertEquals(0, empty.size());
+    }
+
+    /**
+     * Tests adding values to a finished histogram.
+     */
+    public void testAddAfterFinish() {
+
+        QCDistributions.Histogram histogram = new QCDistributions.Histogram();
+        histogram.add(2.0);
+        histogram.add(1.0);
+        histogram.add(2.0);
+        histogram.finish();
+
+        Assert.assertEquals(2, histogram.size());
+        Assert.assertEquals(1, histogram.getCount(0));
+        Assert.assertEquals(2, histogram.getCount(1));
+
+        histogram.add(3.0);
+        histogram.add(1.0);
+        histogram.finish();
+
+        Assert.assertEquals(3, histogram.size());
+        Assert.assertEquals(1.0, histogram.getValue(0), 0.0);
+        Assert.assertEquals(2, histogram.getCount(0));
+        Assert.assertEquals(2, histogram.getCount(1));
+        Assert.assertEquals(1, histogram.getCount(2));
+        Assert.assertEquals(3.0, histogram.getMaxValue(), 0.0);
+    }
+
+    /**
+     * Returns the total number of occurrences of a histogram.
+     *
+     * @param histogram the histogram
+     *
+     * @return the total number of occurrences
+     */
+    private int getTotal(QCDistributions.Histogram histogram) {
+        int total = 0;
+        for (int i = 0; i < histogram.size(); i++) {
+            total += histogram.getCount(i);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,121 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the substring index.
+ *
+ * @author Marc Vaudel
+ */
+public class SubstringIndexTest extends TestCase {
+
+    /**
+     * Returns an index of a few proteins.
+     *
+     * @return an index of a few proteins
+     */
+    private SubstringIndex getIndex() {
+        SubstringIndex substringIndex = new SubstringIndex();
+        substringIndex.add("P1", "P02768", "Serum albumin", "ALB");
+        substringIndex.add("P2", "P68871", "Hemoglobin subunit beta", "HBB");
+        substringIndex.add("P3", "Q9Y6K9", null, "IKBKG");
+        substringIndex.add("P4", "P69905", "Hemoglobin subunit alpha", "HBA1");
+        substringIndex.finish();
+        return substringIndex;
+    }
+
+    /**
+     * Tests queries of at least three characters.
+     */
+    public void testSearch() {
+
+        SubstringIndex substringIndex = getIndex();
+        Assert.assertEquals(4, substringIndex.size());
+        Assert.assertTrue(substringIndex.isFinished());
+
+        assertResult(substringIndex.search("hemoglobin"), "P2", "P4");
+        assertResult(substringIndex.search("SUBUNIT ALPHA"), "P4");
+        assertResult(substringIndex.search("P0276"), "P1");
+        assertResult(substringIndex.search("ikbkg"), "P3");
+        assertResult(substringIndex.search("hba1"), "P4");
+        assertResult(substringIndex.search("insulin"));
+        assertResult(substringIndex.search("albuminx"));
+    }
+
+    /**
+     * Tests queries shorter than the indexed substrings.
+     */
+    public void testShortQueries() {
+
+        SubstringIndex substringIndex = getIndex();
+
+        assertResult(substringIndex.search("hb"), "P2", "P4");
+        assertResult(substringIndex.search("P"), "P1", "P2", "P4");
+        assertResult(substringIndex.search("9"), "P3", "P4");
+        assertResult(substringIndex.search("zz"));
+        assertResult(substringIndex.search(""), "P1", "P2", "P3", "P4");
+    }
+
+    /**
+     * Tests that queries do not match across fields.
+     */
+    public void testFieldSeparator() {
+
+        SubstringIndex substringIndex = getIndex();
+
+        // "ALB" follows "albumin": "nal" and "na" only exist across the fields
+        assertResult(substringIndex.search("nalb"));
+        assertResult(substringIndex.search("nal"));
+        assertResult(substringIndex.search("na"));
+        assertResult(substringIndex.search("minalb"));
+        assertResult(substringIndex.search("albumin"), "P1");
+        assertResult(substringIndex.search("albuminalb"));
+
+        // null fields are skipped without separator
+        assertResult(substringIndex.search("k9i"));
+        assertResult(substringIndex.search("9i"));
+    }
+
+    /**
+     * Tests that the index cannot be searched before finishing and not
+     * edited after.
+     */
+    public void testFinish() {
+
+        SubstringIndex substringIndex = new SubstringIndex();
+        substringIndex.add("P1", "P02768");
+
+        try {
+            substringIndex.search("P02");
+            Assert.fail("No exception thrown when searching an unfinished index.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        substringIndex.finish();
+
+        try {
+            substringIndex.add("P2", "P68871");
+            Assert.fail("No exception thrown when adding to a finished index.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertResult(substringIndex.search("P02"), "P1");
+    }
+
+    /**
+     * Checks the keys returned by a search.
+     *
+     * @param result the keys returned by the search
+     * @param expected the expected keys in order
+     */
+    private void assertResult(ArrayList<String> result, String... expected) {
+        Assert.assertEquals(expected.length, result.size());
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], result.get(i));
+        }
+    }
+}
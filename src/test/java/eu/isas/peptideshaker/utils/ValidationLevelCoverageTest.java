@@ -0,0 +1,125 @@
+package eu.isas.peptideshaker.utils;
+
+import eu.isas.peptideshaker.scoring.MatchValidationLevel;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the coverage of protein sequences by validation level.
+ *
+ * @author Marc Vaudel
+ */
+public class ValidationLevelCoverageTest extends TestCase {
+
+    /**
+     * Tests peptides starting, ending and crossing the word boundaries of
+     * the bitsets at 64 and 128.
+     */
+    public void testWordBoundaries() {
+
+        int length = 200;
+        int[][] peptides = {
+            {MatchValidationLevel.confident.getIndex(), 60, 70},
+            {MatchValidationLevel.doubtful.getIndex(), 120, 135},
+            {MatchValidationLevel.not_validated.getIndex(), 0, 64},
+            {MatchValidationLevel.not_validated.getIndex(), 64, 128},
+            {MatchValidationLevel.doubtful.getIndex(), 63, 65},
+            {MatchValidationLevel.confident.getIndex(), 127, 129},
+            {MatchValidationLevel.confident.getIndex(), 10, 150},
+            {MatchValidationLevel.doubtful.getIndex(), 190, 250}
+        };
+
+        for (int i = 1; i <= peptides.length; i++) {
+            int[][] subset = new int[i][];
+            System.arraycopy(peptides, 0, subset, 0, i);
+            check(length, subset);
+        }
+    }
+
+    /**
+     * Tests sequences of lengths around the word boundaries.
+     */
+    public void testLengths() {
+        for (int length = 1; length <= 130; length++) {
+            check(length, new int[][]{{MatchValidationLevel.doubtful.getIndex(), 0, length}});
+            check(length, new int[][]{{MatchValidationLevel.confident.getIndex(), length - 1, length + 5}});
+            check(length, new int[][]{});
+        }
+    }
+
+    /**
+     * Tests random peptides against a simple per amino acid computation.
+     */
+    public void testRandom() {
+
+        Random random = new Random(42);
+        MatchValidationLevel[] levels = MatchValidationLevel.values();
+
+        for (int test = 0; test < 200; test++) {
+            int length = 1 + random.nextInt(300);
+            int[][] peptides = new int[random.nextInt(20)][];
+            for (int i = 0; i < peptides.length; i++) {
+                int start = random.nextInt(length);
+                int end = start + 1 + random.nextInt(70);
+                peptides[i] = new int[]{levels[random.nextInt(levels.length)].getIndex(), start, end};
+            }
+            check(length, peptides);
+        }
+    }
+
+    /**
+     * Compares the coverage of the given peptides to a simple per amino acid
+     * computation.
+     *
+     * @param length the length of the protein sequence
+     * @param peptides the peptides as validation level, start and end
+     */
+    private void check(int length, int[][] peptides) {
+
+        ValidationLevelCoverage validationLevelCoverage = new ValidationLevelCoverage(length);
+        int[] expected = new int[length];
+        boolean[] validated = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            expected[i] = MatchValidationLevel.none.getIndex();
+        }
+
+        for (int[] peptide : peptides) {
+            validationLevelCoverage.addPeptide(peptide[0], peptide[1], peptide[2]);
+            for (int i = peptide[1]; i < Math.min(peptide[2], length); i++) {
+                expected[i] = Math.max(expected[i], peptide[0]);
+                if (peptide[0] == MatchValidationLevel.doubtful.getIndex() || peptide[0] == MatchValidationLevel.confident.getIndex()) {
+                    validated[i] = true;
+                }
+            }
+        }
+
+        int[] aaCoverage = validationLevelCoverage.getAACoverage();
+        Assert.assertEquals(length, aaCoverage.length);
+        for (int i = 0; i < length; i++) {
+            Assert.assertEquals("Amino acid " + i, expected[i], aaCoverage[i]);
+        }
+
+        double[] sequenceCoverage = validationLevelCoverage.getSequenceCoverage();
+        double total = 0;
+        for (MatchValidationLevel level : MatchValidationLevel.values()) {
+            int count = 0;
+            for (int i = 0; i < length; i++) {
+                if (expected[i] == level.getIndex()) {
+                    count++;
+                }
+            }
+            Assert.assertEquals(level.getName(), ((double) count) / length, sequenceCoverage[level.getIndex() + 1], 1e-10);
+            total += sequenceCoverage[level.getIndex() + 1];
+        }
+        Assert.assertEquals(1.0, total, 1e-10);
+
+        int nValidated = 0;
+        for (boolean aaValidated : validated) {
+            if (aaValidated) {
+                nValidated++;
+            }
+        }
+        Assert.assertEquals(((double) nValidated) / length, validationLevelCoverage.getValidatedSequenceCoverage(), 1e-10);
+    }
+}